@@ -27,6 +27,9 @@ public class CursorActivity extends AbstractTestingView
 	static final private int RIGHT_COLOR = Color.GREEN;
 	static final private int WRONG_COLOR = Color.BLACK;
 	
+	// set to run the cursor tests with the cursor following the hand instead of stepping with gestures
+	static final private boolean ANALOG_CURSOR = false;
+	
 	public class CursorResult {
 		private long mTimeLength;
 		private int mNumberOfMoves;
@@ -76,6 +79,7 @@ public class CursorActivity extends AbstractTestingView
 		super(activity);
 		mCursor = new GestureCursorController(activity);
 		mCursor.setDisableInjection(true);
+		mCursor.enableAnalogMode(ANALOG_CURSOR);
 		mGestureSensor = gestureSensor;
 		mClickSensor = clickSensor;
 		
@@ -135,6 +139,7 @@ public class CursorActivity extends AbstractTestingView
 	public void startView() {
 		super.startView();
 		mGestureSensor.addGestureListener(mCursor);
+		mGestureSensor.addMotionListener(mCursor);
 		mClickSensor.addClickListener(mCursor);
 		mCursor.attachToActivity(mActivity);
 		
@@ -151,6 +156,7 @@ public class CursorActivity extends AbstractTestingView
 		mCursorHistory.clear();
 		mCursor.removeFromParent();
 		mGestureSensor.removeGestureListener(mCursor);
+		mGestureSensor.removeMotionListener(mCursor);
 		mClickSensor.removeClickListener(mCursor);
 		mCursor.stop();
 	}
@@ -241,6 +247,7 @@ public class CursorActivity extends AbstractTestingView
 			PrintWriter writer = new PrintWriter(fos);
 			writer.println("Right: " + mRightScore);
 			writer.println("Wrong: " + mWrongScore);
+			writer.println("Cursor: " + (ANALOG_CURSOR ? "analog" : "gesture"));
 			writer.println();
 			writer.println("Length (in milliseconds)\tNumber of Moves\tNumber of Misses");
 			
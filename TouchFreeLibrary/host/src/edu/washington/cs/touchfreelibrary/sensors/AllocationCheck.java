@@ -0,0 +1,119 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * <p>Checks that the motion engines allocate nothing on the Java heap once they are warmed up, as
+ * {@link MotionEngine} asks of them. Each engine is run over a loop of synthetic frames with every output of
+ * {@link MotionDetectionReturnValue} attached in turn, and the bytes the calling thread allocated while it did
+ * so are read from the JVM's per-thread allocation counter before and after.</p>
+ *
+ * <p>{@link NativeMotionEngine} is checked through its JNI entry point on byte array frames, on a single thread
+ * and on worker threads; the <code>Mat</code> entry point needs OpenCV's own native library, which is not built
+ * for the host. {@link JavaMotionEngine} and {@link ProjectionMotionEngine} over both are checked as well.</p>
+ *
+ * <p>Exits with status 1 if any engine allocated.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class AllocationCheck {
+	private static final int WIDTH = 320;
+	private static final int HEIGHT = 240;
+
+	// the frames are generated up front and gone over again and again
+	private static final int FRAME_COUNT = 32;
+
+	// frames run before the count starts, so the JIT and the engines' buffers have settled
+	private static final int WARM_UP_FRAMES = 5000;
+	private static final int MEASURED_FRAMES = 1000;
+
+	private final com.sun.management.ThreadMXBean mThreads =
+			(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+	private final long mThreadId = Thread.currentThread().getId();
+
+	private GreyFrame[] mFrames;
+	private int mFailures;
+
+	/**
+	 * Runs the check.
+	 * @param args unused
+	 */
+	public static void main(String[] args) {
+		System.loadLibrary("touch_free_library");
+		AllocationCheck check = new AllocationCheck();
+		check.run();
+		System.exit(check.mFailures == 0 ? 0 : 1);
+	}
+
+	private AllocationCheck() {
+		SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT);
+		source.setNoise(4.0);
+		source.setDistractorCount(2);
+		source.setIlluminationChange(20, 16);
+		source.open(1);
+		mFrames = new GreyFrame[FRAME_COUNT];
+		for(int f = 0; f < FRAME_COUNT; f++) {
+			mFrames[f] = new GreyFrame(new byte[WIDTH * HEIGHT], WIDTH, HEIGHT);
+			source.read(mFrames[f]);
+		}
+		source.close();
+	}
+
+	private void run() {
+		NativeMotionEngine threaded = new NativeMotionEngine();
+		threaded.setThreadCount(3);
+
+		check("NativeMotionEngine", new NativeMotionEngine());
+		check("NativeMotionEngine, 3 threads", threaded);
+		check("JavaMotionEngine", new JavaMotionEngine());
+		check("ProjectionMotionEngine, native", new ProjectionMotionEngine(new NativeMotionEngine()));
+		check("ProjectionMotionEngine, Java", new ProjectionMotionEngine(new JavaMotionEngine()));
+	}
+
+	// runs an engine with no outputs attached, then with each of them
+	private void check(String name, MotionEngine engine) {
+		MotionDetectionReturnValue result = new MotionDetectionReturnValue();
+		check(name + ", plain", engine, result);
+
+		result.lumaHistogram = new int[MotionDetectionReturnValue.LUMA_HISTOGRAM_BINS];
+		result.noiseHistogram = new int[MotionDetectionReturnValue.NOISE_HISTOGRAM_BINS];
+		result.noiseRow = HEIGHT / 2;
+		result.compensateIllumination = true;
+		check(name + ", histograms and compensation", engine, result);
+
+		result.grid = new MotionGrid(WIDTH, HEIGHT);
+		check(name + ", grid", engine, result);
+
+		result.grid = null;
+		result.projection = new MotionProjection(WIDTH, HEIGHT);
+		check(name + ", projection", engine, result);
+	}
+
+	private void check(String name, MotionEngine engine, MotionDetectionReturnValue result) {
+		run(engine, result, WARM_UP_FRAMES);
+
+		// whatever reading the counter costs itself is taken off
+		long overhead = allocatedBytes();
+		overhead = allocatedBytes() - overhead;
+
+		long before = allocatedBytes();
+		run(engine, result, MEASURED_FRAMES);
+		long allocated = allocatedBytes() - before - overhead;
+
+		System.out.printf("%-60s %8d bytes over %d frames\n", name, allocated, MEASURED_FRAMES);
+		if(allocated > 0)
+			mFailures++;
+	}
+
+	private void run(MotionEngine engine, MotionDetectionReturnValue result, int frames) {
+		for(int i = 1; i <= frames; i++) {
+			GreyFrame current = mFrames[i % FRAME_COUNT];
+			GreyFrame previous = mFrames[(i - 1) % FRAME_COUNT];
+			engine.detect(current, previous, 1, 0, 0, WIDTH, HEIGHT, result);
+		}
+	}
+
+	private long allocatedBytes() {
+		return mThreads.getThreadAllocatedBytes(mThreadId);
+	}
+}
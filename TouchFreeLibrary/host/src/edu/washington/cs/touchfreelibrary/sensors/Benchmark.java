@@ -0,0 +1,108 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.List;
+
+import edu.washington.cs.touchfreelibrary.sensors.GestureClassifier.Direction;
+
+/**
+ * <p>What the host benchmarks have in common. Each one is configured through setters, then {@link #run()}
+ * measures and returns one result per line of the report, and {@link #report()} formats them under a line
+ * describing what was run. {@link BenchmarkMain} runs the scenarios they were written for.</p>
+ *
+ * <p>Gestures are scored against a reference, another engine's gestures or a {@link SyntheticFrameSource}'s
+ * labels, with {@link #agreement(Direction[], Direction[])}.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public abstract class Benchmark {
+	/** A gesture counts as matched when it ends this many frames or fewer away from the reference's. */
+	public static final int GESTURE_FRAME_TOLERANCE = 2;
+
+	/**
+	 * Runs the benchmark.
+	 * @return one result per line of the report, formatted by its <code>toString()</code>
+	 */
+	public abstract List<?> run();
+
+	/**
+	 * Describes what the benchmark runs, for the first line of the report.
+	 * @return the description
+	 */
+	protected abstract String describe();
+
+	/**
+	 * Runs the benchmark and formats the results, one per line.
+	 * @return the report
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(describe()).append('\n');
+		for(Object result : run())
+			sb.append(result).append('\n');
+		return sb.toString();
+	}
+
+	/**
+	 * Describes a recorded sequence and the engine run over it.
+	 * @param frames the frames, all the same size
+	 * @param engine the engine
+	 * @return the number and size of the frames and the engine's class
+	 */
+	protected static String describe(GreyFrame[] frames, MotionEngine engine) {
+		return String.format("%d frames of %dx%d, %s", frames.length, frames[0].getWidth(), frames[0].getHeight(),
+				engine.getClass().getSimpleName());
+	}
+
+	/**
+	 * Scores gestures against a reference: twice the number of reference gestures matched in direction within
+	 * {@link #GESTURE_FRAME_TOLERANCE} frames, over the total number of gestures in both. Each reference gesture
+	 * is paired greedily with the nearest unmatched gesture of the same direction. 1 is perfect agreement; two
+	 * sequences with no gestures also agree.
+	 * @param reference the gesture each frame ended, or {@link Direction#None}
+	 * @param gestures the gestures to score, one per frame likewise
+	 * @return the agreement, from 0 to 1
+	 */
+	public static double agreement(Direction[] reference, Direction[] gestures) {
+		int total = countGestures(reference) + countGestures(gestures);
+		if(total == 0)
+			return 1.0;
+
+		boolean[] used = new boolean[gestures.length];
+		int matched = 0;
+
+		for(int f = 0; f < reference.length; f++) {
+			if(reference[f] == Direction.None)
+				continue;
+
+			for(int d = 0; d <= GESTURE_FRAME_TOLERANCE; d++) {
+				if(matches(reference[f], gestures, used, f - d) || matches(reference[f], gestures, used, f + d)) {
+					matched++;
+					break;
+				}
+			}
+		}
+
+		return 2.0 * matched / total;
+	}
+
+	/**
+	 * Counts the gestures in a sequence.
+	 * @param gestures the gesture each frame ended, or {@link Direction#None}
+	 * @return the number of frames that ended one
+	 */
+	public static int countGestures(Direction[] gestures) {
+		int count = 0;
+		for(Direction d : gestures) {
+			if(d != Direction.None)
+				count++;
+		}
+		return count;
+	}
+
+	private static boolean matches(Direction direction, Direction[] gestures, boolean[] used, int f) {
+		if(f < 0 || f >= gestures.length || used[f] || gestures[f] != direction)
+			return false;
+		used[f] = true;
+		return true;
+	}
+}
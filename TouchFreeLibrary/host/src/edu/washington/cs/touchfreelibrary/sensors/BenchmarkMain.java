@@ -0,0 +1,192 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.washington.cs.touchfreelibrary.sensors.GestureClassifier.Direction;
+
+/**
+ * <p>Runs the host benchmarks over the scenarios they were written for, so their numbers can be measured
+ * again. Each scenario is named on the command line; with none, all of them run in order:</p>
+ *
+ * <ul>
+ * <li><code>engines</code>: every engine over the same synthetic recording, timed and compared with
+ * {@link JavaMotionEngine}'s gestures, see {@link MotionEngineBenchmark}.</li>
+ * <li><code>synthetic</code>: the Java and native engines over the default sweep of sizes, noise and
+ * speeds, then with distractors and changing light, see {@link SyntheticBenchmark}.</li>
+ * <li><code>projection</code>: {@link ProjectionMotionEngine} against the native engine it wraps, with
+ * and without distractors.</li>
+ * <li><code>trajectory</code>: {@link TrajectoryBenchmark} at 4% and 8% jitter.</li>
+ * <li><code>early</code>: {@link EarlyFiringBenchmark} on synthetic recordings.</li>
+ * <li><code>illumination</code>: {@link IlluminationBenchmark} on gestures under flickering light and on
+ * the static room of {@link BenchmarkScenes} under lights switching, flicker and a lamp.</li>
+ * </ul>
+ *
+ * <p>The native library is loaded from <code>java.library.path</code>; <code>make benchmark</code> in the
+ * <code>host</code> directory builds it with the vector kernels for the host's CPU. Every scenario is
+ * deterministic apart from the timings.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class BenchmarkMain {
+	private static final String[] SCENARIOS = { "engines", "synthetic", "projection", "trajectory", "early",
+			"illumination" };
+
+	// the recorded sequences run at 30 frames per second, so these are half a minute and a minute long
+	private static final int HALF_MINUTE = 900;
+	private static final int MINUTE = 1800;
+
+	/**
+	 * Runs the scenarios.
+	 * @param args the names of the scenarios to run, or none for all of them
+	 */
+	public static void main(String[] args) {
+		List<String> names = Arrays.asList((args.length > 0) ? args : SCENARIOS);
+		for(String name : names) {
+			if(!Arrays.asList(SCENARIOS).contains(name)) {
+				System.err.println("unknown scenario " + name + ", expected one of " + Arrays.toString(SCENARIOS));
+				System.exit(1);
+			}
+		}
+
+		System.loadLibrary("touch_free_library");
+		for(String name : names) {
+			System.out.println("== " + name);
+			if(name.equals("engines"))
+				engines();
+			else if(name.equals("synthetic"))
+				synthetic();
+			else if(name.equals("projection"))
+				projection();
+			else if(name.equals("trajectory"))
+				trajectory();
+			else if(name.equals("early"))
+				early();
+			else if(name.equals("illumination"))
+				illumination();
+			System.out.println();
+		}
+	}
+
+	private static void engines() {
+		SyntheticFrameSource source = new SyntheticFrameSource(320, 240);
+		source.setNoise(4.0);
+		source.setDistractorCount(2);
+
+		NativeMotionEngine threaded = new NativeMotionEngine();
+		threaded.setThreadCount(3);
+
+		MotionEngineBenchmark benchmark = new MotionEngineBenchmark(BenchmarkScenes.record(source, HALF_MINUTE));
+		benchmark.setRepetitions(5);
+		benchmark.addEngine("Java", new JavaMotionEngine());
+		benchmark.addEngine("native", new NativeMotionEngine());
+		benchmark.addEngine("native, 3 threads", threaded);
+		benchmark.addEngine("projection", new ProjectionMotionEngine(new NativeMotionEngine()));
+		System.out.print(benchmark.report());
+	}
+
+	private static void synthetic() {
+		System.out.print(new SyntheticBenchmark(new JavaMotionEngine()).report());
+		System.out.print(new SyntheticBenchmark(new NativeMotionEngine()).report());
+
+		SyntheticBenchmark busy = new SyntheticBenchmark(new JavaMotionEngine());
+		busy.setDistractorCount(2);
+		busy.setIlluminationChange(30, 90);
+		System.out.print(busy.report());
+	}
+
+	private static void projection() {
+		int[][] resolution = { { 320, 240 } };
+		double[][] noiseLevels = { { 0.0, 4.0, 8.0 }, { 6.0, 8.0 }, { 10.0 } };
+		double[][] speeds = { { 0.2, 0.3 }, { 0.15, 0.2, 0.3 }, { 0.2 } };
+		int[] distractors = { 0, 4, 0 };
+
+		for(int i = 0; i < distractors.length; i++) {
+			MotionEngine[] engines = { new NativeMotionEngine(), new ProjectionMotionEngine(new NativeMotionEngine()) };
+			for(MotionEngine engine : engines) {
+				SyntheticBenchmark benchmark = new SyntheticBenchmark(engine);
+				benchmark.setResolutions(resolution);
+				benchmark.setNoiseLevels(noiseLevels[i]);
+				benchmark.setSpeeds(speeds[i]);
+				benchmark.setDistractorCount(distractors[i]);
+				benchmark.setFrameCount(HALF_MINUTE);
+				System.out.print(benchmark.report());
+			}
+		}
+	}
+
+	private static void trajectory() {
+		TrajectoryBenchmark benchmark = new TrajectoryBenchmark();
+		System.out.print(benchmark.report());
+		benchmark.setJitter(0.08);
+		System.out.print(benchmark.report());
+	}
+
+	private static void early() {
+		double[] speeds = { 0.2, 0.1, 0.1 };
+		double[] blobSizes = { 0.5, 0.7, 0.7 };
+		int[] distractors = { 3, 0, 3 };
+
+		for(int i = 0; i < speeds.length; i++) {
+			SyntheticFrameSource source = new SyntheticFrameSource(320, 240);
+			source.setNoise(4.0);
+			source.setSpeed(speeds[i]);
+			source.setBlobSize(blobSizes[i]);
+			source.setDistractorCount(distractors[i]);
+			System.out.printf("speed %.1f, blob %.1f, %d distractors: ", speeds[i], blobSizes[i], distractors[i]);
+			System.out.print(new EarlyFiringBenchmark(BenchmarkScenes.record(source, HALF_MINUTE),
+					new JavaMotionEngine()).report());
+		}
+	}
+
+	private static void illumination() {
+		int[][] flicker = { { 40, 12 }, { 60, 10 } };
+		for(int[] change : flicker) {
+			SyntheticFrameSource source = new SyntheticFrameSource(320, 240);
+			source.setNoise(3.0);
+			source.setIlluminationChange(change[0], change[1]);
+			Direction[] labels = source.getLabels(MINUTE);
+
+			IlluminationBenchmark benchmark = new IlluminationBenchmark(BenchmarkScenes.record(source, MINUTE),
+					new NativeMotionEngine());
+			benchmark.setLabels(labels);
+			System.out.printf("gestures under an offset of +/-%d over %d frames, %d labelled: ", change[0], change[1],
+					Benchmark.countGestures(labels));
+			System.out.print(benchmark.report());
+		}
+
+		room("static room, a light switched on every 2 s and auto exposure settling", new BenchmarkScenes.Lighting() {
+			public double gain(int frame, int x) {
+				return ((frame / 60) % 2 == 0) ? 1.0 : 1.1 + 0.5 * Math.pow(0.7, frame % 60);
+			}
+
+			public double offset(int frame, int x) {
+				return 0.0;
+			}
+		});
+		room("static room, flicker of +/-12 over 10 frames", new BenchmarkScenes.Lighting() {
+			public double gain(int frame, int x) {
+				return 1.0;
+			}
+
+			public double offset(int frame, int x) {
+				return 12.0 * Math.sin(2.0 * Math.PI * frame / 10.0);
+			}
+		});
+		room("static room, a lamp adding 50 to the left half every 2 s", new BenchmarkScenes.Lighting() {
+			public double gain(int frame, int x) {
+				return 1.0;
+			}
+
+			public double offset(int frame, int x) {
+				return ((frame / 60) % 2 == 1 && x < BenchmarkScenes.ROOM_WIDTH / 2) ? 50.0 : 0.0;
+			}
+		});
+	}
+
+	private static void room(String name, BenchmarkScenes.Lighting lighting) {
+		System.out.print(name + ": ");
+		System.out.print(new IlluminationBenchmark(BenchmarkScenes.room(MINUTE, lighting),
+				new NativeMotionEngine()).report());
+	}
+}
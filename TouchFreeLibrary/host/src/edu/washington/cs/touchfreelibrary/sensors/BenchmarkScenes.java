@@ -0,0 +1,92 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.Random;
+
+/**
+ * <p>The recorded sequences {@link BenchmarkMain} runs the benchmarks over, the same every run. Gestures come
+ * from a {@link SyntheticFrameSource}, generated up front as if they had been recorded and read back with
+ * {@link FrameReplay#readAll()}. For lighting, a static room is lit by a {@link Lighting} that changes from
+ * frame to frame with nothing moving in it, so every gesture found in it is a false one.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+class BenchmarkScenes {
+	/**
+	 * How the room is lit on each frame: every pixel is its grey level in the room times the gain, plus the
+	 * offset, plus noise.
+	 */
+	interface Lighting {
+		double gain(int frame, int x);
+		double offset(int frame, int x);
+	}
+
+	/** The size of the room's frames. */
+	static final int ROOM_WIDTH = 320;
+	static final int ROOM_HEIGHT = 240;
+
+	private static final double ROOM_FRAME_RATE = 30.0;
+	private static final double ROOM_NOISE = 3.0;
+	private static final int ROOM_OBJECTS = 12;
+
+	private BenchmarkScenes() {
+	}
+
+	/**
+	 * Generates a sequence from a synthetic source as it is set up.
+	 * @param source the source, not yet opened
+	 * @param frames the number of frames
+	 * @return the frames, each with its own data
+	 */
+	static GreyFrame[] record(SyntheticFrameSource source, int frames) {
+		int width = source.getWidth();
+		int height = source.getHeight();
+		source.open(1);
+		GreyFrame[] sequence = new GreyFrame[frames];
+		for(int f = 0; f < frames; f++) {
+			sequence[f] = new GreyFrame(new byte[width * height], width, height);
+			source.read(sequence[f]);
+		}
+		source.close();
+		return sequence;
+	}
+
+	/**
+	 * Generates the static room under changing light: a gradient with a dozen flat objects in it.
+	 * @param frames the number of frames
+	 * @param lighting how the room is lit on each frame
+	 * @return the frames, timestamped at 30 frames per second
+	 */
+	static GreyFrame[] room(int frames, Lighting lighting) {
+		int[] room = new int[ROOM_WIDTH * ROOM_HEIGHT];
+		Random random = new Random(3);
+		for(int y = 0; y < ROOM_HEIGHT; y++) {
+			for(int x = 0; x < ROOM_WIDTH; x++)
+				room[y * ROOM_WIDTH + x] = 50 + x / 6 + y / 8;
+		}
+		for(int k = 0; k < ROOM_OBJECTS; k++) {
+			int left = random.nextInt(ROOM_WIDTH - 40);
+			int top = random.nextInt(ROOM_HEIGHT - 40);
+			int right = Math.min(ROOM_WIDTH, left + 10 + random.nextInt(60));
+			int bottom = Math.min(ROOM_HEIGHT, top + 10 + random.nextInt(60));
+			int value = 20 + random.nextInt(200);
+			for(int y = top; y < bottom; y++) {
+				for(int x = left; x < right; x++)
+					room[y * ROOM_WIDTH + x] = value;
+			}
+		}
+
+		Random noise = new Random(5);
+		GreyFrame[] sequence = new GreyFrame[frames];
+		for(int f = 0; f < frames; f++) {
+			byte[] data = new byte[room.length];
+			for(int i = 0; i < data.length; i++) {
+				int x = i % ROOM_WIDTH;
+				double value = room[i] * lighting.gain(f, x) + lighting.offset(f, x) + noise.nextGaussian() * ROOM_NOISE;
+				data[i] = (byte)Math.max(0, Math.min(255, (int)Math.round(value)));
+			}
+			sequence[f] = new GreyFrame(data, ROOM_WIDTH, ROOM_HEIGHT);
+			sequence[f].setTimestamp((long)(f * 1e9 / ROOM_FRAME_RATE));
+		}
+		return sequence;
+	}
+}
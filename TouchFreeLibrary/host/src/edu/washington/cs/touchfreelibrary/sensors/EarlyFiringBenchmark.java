@@ -0,0 +1,138 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.washington.cs.touchfreelibrary.sensors.GestureClassifier.Direction;
+
+/**
+ * <p>Measures what early firing gains and costs on a recorded sequence of frames, such as one read with
+ * {@link FrameReplay#readAll()}. The motion is found once with a {@link MotionEngine}, then fed both to
+ * a {@link GestureClassifier} as it is by default and to one with early firing enabled, at each confidence
+ * being compared. Both see the same motion, so their gestures start and end on the same frames.</p>
+ *
+ * <p>The default classifier's gestures are the reference. For each confidence the benchmark reports how
+ * many of them fired early, how long after the gesture started each mode reported it, and how many early
+ * reports the default classifier did not agree with in direction: the false positives. Times come from
+ * the frames' timestamps. Both axes are enabled and no screen rotation is applied.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class EarlyFiringBenchmark extends Benchmark {
+	private static final double[] DEFAULT_CONFIDENCES = { 0.7, 0.8, 0.9, 0.95 };
+
+	private GreyFrame[] mFrames;
+	private MotionEngine mEngine;
+	private double[] mConfidences;
+
+	// the motion in each frame, found once and replayed to every classifier
+	private MotionDetectionReturnValue[] mMotion;
+
+	/**
+	 * Creates a benchmark over a sequence of frames, all the same size, at confidences of 0.7, 0.8, 0.9 and 0.95.
+	 * @param frames the frames, in the order they were recorded
+	 * @param engine the engine used to find the motion
+	 */
+	public EarlyFiringBenchmark(GreyFrame[] frames, MotionEngine engine) {
+		mFrames = frames;
+		mEngine = engine;
+		mConfidences = DEFAULT_CONFIDENCES;
+	}
+
+	/**
+	 * Sets the early firing confidences to compare. Ignored if empty.
+	 * @param confidences straightness thresholds; see {@link GestureClassifier#setEarlyFiringConfidence(double)}
+	 */
+	public void setConfidences(double... confidences) {
+		if(confidences != null && confidences.length > 0)
+			mConfidences = confidences.clone();
+	}
+
+	/**
+	 * Runs the default classifier and the early firing one at every confidence.
+	 * @return one line per confidence
+	 */
+	@Override
+	public List<String> run() {
+		findMotion();
+
+		List<String> lines = new ArrayList<String>();
+		for(double confidence : mConfidences)
+			lines.add(compare(confidence));
+		return lines;
+	}
+
+	@Override
+	protected String describe() {
+		return describe(mFrames, mEngine);
+	}
+
+	private void findMotion() {
+		if(mMotion != null)
+			return;
+
+		int width = mFrames[0].getWidth();
+		int height = mFrames[0].getHeight();
+		mMotion = new MotionDetectionReturnValue[mFrames.length];
+		mMotion[0] = new MotionDetectionReturnValue();
+		for(int f = 1; f < mFrames.length; f++) {
+			mMotion[f] = new MotionDetectionReturnValue();
+			mEngine.detect(mFrames[f], mFrames[f - 1], 1, 0, 0, width, height, mMotion[f]);
+		}
+	}
+
+	// runs both classifiers side by side and compares them gesture by gesture
+	private String compare(double confidence) {
+		int width = mFrames[0].getWidth();
+		int height = mFrames[0].getHeight();
+		GestureClassifier reference = new GestureClassifier(width, height);
+		GestureClassifier early = new GestureClassifier(width, height);
+		early.enableEarlyFiring(true);
+		early.setEarlyFiringConfidence(confidence);
+
+		int gestures = 0;
+		int firedEarly = 0;
+		int falsePositives = 0;
+		long referenceDelay = 0;
+		long earlyDelay = 0;
+
+		// what the early classifier reported during the gesture in progress, and when
+		Direction earlyDirection = Direction.None;
+		long earlyTime = 0;
+
+		for(int f = 1; f < mFrames.length; f++) {
+			long time = mFrames[f].getTimestamp();
+			Direction d = reference.update(mMotion[f], time, true, true);
+			Direction e = early.update(mMotion[f], time, true, true);
+
+			if(e != Direction.None && earlyDirection == Direction.None) {
+				earlyDirection = e;
+				earlyTime = time;
+			}
+
+			// a gesture has ended once the reference has stopped following it
+			if(reference.isGestureStarted())
+				continue;
+
+			if(earlyDirection != Direction.None) {
+				if(early.hasFiredEarly() && earlyDirection != d)
+					falsePositives++;
+				else if(early.hasFiredEarly())
+					firedEarly++;
+			}
+			if(d != Direction.None) {
+				long start = reference.getGestureStartTime();
+				gestures++;
+				referenceDelay += time - start;
+				earlyDelay += ((earlyDirection == d) ? earlyTime : time) - start;
+			}
+			earlyDirection = Direction.None;
+		}
+
+		return String.format("confidence %.2f: %d/%d gestures fired early, reported %.0f ms after starting"
+				+ " instead of %.0f ms, %d false positives (%.1f%% of early reports)",
+				confidence, firedEarly, gestures, earlyDelay / 1e6 / Math.max(gestures, 1),
+				referenceDelay / 1e6 / Math.max(gestures, 1), falsePositives,
+				100.0 * falsePositives / Math.max(firedEarly + falsePositives, 1));
+	}
+}
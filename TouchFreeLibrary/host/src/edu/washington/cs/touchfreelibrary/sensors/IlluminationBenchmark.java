@@ -0,0 +1,113 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.washington.cs.touchfreelibrary.sensors.GestureClassifier.Direction;
+
+/**
+ * <p>Measures what illumination compensation does to the gestures found in a recorded sequence of
+ * frames, such as one read with {@link FrameReplay#readAll()}. The sequence is run through a
+ * {@link MotionEngine} and a {@link GestureClassifier} twice, as {@link CameraGestureSensor} would: once as
+ * it is by default, and once with {@link CameraGestureSensor#enableIlluminationCompensation(boolean)},
+ * skipping the frames flagged as illumination changes.</p>
+ *
+ * <p>For each run the benchmark reports the gestures found, per minute of the sequence's timestamps, the
+ * frames with enough motion to take part in a gesture, the frames skipped, and the engine's time per frame,
+ * the estimate of the change included. On a sequence recorded with
+ * nothing moving in front of the camera while the lighting changes, every gesture is a false one. On one
+ * with gestures, the two runs should find the same ones; given the gestures that were made, such as a
+ * {@link SyntheticFrameSource}'s labels, each run is also scored against them. Both axes are enabled and no
+ * screen rotation is applied.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class IlluminationBenchmark extends Benchmark {
+	private GreyFrame[] mFrames;
+	private MotionEngine mEngine;
+	private Direction[] mLabels;
+
+	/**
+	 * Creates a benchmark over a sequence of frames, all the same size.
+	 * @param frames the frames, in the order they were recorded
+	 * @param engine the engine used to find the motion
+	 */
+	public IlluminationBenchmark(GreyFrame[] frames, MotionEngine engine) {
+		mFrames = frames;
+		mEngine = engine;
+	}
+
+	/**
+	 * Sets the gestures that were made, to score each run against. Ignored unless there is one per frame.
+	 * @param labels the gesture each frame ends, or {@link Direction#None}, as
+	 * {@link SyntheticFrameSource#getLabels(int)} gives them
+	 */
+	public void setLabels(Direction[] labels) {
+		if(labels != null && labels.length == mFrames.length)
+			mLabels = labels.clone();
+	}
+
+	/**
+	 * Runs the sequence without compensation and with it.
+	 * @return one line per run
+	 */
+	@Override
+	public List<String> run() {
+		List<String> lines = new ArrayList<String>();
+		lines.add(run(false));
+		lines.add(run(true));
+		return lines;
+	}
+
+	@Override
+	protected String describe() {
+		return describe(mFrames, mEngine);
+	}
+
+	private String run(boolean compensate) {
+		int width = mFrames[0].getWidth();
+		int height = mFrames[0].getHeight();
+		GestureClassifier classifier = new GestureClassifier(width, height);
+		MotionDetectionReturnValue result = new MotionDetectionReturnValue();
+		result.compensateIllumination = compensate;
+		Direction[] found = new Direction[mFrames.length];
+		found[0] = Direction.None;
+
+		int gestures = 0;
+		int framesInMotion = 0;
+		int framesSkipped = 0;
+		long offsetTotal = 0;
+		int largestOffset = 0;
+		long detectTime = 0;
+
+		for(int f = 1; f < mFrames.length; f++) {
+			found[f] = Direction.None;
+			long start = System.nanoTime();
+			mEngine.detect(mFrames[f], mFrames[f - 1], 1, 0, 0, width, height, result);
+			detectTime += System.nanoTime() - start;
+			offsetTotal += Math.abs(result.illuminationOffset);
+			largestOffset = Math.max(largestOffset, Math.abs(result.illuminationOffset));
+
+			if(result.isIlluminationChange) {
+				framesSkipped++;
+				continue;
+			}
+			if(result.fractionOfScreenInMotion >= classifier.getMinFractionInMotion())
+				framesInMotion++;
+			found[f] = classifier.update(result, mFrames[f].getTimestamp(), true, true);
+			if(found[f] != Direction.None)
+				gestures++;
+		}
+
+		double minutes = (mFrames[mFrames.length - 1].getTimestamp() - mFrames[0].getTimestamp()) / 60e9;
+		int frames = mFrames.length - 1;
+		String line = String.format("%-15s %4d gestures (%.1f per minute), %5.1f%% of frames in motion, %4d frames"
+				+ " skipped, offset %.1f on average and %d at most, %.1f us per frame",
+				compensate ? "compensated:" : "uncompensated:", gestures, gestures / Math.max(minutes, 1e-9),
+				100.0 * framesInMotion / frames, framesSkipped, (double)offsetTotal / frames, largestOffset,
+				detectTime / 1e3 / frames);
+		if(mLabels != null)
+			line += String.format(", %.1f%% accuracy", 100.0 * agreement(mLabels, found));
+		return line;
+	}
+}
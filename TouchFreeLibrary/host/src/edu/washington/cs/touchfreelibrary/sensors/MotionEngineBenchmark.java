@@ -0,0 +1,173 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.washington.cs.touchfreelibrary.sensors.GestureClassifier.Direction;
+
+/**
+ * <p>Runs several {@link MotionEngine}s over the same sequence of recorded frames and reports how fast
+ * each one is and how well its gestures agree with the first engine added, which is treated as the
+ * reference. Engines are run one after another on the calling thread, each with a warm-up pass first.</p>
+ *
+ * <p>Gestures are found with a {@link GestureClassifier} as if the frames arrived at a steady frame rate,
+ * so the results do not depend on how fast an engine is. Both axes are enabled and no screen rotation
+ * is applied.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class MotionEngineBenchmark extends Benchmark {
+	/**
+	 * The outcome of running one engine over the frames.
+	 */
+	public static class Result {
+		/** The name the engine was added with. */
+		public final String engineName;
+
+		/** Frames processed per second, timed over the whole sequence after the warm-up pass. */
+		public final double framesPerSecond;
+
+		/** The number of gestures the engine produced. */
+		public final int gestureCount;
+
+		/**
+		 * How well the gestures match the reference engine's: twice the number of gestures matched in
+		 * direction within {@link Benchmark#GESTURE_FRAME_TOLERANCE} frames, over the total number of
+		 * gestures both produced. 1 is perfect agreement; two engines with no gestures also agree.
+		 */
+		public final double gestureAgreement;
+
+		/** The gesture each frame ended, or {@link Direction#None}; frame 0 is always None. */
+		public final Direction[] gestures;
+
+		Result(String engineName, double framesPerSecond, Direction[] gestures, double gestureAgreement) {
+			this.engineName = engineName;
+			this.framesPerSecond = framesPerSecond;
+			this.gestures = gestures;
+			this.gestureCount = countGestures(gestures);
+			this.gestureAgreement = gestureAgreement;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-20s %9.1f fps %4d gestures %6.1f%% agreement",
+					engineName, framesPerSecond, gestureCount, gestureAgreement * 100.0);
+		}
+	}
+
+	// the frames are treated as arriving this far apart when classifying gestures
+	private static final long FRAME_INTERVAL_MILLISECONDS = 33;
+
+	private GreyFrame[] mFrames;
+	private int mDecimation;
+	private int mRepetitions;
+
+	private List<String> mEngineNames;
+	private List<MotionEngine> mEngines;
+
+	/**
+	 * Creates a benchmark over a sequence of frames, all the same size.
+	 * @param frames the frames, in the order they were recorded
+	 */
+	public MotionEngineBenchmark(GreyFrame[] frames) {
+		mFrames = frames;
+		mDecimation = 1;
+		mRepetitions = 1;
+
+		mEngineNames = new ArrayList<String>();
+		mEngines = new ArrayList<MotionEngine>();
+	}
+
+	/**
+	 * Adds an engine to be benchmarked. The first engine added is the reference for gesture agreement.
+	 * @param name the name to report the engine under
+	 * @param engine the engine
+	 */
+	public void addEngine(String name, MotionEngine engine) {
+		mEngineNames.add(name);
+		mEngines.add(engine);
+	}
+
+	/**
+	 * Sets the decimation passed to every engine. Values other than 1, 2 and 4 are ignored.
+	 * @param decimation the decimation factor: 1, 2 or 4
+	 */
+	public void setDecimation(int decimation) {
+		if(decimation == 1 || decimation == 2 || decimation == 4)
+			mDecimation = decimation;
+	}
+
+	/**
+	 * Sets how many times the timed pass goes over the frames, for short recordings. Values below 1
+	 * are ignored. The default is 1.
+	 * @param repetitions the number of timed passes
+	 */
+	public void setRepetitions(int repetitions) {
+		if(repetitions >= 1)
+			mRepetitions = repetitions;
+	}
+
+	/**
+	 * Runs every engine over the frames.
+	 * @return one result per engine, in the order they were added
+	 */
+	@Override
+	public List<Result> run() {
+		List<Result> results = new ArrayList<Result>();
+		Direction[] reference = null;
+
+		for(int i = 0; i < mEngines.size(); i++) {
+			MotionEngine engine = mEngines.get(i);
+
+			// the untimed passes warm up the JIT and the engine's buffers, and find the gestures
+			Direction[] gestures = classify(engine);
+			detectAll(engine);
+
+			long start = System.nanoTime();
+			for(int r = 0; r < mRepetitions; r++)
+				detectAll(engine);
+			long elapsed = System.nanoTime() - start;
+
+			double framesPerSecond = (double)(mFrames.length - 1) * mRepetitions * 1e9 / Math.max(elapsed, 1);
+
+			if(reference == null)
+				reference = gestures;
+
+			results.add(new Result(mEngineNames.get(i), framesPerSecond, gestures, agreement(reference, gestures)));
+		}
+
+		return results;
+	}
+
+	@Override
+	protected String describe() {
+		return String.format("%d frames of %dx%d, decimation %d", mFrames.length, mFrames[0].getWidth(),
+				mFrames[0].getHeight(), mDecimation);
+	}
+
+	// runs the engine over every pair of frames and returns the gesture each frame ended
+	private Direction[] classify(MotionEngine engine) {
+		GreyFrame first = mFrames[0];
+		GestureClassifier classifier = new GestureClassifier(first.getWidth(), first.getHeight());
+		MotionDetectionReturnValue result = new MotionDetectionReturnValue();
+		Direction[] gestures = new Direction[mFrames.length];
+		gestures[0] = Direction.None;
+
+		for(int f = 1; f < mFrames.length; f++) {
+			engine.detect(mFrames[f], mFrames[f - 1], mDecimation, 0, 0, first.getWidth(), first.getHeight(), result);
+			gestures[f] = classifier.update(result, f * FRAME_INTERVAL_MILLISECONDS, true, true);
+		}
+
+		return gestures;
+	}
+
+	// the timed loop: detection only
+	private void detectAll(MotionEngine engine) {
+		int width = mFrames[0].getWidth();
+		int height = mFrames[0].getHeight();
+		MotionDetectionReturnValue result = new MotionDetectionReturnValue();
+
+		for(int f = 1; f < mFrames.length; f++)
+			engine.detect(mFrames[f], mFrames[f - 1], mDecimation, 0, 0, width, height, result);
+	}
+}
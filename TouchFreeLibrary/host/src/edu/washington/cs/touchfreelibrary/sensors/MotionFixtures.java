@@ -0,0 +1,126 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>The pairs of frames the host checks run the motion engines over, the same every run. Most are cut from
+ * a {@link SyntheticFrameSource} in the middle of a sweep, with noise, distractors or a flickering light; the
+ * rest are built by hand for the edge cases: frames too small to have anything inside the border, widths
+ * that leave a tail after every vector of pixels, differences of a full 255 grey levels, and a change in
+ * brightness large enough that the shifted previous frame saturates.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+class MotionFixtures {
+	/**
+	 * Two frames of the same size, the current one following the previous one.
+	 */
+	static class Pair {
+		final String name;
+		final GreyFrame previous;
+		final GreyFrame current;
+
+		Pair(String name, GreyFrame previous, GreyFrame current) {
+			this.name = name;
+			this.previous = previous;
+			this.current = current;
+		}
+
+		int getWidth() {
+			return current.getWidth();
+		}
+
+		int getHeight() {
+			return current.getHeight();
+		}
+	}
+
+	/** The frame sizes the pairs come in: common preview sizes, an awkward one and two tiny ones. */
+	static final int[][] SIZES = { { 320, 240 }, { 333, 197 }, { 64, 48 }, { 1280, 720 }, { 5, 5 }, { 4, 4 } };
+
+	// the pair is cut this far into the synthetic script, while the blob is sweeping
+	private static final int SWEEP_FRAME = 24;
+
+	private MotionFixtures() {
+	}
+
+	/**
+	 * Builds every pair, for every size in {@link #SIZES}.
+	 * @return the pairs, a few per size
+	 */
+	static List<Pair> create() {
+		List<Pair> pairs = new ArrayList<Pair>();
+		for(int[] size : SIZES) {
+			int width = size[0];
+			int height = size[1];
+			pairs.add(synthetic("sweep", width, height, 0.0, 0, 0));
+			pairs.add(synthetic("noisy sweep with distractors", width, height, 8.0, 3, 0));
+			pairs.add(synthetic("flickering light", width, height, 3.0, 0, 60));
+			pairs.add(saturated(width, height));
+			pairs.add(brightened(width, height));
+		}
+		return pairs;
+	}
+
+	// a pair from the middle of a synthetic sweep
+	private static Pair synthetic(String name, int width, int height, double noise, int distractors,
+			int illumination) {
+		SyntheticFrameSource source = new SyntheticFrameSource(width, height);
+		source.setNoise(noise);
+		source.setDistractorCount(distractors);
+		if(illumination > 0)
+			source.setIlluminationChange(illumination, 8);
+		source.setSeed(width * 31 + height);
+		source.open(1);
+
+		GreyFrame previous = new GreyFrame(new byte[width * height], width, height);
+		GreyFrame current = new GreyFrame(new byte[width * height], width, height);
+		for(int f = 0; f < SWEEP_FRAME; f++) {
+			GreyFrame swap = previous;
+			previous = current;
+			current = swap;
+			source.read(current);
+		}
+		source.close();
+		return new Pair(name + " " + width + "x" + height, previous, current);
+	}
+
+	// black and white pixels at random, every one of them flipped in the current frame except a band on the left
+	private static Pair saturated(int width, int height) {
+		Random random = new Random(width * 7 + height);
+		byte[] previous = new byte[width * height];
+		byte[] current = new byte[width * height];
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				int i = y * width + x;
+				int value = random.nextBoolean() ? 255 : 0;
+				previous[i] = (byte)value;
+				current[i] = (byte)((x < width / 3) ? value : 255 - value);
+			}
+		}
+		return pair("saturated " + width + "x" + height, previous, current, width, height);
+	}
+
+	// a random scene brightened by 90 grey levels, clipping at white, with a square that moved as well
+	private static Pair brightened(int width, int height) {
+		Random random = new Random(width * 13 + height);
+		byte[] previous = new byte[width * height];
+		byte[] current = new byte[width * height];
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				int i = y * width + x;
+				int value = random.nextInt(256);
+				boolean isSquare = x >= width / 2 && x < width * 3 / 4 && y >= height / 4 && y < height / 2;
+				previous[i] = (byte)value;
+				current[i] = (byte)(isSquare ? random.nextInt(256) : Math.min(255, value + 90));
+			}
+		}
+		return pair("brightened " + width + "x" + height, previous, current, width, height);
+	}
+
+	private static Pair pair(String name, byte[] previous, byte[] current, int width, int height) {
+		return new Pair(name, new GreyFrame(previous, width, height), new GreyFrame(current, width, height));
+	}
+}
@@ -0,0 +1,217 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Checks that {@link JavaMotionEngine} gives exactly the results of the native kernel. Every pair of
+ * {@link MotionFixtures} is run through both engines with every combination of decimation, scanned region,
+ * pass (plain, grid or projection), illumination compensation and pixel threshold, with the luminance and
+ * noise histograms attached, and every output is compared bit for bit: the average position, the fraction
+ * in motion, the mean grey level, the illumination offset and flag, both histograms, and the grid's cells or
+ * the projection's columns and rows.</p>
+ *
+ * <p>The native engine runs through its JNI entry point on byte array frames, once on a single thread and
+ * once split across worker threads, so the plain pass is checked both in <code>MotionSumsDetect</code> and
+ * in the worker bands. The library is whichever <code>touch_free_library</code> is on
+ * <code>java.library.path</code>; the host Makefile builds one with the vector kernels for the host's CPU
+ * and one with only <code>MotionSumsScalar</code>. Outputs are filled with junk before every pass, so an
+ * engine that leaves one untouched is caught too.</p>
+ *
+ * <p>Exits with status 1 if anything differs.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class ParityCheck {
+	private static final int[] DECIMATIONS = { 1, 2, 4 };
+	// the last two are out of range, and must be clamped alike
+	private static final int[] THRESHOLDS = { 0, JavaMotionEngine.PIXEL_THRESHOLD, 37,
+			MotionDetectionReturnValue.MAX_PIXEL_THRESHOLD, MotionDetectionReturnValue.MAX_PIXEL_THRESHOLD + 1, -1 };
+
+	// the passes each configuration is run with
+	private static final int PLAIN = 0;
+	private static final int GRID = 1;
+	private static final int PROJECTION = 2;
+
+	// the worker count of the second native engine
+	private static final int WORKER_THREADS = 3;
+
+	// mismatches past this many are counted but not printed
+	private static final int MAX_REPORTED = 20;
+
+	private final JavaMotionEngine mJavaEngine = new JavaMotionEngine();
+	private final NativeMotionEngine mNativeEngine = new NativeMotionEngine();
+	private final NativeMotionEngine mThreadedEngine = new NativeMotionEngine();
+
+	private int mPasses;
+	private int mMismatches;
+
+	/**
+	 * Runs the check.
+	 * @param args unused
+	 */
+	public static void main(String[] args) {
+		System.loadLibrary("touch_free_library");
+		ParityCheck check = new ParityCheck();
+		check.run(MotionFixtures.create());
+		System.out.printf("parity: %d passes compared, %d mismatches\n", check.mPasses, check.mMismatches);
+		System.exit(check.mMismatches == 0 ? 0 : 1);
+	}
+
+	private ParityCheck() {
+		mThreadedEngine.setThreadCount(WORKER_THREADS);
+	}
+
+	private void run(List<MotionFixtures.Pair> pairs) {
+		for(MotionFixtures.Pair pair : pairs) {
+			int width = pair.getWidth();
+			int height = pair.getHeight();
+			Outputs expected = new Outputs(width, height);
+			Outputs actual = new Outputs(width, height);
+
+			for(int[] region : regions(width, height)) {
+				for(int decimation : DECIMATIONS) {
+					for(int pass = PLAIN; pass <= PROJECTION; pass++) {
+						for(int c = 0; c < 2; c++) {
+							for(int threshold : THRESHOLDS) {
+								Config config = new Config(decimation, region, pass, c == 1, threshold,
+										noiseRow(region, decimation, height, threshold));
+
+								config.run(mJavaEngine, pair, expected);
+								config.run(mNativeEngine, pair, actual);
+								compare(pair, config, "native", expected, actual);
+								if(pass == PLAIN) {
+									config.run(mThreadedEngine, pair, actual);
+									compare(pair, config, WORKER_THREADS + " threads", expected, actual);
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	// the whole frame, a window at odd coordinates, a region reaching past every edge, and an empty one
+	private static int[][] regions(int width, int height) {
+		return new int[][] {
+			{ 0, 0, width, height },
+			{ width / 5 + 1, height / 7 + 3, width * 3 / 4 + 1, height * 2 / 3 },
+			{ -5, -3, width + 9, height + 7 },
+			{ width / 2, height / 2, width / 2, height / 2 }
+		};
+	}
+
+	// a row inside the region, on the decimation grid for some thresholds and off it for others
+	private static int noiseRow(int[] region, int decimation, int height, int threshold) {
+		int row = Math.max(region[1], JavaMotionEngine.BORDER) + decimation * 3;
+		if(threshold == THRESHOLDS[1] && decimation > 1)
+			row++;
+		return Math.min(row, height - 1);
+	}
+
+	private void compare(MotionFixtures.Pair pair, Config config, String engine, Outputs expected, Outputs actual) {
+		mPasses++;
+		String difference = expected.difference(actual, config.pass);
+		if(difference == null)
+			return;
+		if(mMismatches < MAX_REPORTED)
+			System.out.printf("MISMATCH %s, %s, %s: %s\n", pair.name, config, engine, difference);
+		mMismatches++;
+	}
+
+	// the inputs of one pass
+	private static class Config {
+		final int decimation;
+		final int[] region;
+		final int pass;
+		final boolean compensate;
+		final int threshold;
+		final int noiseRow;
+
+		Config(int decimation, int[] region, int pass, boolean compensate, int threshold, int noiseRow) {
+			this.decimation = decimation;
+			this.region = region;
+			this.pass = pass;
+			this.compensate = compensate;
+			this.threshold = threshold;
+			this.noiseRow = noiseRow;
+		}
+
+		void run(MotionEngine engine, MotionFixtures.Pair pair, Outputs outputs) {
+			outputs.scramble();
+			MotionDetectionReturnValue result = outputs.result;
+			result.grid = (pass == GRID) ? outputs.grid : null;
+			result.projection = (pass == PROJECTION) ? outputs.projection : null;
+			result.compensateIllumination = compensate;
+			result.pixelThreshold = threshold;
+			result.noiseRow = noiseRow;
+			engine.detect(pair.current, pair.previous, decimation, region[0], region[1], region[2], region[3],
+					result);
+		}
+
+		@Override
+		public String toString() {
+			String[] passes = { "plain", "grid", "projection" };
+			return String.format("decimation %d, region %s, %s pass, %s, threshold %d, noise row %d", decimation,
+					Arrays.toString(region), passes[pass], compensate ? "compensated" : "uncompensated", threshold,
+					noiseRow);
+		}
+	}
+
+	// a result with every output attached
+	private static class Outputs {
+		final MotionDetectionReturnValue result = new MotionDetectionReturnValue();
+		final MotionGrid grid;
+		final MotionProjection projection;
+
+		Outputs(int width, int height) {
+			grid = new MotionGrid(width, height);
+			projection = new MotionProjection(width, height);
+			result.lumaHistogram = new int[MotionDetectionReturnValue.LUMA_HISTOGRAM_BINS];
+			result.noiseHistogram = new int[MotionDetectionReturnValue.NOISE_HISTOGRAM_BINS];
+		}
+
+		void scramble() {
+			result.set(-7.0, -7.0, -7.0, -7.0);
+			result.setIllumination(-7, true);
+			Arrays.fill(result.lumaHistogram, -7);
+			Arrays.fill(result.noiseHistogram, -7);
+			Arrays.fill(grid.getCounts(), -7);
+			Arrays.fill(grid.getSumX(), -7);
+			Arrays.fill(grid.getSumY(), -7);
+			Arrays.fill(projection.getColumns(), -7);
+			Arrays.fill(projection.getRows(), -7);
+		}
+
+		// the first output that differs, or null
+		String difference(Outputs other, int pass) {
+			MotionDetectionReturnValue a = result;
+			MotionDetectionReturnValue b = other.result;
+			if(Double.compare(a.averagePosition.x, b.averagePosition.x) != 0
+					|| Double.compare(a.averagePosition.y, b.averagePosition.y) != 0)
+				return "position " + a.averagePosition + " against " + b.averagePosition;
+			if(Double.compare(a.fractionOfScreenInMotion, b.fractionOfScreenInMotion) != 0)
+				return "fraction " + a.fractionOfScreenInMotion + " against " + b.fractionOfScreenInMotion;
+			if(Double.compare(a.meanLuma, b.meanLuma) != 0)
+				return "mean luma " + a.meanLuma + " against " + b.meanLuma;
+			if(a.illuminationOffset != b.illuminationOffset || a.isIlluminationChange != b.isIlluminationChange)
+				return "illumination " + a.illuminationOffset + "/" + a.isIlluminationChange + " against "
+						+ b.illuminationOffset + "/" + b.isIlluminationChange;
+			if(!Arrays.equals(a.lumaHistogram, b.lumaHistogram))
+				return "luma histogram " + Arrays.toString(a.lumaHistogram) + " against "
+						+ Arrays.toString(b.lumaHistogram);
+			if(!Arrays.equals(a.noiseHistogram, b.noiseHistogram))
+				return "noise histogram " + Arrays.toString(a.noiseHistogram) + " against "
+						+ Arrays.toString(b.noiseHistogram);
+			if(pass == GRID && (!Arrays.equals(grid.getCounts(), other.grid.getCounts())
+					|| !Arrays.equals(grid.getSumX(), other.grid.getSumX())
+					|| !Arrays.equals(grid.getSumY(), other.grid.getSumY())))
+				return "grid cells";
+			if(pass == PROJECTION && (!Arrays.equals(projection.getColumns(), other.projection.getColumns())
+					|| !Arrays.equals(projection.getRows(), other.projection.getRows())))
+				return "projection columns or rows";
+			return null;
+		}
+	}
+}
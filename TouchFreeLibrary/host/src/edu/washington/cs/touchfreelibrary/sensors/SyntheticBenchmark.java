@@ -0,0 +1,280 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Point;
+
+import edu.washington.cs.touchfreelibrary.sensors.GestureClassifier.Direction;
+
+/**
+ * <p>Measures how a {@link MotionEngine}'s speed and accuracy scale with frame size, noise and hand speed,
+ * by running it over frames from a {@link SyntheticFrameSource} for every combination of the three. Each
+ * combination is a cell; for each cell the benchmark reports the frames the engine processes per second
+ * and how well the gestures found match the generator's labels.</p>
+ *
+ * <p>Frames are generated one at a time, so even 1280x720 cells need only two frames of memory. Only
+ * the engine is timed; gestures are found with a {@link GestureClassifier} on the frames' timestamps, with
+ * both axes enabled. The first cell is run once untimed to warm up.</p>
+ *
+ * <p>With blob tracking enabled, the engine also fills in a {@link MotionGrid}, which is segmented and
+ * followed as {@link CameraGestureSensor#enableBlobTracking(boolean)} does; that is timed with the engine.
+ * Comparing a run with distractors with and without it shows what the grid costs and what it gains.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class SyntheticBenchmark extends Benchmark {
+	/**
+	 * The outcome of one cell.
+	 */
+	public static class Cell {
+		/** The width of the frames in pixels. */
+		public final int width;
+
+		/** The height of the frames in pixels. */
+		public final int height;
+
+		/** The standard deviation of the noise, in grey levels. */
+		public final double noise;
+
+		/** The speed of the blob, as the fraction of the frame crossed per frame. */
+		public final double speed;
+
+		/** Frames processed per second by the engine alone. */
+		public final double framesPerSecond;
+
+		/** The number of gestures the generator played. */
+		public final int labelCount;
+
+		/** The number of gestures found. */
+		public final int gestureCount;
+
+		/**
+		 * How well the gestures found match the labels: twice the number matched in direction within
+		 * {@link Benchmark#GESTURE_FRAME_TOLERANCE} frames, over the total of both. 1 is perfect.
+		 */
+		public final double accuracy;
+
+		Cell(int width, int height, double noise, double speed, double framesPerSecond,
+				int labelCount, int gestureCount, double accuracy) {
+			this.width = width;
+			this.height = height;
+			this.noise = noise;
+			this.speed = speed;
+			this.framesPerSecond = framesPerSecond;
+			this.labelCount = labelCount;
+			this.gestureCount = gestureCount;
+			this.accuracy = accuracy;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%4dx%-4d noise %4.1f speed %4.2f %9.1f fps %3d/%-3d gestures %6.1f%% accuracy",
+					width, height, noise, speed, framesPerSecond, gestureCount, labelCount, accuracy * 100.0);
+		}
+	}
+
+	/** The frame sizes swept by default, from 160x120 up to 1280x720. */
+	public static final int[][] DEFAULT_RESOLUTIONS = {
+		{ 160, 120 }, { 320, 240 }, { 640, 480 }, { 960, 540 }, { 1280, 720 }
+	};
+
+	private static final double[] DEFAULT_NOISE_LEVELS = { 0.0, 4.0, 12.0 };
+	private static final double[] DEFAULT_SPEEDS = { 0.2, 0.3 };
+	private static final int DEFAULT_FRAME_COUNT = 300;
+
+	private MotionEngine mEngine;
+	private int[][] mResolutions;
+	private double[] mNoiseLevels;
+	private double[] mSpeeds;
+	private int mFrameCount;
+	private int mDecimation;
+	private int mDistractorCount;
+	private int mIlluminationAmplitude;
+	private int mIlluminationPeriod;
+	private boolean mIsBlobTrackingEnabled;
+
+	/**
+	 * Creates a benchmark of an engine over the default sizes, at noise levels of 0, 4 and 12 grey levels and
+	 * speeds of 0.2 and 0.3 of the frame per frame, 300 frames per cell.
+	 * @param engine the engine to measure
+	 */
+	public SyntheticBenchmark(MotionEngine engine) {
+		mEngine = engine;
+		mResolutions = DEFAULT_RESOLUTIONS;
+		mNoiseLevels = DEFAULT_NOISE_LEVELS;
+		mSpeeds = DEFAULT_SPEEDS;
+		mFrameCount = DEFAULT_FRAME_COUNT;
+		mDecimation = 1;
+		mDistractorCount = 0;
+		mIlluminationAmplitude = 0;
+		mIlluminationPeriod = 0;
+		mIsBlobTrackingEnabled = false;
+	}
+
+	/**
+	 * Sets the frame sizes to sweep. Ignored if empty.
+	 * @param resolutions pairs of width and height in pixels
+	 */
+	public void setResolutions(int[][] resolutions) {
+		if(resolutions != null && resolutions.length > 0)
+			mResolutions = resolutions.clone();
+	}
+
+	/**
+	 * Sets the noise levels to sweep. Ignored if empty.
+	 * @param noiseLevels standard deviations in grey levels; see {@link SyntheticFrameSource#setNoise(double)}
+	 */
+	public void setNoiseLevels(double... noiseLevels) {
+		if(noiseLevels != null && noiseLevels.length > 0)
+			mNoiseLevels = noiseLevels.clone();
+	}
+
+	/**
+	 * Sets the speeds to sweep. Ignored if empty.
+	 * @param speeds fractions of the frame crossed per frame; see {@link SyntheticFrameSource#setSpeed(double)}
+	 */
+	public void setSpeeds(double... speeds) {
+		if(speeds != null && speeds.length > 0)
+			mSpeeds = speeds.clone();
+	}
+
+	/**
+	 * Sets the number of frames in each cell. Values below 2 are ignored.
+	 * @param frames the number of frames
+	 */
+	public void setFrameCount(int frames) {
+		if(frames >= 2)
+			mFrameCount = frames;
+	}
+
+	/**
+	 * Sets the decimation passed to the engine. Values other than 1, 2 and 4 are ignored.
+	 * @param decimation the decimation factor: 1, 2 or 4
+	 */
+	public void setDecimation(int decimation) {
+		if(decimation == 1 || decimation == 2 || decimation == 4)
+			mDecimation = decimation;
+	}
+
+	/**
+	 * Sets the number of distractor blobs in every cell; see {@link SyntheticFrameSource#setDistractorCount(int)}.
+	 * @param count the number of distractors
+	 */
+	public void setDistractorCount(int count) {
+		if(count >= 0)
+			mDistractorCount = count;
+	}
+
+	/**
+	 * Sets the illumination changes in every cell; see {@link SyntheticFrameSource#setIlluminationChange(int, int)}.
+	 * @param amplitude the largest offset in grey levels
+	 * @param periodFrames the length of one cycle in frames
+	 */
+	public void setIlluminationChange(int amplitude, int periodFrames) {
+		if(amplitude < 0 || periodFrames < 2)
+			return;
+		mIlluminationAmplitude = amplitude;
+		mIlluminationPeriod = periodFrames;
+	}
+
+	/**
+	 * Sets whether gestures follow the largest blob of motion rather than the average of all of it.
+	 * @param enabled Set whether blob tracking is enabled
+	 */
+	public void enableBlobTracking(boolean enabled) {
+		mIsBlobTrackingEnabled = enabled;
+	}
+
+	/**
+	 * Test if blob tracking is enabled.
+	 * @return true if gestures follow a single blob, false otherwise.
+	 */
+	public boolean isBlobTrackingEnabled() {
+		return mIsBlobTrackingEnabled;
+	}
+
+	/**
+	 * Runs every cell, sizes outermost, then noise levels, then speeds.
+	 * @return one result per cell
+	 */
+	@Override
+	public List<Cell> run() {
+		List<Cell> cells = new ArrayList<Cell>();
+
+		// warm up the JIT and the engine's buffers
+		runCell(mResolutions[0][0], mResolutions[0][1], mNoiseLevels[0], mSpeeds[0]);
+
+		for(int[] resolution : mResolutions) {
+			for(double noise : mNoiseLevels) {
+				for(double speed : mSpeeds)
+					cells.add(runCell(resolution[0], resolution[1], noise, speed));
+			}
+		}
+		return cells;
+	}
+
+	@Override
+	protected String describe() {
+		return String.format("%s, %d frames per cell, decimation %d, %d distractors, illumination +/-%d%s",
+				mEngine.getClass().getSimpleName(), mFrameCount, mDecimation, mDistractorCount, mIlluminationAmplitude,
+				mIsBlobTrackingEnabled ? ", blob tracking" : "");
+	}
+
+	private Cell runCell(int width, int height, double noise, double speed) {
+		SyntheticFrameSource source = new SyntheticFrameSource(width, height);
+		source.setNoise(noise);
+		source.setSpeed(speed);
+		source.setDistractorCount(mDistractorCount);
+		if(mIlluminationAmplitude > 0)
+			source.setIlluminationChange(mIlluminationAmplitude, mIlluminationPeriod);
+		source.open(1);
+
+		Direction[] labels = source.getLabels(mFrameCount);
+		Direction[] gestures = new Direction[mFrameCount];
+		gestures[0] = Direction.None;
+
+		GestureClassifier classifier = new GestureClassifier(width, height);
+		MotionDetectionReturnValue result = new MotionDetectionReturnValue();
+		if(mIsBlobTrackingEnabled)
+			result.grid = new MotionGrid(width, height);
+		GreyFrame previous = new GreyFrame(new byte[width * height], width, height);
+		GreyFrame current = new GreyFrame(new byte[width * height], width, height);
+		source.read(previous);
+
+		long elapsed = 0;
+		for(int f = 1; f < mFrameCount; f++) {
+			source.read(current);
+
+			long start = System.nanoTime();
+			mEngine.detect(current, previous, mDecimation, 0, 0, width, height, result);
+			if(result.grid != null)
+				trackBlob(result, classifier);
+			elapsed += System.nanoTime() - start;
+
+			gestures[f] = classifier.update(result, current.getTimestamp(), true, true);
+
+			GreyFrame swap = previous;
+			previous = current;
+			current = swap;
+		}
+		source.close();
+
+		double framesPerSecond = (mFrameCount - 1) * 1e9 / Math.max(elapsed, 1);
+		return new Cell(width, height, noise, speed, framesPerSecond, countGestures(labels),
+				countGestures(gestures), agreement(labels, gestures));
+	}
+
+	// as the sensor does: follow the largest blob, or the one nearest the gesture's last position
+	private void trackBlob(MotionDetectionReturnValue result, GestureClassifier classifier) {
+		MotionGrid grid = result.grid;
+		grid.segment(mDecimation);
+
+		Point previousPos = classifier.getPreviousPosition();
+		int blob = grid.findTrackedBlob(classifier.isGestureStarted() ? previousPos.x : -1.0, previousPos.y);
+		if(blob >= 0) {
+			result.averagePosition.x = grid.getBlobX(blob);
+			result.averagePosition.y = grid.getBlobY(blob);
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.washington.cs.touchfreelibrary.sensors.TrajectoryRecognizer.Gesture;
+
+/**
+ * <p>Measures how accurately and how quickly a {@link TrajectoryRecognizer} classifies imperfect gestures.
+ * For every gesture it generates paths of random size, position, length and starting point, bends straight
+ * swipes, cuts circles short and adds jitter to every position, then reports the fraction recognized
+ * correctly and the mean and worst time taken by {@link TrajectoryRecognizer#recognize()}. One untimed
+ * pass over every gesture warms up first.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class TrajectoryBenchmark extends Benchmark {
+	private static final int FRAME_WIDTH = 320;
+	private static final int FRAME_HEIGHT = 240;
+	private static final long FRAME_INTERVAL_NANOSECONDS = 33333333L;
+
+	private static final int DEFAULT_TRIALS = 500;
+	private static final double DEFAULT_JITTER = 0.04;
+
+	// paths are between these fractions of the frame's height across, and have this many positions
+	private static final double MIN_SIZE = 0.3;
+	private static final double MAX_SIZE = 0.8;
+	private static final int MIN_POSITIONS = 6;
+	private static final int MAX_POSITIONS = 30;
+
+	// straight swipes bow sideways by up to this fraction of their length; circles cover at least this much of a turn
+	private static final double MAX_BOW = 0.15;
+	private static final double MIN_CIRCLE_COVERAGE = 0.8;
+
+	private int mTrials;
+	private double mJitter;
+	private long mSeed;
+
+	/**
+	 * Creates a benchmark of 500 paths per gesture with jitter of 4% of each path's size.
+	 */
+	public TrajectoryBenchmark() {
+		mTrials = DEFAULT_TRIALS;
+		mJitter = DEFAULT_JITTER;
+		mSeed = 0;
+	}
+
+	/**
+	 * Sets the number of paths generated for each gesture. Values below 1 are ignored.
+	 * @param trials the number of paths
+	 */
+	public void setTrials(int trials) {
+		if(trials >= 1)
+			mTrials = trials;
+	}
+
+	/**
+	 * Sets the standard deviation of the jitter added to every position, as a fraction of the path's size.
+	 * Negative values are ignored.
+	 * @param jitter the jitter
+	 */
+	public void setJitter(double jitter) {
+		if(jitter >= 0.0)
+			mJitter = jitter;
+	}
+
+	/**
+	 * Sets the seed the paths are generated from. The default is 0.
+	 * @param seed the seed
+	 */
+	public void setSeed(long seed) {
+		mSeed = seed;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * @return one line per gesture with the fraction recognized, then the overall accuracy and timing
+	 */
+	@Override
+	public List<String> run() {
+		TrajectoryRecognizer recognizer = new TrajectoryRecognizer(FRAME_WIDTH, FRAME_HEIGHT);
+		Random random = new Random(mSeed);
+		double[] point = new double[2];
+		List<String> lines = new ArrayList<String>();
+
+		// warm up the JIT
+		for(Gesture gesture : Gesture.values()) {
+			if(gesture == Gesture.None)
+				continue;
+			for(int trial = 0; trial < mTrials; trial++) {
+				generate(recognizer, gesture, random, point);
+				recognizer.recognize();
+			}
+		}
+
+		int correct = 0;
+		int total = 0;
+		long totalTime = 0;
+		long worstTime = 0;
+
+		for(Gesture gesture : Gesture.values()) {
+			if(gesture == Gesture.None)
+				continue;
+
+			int gestureCorrect = 0;
+			for(int trial = 0; trial < mTrials; trial++) {
+				generate(recognizer, gesture, random, point);
+
+				long start = System.nanoTime();
+				Gesture recognized = recognizer.recognize();
+				long elapsed = System.nanoTime() - start;
+
+				totalTime += elapsed;
+				worstTime = Math.max(worstTime, elapsed);
+				if(recognized == gesture)
+					gestureCorrect++;
+			}
+
+			lines.add(String.format("%-24s %6.1f%%", gesture, 100.0 * gestureCorrect / mTrials));
+			correct += gestureCorrect;
+			total += mTrials;
+		}
+
+		lines.add(String.format("overall %.1f%%, recognize() mean %.1f us, worst %.1f us",
+				100.0 * correct / total, totalTime / 1e3 / total, worstTime / 1e3));
+
+		// the longest path the buffer holds bounds the time
+		recognizer.reset();
+		for(int i = 0; i < TrajectoryRecognizer.CAPACITY; i++)
+			recognizer.add(FRAME_WIDTH * (double)i / TrajectoryRecognizer.CAPACITY, FRAME_HEIGHT / 2.0, i);
+		long start = System.nanoTime();
+		for(int i = 0; i < mTrials; i++)
+			recognizer.recognize();
+		lines.add(String.format("full %d position buffer: %.1f us per recognize()",
+				TrajectoryRecognizer.CAPACITY, (System.nanoTime() - start) / 1e3 / mTrials));
+
+		return lines;
+	}
+
+	@Override
+	protected String describe() {
+		return String.format("%d paths per gesture, jitter %.0f%%, seed %d", mTrials, mJitter * 100.0, mSeed);
+	}
+
+	// fills the recognizer with one imperfect path of a gesture
+	private void generate(TrajectoryRecognizer recognizer, Gesture gesture, Random random, double[] point) {
+		double size = FRAME_HEIGHT * (MIN_SIZE + (MAX_SIZE - MIN_SIZE) * random.nextDouble());
+		double centerX = FRAME_WIDTH / 2.0 + (random.nextDouble() - 0.5) * (FRAME_WIDTH - size) / 2.0;
+		double centerY = FRAME_HEIGHT / 2.0 + (random.nextDouble() - 0.5) * (FRAME_HEIGHT - size) / 2.0;
+		int positions = MIN_POSITIONS + random.nextInt(MAX_POSITIONS - MIN_POSITIONS + 1);
+
+		double phase = 0.0;
+		double coverage = 1.0;
+		if(gesture == Gesture.CircleClockwise || gesture == Gesture.CircleCounterclockwise) {
+			phase = 2.0 * Math.PI * random.nextDouble();
+			coverage = MIN_CIRCLE_COVERAGE + (1.0 - MIN_CIRCLE_COVERAGE) * random.nextDouble();
+		}
+		else if(gesture == Gesture.ShakeHorizontal || gesture == Gesture.ShakeVertical) {
+			phase = random.nextBoolean() ? 0.0 : Math.PI;
+		}
+		double bow = MAX_BOW * (2.0 * random.nextDouble() - 1.0);
+
+		// a swipe's unit direction, for bowing it sideways
+		TrajectoryRecognizer.shape(gesture, phase, 1.0, point);
+		double directionX = point[0];
+		double directionY = point[1];
+
+		recognizer.reset();
+		for(int i = 0; i < positions; i++) {
+			double t = coverage * i / (positions - 1);
+
+			double x, y;
+			if(gesture.isLine()) {
+				// centred on the middle of the swipe, bowed most halfway along
+				double along = t - 0.5;
+				double sideways = bow * Math.sin(Math.PI * t);
+				x = along * directionX - sideways * directionY;
+				y = along * directionY + sideways * directionX;
+			}
+			else {
+				// circles and shakes span -1 to 1
+				TrajectoryRecognizer.shape(gesture, phase, t, point);
+				x = 0.5 * point[0];
+				y = 0.5 * point[1];
+			}
+
+			recognizer.add(centerX + size * x + random.nextGaussian() * mJitter * size,
+					centerY + size * y + random.nextGaussian() * mJitter * size,
+					i * FRAME_INTERVAL_NANOSECONDS);
+		}
+	}
+}
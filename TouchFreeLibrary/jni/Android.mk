@@ -5,11 +5,24 @@ include $(CLEAR_VARS)
 include ../../sdk/native/jni/OpenCV.mk
 
 LOCAL_MODULE    := touch_free_library
-LOCAL_SRC_FILES := motion_averager.cpp
+LOCAL_SRC_FILES := motion_averager.cpp motion_workers.cpp
+
+# NEON is optional on ARMv7, so there the kernel is built with and without it and motion_kernel_dispatch.cpp
+# picks one at run time; only motion_kernel_neon.cpp is compiled for NEON
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+LOCAL_SRC_FILES += motion_kernel_plain.cpp motion_kernel_neon.cpp.neon motion_kernel_dispatch.cpp
+LOCAL_STATIC_LIBRARIES += cpufeatures
+else
+LOCAL_SRC_FILES += motion_kernel.cpp
+endif
+
+LOCAL_CFLAGS    += -O3
 LOCAL_LDLIBS +=  -llog -ldl
 
 all:
 	@echo $(LOCAL_PATH)
 
 
-include $(BUILD_SHARED_LIBRARY)
\ No newline at end of file
+include $(BUILD_SHARED_LIBRARY)
+
+$(call import-module,android/cpufeatures)
@@ -0,0 +1,593 @@
+// Host-side benchmark for the motion kernels in motion_kernel.cpp. Builds synthetic grey frame
+// pairs (sensor noise plus a moving bright block), checks that every kernel agrees with the
+// original double-precision reference, and prints nanoseconds per frame. Decimated passes are
+// compared against the full pass for centroid error and cost, as is a half-size region of
+// interest around the moving block. The row-band worker pool is timed over 1, 2, 4 and 8
+// threads. The grid pass, which also sums every 16x16 cell for blob segmentation, is timed against
+// the plain pass and checked cell by cell against scalar passes over each cell. The frame's mean
+// brightness, which the kernels sum in the same pass, is checked and timed against a separate pass
+// over the frame, as Core.mean made for click-by-color, with and without the coarse histogram.
+// Illumination compensation is checked by brightening or darkening the current frame of a pair:
+// the pre-pass should find the change, and the compensated pass should see the motion of the
+// unchanged pair rather than a flood; the pre-pass and the compensated pass are timed. A threshold
+// other than the default and the noise histogram of a single row are checked across every pass and
+// decimation, and the row is timed against the plain pass. The projection pass, which also counts the
+// moving pixels of every column and row, is checked pixel by pixel at every decimation, across more
+// than one strip of columns and more than 255 rows, and timed against the plain pass. It also times the per-frame copy of the current frame into the previous one that the frame ring replaced.
+
+#include <math.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <vector>
+
+#include "motion_kernel.h"
+#include "motion_workers.h"
+
+using namespace std;
+
+static const int FRAMES_PER_RUN = 300;
+
+struct FramePair {
+    vector<uint8_t> current;
+    vector<uint8_t> previous;
+    GreyPlane currentPlane;
+    GreyPlane previousPlane;
+};
+
+static double NowNanoseconds()
+{
+    timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1e9 + ts.tv_nsec;
+}
+
+// fills a frame with a soft gradient, some sensor noise and a bright block at (blockX, blockY)
+static void FillFrame(vector<uint8_t>& frame, int cols, int rows, int blockX, int blockY)
+{
+    for(int y = 0; y < rows; y++) {
+        for(int x = 0; x < cols; x++) {
+            int value = 60 + (x + y) / 16 + (rand() % 17) - 8;
+            if(x >= blockX && x < blockX + cols / 4 && y >= blockY && y < blockY + rows / 3)
+                value = 200 + (rand() % 17) - 8;
+            frame[y * cols + x] = (uint8_t)value;
+        }
+    }
+}
+
+static void MakeFramePair(FramePair& pair, int cols, int rows)
+{
+    pair.current.resize(cols * rows);
+    pair.previous.resize(cols * rows);
+    FillFrame(pair.previous, cols, rows, cols / 5, rows / 3);
+    FillFrame(pair.current, cols, rows, cols / 5 + cols / 10, rows / 3);
+
+    GreyPlane current = { &pair.current[0], (size_t)cols, rows, cols };
+    GreyPlane previous = { &pair.previous[0], (size_t)cols, rows, cols };
+    pair.currentPlane = current;
+    pair.previousPlane = previous;
+}
+
+static bool CloseEnough(double a, double b)
+{
+    return fabs(a - b) <= 1e-6 * (fabs(a) + 1.0);
+}
+
+static void RunSize(int cols, int rows)
+{
+    FramePair pair;
+    MakeFramePair(pair, cols, rows);
+
+    double refX, refY, refCount;
+    MotionAverageReference(pair.currentPlane, pair.previousPlane, refX, refY, refCount);
+
+    MotionParams params = MotionParamsFullFrame(rows, cols, 1);
+    MotionSums scalarSums, simdSums;
+    MotionSumsScalar(pair.currentPlane, pair.previousPlane, params, scalarSums);
+    MotionSumsDetect(pair.currentPlane, pair.previousPlane, params, simdSums);
+
+    bool agree = scalarSums.count == simdSums.count && scalarSums.sumX == simdSums.sumX
+        && scalarSums.sumY == simdSums.sumY && (double)simdSums.count == refCount
+        && CloseEnough((double)simdSums.sumX / simdSums.count, refX)
+        && CloseEnough((double)simdSums.sumY / simdSums.count, refY);
+
+    double start = NowNanoseconds();
+    for(int i = 0; i < FRAMES_PER_RUN; i++)
+        MotionAverageReference(pair.currentPlane, pair.previousPlane, refX, refY, refCount);
+    double referenceNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+    start = NowNanoseconds();
+    for(int i = 0; i < FRAMES_PER_RUN; i++)
+        MotionSumsScalar(pair.currentPlane, pair.previousPlane, params, scalarSums);
+    double scalarNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+    start = NowNanoseconds();
+    for(int i = 0; i < FRAMES_PER_RUN; i++)
+        MotionSumsDetect(pair.currentPlane, pair.previousPlane, params, simdSums);
+    double simdNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+    printf("%4dx%-4d  moving %6.3f%%  reference %9.0f ns  scalar %9.0f ns  %-6s %9.0f ns  (%.1fx)  %s\n",
+           cols, rows, 100.0 * simdSums.count / (cols * rows), referenceNs, scalarNs,
+           MotionKernelName(), simdNs, referenceNs / simdNs, agree ? "match" : "MISMATCH");
+
+    double fullX = (double)simdSums.sumX / simdSums.count;
+    double fullY = (double)simdSums.sumY / simdSums.count;
+
+    for(int decimation = 2; decimation <= 4; decimation *= 2) {
+        MotionParams decimated = MotionParamsFullFrame(rows, cols, decimation);
+        MotionSums sums, scalarDecimated;
+        MotionSumsScalar(pair.currentPlane, pair.previousPlane, decimated, scalarDecimated);
+
+        start = NowNanoseconds();
+        for(int i = 0; i < FRAMES_PER_RUN; i++)
+            MotionSumsDetect(pair.currentPlane, pair.previousPlane, decimated, sums);
+        double decimatedNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+        double dx = (double)sums.sumX / sums.count - fullX;
+        double dy = (double)sums.sumY / sums.count - fullY;
+        double fraction = (double)sums.count / MotionSampleCount(pair.currentPlane, decimated);
+        bool decimatedAgree = sums.count == scalarDecimated.count && sums.sumX == scalarDecimated.sumX
+            && sums.sumY == scalarDecimated.sumY;
+
+        printf("           decimation %d  %9.0f ns  (%4.1f%% of full)  centroid off by %.2f px  moving %6.3f%%  %s\n",
+               decimation, decimatedNs, 100.0 * decimatedNs / simdNs, sqrt(dx * dx + dy * dy), 100.0 * fraction,
+               decimatedAgree ? "match" : "MISMATCH");
+    }
+
+    // a region half the width and height of the frame, centred on the full-frame centroid
+    MotionParams region = MotionParamsFullFrame(rows, cols, 1);
+    region.left = (int)fullX - cols / 4;
+    region.top = (int)fullY - rows / 4;
+    region.right = region.left + cols / 2;
+    region.bottom = region.top + rows / 2;
+
+    MotionSums regionSums, scalarRegion;
+    MotionSumsScalar(pair.currentPlane, pair.previousPlane, region, scalarRegion);
+
+    start = NowNanoseconds();
+    for(int i = 0; i < FRAMES_PER_RUN; i++)
+        MotionSumsDetect(pair.currentPlane, pair.previousPlane, region, regionSums);
+    double regionNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+    double rx = (double)regionSums.sumX / regionSums.count - fullX;
+    double ry = (double)regionSums.sumY / regionSums.count - fullY;
+    bool regionAgree = regionSums.count == scalarRegion.count && regionSums.sumX == scalarRegion.sumX
+        && regionSums.sumY == scalarRegion.sumY;
+
+    printf("           half-size ROI %9.0f ns  (%4.1f%% of full)  centroid off by %.2f px  %5.1f%% of moving pixels  %s\n",
+           regionNs, 100.0 * regionNs / simdNs, sqrt(rx * rx + ry * ry), 100.0 * regionSums.count / simdSums.count,
+           regionAgree ? "match" : "MISMATCH");
+}
+
+// what summing every cell as well costs, at each decimation
+static void RunGrid(int cols, int rows)
+{
+    FramePair pair;
+    MakeFramePair(pair, cols, rows);
+
+    MotionGrid grid;
+    grid.cols = MotionGridColumns(cols);
+    grid.rows = MotionGridRows(rows);
+    vector<uint32_t> count(grid.cols * grid.rows);
+    vector<uint64_t> sumX(grid.cols * grid.rows), sumY(grid.cols * grid.rows);
+    grid.count = &count[0];
+    grid.sumX = &sumX[0];
+    grid.sumY = &sumY[0];
+
+    for(int decimation = 1; decimation <= 4; decimation *= 2) {
+        MotionParams params = MotionParamsFullFrame(rows, cols, decimation);
+        MotionSums plain, gridded;
+        MotionSumsDetect(pair.currentPlane, pair.previousPlane, params, plain);
+        MotionGridDetect(pair.currentPlane, pair.previousPlane, params, gridded, grid);
+
+        bool agree = plain.count == gridded.count && plain.sumX == gridded.sumX && plain.sumY == gridded.sumY;
+        int movingCells = 0;
+        for(int cy = 0; cy < grid.rows; cy++) {
+            for(int cx = 0; cx < grid.cols; cx++) {
+                MotionParams cell = params;
+                cell.left = cx * MOTION_GRID_CELL;
+                cell.top = cy * MOTION_GRID_CELL;
+                cell.right = cell.left + MOTION_GRID_CELL;
+                cell.bottom = cell.top + MOTION_GRID_CELL;
+
+                MotionSums expected;
+                MotionSumsScalar(pair.currentPlane, pair.previousPlane, cell, expected);
+                int i = cy * grid.cols + cx;
+                agree = agree && count[i] == expected.count && sumX[i] == expected.sumX && sumY[i] == expected.sumY;
+                if(count[i] > 0)
+                    movingCells++;
+            }
+        }
+
+        double start = NowNanoseconds();
+        for(int i = 0; i < FRAMES_PER_RUN; i++)
+            MotionSumsDetect(pair.currentPlane, pair.previousPlane, params, plain);
+        double plainNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+        start = NowNanoseconds();
+        for(int i = 0; i < FRAMES_PER_RUN; i++)
+            MotionGridDetect(pair.currentPlane, pair.previousPlane, params, gridded, grid);
+        double gridNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+        printf("%4dx%-4d  decimation %d  plain %8.0f ns  grid of %dx%d %8.0f ns  (%.2fx)  %d cells moving  %s\n",
+               cols, rows, decimation, plainNs, grid.cols, grid.rows, gridNs, gridNs / plainNs, movingCells,
+               agree ? "match" : "MISMATCH");
+    }
+}
+
+// the whole-frame mean Core.mean took for click-by-color: a second pass over every byte
+static double SeparateMean(const GreyPlane& frame)
+{
+    uint64_t sum = 0;
+    for(int y = 0; y < frame.rows; y++) {
+        const uint8_t* row = frame.data + frame.step * y;
+        for(int x = 0; x < frame.cols; x++)
+            sum += row[x];
+    }
+    return (double)sum / ((double)frame.rows * frame.cols);
+}
+
+// what summing the brightness in the motion pass costs, against a separate pass for it
+static void RunLuma(int cols, int rows)
+{
+    FramePair pair;
+    MakeFramePair(pair, cols, rows);
+
+    uint32_t histogram[MOTION_LUMA_BINS], scalarHistogram[MOTION_LUMA_BINS];
+    MotionParams params = MotionParamsFullFrame(rows, cols, 1);
+    MotionParams withHistogram = params;
+    withHistogram.lumaHistogram = histogram;
+    MotionParams scalarWithHistogram = params;
+    scalarWithHistogram.lumaHistogram = scalarHistogram;
+
+    MotionSums sums, scalarSums;
+    MotionSumsDetect(pair.currentPlane, pair.previousPlane, withHistogram, sums);
+    MotionSumsScalar(pair.currentPlane, pair.previousPlane, scalarWithHistogram, scalarSums);
+
+    // the histogram samples the pixels a decimation 4 pass would
+    uint64_t scanned = MotionScannedSampleCount(pair.currentPlane, params);
+    uint64_t histogramSamples = MotionScannedSampleCount(pair.currentPlane,
+                                                         MotionParamsFullFrame(rows, cols, MOTION_LUMA_HISTOGRAM_STEP));
+    uint64_t binned = 0;
+    bool agree = sums.sumLuma == scalarSums.sumLuma && sums.count == scalarSums.count;
+    for(int bin = 0; bin < MOTION_LUMA_BINS; bin++) {
+        agree = agree && histogram[bin] == scalarHistogram[bin];
+        binned += histogram[bin];
+    }
+    agree = agree && binned == histogramSamples;
+
+    double fusedMean = (double)sums.sumLuma / scanned;
+    double separateMean = SeparateMean(pair.currentPlane);
+
+    double start = NowNanoseconds();
+    for(int i = 0; i < FRAMES_PER_RUN; i++)
+        MotionSumsDetect(pair.currentPlane, pair.previousPlane, params, sums);
+    double fusedNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+    start = NowNanoseconds();
+    for(int i = 0; i < FRAMES_PER_RUN; i++)
+        MotionSumsDetect(pair.currentPlane, pair.previousPlane, withHistogram, sums);
+    double histogramNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+    volatile double mean = 0.0;
+    start = NowNanoseconds();
+    for(int i = 0; i < FRAMES_PER_RUN; i++) {
+        MotionSumsDetect(pair.currentPlane, pair.previousPlane, params, sums);
+        mean = SeparateMean(pair.currentPlane);
+    }
+    double separateNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+    agree = agree && mean == separateMean;
+
+    printf("%4dx%-4d  motion and mean %8.0f ns  with histogram %8.0f ns  motion then a separate mean %8.0f ns"
+           "  mean %.2f vs %.2f  %s\n", cols, rows, fusedNs, histogramNs, separateNs, fusedMean, separateMean,
+           agree ? "match" : "MISMATCH");
+}
+
+// a pair whose current frame is brighter by change grey levels, as after an exposure change,
+// against the same pair without it
+static void RunIllumination(int cols, int rows, int change)
+{
+    FramePair pair;
+    MakeFramePair(pair, cols, rows);
+
+    MotionParams params = MotionParamsFullFrame(rows, cols, 1);
+    MotionSums steady;
+    MotionSumsDetect(pair.currentPlane, pair.previousPlane, params, steady);
+
+    for(size_t i = 0; i < pair.current.size(); i++) {
+        int value = pair.current[i] + change;
+        pair.current[i] = (uint8_t)(value < 0 ? 0 : (value > 255 ? 255 : value));
+    }
+
+    MotionIllumination illumination;
+    MotionEstimateIllumination(pair.currentPlane, pair.previousPlane, MOTION_PIXEL_THRESHOLD, illumination);
+
+    MotionSums flooded, compensated, scalar;
+    MotionSumsDetect(pair.currentPlane, pair.previousPlane, params, flooded);
+    MotionParams shifted = params;
+    shifted.illuminationOffset = illumination.offset;
+    MotionSumsDetect(pair.currentPlane, pair.previousPlane, shifted, compensated);
+
+    // every decimation and the grid pass must apply the offset exactly as the scalar pass does
+    bool agree = true;
+    for(int decimation = 1; decimation <= 4; decimation *= 2) {
+        MotionParams decimated = MotionParamsFullFrame(rows, cols, decimation);
+        decimated.illuminationOffset = illumination.offset;
+        MotionSums simd, gridded;
+        MotionSumsDetect(pair.currentPlane, pair.previousPlane, decimated, simd);
+        MotionSumsScalar(pair.currentPlane, pair.previousPlane, decimated, scalar);
+
+        MotionGrid grid;
+        grid.cols = MotionGridColumns(cols);
+        grid.rows = MotionGridRows(rows);
+        vector<uint32_t> counts(grid.cols * grid.rows);
+        vector<uint64_t> sumX(grid.cols * grid.rows), sumY(grid.cols * grid.rows);
+        grid.count = &counts[0];
+        grid.sumX = &sumX[0];
+        grid.sumY = &sumY[0];
+        MotionGridDetect(pair.currentPlane, pair.previousPlane, decimated, gridded, grid);
+
+        agree = agree && simd.count == scalar.count && simd.sumX == scalar.sumX && simd.sumY == scalar.sumY
+                && gridded.count == scalar.count && gridded.sumX == scalar.sumX && gridded.sumY == scalar.sumY;
+    }
+
+    double samples = (double)MotionSampleCount(pair.currentPlane, params);
+
+    double start = NowNanoseconds();
+    for(int i = 0; i < FRAMES_PER_RUN; i++)
+        MotionEstimateIllumination(pair.currentPlane, pair.previousPlane, MOTION_PIXEL_THRESHOLD, illumination);
+    double estimateNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+    start = NowNanoseconds();
+    for(int i = 0; i < FRAMES_PER_RUN; i++)
+        MotionSumsDetect(pair.currentPlane, pair.previousPlane, params, flooded);
+    double plainNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+    start = NowNanoseconds();
+    for(int i = 0; i < FRAMES_PER_RUN; i++)
+        MotionSumsDetect(pair.currentPlane, pair.previousPlane, shifted, compensated);
+    double compensatedNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+    printf("%4dx%-4d  change %+4d  offset %+4d  moving %6.2f%% steady, %6.2f%% uncompensated, %6.2f%% compensated"
+           "  %4.1f%% unexplained  estimate %6.0f ns  pass %7.0f ns, compensated %7.0f ns  %s\n",
+           cols, rows, change, illumination.offset, 100.0 * steady.count / samples, 100.0 * flooded.count / samples,
+           100.0 * compensated.count / samples, 100.0 * illumination.unexplained / illumination.samples,
+           estimateNs, plainNs, compensatedNs, agree ? "match" : "MISMATCH");
+}
+
+// the SIMD pass, the grid pass and four worker bands must all find the scalar pass's sums and noise histogram
+static bool NoiseAgrees(const FramePair& pair, const MotionParams& params, const MotionSums& scalar,
+                        const uint32_t* scalarNoise)
+{
+    int cols = pair.currentPlane.cols;
+    int rows = pair.currentPlane.rows;
+    uint32_t noise[MOTION_NOISE_BINS];
+    MotionParams withNoise = params;
+    withNoise.noiseHistogram = noise;
+    bool agree = true;
+
+    MotionSums simd;
+    MotionSumsDetect(pair.currentPlane, pair.previousPlane, withNoise, simd);
+    agree = agree && simd.count == scalar.count && simd.sumX == scalar.sumX && simd.sumY == scalar.sumY;
+    agree = agree && memcmp(noise, scalarNoise, sizeof(noise)) == 0;
+
+    MotionGrid grid;
+    grid.cols = MotionGridColumns(cols);
+    grid.rows = MotionGridRows(rows);
+    vector<uint32_t> counts(grid.cols * grid.rows);
+    vector<uint64_t> sumX(grid.cols * grid.rows), sumY(grid.cols * grid.rows);
+    grid.count = &counts[0];
+    grid.sumX = &sumX[0];
+    grid.sumY = &sumY[0];
+    MotionSums gridded;
+    MotionGridDetect(pair.currentPlane, pair.previousPlane, withNoise, gridded, grid);
+    agree = agree && gridded.count == scalar.count && gridded.sumX == scalar.sumX && gridded.sumY == scalar.sumY;
+    agree = agree && memcmp(noise, scalarNoise, sizeof(noise)) == 0;
+
+    MotionWorkerPool pool;
+    pool.SetThreadCount(4);
+    MotionSums pooled;
+    pool.Detect(pair.currentPlane, pair.previousPlane, withNoise, pooled);
+    agree = agree && pooled.count == scalar.count && pooled.sumX == scalar.sumX && pooled.sumY == scalar.sumY;
+    agree = agree && memcmp(noise, scalarNoise, sizeof(noise)) == 0;
+    return agree;
+}
+
+// a threshold other than the default, and the noise row, handled the same way by every pass; and what
+// the row costs the pass that reads it
+static void RunNoise(int cols, int rows)
+{
+    FramePair pair;
+    MakeFramePair(pair, cols, rows);
+
+    bool agree = true;
+    for(int decimation = 1; decimation <= 4; decimation *= 2) {
+        MotionParams params = MotionParamsFullFrame(rows, cols, decimation);
+        params.threshold = 40;
+        params.illuminationOffset = decimation - 2;
+
+        // a row on the decimation grid through the moving block, so the histogram has both noise and motion
+        params.noiseRow = MOTION_BORDER + rows / 2 / decimation * decimation;
+        uint32_t scalarNoise[MOTION_NOISE_BINS];
+        MotionParams scalarParams = params;
+        scalarParams.noiseHistogram = scalarNoise;
+        MotionSums scalar;
+        MotionSumsScalar(pair.currentPlane, pair.previousPlane, scalarParams, scalar);
+
+        uint32_t sampled = 0;
+        for(int bin = 0; bin < MOTION_NOISE_BINS; bin++)
+            sampled += scalarNoise[bin];
+        agree = agree && sampled == (uint32_t)(cols - 2 * MOTION_BORDER + MOTION_NOISE_STEP - 1) / MOTION_NOISE_STEP;
+        agree = agree && NoiseAgrees(pair, params, scalar, scalarNoise);
+
+        // a row off the grid is not read, and leaves the histogram empty
+        if(decimation > 1) {
+            params.noiseRow++;
+            scalarParams.noiseRow++;
+            MotionSumsScalar(pair.currentPlane, pair.previousPlane, scalarParams, scalar);
+            for(int bin = 0; bin < MOTION_NOISE_BINS; bin++)
+                agree = agree && scalarNoise[bin] == 0;
+            agree = agree && NoiseAgrees(pair, params, scalar, scalarNoise);
+        }
+    }
+
+    uint32_t noise[MOTION_NOISE_BINS];
+    MotionParams params = MotionParamsFullFrame(rows, cols, 1);
+    MotionParams withNoise = params;
+    withNoise.noiseHistogram = noise;
+    withNoise.noiseRow = rows / 2;
+    MotionSums sums;
+
+    double start = NowNanoseconds();
+    for(int i = 0; i < FRAMES_PER_RUN; i++)
+        MotionSumsDetect(pair.currentPlane, pair.previousPlane, params, sums);
+    double plainNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+    start = NowNanoseconds();
+    for(int i = 0; i < FRAMES_PER_RUN; i++)
+        MotionSumsDetect(pair.currentPlane, pair.previousPlane, withNoise, sums);
+    double noiseNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+    printf("%4dx%-4d  threshold 40 and noise row  pass %7.0f ns, with noise row %7.0f ns  %s\n",
+           cols, rows, plainNs, noiseNs, agree ? "match" : "MISMATCH");
+}
+
+// what counting every column and row costs, checked against counting them pixel by pixel
+static void RunProjection(int cols, int rows)
+{
+    FramePair pair;
+    MakeFramePair(pair, cols, rows);
+
+    vector<uint32_t> columnCounts(cols), rowCounts(rows);
+    MotionProjection projection = { &columnCounts[0], &rowCounts[0] };
+
+    for(int decimation = 1; decimation <= 4; decimation *= 2) {
+        MotionParams params = MotionParamsFullFrame(rows, cols, decimation);
+        params.illuminationOffset = decimation - 2;
+        MotionSums projected, scalar;
+        MotionProjectionDetect(pair.currentPlane, pair.previousPlane, params, projected, projection);
+        MotionSumsScalar(pair.currentPlane, pair.previousPlane, params, scalar);
+
+        bool agree = projected.count == scalar.count && projected.sumX == scalar.sumX && projected.sumY == scalar.sumY
+                     && projected.sumLuma == scalar.sumLuma;
+        vector<uint32_t> expectedColumns(cols), expectedRows(rows);
+        for(int y = MOTION_BORDER; y < rows - MOTION_BORDER; y += decimation) {
+            for(int x = MOTION_BORDER; x < cols - MOTION_BORDER; x += decimation) {
+                int previous = pair.previous[y * cols + x] + params.illuminationOffset;
+                previous = previous < 0 ? 0 : (previous > 255 ? 255 : previous);
+                if(abs(pair.current[y * cols + x] - previous) > params.threshold) {
+                    expectedColumns[x]++;
+                    expectedRows[y]++;
+                }
+            }
+        }
+        agree = agree && expectedColumns == columnCounts && expectedRows == rowCounts;
+
+        double start = NowNanoseconds();
+        for(int i = 0; i < FRAMES_PER_RUN; i++)
+            MotionSumsDetect(pair.currentPlane, pair.previousPlane, params, scalar);
+        double plainNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+        start = NowNanoseconds();
+        for(int i = 0; i < FRAMES_PER_RUN; i++)
+            MotionProjectionDetect(pair.currentPlane, pair.previousPlane, params, projected, projection);
+        double projectionNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+        printf("%4dx%-4d  decimation %d  plain %8.0f ns  projection %8.0f ns  (%.2fx)  %s\n", cols, rows, decimation,
+               plainNs, projectionNs, projectionNs / plainNs, agree ? "match" : "MISMATCH");
+    }
+}
+
+// the memory traffic and time of the Mat::copyTo the sensor used to do after every detection
+static void RunCopy(int cols, int rows)
+{
+    FramePair pair;
+    MakeFramePair(pair, cols, rows);
+
+    double start = NowNanoseconds();
+    for(int i = 0; i < FRAMES_PER_RUN; i++) {
+        memcpy(&pair.previous[0], &pair.current[0], cols * rows);
+        pair.current[i % (cols * rows)]++;
+    }
+    double copyNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+    printf("%4dx%-4d  frame copy %7d bytes read + %7d bytes written  %9.0f ns  (%.1f MB/s at 30 fps)\n",
+           cols, rows, cols * rows, cols * rows, copyNs, 2.0 * cols * rows * 30 / 1e6);
+}
+
+// how the row-band worker pool scales with its thread count
+static void RunThreads(int cols, int rows)
+{
+    FramePair pair;
+    MakeFramePair(pair, cols, rows);
+
+    MotionParams params = MotionParamsFullFrame(rows, cols, 1);
+    MotionSums single;
+    MotionSumsDetect(pair.currentPlane, pair.previousPlane, params, single);
+
+    MotionWorkerPool pool;
+    double oneThreadNs = 0.0;
+
+    printf("%4dx%-4d ", cols, rows);
+    for(int threads = 1; threads <= MAX_MOTION_THREADS; threads *= 2) {
+        pool.SetThreadCount(threads);
+
+        MotionSums sums;
+        pool.Detect(pair.currentPlane, pair.previousPlane, params, sums);
+        bool agree = sums.count == single.count && sums.sumX == single.sumX && sums.sumY == single.sumY;
+
+        double start = NowNanoseconds();
+        for(int i = 0; i < FRAMES_PER_RUN; i++)
+            pool.Detect(pair.currentPlane, pair.previousPlane, params, sums);
+        double threadsNs = (NowNanoseconds() - start) / FRAMES_PER_RUN;
+
+        if(threads == 1)
+            oneThreadNs = threadsNs;
+
+        printf("  %d thread%s %8.0f ns (%.2fx)%s", threads, threads == 1 ? " " : "s", threadsNs,
+               oneThreadNs / threadsNs, agree ? "" : " MISMATCH");
+    }
+    printf("\n");
+}
+
+int main()
+{
+    srand(1);
+    RunSize(320, 240);
+    RunSize(640, 480);
+
+    printf("\n");
+    RunThreads(640, 480);
+    RunThreads(1280, 720);
+
+    printf("\n");
+    RunGrid(320, 240);
+    RunGrid(640, 480);
+
+    printf("\n");
+    RunLuma(320, 240);
+    RunLuma(640, 480);
+
+    printf("\n");
+    RunIllumination(320, 240, 15);
+    RunIllumination(320, 240, -25);
+    RunIllumination(320, 240, 60);
+    RunIllumination(640, 480, 15);
+
+    printf("\n");
+    RunNoise(320, 240);
+    RunNoise(640, 480);
+
+    printf("\n");
+    RunProjection(320, 240);
+    RunProjection(640, 480);
+    RunProjection(1280, 720);
+
+    printf("\n");
+    RunCopy(320, 240);
+    RunCopy(352, 288);
+    RunCopy(480, 320);
+    RunCopy(640, 480);
+    return 0;
+}
@@ -2,8 +2,12 @@
 #include <opencv2/core/core.hpp>
 #include <opencv2/imgproc/imgproc.hpp>
 #include <opencv2/features2d/features2d.hpp>
+#include <algorithm>
 #include <vector>
 
+#include "motion_kernel.h"
+#include "motion_workers.h"
+
 using namespace std;
 using namespace cv;
 
@@ -17,51 +21,436 @@ extern "C" {
 
     const double EPSILON = 0.00001;
     
-JNIEXPORT jobject JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_CameraGestureSensor_DetectMovementPosition(JNIEnv* env, jobject,
-                                                                                                                     jlong currentFrameAddr,
-                                                                                                                     jlong previousFrameAddr/*,
-                                                                                                                     jlong outputFrameAddr*/);
+    // cached in JNI_OnLoad so the per-frame call never has to look anything up
+    static jclass gMotionResultClass = NULL;
+    static jmethodID gMotionResultSet = NULL;
+    static jmethodID gMotionResultSetIllumination = NULL;
+    
+    // the options and optional outputs of a pass, read from the caller's result object
+    static jfieldID gMotionResultLumaHistogram = NULL;
+    static jfieldID gMotionResultCompensateIllumination = NULL;
+    static jfieldID gMotionResultGrid = NULL;
+    static jfieldID gMotionResultProjection = NULL;
+    static jfieldID gMotionResultPixelThreshold = NULL;
+    static jfieldID gMotionResultNoiseHistogram = NULL;
+    static jfieldID gMotionResultNoiseRow = NULL;
+    
+    // the arrays of a MotionGrid and a MotionProjection
+    static jfieldID gGridCountsField = NULL;
+    static jfieldID gGridSumXField = NULL;
+    static jfieldID gGridSumYField = NULL;
+    static jfieldID gProjectionColumnsField = NULL;
+    static jfieldID gProjectionRowsField = NULL;
+    
+    // Everything one NativeMotionEngine works with between frames, created and destroyed with it, so engines
+    // on different threads share nothing. An engine is only ever used by one thread at a time.
+    struct MotionContext {
+        // the row-band workers
+        MotionWorkerPool workerPool;
+        
+        // the per-cell sums of the grid pass, grown to the frame's size the first time it is seen
+        vector<uint32_t> gridCount;
+        vector<uint64_t> gridSumX;
+        vector<uint64_t> gridSumY;
+        
+        // the per-column and per-row counts of the projection pass, grown the same way
+        vector<uint32_t> projectionColumns;
+        vector<uint32_t> projectionRows;
+        
+        // the coarse luminance histogram, filled by the pass and copied out when the caller asks for one
+        uint32_t lumaHistogram[MOTION_LUMA_BINS];
+        
+        // the same for the absolute differences along the noise row
+        uint32_t noiseHistogram[MOTION_NOISE_BINS];
+    };
+    
+// the result's options and optional outputs, and the arrays behind its grid and projection; field IDs stay valid
+// while their classes are loaded, which the global reference to the result class guarantees for all three
+static bool CacheFields(JNIEnv* env)
+{
+    gMotionResultLumaHistogram = env->GetFieldID(gMotionResultClass, "lumaHistogram", "[I");
+    gMotionResultCompensateIllumination = env->GetFieldID(gMotionResultClass, "compensateIllumination", "Z");
+    gMotionResultGrid = env->GetFieldID(gMotionResultClass, "grid",
+                                        "Ledu/washington/cs/touchfreelibrary/sensors/MotionGrid;");
+    gMotionResultProjection = env->GetFieldID(gMotionResultClass, "projection",
+                                              "Ledu/washington/cs/touchfreelibrary/sensors/MotionProjection;");
+    gMotionResultPixelThreshold = env->GetFieldID(gMotionResultClass, "pixelThreshold", "I");
+    gMotionResultNoiseHistogram = env->GetFieldID(gMotionResultClass, "noiseHistogram", "[I");
+    gMotionResultNoiseRow = env->GetFieldID(gMotionResultClass, "noiseRow", "I");
+    if(gMotionResultLumaHistogram == NULL || gMotionResultCompensateIllumination == NULL || gMotionResultGrid == NULL ||
+       gMotionResultProjection == NULL || gMotionResultPixelThreshold == NULL || gMotionResultNoiseHistogram == NULL ||
+       gMotionResultNoiseRow == NULL)
+        return false;
+    
+    jclass grid = env->FindClass("edu/washington/cs/touchfreelibrary/sensors/MotionGrid");
+    if(grid == NULL)
+        return false;
+    gGridCountsField = env->GetFieldID(grid, "mCounts", "[I");
+    gGridSumXField = env->GetFieldID(grid, "mSumX", "[J");
+    gGridSumYField = env->GetFieldID(grid, "mSumY", "[J");
+    env->DeleteLocalRef(grid);
+    
+    jclass projection = env->FindClass("edu/washington/cs/touchfreelibrary/sensors/MotionProjection");
+    if(projection == NULL)
+        return false;
+    gProjectionColumnsField = env->GetFieldID(projection, "mColumns", "[I");
+    gProjectionRowsField = env->GetFieldID(projection, "mRows", "[I");
+    env->DeleteLocalRef(projection);
+    
+    return gGridCountsField != NULL && gGridSumXField != NULL && gGridSumYField != NULL &&
+           gProjectionColumnsField != NULL && gProjectionRowsField != NULL;
+}
+
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void*)
+{
+    JNIEnv* env;
+    if(vm->GetEnv((void**)&env, JNI_VERSION_1_6) != JNI_OK)
+        return -1;
+    
+    jclass cls = env->FindClass("edu/washington/cs/touchfreelibrary/sensors/MotionDetectionReturnValue");
+    if(cls == NULL)
+        return -1;
+    
+    gMotionResultClass = (jclass)env->NewGlobalRef(cls);
+    env->DeleteLocalRef(cls);
+    
+    gMotionResultSet = env->GetMethodID(gMotionResultClass, "set", "(DDDD)V");
+    if(gMotionResultSet == NULL)
+        return -1;
+    
+    gMotionResultSetIllumination = env->GetMethodID(gMotionResultClass, "setIllumination", "(IZ)V");
+    if(gMotionResultSetIllumination == NULL)
+        return -1;
+    
+    if(!CacheFields(env))
+        return -1;
+    
+    return JNI_VERSION_1_6;
+}
+
+// What the caller asked for, read from its result object before the frames are touched. The grid takes
+// precedence over the projection: when the result has both, only the grid's arrays are read.
+struct MotionRequest {
+    jboolean compensateIllumination;
+    jint threshold;
+    jint noiseRow;
+    jintArray lumaHistogram;
+    jintArray noiseHistogram;
+    jintArray gridCounts;
+    jlongArray gridSumX;
+    jlongArray gridSumY;
+    jintArray projectionColumns;
+    jintArray projectionRows;
+};
+
+static void ReadRequest(JNIEnv* env, jobject result, MotionRequest& request)
+{
+    request.compensateIllumination = env->GetBooleanField(result, gMotionResultCompensateIllumination);
+    // the field is public, and the vector kernels compare against threshold + 1 as an unsigned byte, so a value
+    // out of range would wrap rather than mean nothing or everything moves
+    request.threshold = std::max(0, std::min(MOTION_MAX_PIXEL_THRESHOLD,
+                                             (int)env->GetIntField(result, gMotionResultPixelThreshold)));
+    request.noiseRow = env->GetIntField(result, gMotionResultNoiseRow);
+    request.lumaHistogram = (jintArray)env->GetObjectField(result, gMotionResultLumaHistogram);
+    request.noiseHistogram = (jintArray)env->GetObjectField(result, gMotionResultNoiseHistogram);
+    
+    request.gridCounts = NULL;
+    request.gridSumX = request.gridSumY = NULL;
+    request.projectionColumns = request.projectionRows = NULL;
+    
+    jobject grid = env->GetObjectField(result, gMotionResultGrid);
+    if(grid != NULL) {
+        request.gridCounts = (jintArray)env->GetObjectField(grid, gGridCountsField);
+        request.gridSumX = (jlongArray)env->GetObjectField(grid, gGridSumXField);
+        request.gridSumY = (jlongArray)env->GetObjectField(grid, gGridSumYField);
+        env->DeleteLocalRef(grid);
+        return;
+    }
+    
+    jobject projection = env->GetObjectField(result, gMotionResultProjection);
+    if(projection != NULL) {
+        request.projectionColumns = (jintArray)env->GetObjectField(projection, gProjectionColumnsField);
+        request.projectionRows = (jintArray)env->GetObjectField(projection, gProjectionRowsField);
+        env->DeleteLocalRef(projection);
+    }
+}
+
+// the kernel's params for a pass over [left, right) x [top, bottom) as the caller asked for it
+static MotionParams RequestParams(MotionContext& context, const MotionRequest& request, jint decimation, jint left,
+                                  jint top, jint right, jint bottom)
+{
+    MotionParams params = { decimation, left, top, right, bottom,
+                            (request.lumaHistogram != NULL) ? context.lumaHistogram : NULL, 0, request.threshold,
+                            (request.noiseHistogram != NULL) ? context.noiseHistogram : NULL, request.noiseRow };
+    return params;
+}
+
+// writes the average position, fraction in motion and mean luminance into the caller's result object
+static void ReportMotion(JNIEnv* env, const MotionSums& sums, uint64_t sampleCount, uint64_t scannedCount,
+                         jobject result)
+{
+    Point2d avg(-1.0, -1.0);
+    double pointsCounted = (double)sums.count;
+    
+    if(sums.count > 0) {
+        avg.x = (double)sums.sumX / pointsCounted;
+        avg.y = (double)sums.sumY / pointsCounted;
+    }
+    
+    double meanLuma = (scannedCount > 0) ? (double)sums.sumLuma / (double)scannedCount : -1.0;
+    
+    // write into the caller's result object rather than creating a new one every frame
+    env->CallVoidMethod(result, gMotionResultSet, avg.x, avg.y, pointsCounted / (double)sampleCount, meanLuma);
+}
+
+// estimates the change in brightness between the frames when the caller asked for it, and sets the pass to take it out
+static void CompensateIllumination(const GreyPlane& current, const GreyPlane& previous, jboolean compensate,
+                                   MotionParams& params, MotionIllumination& illumination)
+{
+    illumination.offset = 0;
+    illumination.samples = illumination.unexplained = 0;
+    if(compensate)
+        MotionEstimateIllumination(current, previous, params.threshold, illumination);
+    params.illuminationOffset = illumination.offset;
+}
+
+static void ReportIllumination(JNIEnv* env, const MotionIllumination& illumination, jobject result)
+{
+    env->CallVoidMethod(result, gMotionResultSetIllumination, (jint)illumination.offset,
+                        (jboolean)MotionIsIlluminationChange(illumination));
+}
+
+// a grid over the whole of a frame, backed by the context's cell arrays
+static MotionGrid PrepareGrid(MotionContext& context, const GreyPlane& frame)
+{
+    MotionGrid grid;
+    grid.cols = MotionGridColumns(frame.cols);
+    grid.rows = MotionGridRows(frame.rows);
+    
+    size_t cells = (size_t)grid.cols * grid.rows;
+    if(context.gridCount.size() < cells) {
+        context.gridCount.resize(cells);
+        context.gridSumX.resize(cells);
+        context.gridSumY.resize(cells);
+    }
+    grid.count = &context.gridCount[0];
+    grid.sumX = &context.gridSumX[0];
+    grid.sumY = &context.gridSumY[0];
+    return grid;
+}
+
+// copies the cells of a grid pass into the caller's arrays; the sums fit easily in Java's signed types
+static void ReportGrid(JNIEnv* env, const MotionGrid& grid, jintArray counts, jlongArray sumX, jlongArray sumY)
+{
+    jsize cells = grid.cols * grid.rows;
+    env->SetIntArrayRegion(counts, 0, cells, (const jint*)grid.count);
+    env->SetLongArrayRegion(sumX, 0, cells, (const jlong*)grid.sumX);
+    env->SetLongArrayRegion(sumY, 0, cells, (const jlong*)grid.sumY);
+}
+
+// a projection of the whole of a frame, backed by the context's count arrays
+static MotionProjection PrepareProjection(MotionContext& context, const GreyPlane& frame)
+{
+    if(context.projectionColumns.size() < (size_t)frame.cols)
+        context.projectionColumns.resize(frame.cols);
+    if(context.projectionRows.size() < (size_t)frame.rows)
+        context.projectionRows.resize(frame.rows);
+    
+    MotionProjection projection = { &context.projectionColumns[0], &context.projectionRows[0] };
+    return projection;
+}
+
+static void ReportProjection(JNIEnv* env, const MotionContext& context, const GreyPlane& frame, jintArray columns,
+                             jintArray rows)
+{
+    env->SetIntArrayRegion(columns, 0, frame.cols, (const jint*)&context.projectionColumns[0]);
+    env->SetIntArrayRegion(rows, 0, frame.rows, (const jint*)&context.projectionRows[0]);
+}
+
+// copies the luminance histogram of the last pass into the caller's array
+static void ReportHistogram(JNIEnv* env, const MotionContext& context, jintArray histogram)
+{
+    env->SetIntArrayRegion(histogram, 0, MOTION_LUMA_BINS, (const jint*)context.lumaHistogram);
+}
 
-JNIEXPORT jobject JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_CameraGestureSensor_DetectMovementPosition(JNIEnv* env, jobject,
-                                                                                                                     jlong currentFrameAddr,
-                                                                                                                     jlong previousFrameAddr/*,
-                                                                                                                     jlong outputFrameAddr*/)
+static void ReportNoise(JNIEnv* env, const MotionContext& context, jintArray histogram)
 {
+    env->SetIntArrayRegion(histogram, 0, MOTION_NOISE_BINS, (const jint*)context.noiseHistogram);
+}
+
+JNIEXPORT void JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_NativeMotionEngine_DetectMovementPosition(JNIEnv* env, jclass,
+                                                                                                                 jlong contextAddr,
+                                                                                                                 jlong currentFrameAddr,
+                                                                                                                 jlong previousFrameAddr,
+                                                                                                                 jint decimation,
+                                                                                                                 jint left, jint top,
+                                                                                                                 jint right, jint bottom,
+                                                                                                                 jobject result);
+
+JNIEXPORT void JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_NativeMotionEngine_DetectMovementPosition(JNIEnv* env, jclass,
+                                                                                                                 jlong contextAddr,
+                                                                                                                 jlong currentFrameAddr,
+                                                                                                                 jlong previousFrameAddr,
+                                                                                                                 jint decimation,
+                                                                                                                 jint left, jint top,
+                                                                                                                 jint right, jint bottom,
+                                                                                                                 jobject result)
+{
+    MotionContext& context = *(MotionContext*)contextAddr;
     Mat& currentFrame  = *(Mat*)currentFrameAddr;
     Mat& previousFrame  = *(Mat*)previousFrameAddr;
-    //Mat& outputFrame  = *(Mat*)outputFrameAddr;
     
-    //absdiff(currentFrame, previousFrame, outputFrame);
+    GreyPlane current = { currentFrame.data, currentFrame.step, currentFrame.rows, currentFrame.cols };
+    GreyPlane previous = { previousFrame.data, previousFrame.step, previousFrame.rows, previousFrame.cols };
     
-    //blur(outputFrame, outputFrame, Point(5, 5));
+    MotionRequest request;
+    ReadRequest(env, result, request);
+    MotionParams params = RequestParams(context, request, decimation, left, top, right, bottom);
     
-    Point2d avg(-1.0, -1.0);
-    double pointsCounted = 0.0;
-
-    for(int y = 2; y < currentFrame.rows - 2; y++)
-    {
-        for(int x = 2; x < currentFrame.cols - 2; x++) {
-            int currPixel = abs(ELEM(currentFrame, x, y) - ELEM(previousFrame, x, y));
-            if(currPixel > 20) {
-                avg.x = (avg.x * pointsCounted + (double)x) / (pointsCounted + 1.0);
-                avg.y = (avg.y * pointsCounted + (double)y) / (pointsCounted + 1.0);
-                
-                pointsCounted++;
-                //ELEM(outputFrame, x, y) = 255;
-            } //else ELEM(outputFrame, x, y) = 0;
-        }
+    MotionIllumination illumination;
+    CompensateIllumination(current, previous, request.compensateIllumination, params, illumination);
+    
+    // the grid and projection passes run on the calling thread alone, since the workers would race on the sums
+    MotionSums sums;
+    if(request.gridCounts != NULL) {
+        MotionGrid grid = PrepareGrid(context, current);
+        MotionGridDetect(current, previous, params, sums, grid);
+        ReportGrid(env, grid, request.gridCounts, request.gridSumX, request.gridSumY);
+    }
+    else if(request.projectionColumns != NULL) {
+        MotionProjection projection = PrepareProjection(context, current);
+        MotionProjectionDetect(current, previous, params, sums, projection);
+        ReportProjection(env, context, current, request.projectionColumns, request.projectionRows);
+    }
+    else
+        context.workerPool.Detect(current, previous, params, sums);
+    
+    if(request.lumaHistogram != NULL)
+        ReportHistogram(env, context, request.lumaHistogram);
+    if(request.noiseHistogram != NULL)
+        ReportNoise(env, context, request.noiseHistogram);
+    ReportIllumination(env, illumination, result);
+    ReportMotion(env, sums, MotionSampleCount(current, params), MotionScannedSampleCount(current, params), result);
+}
+
+JNIEXPORT void JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_NativeMotionEngine_DetectMovementPositionInBytes(JNIEnv* env, jclass,
+                                                                                                                        jlong contextAddr,
+                                                                                                                        jbyteArray currentFrameBytes,
+                                                                                                                        jbyteArray previousFrameBytes,
+                                                                                                                        jint width, jint height,
+                                                                                                                        jint decimation,
+                                                                                                                        jint left, jint top,
+                                                                                                                        jint right, jint bottom,
+                                                                                                                        jobject result);
+
+JNIEXPORT void JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_NativeMotionEngine_DetectMovementPositionInBytes(JNIEnv* env, jclass,
+                                                                                                                        jlong contextAddr,
+                                                                                                                        jbyteArray currentFrameBytes,
+                                                                                                                        jbyteArray previousFrameBytes,
+                                                                                                                        jint width, jint height,
+                                                                                                                        jint decimation,
+                                                                                                                        jint left, jint top,
+                                                                                                                        jint right, jint bottom,
+                                                                                                                        jobject result)
+{
+    MotionContext& context = *(MotionContext*)contextAddr;
+    
+    // the result's fields cannot be read once the frames are pinned
+    MotionRequest request;
+    ReadRequest(env, result, request);
+    MotionParams params = RequestParams(context, request, decimation, left, top, right, bottom);
+    
+    MotionSums sums;
+    MotionIllumination illumination;
+    
+    // critical access pins the arrays instead of copying them; no JNI calls may be made until they are released
+    uint8_t* currentData = (uint8_t*)env->GetPrimitiveArrayCritical(currentFrameBytes, NULL);
+    uint8_t* previousData = (uint8_t*)env->GetPrimitiveArrayCritical(previousFrameBytes, NULL);
+    
+    GreyPlane current = { currentData, (size_t)width, height, width };
+    GreyPlane previous = { previousData, (size_t)width, height, width };
+    
+    // the cell and projection arrays are prepared before the frames are pinned, since resizing them may allocate
+    MotionGrid grid;
+    MotionProjection projection;
+    if(request.gridCounts != NULL)
+        grid = PrepareGrid(context, current);
+    else if(request.projectionColumns != NULL)
+        projection = PrepareProjection(context, current);
+    
+    if(currentData != NULL && previousData != NULL) {
+        CompensateIllumination(current, previous, request.compensateIllumination, params, illumination);
+        if(request.gridCounts != NULL)
+            MotionGridDetect(current, previous, params, sums, grid);
+        else if(request.projectionColumns != NULL)
+            MotionProjectionDetect(current, previous, params, sums, projection);
+        else
+            context.workerPool.Detect(current, previous, params, sums);
+    }
+    else {
+        sums.count = sums.sumX = sums.sumY = sums.sumLuma = 0;
+        illumination.offset = 0;
+        illumination.samples = illumination.unexplained = 0;
+        if(params.lumaHistogram != NULL)
+            fill(context.lumaHistogram, context.lumaHistogram + MOTION_LUMA_BINS, 0);
+        if(params.noiseHistogram != NULL)
+            fill(context.noiseHistogram, context.noiseHistogram + MOTION_NOISE_BINS, 0);
     }
     
-    // create the point object to be returned
-    jobject object;
-    jmethodID constructor;
-    jclass cls;
+    if(previousData != NULL)
+        env->ReleasePrimitiveArrayCritical(previousFrameBytes, previousData, JNI_ABORT);
+    if(currentData != NULL)
+        env->ReleasePrimitiveArrayCritical(currentFrameBytes, currentData, JNI_ABORT);
     
-    cls = env->FindClass("edu/washington/cs/touchfreelibrary/sensors/MotionDetectionReturnValue");
-    constructor = env->GetMethodID(cls, "<init>", "(DDD)V");
-    object = env->NewObject(cls, constructor, avg.x, avg.y, pointsCounted / (double)(currentFrame.rows * currentFrame.cols));
+    if(request.gridCounts != NULL) {
+        // a frame that could not be pinned leaves the cells empty, as the sums are
+        if(currentData == NULL || previousData == NULL) {
+            size_t cells = (size_t)grid.cols * grid.rows;
+            fill(context.gridCount.begin(), context.gridCount.begin() + cells, 0);
+            fill(context.gridSumX.begin(), context.gridSumX.begin() + cells, 0);
+            fill(context.gridSumY.begin(), context.gridSumY.begin() + cells, 0);
+        }
+        ReportGrid(env, grid, request.gridCounts, request.gridSumX, request.gridSumY);
+    }
+    else if(request.projectionColumns != NULL) {
+        // and the columns and rows
+        if(currentData == NULL || previousData == NULL) {
+            fill(context.projectionColumns.begin(), context.projectionColumns.begin() + width, 0);
+            fill(context.projectionRows.begin(), context.projectionRows.begin() + height, 0);
+        }
+        ReportProjection(env, context, current, request.projectionColumns, request.projectionRows);
+    }
+    if(request.lumaHistogram != NULL)
+        ReportHistogram(env, context, request.lumaHistogram);
+    if(request.noiseHistogram != NULL)
+        ReportNoise(env, context, request.noiseHistogram);
+    ReportIllumination(env, illumination, result);
+    
+    // nothing was scanned in a frame that could not be pinned, so it has no mean luminance
+    uint64_t scannedCount = (currentData != NULL && previousData != NULL) ? MotionScannedSampleCount(current, params) : 0;
+    ReportMotion(env, sums, MotionSampleCount(current, params), scannedCount, result);
+}
+
+JNIEXPORT jlong JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_NativeMotionEngine_CreateMotionContext(JNIEnv*, jclass);
+
+JNIEXPORT jlong JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_NativeMotionEngine_CreateMotionContext(JNIEnv*, jclass)
+{
+    return (jlong)new MotionContext();
+}
 
-    return object;
+JNIEXPORT void JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_NativeMotionEngine_DestroyMotionContext(JNIEnv*, jclass, jlong contextAddr);
+
+JNIEXPORT void JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_NativeMotionEngine_DestroyMotionContext(JNIEnv*, jclass, jlong contextAddr)
+{
+    // stops the context's workers before freeing its buffers
+    delete (MotionContext*)contextAddr;
+}
+
+JNIEXPORT void JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_NativeMotionEngine_SetMotionThreadCount(JNIEnv*, jclass, jlong contextAddr, jint count);
+
+JNIEXPORT void JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_NativeMotionEngine_SetMotionThreadCount(JNIEnv*, jclass, jlong contextAddr, jint count)
+{
+    ((MotionContext*)contextAddr)->workerPool.SetThreadCount(count);
 }
 
 }
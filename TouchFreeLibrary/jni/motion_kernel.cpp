@@ -0,0 +1,911 @@
+#include "motion_kernel.h"
+
+#include <stdlib.h>
+#include <string.h>
+
+#if defined(__SSE2__)
+#include <emmintrin.h>
+#define MOTION_KERNEL_SSE2
+#if defined(__AVX2__)
+#include <immintrin.h>
+#define MOTION_KERNEL_AVX2
+#endif
+#elif defined(__ARM_NEON__) || defined(__ARM_NEON)
+#include <arm_neon.h>
+#define MOTION_KERNEL_NEON
+#endif
+
+// NEON is optional on ARMv7, so there this file is built twice, without NEON as motion_kernel_plain.cpp and
+// with it as motion_kernel_neon.cpp, each into its own namespace; motion_kernel_dispatch.cpp picks one of them
+#if defined(MOTION_KERNEL_NAMESPACE)
+namespace MOTION_KERNEL_NAMESPACE {
+#endif
+
+// a previous pixel shifted by the illumination offset, saturating as the vector kernels do
+static inline int ShiftPixel(int pixel, int offset)
+{
+    pixel += offset;
+    return pixel < 0 ? 0 : (pixel > 255 ? 255 : pixel);
+}
+
+// Adds every stride'th pixel in [x, end) of one row to count and sumX, and to the byte count of its column
+// when columns is not null, one per pixel sampled. Branch-free, because noisy frames make the moving/not
+// moving test impossible to predict.
+static inline void AccumulateRowScalar(const uint8_t* current, const uint8_t* previous, int x, int end, int stride,
+                                       int offset, int threshold, uint8_t* columns,
+                                       uint32_t& count, uint64_t& sumX, uint64_t& sumLuma)
+{
+    for(; x < end; x += stride) {
+        uint32_t moving = abs(current[x] - ShiftPixel(previous[x], offset)) > threshold;
+        count += moving;
+        sumX += moving * (uint32_t)x;
+        sumLuma += current[x];
+        if(columns != NULL)
+            *columns++ += (uint8_t)moving;
+    }
+}
+
+#if defined(MOTION_KERNEL_NEON)
+
+// adds 16 pixel pairs, whose x coordinates are in xLow and xHigh, to the per-lane sums
+// and when columns is not null, each pixel to the byte count of its column: the mask is 0xff, so subtracting it adds 1
+static inline void AccumulateMoving(uint8x16_t current, uint8x16_t previous, uint8x16_t threshold,
+                                    uint16x8_t xLow, uint16x8_t xHigh, uint8_t* columns,
+                                    uint16x8_t& countLanes, uint32x4_t& sumXLanes, uint32x4_t& lumaLanes)
+{
+    lumaLanes = vpadalq_u16(lumaLanes, vpaddlq_u8(current));
+
+    uint8x16_t moving = vcgtq_u8(vabdq_u8(current, previous), threshold);
+    countLanes = vpadalq_u8(countLanes, vshrq_n_u8(moving, 7));
+    if(columns != NULL)
+        vst1q_u8(columns, vsubq_u8(vld1q_u8(columns), moving));
+
+    // widen the 0x00/0xff mask to 16 bits so it can select the x coordinates
+    int8x16_t signedMoving = vreinterpretq_s8_u8(moving);
+    uint16x8_t maskLow = vreinterpretq_u16_s16(vmovl_s8(vget_low_s8(signedMoving)));
+    uint16x8_t maskHigh = vreinterpretq_u16_s16(vmovl_s8(vget_high_s8(signedMoving)));
+    sumXLanes = vpadalq_u16(sumXLanes, vandq_u16(maskLow, xLow));
+    sumXLanes = vpadalq_u16(sumXLanes, vandq_u16(maskHigh, xHigh));
+}
+
+// the previous pixels shifted by the illumination offset: one of brighten and darken is always zero
+static inline uint8x16_t ShiftPixels(uint8x16_t previous, uint8x16_t brighten, uint8x16_t darken)
+{
+    return vqsubq_u8(vqaddq_u8(previous, brighten), darken);
+}
+
+static inline void AccumulateRow(const uint8_t* current, const uint8_t* previous, int x, int end, int decimation,
+                                 int offset, int threshold, uint8_t* columns,
+                                 uint32_t& count, uint64_t& sumX, uint64_t& sumLuma)
+{
+    static const uint16_t laneOffsets[16] = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 };
+    const int span = 16 * decimation;
+    const uint16x8_t step = vdupq_n_u16(span);
+    const uint8x16_t brighten = vdupq_n_u8(offset > 0 ? offset : 0);
+    const uint8x16_t darken = vdupq_n_u8(offset < 0 ? -offset : 0);
+    const uint8x16_t limit = vdupq_n_u8(threshold);
+
+    uint16x8_t xLow = vmlaq_n_u16(vdupq_n_u16(x), vld1q_u16(laneOffsets), decimation);
+    uint16x8_t xHigh = vmlaq_n_u16(vdupq_n_u16(x), vld1q_u16(laneOffsets + 8), decimation);
+    uint16x8_t countLanes = vdupq_n_u16(0);
+    uint32x4_t sumXLanes = vdupq_n_u32(0);
+    uint32x4_t lumaLanes = vdupq_n_u32(0);
+
+    // the de-interleaving loads pick out every second or fourth pixel for free
+    for(; x + span <= end; x += span) {
+        if(decimation == 1)
+            AccumulateMoving(vld1q_u8(current + x), ShiftPixels(vld1q_u8(previous + x), brighten, darken), limit,
+                             xLow, xHigh, columns, countLanes, sumXLanes, lumaLanes);
+        else if(decimation == 2)
+            AccumulateMoving(vld2q_u8(current + x).val[0], ShiftPixels(vld2q_u8(previous + x).val[0], brighten, darken),
+                             limit, xLow, xHigh, columns, countLanes, sumXLanes, lumaLanes);
+        else
+            AccumulateMoving(vld4q_u8(current + x).val[0], ShiftPixels(vld4q_u8(previous + x).val[0], brighten, darken),
+                             limit, xLow, xHigh, columns, countLanes, sumXLanes, lumaLanes);
+
+        xLow = vaddq_u16(xLow, step);
+        xHigh = vaddq_u16(xHigh, step);
+        if(columns != NULL)
+            columns += 16;
+    }
+
+    uint64x2_t countPairs = vpaddlq_u32(vpaddlq_u16(countLanes));
+    uint64x2_t sumXPairs = vpaddlq_u32(sumXLanes);
+    count += (uint32_t)(vgetq_lane_u64(countPairs, 0) + vgetq_lane_u64(countPairs, 1));
+    sumX += vgetq_lane_u64(sumXPairs, 0) + vgetq_lane_u64(sumXPairs, 1);
+    uint64x2_t lumaPairs = vpaddlq_u32(lumaLanes);
+    sumLuma += vgetq_lane_u64(lumaPairs, 0) + vgetq_lane_u64(lumaPairs, 1);
+
+    AccumulateRowScalar(current, previous, x, end, decimation, offset, threshold, columns, count, sumX, sumLuma);
+}
+
+#elif defined(MOTION_KERNEL_SSE2)
+
+// adds 16 pixel pairs, whose x coordinates are in xLow and xHigh, to the per-lane sums
+// above holds the threshold + 1 in every byte; when columns is not null, each pixel is also added to the
+// byte count of its column: the mask is 0xff, so subtracting it adds 1
+static inline void AccumulateMoving(__m128i current, __m128i previous, __m128i above, __m128i xLow, __m128i xHigh,
+                                    uint8_t* columns, __m128i& countLanes, __m128i& sumXLanes, __m128i& lumaLanes)
+{
+    lumaLanes = _mm_add_epi64(lumaLanes, _mm_sad_epu8(current, _mm_setzero_si128()));
+
+    // SSE2 has no unsigned byte compare, so test diff > threshold as max(diff, threshold + 1) == diff
+    __m128i diff = _mm_or_si128(_mm_subs_epu8(current, previous), _mm_subs_epu8(previous, current));
+    __m128i moving = _mm_cmpeq_epi8(_mm_max_epu8(diff, above), diff);
+    if(columns != NULL)
+        _mm_storeu_si128((__m128i*)columns, _mm_sub_epi8(_mm_loadu_si128((const __m128i*)columns), moving));
+
+    countLanes = _mm_add_epi64(countLanes, _mm_sad_epu8(_mm_and_si128(moving, _mm_set1_epi8(1)), _mm_setzero_si128()));
+
+    __m128i maskLow = _mm_unpacklo_epi8(moving, moving);
+    __m128i maskHigh = _mm_unpackhi_epi8(moving, moving);
+    sumXLanes = _mm_add_epi32(sumXLanes, _mm_madd_epi16(_mm_and_si128(maskLow, xLow), _mm_set1_epi16(1)));
+    sumXLanes = _mm_add_epi32(sumXLanes, _mm_madd_epi16(_mm_and_si128(maskHigh, xHigh), _mm_set1_epi16(1)));
+}
+
+// packs every decimation'th byte of the 16 * decimation bytes at data into one vector
+static inline __m128i LoadDecimated(const uint8_t* data, int decimation)
+{
+    if(decimation == 1)
+        return _mm_loadu_si128((const __m128i*)data);
+
+    if(decimation == 2) {
+        const __m128i evenBytes = _mm_set1_epi16(0x00ff);
+        __m128i a = _mm_and_si128(_mm_loadu_si128((const __m128i*)data), evenBytes);
+        __m128i b = _mm_and_si128(_mm_loadu_si128((const __m128i*)(data + 16)), evenBytes);
+        return _mm_packus_epi16(a, b);
+    }
+
+    const __m128i firstBytes = _mm_set1_epi32(0x000000ff);
+    __m128i a = _mm_and_si128(_mm_loadu_si128((const __m128i*)data), firstBytes);
+    __m128i b = _mm_and_si128(_mm_loadu_si128((const __m128i*)(data + 16)), firstBytes);
+    __m128i c = _mm_and_si128(_mm_loadu_si128((const __m128i*)(data + 32)), firstBytes);
+    __m128i d = _mm_and_si128(_mm_loadu_si128((const __m128i*)(data + 48)), firstBytes);
+    return _mm_packus_epi16(_mm_packs_epi32(a, b), _mm_packs_epi32(c, d));
+}
+
+// the previous pixels shifted by the illumination offset: one of brighten and darken is always zero
+static inline __m128i ShiftPixels(__m128i previous, __m128i brighten, __m128i darken)
+{
+    return _mm_subs_epu8(_mm_adds_epu8(previous, brighten), darken);
+}
+
+static inline void AccumulateRowSse2(const uint8_t* current, const uint8_t* previous, int x, int end, int decimation,
+                                     int offset, int threshold, uint8_t* columns,
+                                     uint32_t& count, uint64_t& sumX, uint64_t& sumLuma)
+{
+    const int span = 16 * decimation;
+    const __m128i brighten = _mm_set1_epi8((char)(offset > 0 ? offset : 0));
+    const __m128i darken = _mm_set1_epi8((char)(offset < 0 ? -offset : 0));
+    const __m128i above = _mm_set1_epi8((char)(threshold + 1));
+    const __m128i step = _mm_set1_epi16((short)span);
+    const __m128i base = _mm_set1_epi16((short)x);
+    const __m128i scale = _mm_set1_epi16((short)decimation);
+
+    __m128i xLow = _mm_add_epi16(_mm_mullo_epi16(_mm_setr_epi16(0, 1, 2, 3, 4, 5, 6, 7), scale), base);
+    __m128i xHigh = _mm_add_epi16(_mm_mullo_epi16(_mm_setr_epi16(8, 9, 10, 11, 12, 13, 14, 15), scale), base);
+    __m128i countLanes = _mm_setzero_si128();
+    __m128i sumXLanes = _mm_setzero_si128();
+    __m128i lumaLanes = _mm_setzero_si128();
+
+    for(; x + span <= end; x += span) {
+        AccumulateMoving(LoadDecimated(current + x, decimation),
+                         ShiftPixels(LoadDecimated(previous + x, decimation), brighten, darken), above,
+                         xLow, xHigh, columns, countLanes, sumXLanes, lumaLanes);
+
+        xLow = _mm_add_epi16(xLow, step);
+        xHigh = _mm_add_epi16(xHigh, step);
+        if(columns != NULL)
+            columns += 16;
+    }
+
+    uint32_t counts[4], sums[4];
+    uint64_t lumas[2];
+    _mm_storeu_si128((__m128i*)counts, countLanes);
+    _mm_storeu_si128((__m128i*)sums, sumXLanes);
+    _mm_storeu_si128((__m128i*)lumas, lumaLanes);
+    count += counts[0] + counts[2];
+    sumX += (uint64_t)sums[0] + sums[1] + sums[2] + sums[3];
+    sumLuma += lumas[0] + lumas[1];
+
+    AccumulateRowScalar(current, previous, x, end, decimation, offset, threshold, columns, count, sumX, sumLuma);
+}
+
+#if defined(MOTION_KERNEL_AVX2)
+
+// full-resolution rows only; decimated rows use the SSE2 gather, since AVX2 packs work per 128-bit half
+static inline void AccumulateRowAvx2(const uint8_t* current, const uint8_t* previous, int x, int end,
+                                     int offset, int threshold, uint8_t* columns,
+                                     uint32_t& count, uint64_t& sumX, uint64_t& sumLuma)
+{
+    const __m256i above = _mm256_set1_epi8((char)(threshold + 1));
+    const __m256i brighten = _mm256_set1_epi8((char)(offset > 0 ? offset : 0));
+    const __m256i darken = _mm256_set1_epi8((char)(offset < 0 ? -offset : 0));
+    const __m256i oneBytes = _mm256_set1_epi8(1);
+    const __m256i oneWords = _mm256_set1_epi16(1);
+    const __m256i step = _mm256_set1_epi16(32);
+    const __m256i zero = _mm256_setzero_si256();
+
+    // unpacklo/unpackhi work within each 128-bit half, so the x coordinates are laid out to match
+    __m256i base = _mm256_set1_epi16((short)x);
+    __m256i xLow = _mm256_add_epi16(_mm256_setr_epi16(0, 1, 2, 3, 4, 5, 6, 7, 16, 17, 18, 19, 20, 21, 22, 23), base);
+    __m256i xHigh = _mm256_add_epi16(_mm256_setr_epi16(8, 9, 10, 11, 12, 13, 14, 15, 24, 25, 26, 27, 28, 29, 30, 31), base);
+    __m256i countLanes = _mm256_setzero_si256();
+    __m256i sumXLanes = _mm256_setzero_si256();
+    __m256i lumaLanes = _mm256_setzero_si256();
+
+    for(; x + 32 <= end; x += 32) {
+        __m256i c = _mm256_loadu_si256((const __m256i*)(current + x));
+        __m256i p = _mm256_subs_epu8(_mm256_adds_epu8(_mm256_loadu_si256((const __m256i*)(previous + x)), brighten), darken);
+        __m256i diff = _mm256_or_si256(_mm256_subs_epu8(c, p), _mm256_subs_epu8(p, c));
+        __m256i moving = _mm256_cmpeq_epi8(_mm256_max_epu8(diff, above), diff);
+        if(columns != NULL) {
+            _mm256_storeu_si256((__m256i*)columns, _mm256_sub_epi8(_mm256_loadu_si256((const __m256i*)columns), moving));
+            columns += 32;
+        }
+
+        countLanes = _mm256_add_epi64(countLanes, _mm256_sad_epu8(_mm256_and_si256(moving, oneBytes), zero));
+        lumaLanes = _mm256_add_epi64(lumaLanes, _mm256_sad_epu8(c, zero));
+
+        __m256i maskLow = _mm256_unpacklo_epi8(moving, moving);
+        __m256i maskHigh = _mm256_unpackhi_epi8(moving, moving);
+        sumXLanes = _mm256_add_epi32(sumXLanes, _mm256_madd_epi16(_mm256_and_si256(maskLow, xLow), oneWords));
+        sumXLanes = _mm256_add_epi32(sumXLanes, _mm256_madd_epi16(_mm256_and_si256(maskHigh, xHigh), oneWords));
+
+        xLow = _mm256_add_epi16(xLow, step);
+        xHigh = _mm256_add_epi16(xHigh, step);
+    }
+
+    uint64_t counts[4], lumas[4];
+    uint32_t sums[8];
+    _mm256_storeu_si256((__m256i*)counts, countLanes);
+    _mm256_storeu_si256((__m256i*)sums, sumXLanes);
+    _mm256_storeu_si256((__m256i*)lumas, lumaLanes);
+    count += (uint32_t)(counts[0] + counts[1] + counts[2] + counts[3]);
+    sumLuma += lumas[0] + lumas[1] + lumas[2] + lumas[3];
+    for(int i = 0; i < 8; i++)
+        sumX += sums[i];
+
+    AccumulateRowScalar(current, previous, x, end, 1, offset, threshold, columns, count, sumX, sumLuma);
+}
+
+#endif
+
+static inline void AccumulateRow(const uint8_t* current, const uint8_t* previous, int x, int end, int decimation,
+                                 int offset, int threshold, uint8_t* columns,
+                                 uint32_t& count, uint64_t& sumX, uint64_t& sumLuma)
+{
+#if defined(MOTION_KERNEL_AVX2)
+    if(decimation == 1) {
+        AccumulateRowAvx2(current, previous, x, end, offset, threshold, columns, count, sumX, sumLuma);
+        return;
+    }
+#endif
+    AccumulateRowSse2(current, previous, x, end, decimation, offset, threshold, columns, count, sumX, sumLuma);
+}
+
+#else
+
+static inline void AccumulateRow(const uint8_t* current, const uint8_t* previous, int x, int end, int decimation,
+                                 int offset, int threshold, uint8_t* columns,
+                                 uint32_t& count, uint64_t& sumX, uint64_t& sumLuma)
+{
+    AccumulateRowScalar(current, previous, x, end, decimation, offset, threshold, columns, count, sumX, sumLuma);
+}
+
+#endif
+
+// A grid pass handles one 16-pixel cell per vector, and keeps each cell's sums in vector lanes for all
+// of its rows so they are reduced once per cell rather than once per row. Decimated passes skip rows
+// and mask off the columns not on the decimation grid; pixels outside [left, right) are masked off too.
+#if defined(MOTION_KERNEL_NEON)
+
+#define MOTION_GRID_SIMD
+
+struct CellLanes {
+    uint32x4_t count;
+    uint32x4_t sumX;
+    uint32x4_t sumY;
+    uint32x4_t luma;
+};
+
+typedef uint8x16_t CellMask;
+typedef uint8x16_t CellShift;
+
+static inline CellShift CellShiftBrighten(int offset)
+{
+    return vdupq_n_u8(offset > 0 ? offset : 0);
+}
+
+static inline CellShift CellShiftDarken(int offset)
+{
+    return vdupq_n_u8(offset < 0 ? -offset : 0);
+}
+
+typedef uint8x16_t CellThreshold;
+
+static inline CellThreshold CellThresholdOf(int threshold)
+{
+    return vdupq_n_u8(threshold);
+}
+
+// the bytes of a cell on the decimation grid, which starts at the 2 pixel border
+static inline CellMask SampleMask(int decimation)
+{
+    static const uint8_t everySecond[16] = { 0xff, 0, 0xff, 0, 0xff, 0, 0xff, 0, 0xff, 0, 0xff, 0, 0xff, 0, 0xff, 0 };
+    static const uint8_t everyFourth[16] = { 0, 0, 0xff, 0, 0, 0, 0xff, 0, 0, 0, 0xff, 0, 0, 0, 0xff, 0 };
+    if(decimation == 2)
+        return vld1q_u8(everySecond);
+    if(decimation == 4)
+        return vld1q_u8(everyFourth);
+    return vdupq_n_u8(0xff);
+}
+
+static inline void ClearCellLanes(CellLanes& lanes)
+{
+    lanes.count = lanes.sumX = lanes.sumY = lanes.luma = vdupq_n_u32(0);
+}
+
+static inline void AccumulateCellRow(const uint8_t* current, const uint8_t* previous, int x, int left, int right,
+                                     uint32_t y, CellMask samples, uint8x16_t brighten, uint8x16_t darken,
+                                     CellThreshold threshold, CellLanes& lanes)
+{
+    static const uint16_t laneOffsets[16] = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 };
+    uint16x8_t xLow = vaddq_u16(vdupq_n_u16(x), vld1q_u16(laneOffsets));
+    uint16x8_t xHigh = vaddq_u16(vdupq_n_u16(x), vld1q_u16(laneOffsets + 8));
+
+    if(x < left || x + MOTION_GRID_CELL > right) {
+        uint16x8_t inLow = vandq_u16(vcgeq_u16(xLow, vdupq_n_u16(left)), vcltq_u16(xLow, vdupq_n_u16(right)));
+        uint16x8_t inHigh = vandq_u16(vcgeq_u16(xHigh, vdupq_n_u16(left)), vcltq_u16(xHigh, vdupq_n_u16(right)));
+        samples = vandq_u8(samples, vcombine_u8(vmovn_u16(inLow), vmovn_u16(inHigh)));
+    }
+
+    uint8x16_t c = vandq_u8(vld1q_u8(current + x), samples);
+    uint8x16_t moving = vcgtq_u8(vabdq_u8(vld1q_u8(current + x), ShiftPixels(vld1q_u8(previous + x), brighten, darken)),
+                                 threshold);
+    moving = vandq_u8(moving, samples);
+    lanes.luma = vpadalq_u16(lanes.luma, vpaddlq_u8(c));
+
+    uint16x8_t rowCount = vpaddlq_u8(vshrq_n_u8(moving, 7));
+    lanes.count = vpadalq_u16(lanes.count, rowCount);
+    lanes.sumY = vmlaq_n_u32(lanes.sumY, vpaddlq_u16(rowCount), y);
+
+    int8x16_t signedMoving = vreinterpretq_s8_u8(moving);
+    uint16x8_t maskLow = vreinterpretq_u16_s16(vmovl_s8(vget_low_s8(signedMoving)));
+    uint16x8_t maskHigh = vreinterpretq_u16_s16(vmovl_s8(vget_high_s8(signedMoving)));
+    lanes.sumX = vpadalq_u16(lanes.sumX, vandq_u16(maskLow, xLow));
+    lanes.sumX = vpadalq_u16(lanes.sumX, vandq_u16(maskHigh, xHigh));
+}
+
+static inline void ReduceCellLanes(const CellLanes& lanes, uint32_t& count, uint64_t& sumX, uint64_t& sumY,
+                                   uint64_t& sumLuma)
+{
+    uint64x2_t countPairs = vpaddlq_u32(lanes.count);
+    uint64x2_t sumXPairs = vpaddlq_u32(lanes.sumX);
+    uint64x2_t sumYPairs = vpaddlq_u32(lanes.sumY);
+    uint64x2_t lumaPairs = vpaddlq_u32(lanes.luma);
+    count = (uint32_t)(vgetq_lane_u64(countPairs, 0) + vgetq_lane_u64(countPairs, 1));
+    sumX = vgetq_lane_u64(sumXPairs, 0) + vgetq_lane_u64(sumXPairs, 1);
+    sumY = vgetq_lane_u64(sumYPairs, 0) + vgetq_lane_u64(sumYPairs, 1);
+    sumLuma = vgetq_lane_u64(lumaPairs, 0) + vgetq_lane_u64(lumaPairs, 1);
+}
+
+#elif defined(MOTION_KERNEL_SSE2)
+
+#define MOTION_GRID_SIMD
+
+// count, sumY and luma in two 64-bit lanes, sumX in four 32-bit lanes
+struct CellLanes {
+    __m128i count;
+    __m128i sumX;
+    __m128i sumY;
+    __m128i luma;
+};
+
+typedef __m128i CellMask;
+typedef __m128i CellShift;
+
+static inline CellShift CellShiftBrighten(int offset)
+{
+    return _mm_set1_epi8((char)(offset > 0 ? offset : 0));
+}
+
+static inline CellShift CellShiftDarken(int offset)
+{
+    return _mm_set1_epi8((char)(offset < 0 ? -offset : 0));
+}
+
+// threshold + 1 in every byte, for the max trick
+typedef __m128i CellThreshold;
+
+static inline CellThreshold CellThresholdOf(int threshold)
+{
+    return _mm_set1_epi8((char)(threshold + 1));
+}
+
+// the bytes of a cell on the decimation grid, which starts at the 2 pixel border
+static inline CellMask SampleMask(int decimation)
+{
+    if(decimation == 2)
+        return _mm_set1_epi16(0x00ff);
+    if(decimation == 4)
+        return _mm_set1_epi32(0x00ff0000);
+    return _mm_set1_epi8((char)0xff);
+}
+
+static inline void ClearCellLanes(CellLanes& lanes)
+{
+    lanes.count = lanes.sumX = lanes.sumY = lanes.luma = _mm_setzero_si128();
+}
+
+static inline void AccumulateCellRow(const uint8_t* current, const uint8_t* previous, int x, int left, int right,
+                                     uint32_t y, CellMask samples, __m128i brighten, __m128i darken,
+                                     CellThreshold above, CellLanes& lanes)
+{
+    __m128i xLow = _mm_add_epi16(_mm_set1_epi16((short)x), _mm_setr_epi16(0, 1, 2, 3, 4, 5, 6, 7));
+    __m128i xHigh = _mm_add_epi16(_mm_set1_epi16((short)x), _mm_setr_epi16(8, 9, 10, 11, 12, 13, 14, 15));
+
+    __m128i c = _mm_loadu_si128((const __m128i*)(current + x));
+    __m128i p = ShiftPixels(_mm_loadu_si128((const __m128i*)(previous + x)), brighten, darken);
+    __m128i diff = _mm_or_si128(_mm_subs_epu8(c, p), _mm_subs_epu8(p, c));
+    __m128i moving = _mm_cmpeq_epi8(_mm_max_epu8(diff, above), diff);
+    if(x < left || x + MOTION_GRID_CELL > right) {
+        __m128i first = _mm_set1_epi16((short)(left - 1));
+        __m128i end = _mm_set1_epi16((short)right);
+        __m128i inLow = _mm_and_si128(_mm_cmpgt_epi16(xLow, first), _mm_cmplt_epi16(xLow, end));
+        __m128i inHigh = _mm_and_si128(_mm_cmpgt_epi16(xHigh, first), _mm_cmplt_epi16(xHigh, end));
+        samples = _mm_and_si128(samples, _mm_packs_epi16(inLow, inHigh));
+    }
+    moving = _mm_and_si128(moving, samples);
+    lanes.luma = _mm_add_epi64(lanes.luma, _mm_sad_epu8(_mm_and_si128(c, samples), _mm_setzero_si128()));
+
+    __m128i rowCount = _mm_sad_epu8(_mm_and_si128(moving, _mm_set1_epi8(1)), _mm_setzero_si128());
+    lanes.count = _mm_add_epi64(lanes.count, rowCount);
+    lanes.sumY = _mm_add_epi64(lanes.sumY, _mm_mul_epu32(rowCount, _mm_set1_epi32((int)y)));
+
+    __m128i maskLow = _mm_unpacklo_epi8(moving, moving);
+    __m128i maskHigh = _mm_unpackhi_epi8(moving, moving);
+    lanes.sumX = _mm_add_epi32(lanes.sumX, _mm_madd_epi16(_mm_and_si128(maskLow, xLow), _mm_set1_epi16(1)));
+    lanes.sumX = _mm_add_epi32(lanes.sumX, _mm_madd_epi16(_mm_and_si128(maskHigh, xHigh), _mm_set1_epi16(1)));
+}
+
+static inline void ReduceCellLanes(const CellLanes& lanes, uint32_t& count, uint64_t& sumX, uint64_t& sumY,
+                                   uint64_t& sumLuma)
+{
+    uint64_t counts[2], sumsY[2], lumas[2];
+    uint32_t sumsX[4];
+    _mm_storeu_si128((__m128i*)counts, lanes.count);
+    _mm_storeu_si128((__m128i*)sumsX, lanes.sumX);
+    _mm_storeu_si128((__m128i*)sumsY, lanes.sumY);
+    _mm_storeu_si128((__m128i*)lumas, lanes.luma);
+    count = (uint32_t)(counts[0] + counts[1]);
+    sumX = (uint64_t)sumsX[0] + sumsX[1] + sumsX[2] + sumsX[3];
+    sumY = sumsY[0] + sumsY[1];
+    sumLuma = lumas[0] + lumas[1];
+}
+
+#endif
+
+MotionParams MotionParamsFullFrame(int rows, int cols, int decimation)
+{
+    MotionParams params = { decimation, 0, 0, cols, rows, NULL, 0, MOTION_PIXEL_THRESHOLD, NULL, -1 };
+    return params;
+}
+
+// the first coordinate >= start on the decimation grid that begins at the border
+static inline int FirstOnGrid(int start, int decimation)
+{
+    if(start <= MOTION_BORDER)
+        return MOTION_BORDER;
+    return MOTION_BORDER + (start - MOTION_BORDER + decimation - 1) / decimation * decimation;
+}
+
+// clips the region in params to the scannable part of the frame and aligns it to the decimation grid,
+// so a region pass samples exactly the pixels a full pass would sample there
+static inline void ScanBounds(const GreyPlane& frame, const MotionParams& params,
+                              int& left, int& top, int& right, int& bottom)
+{
+    left = FirstOnGrid(params.left, params.decimation);
+    top = FirstOnGrid(params.top, params.decimation);
+    right = params.right < frame.cols - MOTION_BORDER ? params.right : frame.cols - MOTION_BORDER;
+    bottom = params.bottom < frame.rows - MOTION_BORDER ? params.bottom : frame.rows - MOTION_BORDER;
+}
+
+// every pass starts from empty sums, and empty histograms if it was asked for them
+static inline void ClearSums(const MotionParams& params, MotionSums& sums)
+{
+    sums.count = sums.sumX = sums.sumY = sums.sumLuma = 0;
+    if(params.lumaHistogram != NULL)
+        memset(params.lumaHistogram, 0, MOTION_LUMA_BINS * sizeof(params.lumaHistogram[0]));
+    if(params.noiseHistogram != NULL)
+        memset(params.noiseHistogram, 0, MOTION_NOISE_BINS * sizeof(params.noiseHistogram[0]));
+}
+
+// adds one row of the current frame to the histogram if it is on the histogram's grid; the row has just
+// been scanned, so it is still in the cache
+static inline void AccumulateHistogram(const uint8_t* current, int y, int x, int end, uint32_t* histogram)
+{
+    if((y - MOTION_BORDER) % MOTION_LUMA_HISTOGRAM_STEP != 0)
+        return;
+    for(x = FirstOnGrid(x, MOTION_LUMA_HISTOGRAM_STEP); x < end; x += MOTION_LUMA_HISTOGRAM_STEP)
+        histogram[current[x] / (256 / MOTION_LUMA_BINS)]++;
+}
+
+// adds the absolute differences along one row to the noise histogram if it is the row asked for; a single
+// row of a frame costs next to nothing, and the caller builds up its estimate over many frames
+static inline void AccumulateNoise(const uint8_t* current, const uint8_t* previous, int y, int x, int end,
+                                   const MotionParams& params)
+{
+    if(y != params.noiseRow)
+        return;
+    for(x = FirstOnGrid(x, MOTION_NOISE_STEP); x < end; x += MOTION_NOISE_STEP) {
+        int difference = abs(current[x] - ShiftPixel(previous[x], params.illuminationOffset));
+        params.noiseHistogram[difference < MOTION_NOISE_BINS ? difference : MOTION_NOISE_BINS - 1]++;
+    }
+}
+
+void MotionSumsDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params, MotionSums& sums)
+{
+    ClearSums(params, sums);
+
+    int decimation = params.decimation;
+    int left, top, right, bottom;
+    ScanBounds(current, params, left, top, right, bottom);
+
+    for(int y = top; y < bottom; y += decimation) {
+        uint32_t rowCount = 0;
+        uint64_t rowSumX = 0, rowLuma = 0;
+
+        // with no offset the row is inlined with a constant 0, and the shift folds away
+        const uint8_t* currentRow = current.data + current.step * y;
+        const uint8_t* previousRow = previous.data + previous.step * y;
+        if(params.illuminationOffset == 0)
+            AccumulateRow(currentRow, previousRow, left, right, decimation, 0, params.threshold, NULL,
+                          rowCount, rowSumX, rowLuma);
+        else
+            AccumulateRow(currentRow, previousRow, left, right, decimation, params.illuminationOffset, params.threshold,
+                          NULL, rowCount, rowSumX, rowLuma);
+        if(params.lumaHistogram != NULL)
+            AccumulateHistogram(currentRow, y, left, right, params.lumaHistogram);
+        if(params.noiseHistogram != NULL)
+            AccumulateNoise(currentRow, previousRow, y, left, right, params);
+
+        sums.count += rowCount;
+        sums.sumX += rowSumX;
+        sums.sumY += (uint64_t)rowCount * y;
+        sums.sumLuma += rowLuma;
+    }
+}
+
+void MotionSumsScalar(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params, MotionSums& sums)
+{
+    ClearSums(params, sums);
+
+    int decimation = params.decimation;
+    int left, top, right, bottom;
+    ScanBounds(current, params, left, top, right, bottom);
+
+    for(int y = top; y < bottom; y += decimation) {
+        uint32_t rowCount = 0;
+        uint64_t rowSumX = 0, rowLuma = 0;
+
+        const uint8_t* currentRow = current.data + current.step * y;
+        const uint8_t* previousRow = previous.data + previous.step * y;
+        AccumulateRowScalar(currentRow, previousRow, left, right, decimation, params.illuminationOffset,
+                            params.threshold, NULL, rowCount, rowSumX, rowLuma);
+        if(params.lumaHistogram != NULL)
+            AccumulateHistogram(currentRow, y, left, right, params.lumaHistogram);
+        if(params.noiseHistogram != NULL)
+            AccumulateNoise(currentRow, previousRow, y, left, right, params);
+
+        sums.count += rowCount;
+        sums.sumX += rowSumX;
+        sums.sumY += (uint64_t)rowCount * y;
+        sums.sumLuma += rowLuma;
+    }
+}
+
+int MotionGridColumns(int frameCols)
+{
+    return (frameCols + MOTION_GRID_CELL - 1) / MOTION_GRID_CELL;
+}
+
+int MotionGridRows(int frameRows)
+{
+    return (frameRows + MOTION_GRID_CELL - 1) / MOTION_GRID_CELL;
+}
+
+// adds one cell's sums to the grid and to the totals
+static inline void AddCell(MotionGrid& grid, int cell, uint32_t count, uint64_t sumX, uint64_t sumY, MotionSums& sums)
+{
+    grid.count[cell] += count;
+    grid.sumX[cell] += sumX;
+    grid.sumY[cell] += sumY;
+
+    sums.count += count;
+    sums.sumX += sumX;
+    sums.sumY += sumY;
+}
+
+#if defined(MOTION_GRID_SIMD)
+
+// the cells whose lanes are live at once, so any width of frame needs only a fixed amount of stack
+static const int GRID_BLOCK_CELLS = 64;
+
+// the grid pass in vectors, a row of cells at a time
+static void MotionGridDetectSimd(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params,
+                                 int left, int top, int right, int bottom, MotionSums& sums, MotionGrid& grid)
+{
+    int decimation = params.decimation;
+    if(left >= right)
+        return;
+
+    CellLanes lanes[GRID_BLOCK_CELLS];
+    CellMask samples = SampleMask(decimation);
+    CellShift brighten = CellShiftBrighten(params.illuminationOffset);
+    CellShift darken = CellShiftDarken(params.illuminationOffset);
+    CellThreshold threshold = CellThresholdOf(params.threshold);
+    int firstCell = left / MOTION_GRID_CELL;
+    int endCell = (right - 1) / MOTION_GRID_CELL + 1;
+
+    for(int cellY = top / MOTION_GRID_CELL; cellY * MOTION_GRID_CELL < bottom; cellY++) {
+        int rowStart = FirstOnGrid(top > cellY * MOTION_GRID_CELL ? top : cellY * MOTION_GRID_CELL, decimation);
+        int rowEnd = bottom < (cellY + 1) * MOTION_GRID_CELL ? bottom : (cellY + 1) * MOTION_GRID_CELL;
+
+        for(int blockStart = firstCell; blockStart < endCell; blockStart += GRID_BLOCK_CELLS) {
+            int blockEnd = endCell < blockStart + GRID_BLOCK_CELLS ? endCell : blockStart + GRID_BLOCK_CELLS;
+            for(int cell = blockStart; cell < blockEnd; cell++)
+                ClearCellLanes(lanes[cell - blockStart]);
+
+            // a last cell that would read past the end of the row is summed pixel by pixel
+            int vectorEnd = blockEnd;
+            if(vectorEnd * MOTION_GRID_CELL > current.cols)
+                vectorEnd--;
+            uint32_t tailCount = 0;
+            uint64_t tailSumX = 0, tailSumY = 0, tailLuma = 0;
+
+            for(int y = rowStart; y < rowEnd; y += decimation) {
+                const uint8_t* currentRow = current.data + current.step * y;
+                const uint8_t* previousRow = previous.data + previous.step * y;
+
+                for(int cell = blockStart; cell < vectorEnd; cell++)
+                    AccumulateCellRow(currentRow, previousRow, cell * MOTION_GRID_CELL, left, right, (uint32_t)y,
+                                      samples, brighten, darken, threshold, lanes[cell - blockStart]);
+
+                if(params.lumaHistogram != NULL && blockStart == firstCell)
+                    AccumulateHistogram(currentRow, y, left, right, params.lumaHistogram);
+                if(params.noiseHistogram != NULL && blockStart == firstCell)
+                    AccumulateNoise(currentRow, previousRow, y, left, right, params);
+
+                if(vectorEnd < blockEnd) {
+                    uint32_t rowCount = 0;
+                    int tailStart = FirstOnGrid(vectorEnd * MOTION_GRID_CELL, decimation);
+                    AccumulateRowScalar(currentRow, previousRow, left > tailStart ? left : tailStart, right, decimation,
+                                        params.illuminationOffset, params.threshold, NULL, rowCount, tailSumX, tailLuma);
+                    tailCount += rowCount;
+                    tailSumY += (uint64_t)rowCount * y;
+                }
+            }
+
+            int cellRow = cellY * grid.cols;
+            for(int cell = blockStart; cell < vectorEnd; cell++) {
+                uint32_t count;
+                uint64_t sumX, sumY, sumLuma;
+                ReduceCellLanes(lanes[cell - blockStart], count, sumX, sumY, sumLuma);
+                AddCell(grid, cellRow + cell, count, sumX, sumY, sums);
+                sums.sumLuma += sumLuma;
+            }
+            if(vectorEnd < blockEnd) {
+                AddCell(grid, cellRow + vectorEnd, tailCount, tailSumX, tailSumY, sums);
+                sums.sumLuma += tailLuma;
+            }
+        }
+    }
+}
+
+#endif
+
+void MotionGridDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params,
+                      MotionSums& sums, MotionGrid& grid)
+{
+    ClearSums(params, sums);
+
+    size_t cells = (size_t)grid.cols * grid.rows;
+    memset(grid.count, 0, cells * sizeof(grid.count[0]));
+    memset(grid.sumX, 0, cells * sizeof(grid.sumX[0]));
+    memset(grid.sumY, 0, cells * sizeof(grid.sumY[0]));
+
+    int left, top, right, bottom;
+    ScanBounds(current, params, left, top, right, bottom);
+
+#if defined(MOTION_GRID_SIMD)
+    MotionGridDetectSimd(current, previous, params, left, top, right, bottom, sums, grid);
+#else
+    int decimation = params.decimation;
+    for(int y = top; y < bottom; y += decimation) {
+        const uint8_t* currentRow = current.data + current.step * y;
+        const uint8_t* previousRow = previous.data + previous.step * y;
+        int cellRow = y / MOTION_GRID_CELL * grid.cols;
+        if(params.lumaHistogram != NULL)
+            AccumulateHistogram(currentRow, y, left, right, params.lumaHistogram);
+        if(params.noiseHistogram != NULL)
+            AccumulateNoise(currentRow, previousRow, y, left, right, params);
+
+        // x stays on the decimation grid as it steps from cell to cell
+        int x = left;
+        while(x < right) {
+            int cell = x / MOTION_GRID_CELL;
+            int end = (cell + 1) * MOTION_GRID_CELL;
+            if(end > right)
+                end = right;
+
+            uint32_t cellCount = 0;
+            uint64_t cellSumX = 0, cellLuma = 0;
+            for(; x < end; x += decimation) {
+                uint32_t moving = abs(currentRow[x] - ShiftPixel(previousRow[x], params.illuminationOffset)) > params.threshold;
+                cellCount += moving;
+                cellSumX += moving * (uint32_t)x;
+                cellLuma += currentRow[x];
+            }
+            AddCell(grid, cellRow + cell, cellCount, cellSumX, (uint64_t)cellCount * y, sums);
+            sums.sumLuma += cellLuma;
+        }
+    }
+#endif
+}
+
+// A projection pass keeps the column counts of a strip of the frame in bytes, one per sample, so the vector
+// kernels can add a whole mask of moving pixels to them at once. They are added to the projection every
+// PROJECTION_FLUSH_ROWS rows, before they can overflow, and at the end of the strip.
+static const int PROJECTION_STRIP_SAMPLES = 1024;
+static const int PROJECTION_FLUSH_ROWS = 255;
+
+static inline void FlushColumns(uint8_t* counts, int samples, int x, int decimation, uint32_t* columns)
+{
+    for(int i = 0; i < samples; i++, x += decimation)
+        columns[x] += counts[i];
+    memset(counts, 0, samples);
+}
+
+void MotionProjectionDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params,
+                            MotionSums& sums, MotionProjection& projection)
+{
+    ClearSums(params, sums);
+    memset(projection.columns, 0, current.cols * sizeof(projection.columns[0]));
+    memset(projection.rows, 0, current.rows * sizeof(projection.rows[0]));
+
+    int decimation = params.decimation;
+    int left, top, right, bottom;
+    ScanBounds(current, params, left, top, right, bottom);
+
+    uint8_t counts[PROJECTION_STRIP_SAMPLES];
+    for(int stripStart = left; stripStart < right; stripStart += PROJECTION_STRIP_SAMPLES * decimation) {
+        int stripEnd = right < stripStart + PROJECTION_STRIP_SAMPLES * decimation ?
+                       right : stripStart + PROJECTION_STRIP_SAMPLES * decimation;
+        int samples = (stripEnd - stripStart + decimation - 1) / decimation;
+        memset(counts, 0, samples);
+        int rowsCounted = 0;
+
+        for(int y = top; y < bottom; y += decimation) {
+            uint32_t rowCount = 0;
+            uint64_t rowSumX = 0, rowLuma = 0;
+
+            const uint8_t* currentRow = current.data + current.step * y;
+            const uint8_t* previousRow = previous.data + previous.step * y;
+            AccumulateRow(currentRow, previousRow, stripStart, stripEnd, decimation, params.illuminationOffset,
+                          params.threshold, counts, rowCount, rowSumX, rowLuma);
+            if(params.lumaHistogram != NULL && stripStart == left)
+                AccumulateHistogram(currentRow, y, left, right, params.lumaHistogram);
+            if(params.noiseHistogram != NULL && stripStart == left)
+                AccumulateNoise(currentRow, previousRow, y, left, right, params);
+
+            projection.rows[y] += rowCount;
+            sums.count += rowCount;
+            sums.sumX += rowSumX;
+            sums.sumY += (uint64_t)rowCount * y;
+            sums.sumLuma += rowLuma;
+
+            if(++rowsCounted == PROJECTION_FLUSH_ROWS) {
+                FlushColumns(counts, samples, stripStart, decimation, projection.columns);
+                rowsCounted = 0;
+            }
+        }
+        FlushColumns(counts, samples, stripStart, decimation, projection.columns);
+    }
+}
+
+void MotionEstimateIllumination(const GreyPlane& current, const GreyPlane& previous, int threshold,
+                                MotionIllumination& illumination)
+{
+    // every signed difference from -255 to 255 has its own bin, so the median is exact
+    uint32_t histogram[511];
+    memset(histogram, 0, sizeof(histogram));
+
+    uint32_t samples = 0;
+    for(int y = MOTION_BORDER; y < current.rows - MOTION_BORDER; y += MOTION_ILLUMINATION_STEP) {
+        const uint8_t* currentRow = current.data + current.step * y;
+        const uint8_t* previousRow = previous.data + previous.step * y;
+        for(int x = MOTION_BORDER; x < current.cols - MOTION_BORDER; x += MOTION_ILLUMINATION_STEP) {
+            histogram[currentRow[x] - previousRow[x] + 255]++;
+            samples++;
+        }
+    }
+
+    illumination.offset = 0;
+    illumination.samples = samples;
+    illumination.unexplained = 0;
+    if(samples == 0)
+        return;
+
+    int median = 0;
+    uint32_t seen = 0;
+    while(seen + histogram[median] <= samples / 2)
+        seen += histogram[median++];
+    illumination.offset = median - 255;
+
+    // the samples that would still count as moving once the offset is taken out
+    for(int bin = 0; bin < 511; bin++) {
+        int residual = bin - median;
+        if(residual > threshold || residual < -threshold)
+            illumination.unexplained += histogram[bin];
+    }
+}
+
+bool MotionIsIlluminationChange(const MotionIllumination& illumination)
+{
+    return illumination.unexplained * 2 > illumination.samples;
+}
+
+uint64_t MotionSampleCount(const GreyPlane& frame, const MotionParams& params)
+{
+    return (uint64_t)(frame.rows / params.decimation) * (uint64_t)(frame.cols / params.decimation);
+}
+
+uint64_t MotionScannedSampleCount(const GreyPlane& frame, const MotionParams& params)
+{
+    int decimation = params.decimation;
+    int left, top, right, bottom;
+    ScanBounds(frame, params, left, top, right, bottom);
+    if(left >= right || top >= bottom)
+        return 0;
+    return (uint64_t)((bottom - top + decimation - 1) / decimation) * (uint64_t)((right - left + decimation - 1) / decimation);
+}
+
+void MotionAverageReference(const GreyPlane& current, const GreyPlane& previous,
+                            double& averageX, double& averageY, double& pointsCounted)
+{
+    averageX = averageY = -1.0;
+    pointsCounted = 0.0;
+
+    for(int y = MOTION_BORDER; y < current.rows - MOTION_BORDER; y++) {
+        const uint8_t* currentRow = current.data + current.step * y;
+        const uint8_t* previousRow = previous.data + previous.step * y;
+
+        for(int x = MOTION_BORDER; x < current.cols - MOTION_BORDER; x++) {
+            int currPixel = abs(currentRow[x] - previousRow[x]);
+            if(currPixel > MOTION_PIXEL_THRESHOLD) {
+                averageX = (averageX * pointsCounted + (double)x) / (pointsCounted + 1.0);
+                averageY = (averageY * pointsCounted + (double)y) / (pointsCounted + 1.0);
+
+                pointsCounted++;
+            }
+        }
+    }
+}
+
+const char* MotionKernelName()
+{
+#if defined(MOTION_KERNEL_AVX2)
+    return "avx2";
+#elif defined(MOTION_KERNEL_SSE2)
+    return "sse2";
+#elif defined(MOTION_KERNEL_NEON)
+    return "neon";
+#else
+    return "scalar";
+#endif
+}
+
+#if defined(MOTION_KERNEL_NAMESPACE)
+}
+#endif
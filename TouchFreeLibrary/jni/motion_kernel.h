@@ -0,0 +1,159 @@
+#ifndef MOTION_KERNEL_H
+#define MOTION_KERNEL_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+// by default a pixel counts as moving when its absolute difference from the previous frame is above this;
+// see MotionParams::threshold
+const int MOTION_PIXEL_THRESHOLD = 20;
+
+// the largest threshold the vector kernels can compare against
+const int MOTION_MAX_PIXEL_THRESHOLD = 254;
+
+// pixels this close to the edge of the frame are never scanned
+const int MOTION_BORDER = 2;
+
+// the integer sums built by one pass over a pair of grey frames
+struct MotionSums {
+    uint64_t count;
+    uint64_t sumX;
+    uint64_t sumY;
+
+    // the grey levels of the current frame over every pixel sampled, moving or not, for its mean brightness
+    uint64_t sumLuma;
+};
+
+// the number of bins in a luminance histogram, each covering 256 / MOTION_LUMA_BINS grey levels
+const int MOTION_LUMA_BINS = 16;
+
+// the histogram only counts every fourth pixel of every fourth row, the pixels a decimation 4 pass
+// samples, whatever the decimation; that is plenty for its bins and keeps it off the pass's critical path
+const int MOTION_LUMA_HISTOGRAM_STEP = 4;
+
+// the number of bins in a noise histogram: one per absolute difference, the last also taking every larger one
+const int MOTION_NOISE_BINS = 64;
+
+// the noise histogram counts every fourth pixel of its row, the same columns as the luminance histogram
+const int MOTION_NOISE_STEP = 4;
+
+// Options for a pass of the kernel.
+struct MotionParams {
+    // 1, 2 or 4: only every decimation'th pixel of every decimation'th row is scanned
+    int decimation;
+
+    // only pixels with left <= x < right and top <= y < bottom are scanned; the border is always skipped
+    int left, top, right, bottom;
+
+    // when not null, MOTION_LUMA_BINS counts that receive the current frame's pixels by grey level,
+    // sampled every MOTION_LUMA_HISTOGRAM_STEP pixels
+    uint32_t* lumaHistogram;
+
+    // added to every pixel of the previous frame, saturating, before it is compared, so a change in
+    // brightness across the whole frame is not taken for motion; 0 for none
+    int illuminationOffset;
+
+    // a pixel counts as moving when its absolute difference from the previous frame is above this, from 0 to
+    // MOTION_MAX_PIXEL_THRESHOLD
+    int threshold;
+
+    // when not null, MOTION_NOISE_BINS counts that receive the absolute differences along row noiseRow, sampled
+    // every MOTION_NOISE_STEP pixels, to estimate the camera's noise from; the row is read while it is scanned,
+    // so nothing is counted unless it is on the decimation grid and inside the region
+    uint32_t* noiseHistogram;
+    int noiseRow;
+};
+
+// params that scan the whole of a rows x cols frame
+MotionParams MotionParamsFullFrame(int rows, int cols, int decimation);
+
+// A grey frame as seen by the kernel: rows of cols bytes, each row starting step bytes after the last.
+struct GreyPlane {
+    const uint8_t* data;
+    size_t step;
+    int rows;
+    int cols;
+};
+
+// Builds (count, sum of x, sum of y) of the moving pixels using the fastest kernel compiled in.
+// Coordinates are always in full-frame pixels, whatever the decimation.
+void MotionSumsDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params, MotionSums& sums);
+
+// Plain integer version of MotionSumsDetect, used for the unaligned tail of each row and as a fallback.
+void MotionSumsScalar(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params, MotionSums& sums);
+
+// the illumination pre-pass samples every MOTION_ILLUMINATION_STEP'th pixel of every
+// MOTION_ILLUMINATION_STEP'th row of the whole frame, a 64th of it
+const int MOTION_ILLUMINATION_STEP = 8;
+
+// how much the brightness of the whole frame changed between two frames
+struct MotionIllumination {
+    // the median of current - previous over the samples, for MotionParams::illuminationOffset
+    int offset;
+
+    // the number of pixels sampled, and how many of them would still count as moving with the
+    // offset taken out: a change the offset cannot explain, such as a light coming on in one corner
+    uint32_t samples;
+    uint32_t unexplained;
+};
+
+// Estimates the change in brightness between two frames from a sparse sample of the whole frame.
+// The median ignores moving hands as long as they cover less than half the frame.
+// A sample counts as unexplained when it differs from the offset by more than threshold.
+void MotionEstimateIllumination(const GreyPlane& current, const GreyPlane& previous, int threshold,
+                                MotionIllumination& illumination);
+
+// true when the change is too uneven for the offset to take out, so that more than half the frame would
+// still be moving, as when a light comes on and brightens the near and bright parts of a room the most;
+// the motion in such a frame is best skipped
+bool MotionIsIlluminationChange(const MotionIllumination& illumination);
+
+// the number of pixels a pass with this decimation samples over the whole frame, border included,
+// whatever region is set in params
+uint64_t MotionSampleCount(const GreyPlane& frame, const MotionParams& params);
+
+// the number of pixels a pass with these params actually scans, which sumLuma is summed over
+uint64_t MotionScannedSampleCount(const GreyPlane& frame, const MotionParams& params);
+
+// The original double-precision running average, kept as a reference for the integer kernels.
+void MotionAverageReference(const GreyPlane& current, const GreyPlane& previous,
+                            double& averageX, double& averageY, double& pointsCounted);
+
+// moving pixels are also summed per square cell of this many pixels, to find separate moving regions
+const int MOTION_GRID_CELL = 16;
+
+// Per-cell sums of a pass: cols x rows cells, one row of cells after another, each covering
+// MOTION_GRID_CELL x MOTION_GRID_CELL pixels from the top left of the frame. The caller owns the arrays.
+struct MotionGrid {
+    int cols;
+    int rows;
+    uint32_t* count;
+    uint64_t* sumX;
+    uint64_t* sumY;
+};
+
+// the number of cells across and down a grid for a rows x cols frame
+int MotionGridColumns(int frameCols);
+int MotionGridRows(int frameRows);
+
+// Builds the same sums as MotionSumsDetect and, in the same pass, the sums of every cell of grid.
+// Cells outside the scanned region are zeroed.
+void MotionGridDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params,
+                      MotionSums& sums, MotionGrid& grid);
+
+// Per-column and per-row counts of the moving pixels of a pass, whose shift from one frame to the next is the
+// displacement of the motion: columns has an entry for every column of the frame, rows for every row, and only
+// those on the decimation grid inside the region can be non-zero. The caller owns the arrays.
+struct MotionProjection {
+    uint32_t* columns;
+    uint32_t* rows;
+};
+
+// Builds the same sums as MotionSumsDetect and, in the same pass, the counts of every column and row.
+void MotionProjectionDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params,
+                            MotionSums& sums, MotionProjection& projection);
+
+// name of the kernel MotionSumsDetect dispatches to, e.g. "neon" or "sse2"
+const char* MotionKernelName();
+
+#endif // MOTION_KERNEL_H
@@ -0,0 +1,238 @@
+#include "motion_kernel.h"
+
+#include <string.h>
+#include <vector>
+
+#include <android/log.h>
+#include <cpu-features.h>
+
+using std::vector;
+
+// NEON is optional on ARMv7 (Tegra 2 has none), so Android.mk builds motion_kernel.cpp twice on armeabi-v7a, once
+// without NEON and once with it, into the two namespaces below. The entry points motion_kernel.h declares are
+// defined here: the ones that use vectors go to the NEON build when the CPU has NEON and that build agrees with
+// the plain one on a test pair, and everything else to the plain build.
+
+namespace motion_kernel_plain {
+MotionParams MotionParamsFullFrame(int rows, int cols, int decimation);
+void MotionSumsDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params, MotionSums& sums);
+void MotionSumsScalar(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params, MotionSums& sums);
+void MotionEstimateIllumination(const GreyPlane& current, const GreyPlane& previous, int threshold,
+                                MotionIllumination& illumination);
+bool MotionIsIlluminationChange(const MotionIllumination& illumination);
+uint64_t MotionSampleCount(const GreyPlane& frame, const MotionParams& params);
+uint64_t MotionScannedSampleCount(const GreyPlane& frame, const MotionParams& params);
+void MotionAverageReference(const GreyPlane& current, const GreyPlane& previous,
+                            double& averageX, double& averageY, double& pointsCounted);
+int MotionGridColumns(int frameCols);
+int MotionGridRows(int frameRows);
+void MotionGridDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params,
+                      MotionSums& sums, MotionGrid& grid);
+void MotionProjectionDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params,
+                            MotionSums& sums, MotionProjection& projection);
+const char* MotionKernelName();
+}
+
+namespace motion_kernel_neon {
+void MotionSumsDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params, MotionSums& sums);
+void MotionGridDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params,
+                      MotionSums& sums, MotionGrid& grid);
+void MotionProjectionDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params,
+                            MotionSums& sums, MotionProjection& projection);
+const char* MotionKernelName();
+}
+
+static const int CHECK_COLS = 160;
+static const int CHECK_ROWS = 120;
+
+static bool SameSums(const MotionSums& a, const MotionSums& b)
+{
+    return a.count == b.count && a.sumX == b.sumX && a.sumY == b.sumY && a.sumLuma == b.sumLuma;
+}
+
+// runs every vector entry point of both builds with one set of params and compares all they produce
+static bool BuildsAgree(const GreyPlane& current, const GreyPlane& previous, const MotionParams& base)
+{
+    uint32_t plainLuma[MOTION_LUMA_BINS], neonLuma[MOTION_LUMA_BINS];
+    uint32_t plainNoise[MOTION_NOISE_BINS], neonNoise[MOTION_NOISE_BINS];
+    memset(plainLuma, 0, sizeof(plainLuma));
+    memset(neonLuma, 0, sizeof(neonLuma));
+    memset(plainNoise, 0, sizeof(plainNoise));
+    memset(neonNoise, 0, sizeof(neonNoise));
+
+    MotionParams plainParams = base, neonParams = base;
+    plainParams.lumaHistogram = plainLuma;
+    plainParams.noiseHistogram = plainNoise;
+    neonParams.lumaHistogram = neonLuma;
+    neonParams.noiseHistogram = neonNoise;
+
+    MotionSums plain, neon;
+    motion_kernel_plain::MotionSumsDetect(current, previous, plainParams, plain);
+    motion_kernel_neon::MotionSumsDetect(current, previous, neonParams, neon);
+    if(!SameSums(plain, neon) || memcmp(plainLuma, neonLuma, sizeof(plainLuma)) != 0
+            || memcmp(plainNoise, neonNoise, sizeof(plainNoise)) != 0)
+        return false;
+
+    int cells = motion_kernel_plain::MotionGridColumns(current.cols) * motion_kernel_plain::MotionGridRows(current.rows);
+    vector<uint32_t> plainCount(cells), neonCount(cells);
+    vector<uint64_t> plainSumX(cells), neonSumX(cells), plainSumY(cells), neonSumY(cells);
+    MotionGrid plainGrid = { motion_kernel_plain::MotionGridColumns(current.cols),
+                             motion_kernel_plain::MotionGridRows(current.rows),
+                             &plainCount[0], &plainSumX[0], &plainSumY[0] };
+    MotionGrid neonGrid = plainGrid;
+    neonGrid.count = &neonCount[0];
+    neonGrid.sumX = &neonSumX[0];
+    neonGrid.sumY = &neonSumY[0];
+    motion_kernel_plain::MotionGridDetect(current, previous, base, plain, plainGrid);
+    motion_kernel_neon::MotionGridDetect(current, previous, base, neon, neonGrid);
+    if(!SameSums(plain, neon) || plainCount != neonCount || plainSumX != neonSumX || plainSumY != neonSumY)
+        return false;
+
+    vector<uint32_t> plainColumns(current.cols), neonColumns(current.cols);
+    vector<uint32_t> plainRows(current.rows), neonRows(current.rows);
+    MotionProjection plainProjection = { &plainColumns[0], &plainRows[0] };
+    MotionProjection neonProjection = { &neonColumns[0], &neonRows[0] };
+    motion_kernel_plain::MotionProjectionDetect(current, previous, base, plain, plainProjection);
+    motion_kernel_neon::MotionProjectionDetect(current, previous, base, neon, neonProjection);
+    return SameSums(plain, neon) && plainColumns == neonColumns && plainRows == neonRows;
+}
+
+// the NEON build is only used if it finds exactly what the plain build does on a noisy pair with a moving block,
+// over every decimation, with and without an illumination offset, at the lowest and highest thresholds and
+// over the whole frame and an odd region
+static bool NeonAgrees()
+{
+    vector<uint8_t> current(CHECK_COLS * CHECK_ROWS), previous(CHECK_COLS * CHECK_ROWS);
+    uint32_t seed = 12345;
+    for(size_t i = 0; i < current.size(); i++) {
+        seed = seed * 1103515245 + 12345;
+        previous[i] = (uint8_t)(seed >> 16);
+        int x = (int)(i % CHECK_COLS), y = (int)(i / CHECK_COLS);
+        bool block = x >= 40 && x < 90 && y >= 30 && y < 80;
+        current[i] = block ? (uint8_t)(255 - previous[i]) : (uint8_t)(previous[i] + (int)((seed >> 8) % 9) - 4);
+    }
+
+    GreyPlane currentPlane = { &current[0], CHECK_COLS, CHECK_ROWS, CHECK_COLS };
+    GreyPlane previousPlane = { &previous[0], CHECK_COLS, CHECK_ROWS, CHECK_COLS };
+
+    const int offsets[] = { 0, 17, -23 };
+    const int thresholds[] = { 0, MOTION_PIXEL_THRESHOLD, MOTION_MAX_PIXEL_THRESHOLD };
+    for(int decimation = 1; decimation <= 4; decimation *= 2) {
+        for(int o = 0; o < 3; o++) {
+            for(int t = 0; t < 3; t++) {
+                MotionParams params = motion_kernel_plain::MotionParamsFullFrame(CHECK_ROWS, CHECK_COLS, decimation);
+                params.illuminationOffset = offsets[o];
+                params.threshold = thresholds[t];
+                params.noiseRow = 62;
+                if(!BuildsAgree(currentPlane, previousPlane, params))
+                    return false;
+
+                params.left = 13;
+                params.top = 7;
+                params.right = 141;
+                params.bottom = 103;
+                if(!BuildsAgree(currentPlane, previousPlane, params))
+                    return false;
+            }
+        }
+    }
+    return true;
+}
+
+static bool ChooseNeon()
+{
+    if(android_getCpuFamily() != ANDROID_CPU_FAMILY_ARM || (android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON) == 0)
+        return false;
+
+    if(!NeonAgrees()) {
+        __android_log_print(ANDROID_LOG_WARN, "MotionKernel", "the NEON kernel disagrees with the plain one, "
+                            "using the plain one");
+        return false;
+    }
+    return true;
+}
+
+// chosen on the first pass; the statics of a function are initialised once even if two threads get there together
+static bool UseNeon()
+{
+    static const bool useNeon = ChooseNeon();
+    return useNeon;
+}
+
+MotionParams MotionParamsFullFrame(int rows, int cols, int decimation)
+{
+    return motion_kernel_plain::MotionParamsFullFrame(rows, cols, decimation);
+}
+
+void MotionSumsDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params, MotionSums& sums)
+{
+    if(UseNeon())
+        motion_kernel_neon::MotionSumsDetect(current, previous, params, sums);
+    else
+        motion_kernel_plain::MotionSumsDetect(current, previous, params, sums);
+}
+
+void MotionSumsScalar(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params, MotionSums& sums)
+{
+    motion_kernel_plain::MotionSumsScalar(current, previous, params, sums);
+}
+
+void MotionEstimateIllumination(const GreyPlane& current, const GreyPlane& previous, int threshold,
+                                MotionIllumination& illumination)
+{
+    motion_kernel_plain::MotionEstimateIllumination(current, previous, threshold, illumination);
+}
+
+bool MotionIsIlluminationChange(const MotionIllumination& illumination)
+{
+    return motion_kernel_plain::MotionIsIlluminationChange(illumination);
+}
+
+uint64_t MotionSampleCount(const GreyPlane& frame, const MotionParams& params)
+{
+    return motion_kernel_plain::MotionSampleCount(frame, params);
+}
+
+uint64_t MotionScannedSampleCount(const GreyPlane& frame, const MotionParams& params)
+{
+    return motion_kernel_plain::MotionScannedSampleCount(frame, params);
+}
+
+void MotionAverageReference(const GreyPlane& current, const GreyPlane& previous,
+                            double& averageX, double& averageY, double& pointsCounted)
+{
+    motion_kernel_plain::MotionAverageReference(current, previous, averageX, averageY, pointsCounted);
+}
+
+int MotionGridColumns(int frameCols)
+{
+    return motion_kernel_plain::MotionGridColumns(frameCols);
+}
+
+int MotionGridRows(int frameRows)
+{
+    return motion_kernel_plain::MotionGridRows(frameRows);
+}
+
+void MotionGridDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params,
+                      MotionSums& sums, MotionGrid& grid)
+{
+    if(UseNeon())
+        motion_kernel_neon::MotionGridDetect(current, previous, params, sums, grid);
+    else
+        motion_kernel_plain::MotionGridDetect(current, previous, params, sums, grid);
+}
+
+void MotionProjectionDetect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params,
+                            MotionSums& sums, MotionProjection& projection)
+{
+    if(UseNeon())
+        motion_kernel_neon::MotionProjectionDetect(current, previous, params, sums, projection);
+    else
+        motion_kernel_plain::MotionProjectionDetect(current, previous, params, sums, projection);
+}
+
+const char* MotionKernelName()
+{
+    return UseNeon() ? motion_kernel_neon::MotionKernelName() : motion_kernel_plain::MotionKernelName();
+}
@@ -0,0 +1,3 @@
+// the motion kernel with NEON, built from Android.mk as motion_kernel_neon.cpp.neon; see motion_kernel_dispatch.cpp
+#define MOTION_KERNEL_NAMESPACE motion_kernel_neon
+#include "motion_kernel.cpp"
@@ -0,0 +1,3 @@
+// the motion kernel without NEON, for ARMv7 devices that lack it; see motion_kernel_dispatch.cpp
+#define MOTION_KERNEL_NAMESPACE motion_kernel_plain
+#include "motion_kernel.cpp"
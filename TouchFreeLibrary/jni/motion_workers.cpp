@@ -0,0 +1,158 @@
+#include "motion_workers.h"
+
+MotionWorkerPool::MotionWorkerPool()
+    : mThreadCount(1), mGeneration(0), mBandsPending(0), mQuit(false), mCurrent(NULL), mPrevious(NULL)
+{
+    pthread_mutex_init(&mMutex, NULL);
+    pthread_cond_init(&mWorkReady, NULL);
+    pthread_cond_init(&mWorkDone, NULL);
+}
+
+MotionWorkerPool::~MotionWorkerPool()
+{
+    StopWorkers();
+
+    pthread_cond_destroy(&mWorkDone);
+    pthread_cond_destroy(&mWorkReady);
+    pthread_mutex_destroy(&mMutex);
+}
+
+void MotionWorkerPool::SetThreadCount(int count)
+{
+    if(count < 1)
+        count = 1;
+    if(count > MAX_MOTION_THREADS)
+        count = MAX_MOTION_THREADS;
+    if(count == mThreadCount)
+        return;
+
+    StopWorkers();
+
+    mQuit = false;
+    mThreadCount = count;
+
+    // band 0 belongs to the calling thread
+    for(int band = 1; band < mThreadCount; band++) {
+        mWorkers[band].pool = this;
+        mWorkers[band].band = band;
+        // taken here rather than in the worker, which may not run until after the first Detect
+        mWorkers[band].generation = mGeneration;
+        if(pthread_create(&mWorkers[band].thread, NULL, WorkerMain, &mWorkers[band]) != 0) {
+            // could not start this one, so make do with the workers we have
+            mThreadCount = band;
+            break;
+        }
+    }
+}
+
+void MotionWorkerPool::StopWorkers()
+{
+    if(mThreadCount <= 1)
+        return;
+
+    pthread_mutex_lock(&mMutex);
+    mQuit = true;
+    pthread_cond_broadcast(&mWorkReady);
+    pthread_mutex_unlock(&mMutex);
+
+    for(int band = 1; band < mThreadCount; band++)
+        pthread_join(mWorkers[band].thread, NULL);
+
+    mThreadCount = 1;
+}
+
+void* MotionWorkerPool::WorkerMain(void* arg)
+{
+    Worker* worker = (Worker*)arg;
+    MotionWorkerPool* pool = worker->pool;
+
+    pthread_mutex_lock(&pool->mMutex);
+
+    for(;;) {
+        while(!pool->mQuit && pool->mGeneration == worker->generation)
+            pthread_cond_wait(&pool->mWorkReady, &pool->mMutex);
+        if(pool->mQuit)
+            break;
+        worker->generation = pool->mGeneration;
+        pthread_mutex_unlock(&pool->mMutex);
+
+        pool->RunBand(worker->band);
+
+        pthread_mutex_lock(&pool->mMutex);
+        if(--pool->mBandsPending == 0)
+            pthread_cond_signal(&pool->mWorkDone);
+    }
+
+    pthread_mutex_unlock(&pool->mMutex);
+    return NULL;
+}
+
+void MotionWorkerPool::RunBand(int band)
+{
+    MotionSumsDetect(*mCurrent, *mPrevious, mBandParams[band], mBandSums[band]);
+}
+
+void MotionWorkerPool::Detect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params, MotionSums& sums)
+{
+    if(mThreadCount <= 1) {
+        MotionSumsDetect(current, previous, params, sums);
+        return;
+    }
+
+    // split the scanned rows into even bands; the kernel aligns each band to the decimation grid,
+    // so the bands together sample exactly the rows a single pass would
+    int top = params.top > MOTION_BORDER ? params.top : MOTION_BORDER;
+    int bottom = params.bottom < current.rows - MOTION_BORDER ? params.bottom : current.rows - MOTION_BORDER;
+    int rows = bottom > top ? bottom - top : 0;
+
+    // each band fills a histogram of its own, so the workers never write to the same counts
+    for(int band = 0; band < mThreadCount; band++) {
+        mBandParams[band] = params;
+        mBandParams[band].top = top + rows * band / mThreadCount;
+        mBandParams[band].bottom = top + rows * (band + 1) / mThreadCount;
+        if(params.lumaHistogram != NULL)
+            mBandParams[band].lumaHistogram = mBandHistograms[band];
+
+        // the noise row is in one band at most, which alone is handed the noise histogram
+        if(params.noiseRow < mBandParams[band].top || params.noiseRow >= mBandParams[band].bottom)
+            mBandParams[band].noiseHistogram = NULL;
+    }
+
+    // so it is emptied here, in case no band reads the row
+    if(params.noiseHistogram != NULL) {
+        for(int bin = 0; bin < MOTION_NOISE_BINS; bin++)
+            params.noiseHistogram[bin] = 0;
+    }
+
+    mCurrent = &current;
+    mPrevious = &previous;
+
+    pthread_mutex_lock(&mMutex);
+    mBandsPending = mThreadCount - 1;
+    mGeneration++;
+    pthread_cond_broadcast(&mWorkReady);
+    pthread_mutex_unlock(&mMutex);
+
+    RunBand(0);
+
+    pthread_mutex_lock(&mMutex);
+    while(mBandsPending > 0)
+        pthread_cond_wait(&mWorkDone, &mMutex);
+    pthread_mutex_unlock(&mMutex);
+
+    sums = mBandSums[0];
+    for(int band = 1; band < mThreadCount; band++) {
+        sums.count += mBandSums[band].count;
+        sums.sumX += mBandSums[band].sumX;
+        sums.sumY += mBandSums[band].sumY;
+        sums.sumLuma += mBandSums[band].sumLuma;
+    }
+
+    if(params.lumaHistogram != NULL) {
+        for(int bin = 0; bin < MOTION_LUMA_BINS; bin++) {
+            params.lumaHistogram[bin] = 0;
+            for(int band = 0; band < mThreadCount; band++)
+                params.lumaHistogram[bin] += mBandHistograms[band][bin];
+        }
+    }
+}
@@ -0,0 +1,56 @@
+#ifndef MOTION_WORKERS_H
+#define MOTION_WORKERS_H
+
+#include <pthread.h>
+
+#include "motion_kernel.h"
+
+const int MAX_MOTION_THREADS = 8;
+
+// Splits a kernel pass into row bands and runs them on a set of persistent worker threads. The
+// thread calling Detect always works on the first band itself, so a pool of one thread has no
+// workers at all and costs nothing over calling MotionSumsDetect directly.
+class MotionWorkerPool {
+public:
+    MotionWorkerPool();
+    ~MotionWorkerPool();
+
+    // Starts or stops workers so that Detect uses count threads, the caller included. Must not be
+    // called while Detect is running.
+    void SetThreadCount(int count);
+    int GetThreadCount() const { return mThreadCount; }
+
+    // same result as MotionSumsDetect, computed in parallel
+    void Detect(const GreyPlane& current, const GreyPlane& previous, const MotionParams& params, MotionSums& sums);
+
+private:
+    struct Worker {
+        MotionWorkerPool* pool;
+        int band;
+        unsigned generation;
+        pthread_t thread;
+    };
+
+    static void* WorkerMain(void* arg);
+    void RunBand(int band);
+    void StopWorkers();
+
+    int mThreadCount;
+    Worker mWorkers[MAX_MOTION_THREADS];
+
+    pthread_mutex_t mMutex;
+    pthread_cond_t mWorkReady;
+    pthread_cond_t mWorkDone;
+    unsigned mGeneration;
+    int mBandsPending;
+    bool mQuit;
+
+    // the pass being worked on
+    const GreyPlane* mCurrent;
+    const GreyPlane* mPrevious;
+    MotionParams mBandParams[MAX_MOTION_THREADS];
+    MotionSums mBandSums[MAX_MOTION_THREADS];
+    uint32_t mBandHistograms[MAX_MOTION_THREADS][MOTION_LUMA_BINS];
+};
+
+#endif // MOTION_WORKERS_H
@@ -1,23 +1,22 @@
 package edu.washington.cs.touchfreelibrary.sensors;
 
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
-import org.opencv.core.Core;
-import org.opencv.core.CvType;
-import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.Size;
-import org.opencv.highgui.Highgui;
-import org.opencv.highgui.VideoCapture;
 
 import android.content.Context;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
+import android.util.Log;
 import android.view.Display;
 import android.view.Surface;
 import android.view.WindowManager;
 
+import edu.washington.cs.touchfreelibrary.sensors.GestureClassifier.Direction;
+
 /**
  * <p><code>CameraGestureSensor</code> takes input data from the camera and uses that to sense
  * four gesture commands: up, down, left, and right.</p>
@@ -32,7 +31,8 @@ public class CameraGestureSensor extends ClickSensor {
 	
 	/**
 	 * To receive messages from CameraGestureSensor, classes must implement the <code>CameraGestureSensor.Listener</code>
-	 * interface.
+	 * interface. Gesture lengths are measured between the capture times of the gesture's first and last frames;
+	 * <code>caller.getGestureTiming()</code> gives those times and the gesture's latency while a callback runs.
 	 * 
 	 * @author Leeran Raphaely <leeran.raphaely@gmail.com>
 	 */
@@ -66,44 +66,154 @@ public class CameraGestureSensor extends ClickSensor {
 		public void onGestureRight(CameraGestureSensor caller, long gestureLength);
 	}
 	
-	private enum Direction {
-		Left(0), Down(1), Right(2), Up(3), None(4);
-		
-		private int numVal;
-		
-		Direction(int numVal) {
-			this.numVal = numVal;
-		}
-		
-		public int toInt() {
-			return numVal;
-		}
-	} ;
+	/**
+	 * To be told the shape of every gesture while trajectory recognition is enabled, classes must implement
+	 * the <code>CameraGestureSensor.TrajectoryListener</code> interface. Gestures are adjusted for the screen's
+	 * rotation, as the directions given to a {@link Listener} are.
+	 * 
+	 * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+	 */
+	public interface TrajectoryListener {
+		/**
+		 * Called when a gesture ends whose path matched a shape
+		 * @param caller the CameraGestureSensor object that made the call
+		 * @param gesture the shape recognized; never {@link TrajectoryRecognizer.Gesture#None}
+		 * @param score how closely the path matched, from 0 to 1
+		 * @param gestureLength the amount of time the gesture took in milliseconds
+		 */
+		public void onTrajectoryGesture(CameraGestureSensor caller, TrajectoryRecognizer.Gesture gesture,
+				double score, long gestureLength);
+	}
+	
+	/**
+	 * To follow the motion frame by frame, for example to steer a cursor directly, classes must implement
+	 * the <code>CameraGestureSensor.MotionListener</code> interface. It is called on the sensor's processing
+	 * thread for every frame compared, whether or not a gesture is in progress, so it must return quickly.
+	 * 
+	 * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+	 */
+	public interface MotionListener {
+		/**
+		 * Called once for every frame compared
+		 * @param caller the CameraGestureSensor object that made the call
+		 * @param motion the motion in this frame; the same object is filled in and passed every frame,
+		 * so copy anything that is needed after returning
+		 */
+		public void onMotion(CameraGestureSensor caller, MotionSample motion);
+	}
 	
 	private final static double DEFAULT_AVERAGE_COLOR_MAX_FOR_CLICK = 30.0;
 	private final static long MILLISECONDS_TO_WAIT_FOR_CLICK = 800;
 	
 	private List<Listener> mGestureListeners;
+	private List<TrajectoryListener> mTrajectoryListeners;
+	private List<MotionListener> mMotionListeners;
 	
-	private VideoCapture mCamera;
+	// frames come from the source set with setFrameSource(), or else from the front camera through
+	// VideoCapture or, when enabled, Camera preview callbacks
+	private volatile FrameSource mFrameSource;
+	private boolean mIsPreviewCallbackCaptureEnabled;
 	private int mCameraId;
 	private Size mPreviewSize;
+	
+	// frames are captured on one thread and processed on another, connected by a lock-free queue
+	private static final int FRAME_QUEUE_CAPACITY = 2;
+	private static final long MILLISECONDS_TO_WAIT_FOR_FRAME = 100;
+	private Thread mFrameCapturer;
 	private Thread mFrameProcessor;
+	private FrameQueue mFrameQueue;
+	private boolean mIsDropOldestFramesEnabled;
+	
+	// when enabled, few frames are captured while nothing moves
+	private boolean mIsFrameRateGovernorEnabled;
+	private FrameRateGovernor mFrameRateGovernor;
+	
+	// a source that is not live waits for room in the queue rather than have its frames dropped
+	private static final long NANOSECONDS_TO_WAIT_FOR_QUEUE = 100000;
+	
+	// when set, every processed frame is written to it
+	private volatile FrameRecorder mFrameRecorder;
+	
+	private volatile boolean mIsRunning;
 	
-	private boolean mIsRunning;
+	// what the two threads of one run, from start() to stop(), share; they only act while it is the current run,
+	// so a processing thread left over from a run one of its own listeners stopped cannot touch the next run's
+	// queue or source
+	private static class CaptureRun {
+		final FrameQueue queue;
+		volatile FrameSource source;
+		
+		CaptureRun(FrameQueue queue) {
+			this.queue = queue;
+		}
+	}
+	private volatile CaptureRun mRun;
+	private final Object mSourceLock = new Object();
+	
+	// while paused the camera keeps running but no frame is processed; once the pause has lasted longer
+	// than the release timeout, the processing thread lets the camera go just as stop() would
+	private static final long DEFAULT_PAUSE_RELEASE_TIMEOUT_MILLISECONDS = 10000;
+	private final Object mPauseLock = new Object();
+	private volatile boolean mIsPaused;
+	private long mPauseTime;
+	private long mPauseReleaseTimeout;
+	
+	// when start() or resume() was last called, and how long until the first frame after it was processed
+	private volatile long mResumeRequestTime;
+	private volatile boolean mIsResumeLatencyPending;
+	private volatile boolean mIsWarmResume;
+	private volatile long mResumeLatency;
 	
 	private static final double EPSILON = 0.00001;
-	private static final double MIN_FRACTION_SCREEN_MOTION   = 0.1;
 	
-	private double mMinDirectionalMotionX;
-	private double mMinDirectionalMotionY;
-	private double mWidthToHeight;
+	// 1 scans every pixel, 2 or 4 scan every second or fourth pixel of every second or fourth row
+	private int mDecimation;
+	
+	// while a gesture is in progress, only a window around the last average position is scanned
+	private static final double DEFAULT_REGION_OF_INTEREST_SIZE = 0.5;
+	private static final double REGION_OF_INTEREST_EDGE_MARGIN = 0.1;
+	private static final int FRAMES_BETWEEN_FULL_SCANS = 8;
+	private boolean mIsRegionOfInterestEnabled;
+	private double mRegionOfInterestSize;
+	private int mFramesSinceFullScan;
+	
+	// finds the motion between each pair of frames
+	private MotionEngine mMotionEngine;
+	
+	// the engine the processing thread last ran, released when it is replaced or the run ends; only touched by
+	// the processing thread
+	private MotionEngine mEngineInUse;
 	
-	private Mat mPreviousFrame;
-	private Mat mCurrentFrame;
+	// turns each frame's motion into gestures
+	private GestureClassifier mGestureClassifier;
 	
-	private Point mStartPos;
-	private Point mPreviousPos;
+	// when enabled, the path of each gesture is matched against a library of shapes
+	private boolean mIsTrajectoryRecognitionEnabled;
+	private TrajectoryRecognizer mTrajectoryRecognizer;
+	
+	// when enabled, the motion is split into blobs and gestures follow one blob rather than the average of all
+	private boolean mIsBlobTrackingEnabled;
+	private MotionGrid mMotionGrid;
+	
+	// when enabled, changes in brightness across the whole frame are taken out before motion is looked for
+	private boolean mIsIlluminationCompensationEnabled;
+	
+	// pixels count as moving above the set threshold or, when the automatic threshold is enabled and has an
+	// estimate, above the one picked for the camera's noise, which one row of every frame is sampled for
+	private int mPixelThreshold;
+	private boolean mIsAutoThresholdEnabled;
+	private NoiseEstimator mNoiseEstimator;
+	private int[] mNoiseHistogram;
+	
+	// filled in by the motion engine every frame
+	private MotionDetectionReturnValue mMotionResult;
+	
+	// passed to the motion listeners every frame, with the last position in motion the velocity is measured from
+	private MotionSample mMotionSample;
+	private boolean mWasInMotion;
+	private double mLastMotionX;
+	private double mLastMotionY;
+	private long mLastMotionTime;
 	
 	private boolean mIsHorizontalScrollEnabled;
 	private boolean mIsVerticalScrollEnabled;
@@ -111,10 +221,21 @@ public class CameraGestureSensor extends ClickSensor {
 	
 	private Context mContext;
 	
+	// the display's rotation, looked up on the processing thread at most this often rather than for every
+	// frame; before API 17 there is no listener to say when it changes
+	private static final long NANOSECONDS_BETWEEN_ROTATION_CHECKS = 500000000L;
+	private Display mDisplay;
+	private int mScreenRotation;
+	private long mRotationCheckTime;
+	
 	private double mAverageColorMaxForClick;
+	private boolean mIsWaitingAfterClick;
 	private long mClickStartTime;
 	
-	private long mStartGestureTime;
+	// the processing thread fills in mGestureTiming for every frame; once a gesture's listeners have all
+	// returned it is copied into mLastGestureTiming, which is guarded by its own lock
+	private GestureTiming mGestureTiming;
+	private GestureTiming mLastGestureTiming;
 	
 	/**
 	 * To use a <code>CameraGestureSensor</code> object, this must be called some time after 
@@ -139,20 +260,65 @@ public class CameraGestureSensor extends ClickSensor {
 	 * @param context A functional Context object needed to get the screen rotation.
 	 */
 	public CameraGestureSensor(Context context) {
+		this(context, new NativeMotionEngine());
+	}
+	
+	/**
+	 * Creates a new instance of CameraGestureSensor that finds motion with the given engine.
+	 * @param context A functional Context object needed to get the screen rotation.
+	 * @param engine the engine used to find the motion between frames
+	 */
+	public CameraGestureSensor(Context context, MotionEngine engine) {
 		mIsHorizontalScrollEnabled = true;
 		mIsVerticalScrollEnabled = true;
 		mIsClickByColorEnabled = false;
 		
+		mDecimation = 1;
+		
+		mIsRegionOfInterestEnabled = false;
+		mRegionOfInterestSize = DEFAULT_REGION_OF_INTEREST_SIZE;
+		
+		mIsTrajectoryRecognitionEnabled = false;
+		mIsBlobTrackingEnabled = false;
+		mIsIlluminationCompensationEnabled = false;
+		
+		mPixelThreshold = JavaMotionEngine.PIXEL_THRESHOLD;
+		mIsAutoThresholdEnabled = false;
+		mNoiseEstimator = new NoiseEstimator();
+		mNoiseHistogram = new int[MotionDetectionReturnValue.NOISE_HISTOGRAM_BINS];
+		
+		mMotionEngine = (engine != null) ? engine : new NativeMotionEngine();
+		
+		mIsPreviewCallbackCaptureEnabled = false;
+		mIsDropOldestFramesEnabled = true;
+		
+		mIsFrameRateGovernorEnabled = false;
+		mFrameRateGovernor = new FrameRateGovernor();
+		
 		mIsRunning = false;
+		mIsPaused = false;
+		mPauseReleaseTimeout = DEFAULT_PAUSE_RELEASE_TIMEOUT_MILLISECONDS;
+		mResumeLatency = -1;
 		
 		mAverageColorMaxForClick = DEFAULT_AVERAGE_COLOR_MAX_FOR_CLICK;
 		
-		mGestureListeners = new LinkedList<Listener>();
+		mGestureListeners = new ArrayList<Listener>();
+		mTrajectoryListeners = new ArrayList<TrajectoryListener>();
+		mMotionListeners = new ArrayList<MotionListener>();
+		
+		mGestureClassifier = new GestureClassifier(1, 1);
+		mTrajectoryRecognizer = new TrajectoryRecognizer(1, 1);
+		mMotionGrid = new MotionGrid(1, 1);
+		mMotionResult = new MotionDetectionReturnValue();
+		mMotionSample = new MotionSample();
+		mGestureTiming = new GestureTiming();
+		mLastGestureTiming = new GestureTiming();
 		
 		// find the front facing camera id
 		mCameraId = getFrontCameraId();
 		
 		mContext = context;
+		mDisplay = ((WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
 	}
 	
 	/**
@@ -178,28 +344,80 @@ public class CameraGestureSensor extends ClickSensor {
 		mGestureListeners.clear();
 	}
 	
+	/**
+	 * Adds listener to the list of trajectory listeners.
+	 * @param listener This object will have its call-back method called when a gesture's shape is recognized
+	 */
+	public void addTrajectoryListener(TrajectoryListener listener) {
+		mTrajectoryListeners.add(listener);
+	}
+	
+	/**
+	 * Removes listener from the list of trajectory listeners
+	 * @param listener The object will no longer have its call-back method called by this gesture sensor.
+	 */
+	public void removeTrajectoryListener(TrajectoryListener listener) {
+		mTrajectoryListeners.remove(listener);
+	}
+	
+	/**
+	 * Removes all trajectory listeners.
+	 */
+	public void clearTrajectoryListeners() {
+		mTrajectoryListeners.clear();
+	}
+	
+	/**
+	 * Adds listener to the list of motion listeners.
+	 * @param listener This object will have its call-back method called for every frame
+	 */
+	public void addMotionListener(MotionListener listener) {
+		mMotionListeners.add(listener);
+	}
+	
+	/**
+	 * Removes listener from the list of motion listeners
+	 * @param listener The object will no longer have its call-back method called by this gesture sensor.
+	 */
+	public void removeMotionListener(MotionListener listener) {
+		mMotionListeners.remove(listener);
+	}
+	
+	/**
+	 * Removes all motion listeners.
+	 */
+	public void clearMotionListeners() {
+		mMotionListeners.clear();
+	}
+	
 	// these methods invoke gesture call backs on all listeners
 	private void onGestureUp(long gestureLength) {
-		for(Listener l : mGestureListeners) {
-			l.onGestureUp(this, gestureLength);
+		for(int i = 0; i < mGestureListeners.size(); i++) {
+			mGestureListeners.get(i).onGestureUp(this, gestureLength);
 		}
 	}
 	
 	private void onGestureLeft(long gestureLength) {
-		for(Listener l : mGestureListeners) {
-			l.onGestureLeft(this, gestureLength);
+		for(int i = 0; i < mGestureListeners.size(); i++) {
+			mGestureListeners.get(i).onGestureLeft(this, gestureLength);
 		}
 	}
 	
 	private void onGestureRight(long gestureLength) {
-		for(Listener l : mGestureListeners) {
-			l.onGestureRight(this, gestureLength);
+		for(int i = 0; i < mGestureListeners.size(); i++) {
+			mGestureListeners.get(i).onGestureRight(this, gestureLength);
 		}
 	}
 	
 	private void onGestureDown(long gestureLength) {
-		for(Listener l : mGestureListeners) {
-			l.onGestureDown(this, gestureLength);
+		for(int i = 0; i < mGestureListeners.size(); i++) {
+			mGestureListeners.get(i).onGestureDown(this, gestureLength);
+		}
+	}
+	
+	private void onTrajectoryGesture(TrajectoryRecognizer.Gesture gesture, double score, long gestureLength) {
+		for(int i = 0; i < mTrajectoryListeners.size(); i++) {
+			mTrajectoryListeners.get(i).onTrajectoryGesture(this, gesture, score, gestureLength);
 		}
 	}
 	
@@ -237,12 +455,15 @@ public class CameraGestureSensor extends ClickSensor {
 	
 	/**
 	 * When enabled, an onSensorClick command is sent to any click listeners when a large enough
-	 * percentage of the screen goes black.
+	 * percentage of the screen goes black. The mean grey level is found in the same pass as the motion,
+	 * over the pixels that pass samples, so it follows the decimation. An {@link OpticalFlowMotionEngine}
+	 * finds no mean grey level, so with it clicks by color never fire.
 	 * 
 	 * @param enabled Set whether click-by-color is enabled
 	 */
 	public void enableClickByColor(boolean enabled) {
 		mIsClickByColorEnabled = enabled;
+		warnIfClickByColorCannotFire();
 	}
 	
 	/**
@@ -253,111 +474,732 @@ public class CameraGestureSensor extends ClickSensor {
 		return mIsClickByColorEnabled;
 	}
 	
+	/**
+	 * <p>Sets how coarsely motion is sampled. With a decimation of 2 only every second pixel of
+	 * every second row is compared, a quarter of the work; with 4 only a sixteenth. The average
+	 * position is still reported in full-frame pixels, so the gesture thresholds need no change.</p>
+	 * <p>Values other than 1, 2 and 4 are ignored. The default is 1.</p>
+	 * @param decimation the decimation factor: 1, 2 or 4
+	 */
+	public void setDecimation(int decimation) {
+		if(decimation == 1 || decimation == 2 || decimation == 4)
+			mDecimation = decimation;
+	}
+	
+	/**
+	 * Gets the decimation factor set with {@link #setDecimation(int)}.
+	 * @return 1, 2 or 4
+	 */
+	public int getDecimation() {
+		return mDecimation;
+	}
+	
+	/**
+	 * <p>When enabled, once a gesture has started only a window around the hand's last average position
+	 * is scanned for motion. The whole frame is still scanned every few frames, whenever the hand nears
+	 * the edge of the window, and before a gesture is allowed to end, so gestures start and end on the
+	 * same frames as with full scans.</p>
+	 * @param enabled Set whether region-of-interest tracking is enabled
+	 */
+	public void enableRegionOfInterest(boolean enabled) {
+		mIsRegionOfInterestEnabled = enabled;
+	}
+	
+	/**
+	 * Test if region-of-interest tracking is enabled.
+	 * @return true if region-of-interest tracking is enabled, false otherwise.
+	 */
+	public boolean isRegionOfInterestEnabled() {
+		return mIsRegionOfInterestEnabled;
+	}
+	
+	/**
+	 * <p>When enabled, the average position of the motion is kept for every frame of a gesture, and when
+	 * the gesture ends its whole path is matched by a {@link TrajectoryRecognizer} rather than only its
+	 * two ends compared. A path recognized as a straight left, right, up or down swipe gives that direction,
+	 * so curved swipes that merely end up in the right place are no longer misread; circles and shakes are
+	 * not reported as swipes at all; diagonals and unrecognized paths are classified as before. Every
+	 * recognized shape is also passed to the {@link TrajectoryListener}s. A swipe that fired early, see
+	 * {@link #enableEarlyFiring(boolean)}, is not reported a second time when its path is recognized.</p>
+	 * @param enabled Set whether trajectory recognition is enabled
+	 */
+	public void enableTrajectoryRecognition(boolean enabled) {
+		mIsTrajectoryRecognitionEnabled = enabled;
+	}
+	
+	/**
+	 * Test if trajectory recognition is enabled.
+	 * @return true if trajectory recognition is enabled, false otherwise.
+	 */
+	public boolean isTrajectoryRecognitionEnabled() {
+		return mIsTrajectoryRecognitionEnabled;
+	}
+	
+	/**
+	 * <p>When enabled, the motion in each frame is split into separate moving regions, or blobs, with a
+	 * {@link MotionGrid}, and gestures follow a single blob instead of the average of every moving pixel.
+	 * A second person or a flickering light elsewhere in the frame then no longer drags the position
+	 * between them. The largest blob starts a gesture; while it continues, the blob nearest its last
+	 * position is followed, as long as it is at least half the size of the largest. The fraction of the
+	 * frame in motion still counts every blob, so gestures start and end as before.</p>
+	 * <p>The blobs are passed to the {@link MotionListener}s in each {@link MotionSample}. Engines that do
+	 * not fill in the grid, see {@link MotionDetectionReturnValue#grid}, find no blobs, and the average
+	 * position is used as before. The native engine runs on a single thread while this is enabled.</p>
+	 * @param enabled Set whether blob tracking is enabled
+	 */
+	public void enableBlobTracking(boolean enabled) {
+		mIsBlobTrackingEnabled = enabled;
+	}
+	
+	/**
+	 * Test if blob tracking is enabled.
+	 * @return true if gestures follow a single blob, false if they follow the average of all motion.
+	 */
+	public boolean isBlobTrackingEnabled() {
+		return mIsBlobTrackingEnabled;
+	}
+	
+	/**
+	 * <p>When enabled, a change in brightness across the whole frame, such as the camera adjusting its
+	 * exposure or a light being switched on, is taken out before motion is looked for, so it does not flood
+	 * the frame with motion and set off gestures. The change is the median difference between the frames
+	 * over every 64th pixel, which a hand covering less than half the frame does not move.</p>
+	 * <p>A change too large or too uneven to take out, see
+	 * {@link MotionDetectionReturnValue#isIlluminationChange}, skips the frame: it is not passed to the
+	 * gesture classifier or the motion listeners, and the next frame is compared against it. Clicks by color
+	 * are still looked for first, since covering the camera darkens the whole frame.</p>
+	 * <p>It is not free. Measured with {@link NativeMotionEngine} at 320x240 on a desktop x86 CPU with AVX2, while
+	 * the brightness is steady the estimate adds 3 to 8 microseconds to a pass of about 20, and a frame whose
+	 * brightness changed takes about twice as long as without compensation, 40 to 47 microseconds against 19 to
+	 * 25. It has not been measured on ARM.</p>
+	 * @param enabled Set whether illumination compensation is enabled
+	 */
+	public void enableIlluminationCompensation(boolean enabled) {
+		mIsIlluminationCompensationEnabled = enabled;
+	}
+	
+	/**
+	 * Test if illumination compensation is enabled.
+	 * @return true if changes in brightness across the whole frame are taken out, false otherwise.
+	 */
+	public boolean isIlluminationCompensationEnabled() {
+		return mIsIlluminationCompensationEnabled;
+	}
+	
+	/**
+	 * Sets how much a pixel must change from one frame to the next to count as moving, in grey levels. The
+	 * default is {@link JavaMotionEngine#PIXEL_THRESHOLD}. Values outside 1 to
+	 * {@link MotionDetectionReturnValue#MAX_PIXEL_THRESHOLD} are ignored. While the automatic threshold is
+	 * enabled, this is only used until the camera's noise has been estimated.
+	 * @param threshold the largest change that does not count as motion
+	 */
+	public void setPixelThreshold(int threshold) {
+		if(threshold >= 1 && threshold <= MotionDetectionReturnValue.MAX_PIXEL_THRESHOLD)
+			mPixelThreshold = threshold;
+	}
+	
+	/**
+	 * Gets how much a pixel must change from one frame to the next to count as moving.
+	 * @return the threshold in use: the one picked for the camera's noise while the automatic threshold is
+	 * enabled and has an estimate, and the one set with {@link #setPixelThreshold(int)} otherwise
+	 */
+	public int getPixelThreshold() {
+		if(mIsAutoThresholdEnabled && mNoiseEstimator.hasEstimate())
+			return mNoiseEstimator.getThreshold();
+		return mPixelThreshold;
+	}
+	
+	/**
+	 * <p>When enabled, the per-pixel threshold is picked from an estimate of the camera's noise, so a noisy
+	 * front camera in low light does not see constant motion, and the frame rate governor can still idle. The
+	 * motion engine samples the differences along one row of every frame as it scans it, which costs next to
+	 * nothing, and a {@link NoiseEstimator} builds up the estimate over many frames, sweeping down the frame.
+	 * Frames flagged as illumination changes are left out.</p>
+	 * <p>The threshold set with {@link #setPixelThreshold(int)} is used until 1,000 differences have been
+	 * sampled, under a second of frames at the usual preview sizes. Engines that do not fill in the noise histogram, see
+	 * {@link MotionDetectionReturnValue#noiseHistogram}, leave it there.</p>
+	 * @param enabled Set whether the automatic threshold is enabled
+	 */
+	public void enableAutoThreshold(boolean enabled) {
+		mIsAutoThresholdEnabled = enabled;
+	}
+	
+	/**
+	 * Test if the automatic threshold is enabled.
+	 * @return true if the threshold is picked from the camera's noise, false if it is the one set.
+	 */
+	public boolean isAutoThresholdEnabled() {
+		return mIsAutoThresholdEnabled;
+	}
+	
+	/**
+	 * Gets the noise estimator, to see what it has found.
+	 * @return the estimator used while {@link #enableAutoThreshold(boolean)} is on
+	 */
+	public NoiseEstimator getNoiseEstimator() {
+		return mNoiseEstimator;
+	}
+	
+	/**
+	 * Sets how much of the frame must be moving for a gesture to start and continue, and for a
+	 * {@link MotionSample} to be in motion. See {@link GestureClassifier#setMinFractionInMotion(double)}.
+	 * @param fraction the fraction of the frame's pixels in motion, from just above 0 to 1
+	 */
+	public void setMinFractionInMotion(double fraction) {
+		mGestureClassifier.setMinFractionInMotion(fraction);
+	}
+	
+	/**
+	 * Gets how much of the frame must be moving for a gesture to start and continue.
+	 * @return the fraction of the frame's pixels in motion
+	 */
+	public double getMinFractionInMotion() {
+		return mGestureClassifier.getMinFractionInMotion();
+	}
+	
+	/**
+	 * <p>When enabled, a swipe is reported as soon as the hand has moved far enough in a straight enough
+	 * line, instead of once it has left the frame or stopped, which takes the rest of the motion out of the
+	 * delay. The rest of that motion is ignored, so it cannot trigger another swipe. Swipes that are not
+	 * straight enough are still reported when they end. See {@link GestureClassifier#enableEarlyFiring(boolean)}.</p>
+	 * @param enabled Set whether early firing is enabled
+	 */
+	public void enableEarlyFiring(boolean enabled) {
+		mGestureClassifier.enableEarlyFiring(enabled);
+	}
+	
+	/**
+	 * Test if early firing is enabled.
+	 * @return true if swipes may be reported before they end, false otherwise.
+	 */
+	public boolean isEarlyFiringEnabled() {
+		return mGestureClassifier.isEarlyFiringEnabled();
+	}
+	
+	/**
+	 * Sets how straight a swipe must be to be reported early, from just above 0 to 1. The default is 0.9.
+	 * See {@link GestureClassifier#setEarlyFiringConfidence(double)}.
+	 * @param confidence the lowest straightness that fires early
+	 */
+	public void setEarlyFiringConfidence(double confidence) {
+		mGestureClassifier.setEarlyFiringConfidence(confidence);
+	}
+	
+	/**
+	 * Gets how straight a swipe must be to be reported early.
+	 * @return the early firing confidence
+	 */
+	public double getEarlyFiringConfidence() {
+		return mGestureClassifier.getEarlyFiringConfidence();
+	}
+	
+	/**
+	 * Gets the trajectory recognizer, to change how closely a path must match a shape.
+	 * @return the recognizer used while {@link #enableTrajectoryRecognition(boolean)} is on
+	 */
+	public TrajectoryRecognizer getTrajectoryRecognizer() {
+		return mTrajectoryRecognizer;
+	}
+	
+	/**
+	 * Sets the size of the region-of-interest window as a fraction of the frame's width and height.
+	 * The default is 0.5, a quarter of the frame. Values outside (0, 1] are ignored.
+	 * @param size the fraction of the frame's width and height the window covers
+	 */
+	public void setRegionOfInterestSize(double size) {
+		if(size > 0.0 && size <= 1.0)
+			mRegionOfInterestSize = size;
+	}
+	
+	/**
+	 * Gets the size of the region-of-interest window.
+	 * @return the fraction of the frame's width and height the window covers
+	 */
+	public double getRegionOfInterestSize() {
+		return mRegionOfInterestSize;
+	}
+	
+	/**
+	 * <p>Sets the engine used to find the motion between frames. The default is a
+	 * {@link NativeMotionEngine}; a {@link JavaMotionEngine} gives the same results without
+	 * {@link #loadLibrary()}. Takes effect on the next frame. null is ignored.</p>
+	 * <p>An {@link OpticalFlowMotionEngine} finds no mean grey level, so while it is used clicks by color
+	 * never fire, see {@link #enableClickByColor(boolean)}.</p>
+	 * <p>The engine replaced, and the engine in use when the sensor stops, are released, see
+	 * {@link MotionEngine#release()}.</p>
+	 * @param engine the engine to use
+	 */
+	public void setMotionEngine(MotionEngine engine) {
+		if(engine != null)
+			mMotionEngine = engine;
+		warnIfClickByColorCannotFire();
+	}
+	
+	/**
+	 * Gets the engine used to find the motion between frames.
+	 * @return the engine set with {@link #setMotionEngine(MotionEngine)} or passed to the constructor
+	 */
+	public MotionEngine getMotionEngine() {
+		return mMotionEngine;
+	}
+	
+	/**
+	 * <p>When enabled, frames are captured with <code>android.hardware.Camera</code> preview callbacks
+	 * into a fixed ring of buffers, and the grey plane of each is handed to the motion engine in place,
+	 * instead of being converted and copied out of OpenCV's <code>VideoCapture</code>. The two have not been
+	 * compared on a device; the gesture latencies logged at debug level name the capture path, so they can be.
+	 * Takes effect the next time {@link #start()} is called.</p>
+	 * @param enabled Set whether preview callback capture is enabled
+	 */
+	public void enablePreviewCallbackCapture(boolean enabled) {
+		mIsPreviewCallbackCaptureEnabled = enabled;
+	}
+	
+	/**
+	 * Test if preview callback capture is enabled.
+	 * @return true if frames are captured with preview callbacks, false if they are captured with VideoCapture.
+	 */
+	public boolean isPreviewCallbackCaptureEnabled() {
+		return mIsPreviewCallbackCaptureEnabled;
+	}
+	
+	/**
+	 * <p>Chooses what happens when frames are captured faster than they can be processed, for instance
+	 * while a listener is slow to return. When enabled, the oldest waiting frame is dropped, so gestures
+	 * are always found in the freshest frames; when disabled, newly captured frames are dropped until
+	 * processing catches up. The default is enabled.</p>
+	 * @param enabled Set whether the oldest frames are dropped
+	 */
+	public void enableDropOldestFrames(boolean enabled) {
+		mIsDropOldestFramesEnabled = enabled;
+		
+		FrameQueue queue = mFrameQueue;
+		if(queue != null)
+			queue.enableDropOldest(enabled);
+	}
+	
+	/**
+	 * Test if the oldest frames are dropped when processing falls behind.
+	 * @return true if the oldest frames are dropped, false if the newest frames are.
+	 */
+	public boolean isDropOldestFramesEnabled() {
+		return mIsDropOldestFramesEnabled;
+	}
+	
+	/**
+	 * <p>Sets where frames come from instead of the front camera, such as a {@link ReplayFrameSource} or a
+	 * {@link SyntheticFrameSource}. The sensor opens the source on its capture thread each time {@link #start()}
+	 * is called and closes it on {@link #stop()}; once a source runs out, no more frames arrive. Frames from a
+	 * source that is not live are never dropped, so every run over the same frames finds the same gestures.</p>
+	 * <p>Takes effect the next time {@link #start()} is called. null goes back to the front camera.</p>
+	 * @param source the source, or null
+	 */
+	public void setFrameSource(FrameSource source) {
+		mFrameSource = source;
+	}
+	
+	/**
+	 * Gets the source set with {@link #setFrameSource(FrameSource)}.
+	 * @return the source, or null if frames come from the front camera
+	 */
+	public FrameSource getFrameSource() {
+		return mFrameSource;
+	}
+	
+	/**
+	 * Sets a recorder that every processed frame is written to, for replaying later with a {@link FrameReplay}.
+	 * Frames skipped while the frame rate governor idles are not recorded. Takes effect on the next frame;
+	 * null stops recording. The recorder is not closed by the sensor; close it after {@link #stop()} or after
+	 * replacing it. If writing fails the error is logged and recording stops.
+	 * @param recorder the recorder, or null
+	 */
+	public void setFrameRecorder(FrameRecorder recorder) {
+		mFrameRecorder = recorder;
+	}
+	
+	/**
+	 * Gets the recorder processed frames are written to.
+	 * @return the recorder set with {@link #setFrameRecorder(FrameRecorder)}, or null if not recording
+	 */
+	public FrameRecorder getFrameRecorder() {
+		return mFrameRecorder;
+	}
+	
+	/**
+	 * Gets the number of frames captured since {@link #start()} was last called, including those dropped.
+	 * @return the number of frames captured
+	 */
+	public long getCapturedFrameCount() {
+		FrameQueue queue = mFrameQueue;
+		return (queue != null) ? queue.getOfferedCount() : 0;
+	}
+	
+	/**
+	 * Gets the number of frames handed to the processing thread since {@link #start()} was last called.
+	 * @return the number of frames processed
+	 */
+	public long getProcessedFrameCount() {
+		FrameQueue queue = mFrameQueue;
+		return (queue != null) ? queue.getTakenCount() : 0;
+	}
+	
+	/**
+	 * Gets the number of frames dropped since {@link #start()} was last called because they were captured
+	 * faster than they could be processed.
+	 * @return the number of frames dropped
+	 */
+	public long getDroppedFrameCount() {
+		FrameQueue queue = mFrameQueue;
+		return (queue != null) ? queue.getDroppedCount() : 0;
+	}
+	
+	/**
+	 * <p>When enabled, the sensor drops to a few frames a second once nothing has moved for a couple of
+	 * seconds, and goes back to the full frame rate on the first of those frames in which something does.
+	 * A source that is asked for frames, such as <code>VideoCapture</code>, is asked less often; frames a
+	 * camera delivers by itself are given straight back unprocessed. How much CPU time or battery that saves
+	 * has not been measured.</p>
+	 * @param enabled Set whether the frame rate governor is enabled
+	 */
+	public void enableFrameRateGovernor(boolean enabled) {
+		mIsFrameRateGovernorEnabled = enabled;
+	}
+	
+	/**
+	 * Test if the frame rate governor is enabled.
+	 * @return true if the frame rate governor is enabled, false otherwise.
+	 */
+	public boolean isFrameRateGovernorEnabled() {
+		return mIsFrameRateGovernorEnabled;
+	}
+	
+	/**
+	 * Gets the frame rate governor, to change how soon and how far it slows down.
+	 * @return the governor used while {@link #enableFrameRateGovernor(boolean)} is on
+	 */
+	public FrameRateGovernor getFrameRateGovernor() {
+		return mFrameRateGovernor;
+	}
+	
+	/**
+	 * Gets whether the sensor is currently capturing at the full or the idle frame rate.
+	 * @return {@link FrameRateGovernor.Mode#Idle} while the governor is enabled and has slowed down,
+	 * {@link FrameRateGovernor.Mode#Active} otherwise
+	 */
+	public FrameRateGovernor.Mode getFrameRateMode() {
+		return mIsFrameRateGovernorEnabled ? mFrameRateGovernor.getMode() : FrameRateGovernor.Mode.Active;
+	}
+	
+	/**
+	 * Gets how many frames a second have recently been processed.
+	 * @return the effective frame rate, or 0 if the sensor has not processed two frames yet
+	 */
+	public double getEffectiveFrameRate() {
+		return mFrameRateGovernor.getEffectiveFrameRate();
+	}
+	
+	/**
+	 * <p>Gets the timing of the gesture being reported: when it started and ended, as capture timestamps
+	 * from <code>System.nanoTime()</code>, and how long its last frame spent in each stage before the
+	 * listeners were called. Only meaningful when called from within a {@link Listener} callback,
+	 * through its <code>caller</code> argument; the object is reused for the next gesture.</p>
+	 * @return the timing of the gesture being reported
+	 */
+	public GestureTiming getGestureTiming() {
+		return mGestureTiming;
+	}
+	
+	/**
+	 * Gets the timing of the last gesture whose listeners have all returned, including how long they took.
+	 * May be called from any thread.
+	 * @return a copy of the timing of the last gesture
+	 */
+	public GestureTiming getLastGestureTiming() {
+		GestureTiming timing = new GestureTiming();
+		synchronized (mLastGestureTiming) {
+			timing.set(mLastGestureTiming);
+		}
+		return timing;
+	}
+	
+	/**
+	 * Sets how long the sensor may stay paused before it releases the camera. The default is 10 seconds.
+	 * Negative values are ignored.
+	 * @param milliseconds the timeout in milliseconds; 0 releases the camera as soon as the sensor is paused
+	 */
+	public void setPauseReleaseTimeout(long milliseconds) {
+		if(milliseconds < 0)
+			return;
+		
+		synchronized (mPauseLock) {
+			mPauseReleaseTimeout = milliseconds;
+			mPauseLock.notifyAll();
+		}
+	}
+	
+	/**
+	 * Gets how long the sensor may stay paused before it releases the camera.
+	 * @return the timeout in milliseconds
+	 */
+	public long getPauseReleaseTimeout() {
+		synchronized (mPauseLock) {
+			return mPauseReleaseTimeout;
+		}
+	}
+	
+	/**
+	 * Test if the sensor is paused.
+	 * @return true between {@link #pause()} and {@link #resume()}, unless the camera has been released since
+	 */
+	public boolean isPaused() {
+		return mIsPaused;
+	}
+	
+	/**
+	 * Gets how long it took, after {@link #start()} or {@link #resume()} was last called, to process the first
+	 * frame. Resuming a paused sensor skips opening the camera and allocating the frames; how much time that
+	 * saves has not been measured on a device, and this is the number to compare. Each latency is also logged
+	 * at debug level, marked warm or cold.
+	 * @return the latency in nanoseconds, or -1 if no frame has been processed since
+	 */
+	public long getResumeLatency() {
+		return mIsResumeLatencyPending ? -1 : mResumeLatency;
+	}
+	
+	/**
+	 * <p>Stops looking for gestures without letting go of the camera, for instance while a dialog covers the
+	 * activity. The camera and frame buffers stay ready, so {@link #resume()} picks up on the next frame. If the
+	 * sensor stays paused longer than the release timeout, the camera is released as by {@link #stop()}, and
+	 * {@link #resume()} opens it again.</p>
+	 * <p>A frame that was already being processed may still be reported to the listeners. Does nothing if the
+	 * sensor is not running.</p>
+	 */
+	public void pause() {
+		synchronized (mPauseLock) {
+			if(!mIsRunning || mIsPaused)
+				return;
+			
+			mIsPaused = true;
+			mPauseTime = System.nanoTime();
+			mPauseLock.notifyAll();
+		}
+	}
+	
+	/**
+	 * Goes back to looking for gestures after {@link #pause()}. If the sensor is not running, because it was
+	 * never started, was stopped, or released the camera after pausing for too long, this is {@link #start()}.
+	 */
+	public void resume() {
+		synchronized (mPauseLock) {
+			if(mIsRunning) {
+				if(mIsPaused) {
+					mResumeRequestTime = System.nanoTime();
+					mIsWarmResume = true;
+					mIsResumeLatencyPending = true;
+					mIsPaused = false;
+					mPauseLock.notifyAll();
+				}
+				return;
+			}
+		}
+		
+		start();
+	}
+	
 	/**
 	 * <p>Causes this to start reading camera input and looking for gestures. The camera must be available
-	 * for this method to be successful.</p>
+	 * for this method to be successful. If the sensor is paused, this is {@link #resume()}.</p>
 	 * <p>Warning! CameraGestureSensor will seize control of the front facing camera, even if the activity loses focus.
 	 * If you would like to let other applications use the camera, you must call stop() when the activity loses
-	 * focus.</p>
+	 * focus, or pause() to release it after a timeout.</p>
 	 */
 	public void start() {
-		if(mIsRunning)
+		if(mIsRunning) {
+			resume();
 			return;
+		}
 		
-		mPreviousPos = new Point(0, 0);
-		mStartPos = null;
+		mResumeRequestTime = System.nanoTime();
+		mIsWarmResume = false;
+		mIsResumeLatencyPending = true;
 		
-		if (mCamera != null) {
-			VideoCapture camera = mCamera;
-			mCamera = null; // Make it null before releasing...
-			camera.release();
-		}
+		// a sensor that released the camera after pausing for too long may still be closing it; a processing
+		// thread that is this one, because a listener stopped and restarted the sensor, is joined by the new
+		// threads instead, before they touch anything it might still be using
+		final Thread leftover = joinThread(mFrameProcessor) ? null : mFrameProcessor;
+		joinThread(mFrameCapturer);
 		
-		mCamera = new VideoCapture(mCameraId);
+		mIsPaused = false;
+		mGestureClassifier.reset();
+		mWasInMotion = false;
 		
-		if(!mCamera.isOpened()) {
-			// the camera was not available
-			VideoCapture camera = mCamera;
-			mCamera = null; // Make it null before releasing...
-			camera.release();
-			
-			return;
-		}
-
-		List<Size> previewSizes = mCamera.getSupportedPreviewSizes();
+		mIsWaitingAfterClick = false;
+		mFramesSinceFullScan = 0;
+		mFrameRateGovernor.reset();
+		
+		// the first frame looks the rotation up
+		mRotationCheckTime = System.nanoTime() - NANOSECONDS_BETWEEN_ROTATION_CHECKS;
 		
-		double smallestPreviewSize = 640 * 480; // We should be smaller than this...
+		mFrameQueue = new FrameQueue(FRAME_QUEUE_CAPACITY);
+		mFrameQueue.enableDropOldest(mIsDropOldestFramesEnabled);
+		final CaptureRun run = new CaptureRun(mFrameQueue);
+		mRun = run;
 		
-		double smallestWidth = 320; // Let's not get smaller than this...
+		mIsRunning = true;
 		
-		for (Size previewSize : previewSizes) {
-			if (previewSize.area() < smallestPreviewSize && previewSize.width >= smallestWidth) {
-				mPreviewSize = previewSize;
+		// the source is opened on the capture thread, which a preview callback source needs for its looper
+		mFrameCapturer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				joinThread(leftover);
+				captureFrames(run);
+			}
+		}, TAG + " capture");
+		mFrameProcessor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				joinThread(leftover);
+				processFrames(run);
+			}
+		}, TAG + " processing");
+		mFrameCapturer.start();
+		mFrameProcessor.start();
+	}
+	
+	// waits for a thread to finish, unless it is the calling thread, as when a listener calls stop(); returns
+	// false if the thread may still be running
+	private static boolean joinThread(Thread thread) {
+		if(thread == null)
+			return true;
+		if(thread == Thread.currentThread())
+			return false;
+		
+		try {
+			thread.join();
+			return true;
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	// whether a run's threads should keep going
+	private boolean isCurrentRun(CaptureRun run) {
+		return mIsRunning && mRun == run;
+	}
+	
+	// waits while the sensor is paused; called from the capture thread, which has nothing to do until resume()
+	private void waitWhilePaused() {
+		synchronized (mPauseLock) {
+			while(mIsRunning && mIsPaused) {
+				try {
+					mPauseLock.wait();
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
 			}
 		}
-		mCamera.set(Highgui.CV_CAP_PROP_FRAME_WIDTH, mPreviewSize.width);
-		mCamera.set(Highgui.CV_CAP_PROP_FRAME_HEIGHT, mPreviewSize.height);
+	}
+	
+	// waits while the sensor is paused; called from the processing thread, which releases the camera once
+	// the pause has lasted longer than the timeout
+	private void waitWhilePausedOrRelease(CaptureRun run) {
+		synchronized (mPauseLock) {
+			while(isCurrentRun(run) && mIsPaused) {
+				long remaining = mPauseTime + mPauseReleaseTimeout * 1000000L - System.nanoTime();
+				if(remaining <= 0) {
+					// both threads finish and release the camera; resume() starts them again
+					Log.d(TAG, "paused for " + mPauseReleaseTimeout + " ms, releasing the camera");
+					mIsRunning = false;
+					mIsPaused = false;
+					mPauseLock.notifyAll();
+					return;
+				}
+				
+				try {
+					mPauseLock.wait(remaining / 1000000L + 1);
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+	
+	// makes a run's source's run() return, after which its capture thread closes it
+	private void stopSource(CaptureRun run) {
+		if(run == null)
+			return;
 		
-		mPreviousFrame = new Mat((int)mPreviewSize.height, (int)mPreviewSize.width, CvType.CV_8U);
-		mCurrentFrame = new Mat((int)mPreviewSize.height, (int)mPreviewSize.width, CvType.CV_8U);
-  	     
-		mMinDirectionalMotionX = mPreviewSize.width / 5;
-  	    mMinDirectionalMotionY = mPreviewSize.height / 6;
-  	     
-  	    mWidthToHeight = mPreviewSize.width / mPreviewSize.height * 6.0 / 5.0;
-  	    
-  	    mIsRunning = true;
-  	    
-  	    mClickStartTime = -1;
-  	    
-  	    // run the frame processor now
-  	    mFrameProcessor = new Thread(mProcessFramesRunnable);
-  	    mFrameProcessor.start();
+		synchronized (mSourceLock) {
+			if (run.source != null)
+				run.source.stop();
+		}
 	}
 	
 	/**
-	 * Stops this from looking at camera input for gestures, thus freeing the camera for other uses.
+	 * Stops this from looking at camera input for gestures, thus freeing the camera for other uses. The motion
+	 * engine is released once its last frame is done, see {@link MotionEngine#release()}.
 	 */
 	public void stop() {
-		if(!mIsRunning)
-			return;
-		
-		mIsRunning = false;
-		if (mCamera != null) {
-			synchronized (mProcessFramesRunnable) {
-				VideoCapture camera = mCamera;
-				mCamera = null; // Make it null before releasing...
-				camera.release();
-			}
+		synchronized (mPauseLock) {
+			mIsRunning = false;
+			mIsPaused = false;
+			mPauseLock.notifyAll();
 		}
+		
+		// processing stops first, unless this is called from a listener on the processing thread itself; either
+		// way recycleFrame gives nothing back once mIsRunning is cleared, and the source ignores returns once closed
+		if(joinThread(mFrameProcessor))
+			mFrameProcessor = null;
+		
+		stopSource(mRun);
+		
+		// the capture thread closes the source, releasing the camera, as it finishes
+		if(joinThread(mFrameCapturer))
+			mFrameCapturer = null;
 	}
 	
-	private int adjustDirectionForScreenRotation(Direction d) {
-		Display display = ((WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
-		
-		int dNum = d.toInt();
+	// looks the display's rotation up again if it has not been for a while; a pause longer than that makes
+	// the first frame after it look it up
+	private void updateScreenRotation(long now) {
+		if(now - mRotationCheckTime < NANOSECONDS_BETWEEN_ROTATION_CHECKS)
+			return;
 		
-		switch(display.getRotation()) {
+		mScreenRotation = mDisplay.getRotation();
+		mRotationCheckTime = now;
+	}
+	
+	// only engines that find the mean grey level can see the camera covered
+	private void warnIfClickByColorCannotFire() {
+		if(mIsClickByColorEnabled && mMotionEngine instanceof OpticalFlowMotionEngine)
+			Log.w(TAG, "click by color is enabled but never fires with an OpticalFlowMotionEngine");
+	}
+	
+	// the quarter turns that take a direction in camera coordinates to one on the screen
+	private int getScreenQuarterTurns() {
+		switch(mScreenRotation) {
 		case Surface.ROTATION_0:
-			dNum += 3;
-			break;
-		case Surface.ROTATION_90:
-			break;
+			return 3;
 		case Surface.ROTATION_180:
-			dNum += 1;
-			break;
+			return 1;
 		case Surface.ROTATION_270:
-			dNum += 2;
-			break;
+			return 2;
+		default:
+			return 0;
 		}
-		
-		return dNum % 4;
+	}
+	
+	private int adjustDirectionForScreenRotation(Direction d) {
+		return (d.toInt() + getScreenQuarterTurns()) % 4;
 	}
 	
 	private boolean isHorScrollAdjustForScreen() {
-		Display display = ((WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
-		
-		switch(display.getRotation()) {
+		switch(mScreenRotation) {
 		case Surface.ROTATION_0:
 			return mIsVerticalScrollEnabled;
 		case Surface.ROTATION_90:
@@ -370,9 +1212,7 @@ public class CameraGestureSensor extends ClickSensor {
 	}
 	
 	private boolean isVertScrollAdjustForScreen() {
-		Display display = ((WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
-		
-		switch(display.getRotation()) {
+		switch(mScreenRotation) {
 		case Surface.ROTATION_0:
 			return mIsHorizontalScrollEnabled;
 		case Surface.ROTATION_90:
@@ -384,99 +1224,447 @@ public class CameraGestureSensor extends ClickSensor {
 		}
 	}
 	
-	private Runnable mProcessFramesRunnable = new Runnable() {
-		@Override
-		public void run() {
-			while (mCamera != null && mIsRunning) {
-				synchronized (this) {
-					boolean grabbed = mCamera.grab();
-					if(!grabbed)
-						continue;
-					mCamera.retrieve(mCurrentFrame, Highgui.CV_CAP_ANDROID_GREY_FRAME);
-					
-					// see if we need to detect clicks by color, and if so, let's quickly get that out of the way
-					if(mIsClickByColorEnabled) {
-						if(mClickStartTime == -1) {
-							double avgColor = Core.mean(mCurrentFrame).val[0];
-							
-							if(avgColor < mAverageColorMaxForClick) {
-								onSensorClick();
-								mClickStartTime = System.currentTimeMillis();
-								continue;
-							}
-						}
-						else {
-							if(System.currentTimeMillis() - mClickStartTime >= MILLISECONDS_TO_WAIT_FOR_CLICK) {
-								mClickStartTime = -1;
-								mCurrentFrame.copyTo(mPreviousFrame);
-								mStartPos = null;
-							}
-							else
-								continue;
-						}
-					}
-					
-					// detect the motion
-					MotionDetectionReturnValue mdret = DetectMovementPosition(mCurrentFrame.getNativeObjAddr(), mPreviousFrame.getNativeObjAddr());
-					
-					// set the previous frame to the current frame
-					mCurrentFrame.copyTo(mPreviousFrame);
-					
-					Direction movementDirection = Direction.None;
-					
-					if(mStartPos == null && mdret.fractionOfScreenInMotion > MIN_FRACTION_SCREEN_MOTION) {
-						mStartPos = mdret.averagePosition;
-						mStartGestureTime = System.currentTimeMillis();
-					}
-					else if(mStartPos != null && mdret.fractionOfScreenInMotion < MIN_FRACTION_SCREEN_MOTION) {
-						// check if it's a vertical move or a horizontal move
-						
-						// for horizontal, assume screen is flipped
-						if(isHorScrollAdjustForScreen()) {
-							if(mPreviousPos.x - mStartPos.x > mMinDirectionalMotionX) {
-								movementDirection = Direction.Left;
-							}
-							else if(mStartPos.x - mPreviousPos.x > mMinDirectionalMotionX) {
-								movementDirection = Direction.Right;
-							}
-						}
-						if(isVertScrollAdjustForScreen()) {
-							double verticalMotion = Math.abs(mPreviousPos.y - mStartPos.y);
-							if(verticalMotion > mMinDirectionalMotionY) {
-								if(movementDirection == Direction.None || verticalMotion * mWidthToHeight > Math.abs(mPreviousPos.x - mStartPos.x) ) {
-									if(mPreviousPos.y < mStartPos.y)
-										movementDirection = Direction.Up;
-									else
-										movementDirection = Direction.Down;
-								}
-							}
-						}
-						
-						mStartPos = null;
-					}
-					
-					// see if we should call a callback based on movementDirection
-					if(mGestureListeners.size() != 0 && movementDirection != Direction.None) {
-						long gestureLength = System.currentTimeMillis() - mStartGestureTime;
-						
-						int adjustedDirection = adjustDirectionForScreenRotation(movementDirection);
-						
-						if(adjustedDirection == Direction.Left.toInt())
-							onGestureLeft(gestureLength);
-						else if(adjustedDirection == Direction.Right.toInt())
-							onGestureRight(gestureLength);
-						else if(adjustedDirection == Direction.Up.toInt())
-							onGestureUp(gestureLength);
-						else if(adjustedDirection == Direction.Down.toInt())
-							onGestureDown(gestureLength);
-					}
-					
-					mPreviousPos.x = mdret.averagePosition.x;
-					mPreviousPos.y = mdret.averagePosition.y;
+	// runs the motion engine on part of two frames
+	private void scanRegion(GreyFrame current, GreyFrame previous, int left, int top, int right, int bottom,
+			MotionDetectionReturnValue result) {
+		MotionEngine engine = mMotionEngine;
+		if(engine != mEngineInUse) {
+			releaseEngine();
+			mEngineInUse = engine;
+		}
+		engine.detect(current, previous, mDecimation, left, top, right, bottom, result);
+	}
+	
+	// frees what the engine the processing thread ran keeps between frames, such as its native workers
+	private void releaseEngine() {
+		if(mEngineInUse != null) {
+			mEngineInUse.release();
+			mEngineInUse = null;
+		}
+	}
+	
+	// runs the motion detection on two frames, restricted to the region of interest when possible
+	private void detectMotion(GreyFrame current, GreyFrame previous, MotionDetectionReturnValue result) {
+		int width = (int)mPreviewSize.width;
+		int height = (int)mPreviewSize.height;
+		
+		Point previousPos = mGestureClassifier.getPreviousPosition();
+		
+		if(mIsRegionOfInterestEnabled && mGestureClassifier.isGestureStarted() && previousPos.x >= 0
+				&& mFramesSinceFullScan < FRAMES_BETWEEN_FULL_SCANS) {
+			int regionWidth = (int)(width * mRegionOfInterestSize);
+			int regionHeight = (int)(height * mRegionOfInterestSize);
+			int left = Math.max(0, Math.min(width - regionWidth, (int)previousPos.x - regionWidth / 2));
+			int top = Math.max(0, Math.min(height - regionHeight, (int)previousPos.y - regionHeight / 2));
+			int right = left + regionWidth;
+			int bottom = top + regionHeight;
+			
+			scanRegion(current, previous, left, top, right, bottom, result);
+			mFramesSinceFullScan++;
+			
+			// below the threshold the motion may just have left the window, so only a full scan can end a gesture
+			if(result.fractionOfScreenInMotion >= mGestureClassifier.getMinFractionInMotion()) {
+				double marginX = regionWidth * REGION_OF_INTEREST_EDGE_MARGIN;
+				double marginY = regionHeight * REGION_OF_INTEREST_EDGE_MARGIN;
+				double x = result.averagePosition.x;
+				double y = result.averagePosition.y;
+				
+				// the hand is heading out of the window; look at the whole frame next time
+				if((left > 0 && x - left < marginX) || (right < width && right - x < marginX) ||
+				   (top > 0 && y - top < marginY) || (bottom < height && bottom - y < marginY))
+					mFramesSinceFullScan = FRAMES_BETWEEN_FULL_SCANS;
+				
+				return;
+			}
+		}
+		
+		scanRegion(current, previous, 0, 0, width, height, result);
+		mFramesSinceFullScan = 0;
+	}
+	
+	// looks for clicks and gestures in a newly captured frame; returns true if the frame should be kept
+	// as the previous frame, false if the next frame should be compared against the same previous frame
+	private boolean processFrame(CaptureRun run, GreyFrame current, GreyFrame previous) {
+		// every time is taken from the frame's capture timestamp, so queueing delays cannot stretch them
+		long captureTime = current.getTimestamp();
+		GestureTiming timing = mGestureTiming;
+		timing.onFrameCaptured(captureTime);
+		long detectStart = System.nanoTime();
+		timing.onDetectStart(detectStart);
+		updateScreenRotation(detectStart);
+		
+		// after a click by color, frames are skipped until the wait is over
+		if(mIsClickByColorEnabled && mIsWaitingAfterClick) {
+			if(captureTime - mClickStartTime >= MILLISECONDS_TO_WAIT_FOR_CLICK * 1000000L) {
+				mIsWaitingAfterClick = false;
+				mGestureClassifier.reset();
+				
+				// this frame becomes the previous one; diffing it against itself would find no motion
+				return true;
+			}
+			else
+				return false;
+		}
+		
+		// detect the motion
+		MotionDetectionReturnValue mdret = mMotionResult;
+		mdret.grid = mIsBlobTrackingEnabled ? mMotionGrid : null;
+		mdret.compensateIllumination = mIsIlluminationCompensationEnabled;
+		mdret.pixelThreshold = getPixelThreshold();
+		mdret.noiseHistogram = mIsAutoThresholdEnabled ? mNoiseHistogram : null;
+		if(mdret.noiseHistogram != null)
+			mdret.noiseRow = mNoiseEstimator.nextRow((int)mPreviewSize.height, mDecimation);
+		if(mdret.grid != null)
+			mMotionGrid.clear();
+		detectMotion(current, previous, mdret);
+		
+		// the motion pass also found the frame's mean grey level, so clicks by color cost no extra pass
+		if(mIsClickByColorEnabled && mdret.meanLuma >= 0 && mdret.meanLuma < mAverageColorMaxForClick) {
+			// a region of interest scan only saw the window, which a dark hand could fill; confirm on a full scan
+			if(mFramesSinceFullScan == 0) {
+				onSensorClick();
+				mIsWaitingAfterClick = true;
+				mClickStartTime = captureTime;
+				return false;
+			}
+			mFramesSinceFullScan = FRAMES_BETWEEN_FULL_SCANS;
+		}
+		
+		// the motion cannot be trusted; this frame still becomes the previous one, so the next is compared
+		// under the new lighting
+		if(mdret.isIlluminationChange)
+			return true;
+		
+		// the differences along the noise row are the camera's noise, give or take a hand
+		if(mdret.noiseHistogram != null)
+			mNoiseEstimator.add(mdret.noiseHistogram);
+		
+		if(mdret.grid != null)
+			trackBlob(mdret);
+		timing.onDetectEnd(System.nanoTime());
+		
+		mFrameRateGovernor.update(mdret.fractionOfScreenInMotion, mGestureClassifier.isGestureStarted(),
+				captureTime);
+		
+		updateMotionSample(mdret, captureTime);
+		
+		boolean isHorizontalEnabled = isHorScrollAdjustForScreen();
+		boolean isVerticalEnabled = isVertScrollAdjustForScreen();
+		boolean wasGestureStarted = mGestureClassifier.isGestureStarted();
+		Direction movementDirection = mGestureClassifier.update(mdret,
+				captureTime, isHorizontalEnabled, isVerticalEnabled);
+		
+		if(mIsTrajectoryRecognitionEnabled)
+			movementDirection = updateTrajectory(mdret, captureTime, wasGestureStarted, movementDirection,
+					isHorizontalEnabled, isVerticalEnabled);
+		
+		// see if we should call a callback based on movementDirection
+		if(mGestureListeners.size() != 0 && movementDirection != Direction.None) {
+			timing.onClassifyEnd(System.nanoTime(), mGestureClassifier.getGestureStartTime());
+			long gestureLength = mGestureClassifier.getGestureLength() / 1000000L;
+			
+			int adjustedDirection = adjustDirectionForScreenRotation(movementDirection);
+			
+			if(adjustedDirection == Direction.Left.toInt())
+				onGestureLeft(gestureLength);
+			else if(adjustedDirection == Direction.Right.toInt())
+				onGestureRight(gestureLength);
+			else if(adjustedDirection == Direction.Up.toInt())
+				onGestureUp(gestureLength);
+			else if(adjustedDirection == Direction.Down.toInt())
+				onGestureDown(gestureLength);
+			
+			timing.onDispatchEnd(System.nanoTime());
+			synchronized (mLastGestureTiming) {
+				mLastGestureTiming.set(timing);
+			}
+			
+			// the message is only built when it will be logged, since this runs on the processing thread
+			if(Log.isLoggable(TAG, Log.DEBUG))
+				Log.d(TAG, run.source.getClass().getSimpleName() + " gesture latency: " + timing);
+		}
+		
+		return true;
+	}
+	
+	// splits the motion into blobs and moves the average position onto the one being followed; the
+	// fraction in motion is left as it is
+	private void trackBlob(MotionDetectionReturnValue mdret) {
+		MotionGrid grid = mdret.grid;
+		grid.segment(mDecimation);
+		
+		Point previousPos = mGestureClassifier.getPreviousPosition();
+		double lastX = mGestureClassifier.isGestureStarted() ? previousPos.x : -1.0;
+		int blob = grid.findTrackedBlob(lastX, previousPos.y);
+		if(blob >= 0) {
+			mdret.averagePosition.x = grid.getBlobX(blob);
+			mdret.averagePosition.y = grid.getBlobY(blob);
+		}
+	}
+	
+	// turns this frame's motion into screen coordinates and passes it to the motion listeners
+	private void updateMotionSample(MotionDetectionReturnValue mdret, long captureTime) {
+		boolean isInMotion = mdret.fractionOfScreenInMotion >= mGestureClassifier.getMinFractionInMotion();
+		
+		// as fractions of the frame, from its centre
+		double x = mdret.averagePosition.x / mPreviewSize.width - 0.5;
+		double y = mdret.averagePosition.y / mPreviewSize.height - 0.5;
+		double velocityX = 0.0, velocityY = 0.0;
+		if(isInMotion && mWasInMotion && captureTime > mLastMotionTime) {
+			double seconds = (captureTime - mLastMotionTime) / 1e9;
+			velocityX = (x - mLastMotionX) / seconds;
+			velocityY = (y - mLastMotionY) / seconds;
+		}
+		mWasInMotion = isInMotion;
+		mLastMotionX = x;
+		mLastMotionY = y;
+		mLastMotionTime = captureTime;
+		
+		if(mMotionListeners.size() == 0)
+			return;
+		
+		int quarterTurns = getScreenQuarterTurns();
+		mMotionSample.set(captureTime,
+				0.5 + toScreenX(x, y, quarterTurns), 0.5 + toScreenY(x, y, quarterTurns),
+				toScreenX(velocityX, velocityY, quarterTurns), toScreenY(velocityX, velocityY, quarterTurns),
+				mdret.fractionOfScreenInMotion, isInMotion);
+		
+		int blobCount = (mdret.grid != null) ? mdret.grid.getBlobCount() : 0;
+		mMotionSample.setBlobCount(blobCount);
+		for(int i = 0; i < blobCount; i++) {
+			double blobX = mdret.grid.getBlobX(i) / mPreviewSize.width - 0.5;
+			double blobY = mdret.grid.getBlobY(i) / mPreviewSize.height - 0.5;
+			mMotionSample.setBlob(i, 0.5 + toScreenX(blobX, blobY, quarterTurns),
+					0.5 + toScreenY(blobX, blobY, quarterTurns), mdret.grid.getBlobFraction(i));
+		}
+		
+		for(int i = 0; i < mMotionListeners.size(); i++) {
+			mMotionListeners.get(i).onMotion(this, mMotionSample);
+		}
+	}
+	
+	// rotate a vector in camera coordinates by the screen's quarter turns, as directions are rotated, then
+	// mirror it, since the front camera sees the user's right as its left
+	private static double toScreenX(double x, double y, int quarterTurns) {
+		switch(quarterTurns) {
+		case 1: return y;
+		case 2: return x;
+		case 3: return -y;
+		default: return -x;
+		}
+	}
+	
+	private static double toScreenY(double x, double y, int quarterTurns) {
+		switch(quarterTurns) {
+		case 1: return x;
+		case 2: return -y;
+		case 3: return -x;
+		default: return y;
+		}
+	}
+	
+	// follows the path of the current gesture and, as it ends, matches it against the recognizer's shapes;
+	// returns the direction to report in place of the classifier's
+	private Direction updateTrajectory(MotionDetectionReturnValue mdret, long captureTime, boolean wasGestureStarted,
+			Direction movementDirection, boolean isHorizontalEnabled, boolean isVerticalEnabled) {
+		boolean isGestureStarted = mGestureClassifier.isGestureStarted();
+		
+		if(isGestureStarted) {
+			if(!wasGestureStarted)
+				mTrajectoryRecognizer.reset();
+			mTrajectoryRecognizer.add(mdret.averagePosition.x, mdret.averagePosition.y, captureTime);
+			return movementDirection;
+		}
+		if(!wasGestureStarted)
+			return movementDirection;
+		
+		// the gesture ended on this frame
+		TrajectoryRecognizer.Gesture gesture = mTrajectoryRecognizer.recognize();
+		if(gesture == TrajectoryRecognizer.Gesture.None)
+			return movementDirection;
+		
+		if(mTrajectoryListeners.size() != 0) {
+			long gestureLength = mGestureClassifier.getGestureLength() / 1000000L;
+			onTrajectoryGesture(gesture.rotate(getScreenQuarterTurns()), mTrajectoryRecognizer.getScore(), gestureLength);
+		}
+		
+		// a swipe that fired early has already been reported
+		if(mGestureClassifier.hasFiredEarly())
+			return movementDirection;
+		
+		// a straight swipe along a disabled axis is not reported, just as the classifier would not report it
+		Direction direction = gesture.toDirection();
+		if(direction == Direction.Left || direction == Direction.Right)
+			return isHorizontalEnabled ? direction : Direction.None;
+		if(direction == Direction.Up || direction == Direction.Down)
+			return isVerticalEnabled ? direction : Direction.None;
+		
+		// circles and shakes are not swipes; diagonals are left to the classifier
+		if(gesture.isLine())
+			return movementDirection;
+		return Direction.None;
+	}
+	
+	// gives a processed frame back to the run's source to be captured into again; once the run is over, the
+	// source is about to be closed, possibly by the capture thread while this runs, so the frame is kept instead
+	private void recycleFrame(CaptureRun run, GreyFrame frame) {
+		if(isCurrentRun(run))
+			run.source.returnFrame(frame);
+	}
+	
+	// opens the frame source and runs it on the capture thread until the run ends or the source runs out
+	private void captureFrames(CaptureRun run) {
+		FrameSource source = mFrameSource;
+		if(source == null)
+			source = mIsPreviewCallbackCaptureEnabled ? new CameraPreviewCapture(mCameraId)
+					: new VideoCaptureFrameSource(mCameraId);
+		
+		// the processing thread holds two frames, the queue the rest, and the source needs one to capture into
+		if(!source.open(FRAME_QUEUE_CAPACITY + 3)) {
+			// the camera was not available
+			Log.w(TAG, source.getClass().getSimpleName() + " could not be opened");
+			if(mRun == run)
+				mIsRunning = false;
+			return;
+		}
+		
+		synchronized (mSourceLock) {
+			if(!isCurrentRun(run)) {
+				source.close();
+				return;
+			}
+			
+			mPreviewSize = new Size(source.getWidth(), source.getHeight());
+			mGestureClassifier.setFrameSize(mPreviewSize.width, mPreviewSize.height);
+			mTrajectoryRecognizer.setFrameSize(mPreviewSize.width, mPreviewSize.height);
+			mMotionGrid.setFrameSize(source.getWidth(), source.getHeight());
+			run.source = source;
+		}
+		
+		source.run(newFrameSourceCallback(run));
+		
+		source.close();
+	}
+	
+	// queues a run's frames for its processing thread
+	private FrameSource.Callback newFrameSourceCallback(final CaptureRun run) {
+		return new FrameSource.Callback() {
+			@Override
+			public long getNanosUntilNextFrame(FrameSource source) {
+				// a source that captures on demand captures nothing until the sensor resumes
+				if(mIsPaused) {
+					waitWhilePaused();
+					return 0;
+				}
+				
+				if(!source.isLive()) {
+					// wait for the processing thread rather than drop frames it would have seen live
+					return (run.queue.size() >= FRAME_QUEUE_CAPACITY) ? NANOSECONDS_TO_WAIT_FOR_QUEUE : 0;
+				}
+				
+				// while idle, wait out the time until the next frame is due rather than capture and discard
+				if(mIsFrameRateGovernorEnabled)
+					return mFrameRateGovernor.getNanosUntilNextFrame(System.nanoTime());
+				return 0;
+			}
+		
+			@Override
+			public void onFrame(FrameSource source, GreyFrame frame) {
+				// a live source keeps delivering while paused, so resuming needs no restart
+				if(mIsPaused) {
+					source.returnFrame(frame);
+					return;
+				}
+				
+				// while idle most frames go straight back unprocessed; frames are judged by their capture
+				// times, so replays stay repeatable
+				if(mIsFrameRateGovernorEnabled && !mFrameRateGovernor.acceptFrame(frame.getTimestamp())) {
+					source.returnFrame(frame);
+					return;
+				}
+				
+				// a dropped frame goes straight back to be captured into again
+				GreyFrame dropped = run.queue.offer(frame);
+				if(dropped != null)
+					source.returnFrame(dropped);
+			}
+		};
+	}
+	
+	// writes a frame to the recorder, if there is one, and gives up recording if that fails
+	private void recordFrame(GreyFrame frame) {
+		FrameRecorder recorder = mFrameRecorder;
+		if(recorder == null)
+			return;
+		
+		try {
+			recorder.record(frame);
+		}
+		catch(IOException e) {
+			Log.e(TAG, "recording failed, no more frames will be recorded", e);
+			if(mFrameRecorder == recorder)
+				mFrameRecorder = null;
+		}
+	}
+	
+	// takes a run's frames off its queue and looks for gestures in them
+	private void processFrames(CaptureRun run) {
+		GreyFrame previousFrame = null;
+		
+		while (isCurrentRun(run)) {
+			if(mIsPaused) {
+				// frames from before the pause must not be compared with frames after it
+				if(previousFrame != null) {
+					recycleFrame(run, previousFrame);
+					previousFrame = null;
 				}
+				GreyFrame queuedFrame;
+				while((queuedFrame = run.queue.poll()) != null)
+					recycleFrame(run, queuedFrame);
+				
+				mGestureClassifier.reset();
+				mWasInMotion = false;
+				mIsWaitingAfterClick = false;
+				mFramesSinceFullScan = 0;
+				
+				waitWhilePausedOrRelease(run);
+				continue;
+			}
+			
+			GreyFrame currentFrame = run.queue.take(MILLISECONDS_TO_WAIT_FOR_FRAME);
+			if(currentFrame == null)
+				continue;
+			
+			recordFrame(currentFrame);
+			
+			// the first frame has nothing to be compared against yet
+			if(previousFrame == null) {
+				previousFrame = currentFrame;
+				continue;
+			}
+			
+			// the current frame becomes the previous frame, and the old previous frame is captured into again
+			if(processFrame(run, currentFrame, previousFrame)) {
+				recycleFrame(run, previousFrame);
+				previousFrame = currentFrame;
+			}
+			else
+				recycleFrame(run, currentFrame);
+			
+			// a listener that restarted the sensor has left the latency pending for the new run
+			if(mIsResumeLatencyPending && isCurrentRun(run)) {
+				mResumeLatency = System.nanoTime() - mResumeRequestTime;
+				mIsResumeLatencyPending = false;
+				if(Log.isLoggable(TAG, Log.DEBUG))
+					Log.d(TAG, (mIsWarmResume ? "warm" : "cold") + " " + run.source.getClass().getSimpleName()
+							+ " resume latency: " + String.format("%.2f ms", mResumeLatency / 1e6));
 			}
 		}
-	};
+		
+		// if the loop ended because the pause timed out, nobody else will stop the source
+		stopSource(run);
+		releaseEngine();
+	}
 	
 	/**
 	 * If ClickByColor is enabled, then when the mean color of the pixels is below c, register a click.
@@ -485,6 +1673,4 @@ public class CameraGestureSensor extends ClickSensor {
 	public void setAverageColorMaxForClick(double c) {
 		mAverageColorMaxForClick = c;
 	}
-	
-	private native MotionDetectionReturnValue DetectMovementPosition(long currentFrame, long previousFrame);
 }
\ No newline at end of file
@@ -0,0 +1,237 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.io.IOException;
+import java.util.List;
+
+import android.annotation.TargetApi;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.os.Build;
+import android.os.Looper;
+
+/**
+ * <p>Captures grey frames with <code>android.hardware.Camera</code> preview callbacks instead of
+ * OpenCV's <code>VideoCapture</code>. The camera writes NV21 frames into a fixed ring of callback
+ * buffers; the Y plane at the start of each buffer is already a grey frame, so it is handed on
+ * in place, with no colour conversion, no copy and no allocation per frame.</p>
+ *
+ * <p>This is a push {@link FrameSource}: the camera delivers frames on the looper of the capture
+ * thread, which {@link #run(FrameSource.Callback)} runs until {@link #stop()}. Each frame is lent to the
+ * callback and must be given back with {@link #returnFrame(GreyFrame)} once it is no longer needed, or
+ * the camera runs out of buffers and stops delivering frames.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class CameraPreviewCapture implements FrameSource, Camera.PreviewCallback {
+	private int mCameraId;
+	private int mBufferCount;
+
+	private FrameSource.Callback mCallback;
+	private Looper mLooper;
+	private boolean mIsStopped;
+
+	// frames are returned from the processing thread, so it is only taken away under the lock
+	private Camera mCamera;
+	private SurfaceTexture mSurfaceTexture;
+
+	private int mWidth;
+	private int mHeight;
+
+	private byte[][] mBuffers;
+	private GreyFrame[] mFrames;
+
+	/**
+	 * Creates a capture for a camera, which is opened by {@link #open(int)}.
+	 * @param cameraId the id of the camera
+	 */
+	public CameraPreviewCapture(int cameraId) {
+		mCameraId = cameraId;
+	}
+
+	/**
+	 * Opens the camera and starts the preview, preparing a looper on the calling thread if it has none.
+	 * @param frameCount the number of callback buffers; at least 2
+	 * @return true if the preview started, false if the camera was not available
+	 */
+	@Override
+	public boolean open(int frameCount) {
+		mBufferCount = Math.max(frameCount, 2);
+		synchronized (this) {
+			mIsStopped = false;
+		}
+
+		// the camera delivers its callbacks to the looper of the thread that opened it
+		if(Looper.myLooper() == null)
+			Looper.prepare();
+
+		try {
+			mCamera = Camera.open(mCameraId);
+		}
+		catch(RuntimeException e) {
+			mCamera = null;
+		}
+		if(mCamera == null)
+			return false;
+
+		// a camera that rejects its parameters or will not preview is released here; nothing else would
+		try {
+			Camera.Parameters parameters = mCamera.getParameters();
+
+			// the same choice VideoCapture is given: the largest preview under 640x480 that is at least 320 wide
+			List<Camera.Size> previewSizes = parameters.getSupportedPreviewSizes();
+			Camera.Size previewSize = parameters.getPreviewSize();
+			for(Camera.Size size : previewSizes) {
+				if(size.width * size.height < 640 * 480 && size.width >= 320)
+					previewSize = size;
+			}
+			mWidth = previewSize.width;
+			mHeight = previewSize.height;
+
+			parameters.setPreviewSize(mWidth, mHeight);
+			parameters.setPreviewFormat(ImageFormat.NV21);
+			mCamera.setParameters(parameters);
+
+			int bufferSize = mWidth * mHeight * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+			mBuffers = new byte[mBufferCount][];
+			mFrames = new GreyFrame[mBufferCount];
+			for(int i = 0; i < mBufferCount; i++) {
+				mBuffers[i] = new byte[bufferSize];
+				mFrames[i] = new GreyFrame(mBuffers[i], mWidth, mHeight);
+				mCamera.addCallbackBuffer(mBuffers[i]);
+			}
+
+			setPreviewTarget();
+
+			mCamera.setPreviewCallbackWithBuffer(this);
+			mCamera.startPreview();
+		}
+		catch(IOException e) {
+			close();
+			return false;
+		}
+		catch(RuntimeException e) {
+			close();
+			return false;
+		}
+
+		return true;
+	}
+
+	// the preview will not start without somewhere to draw it; an unattached texture is never shown
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private void setPreviewTarget() throws IOException {
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			mSurfaceTexture = new SurfaceTexture(0);
+			mCamera.setPreviewTexture(mSurfaceTexture);
+		}
+		else {
+			mCamera.setPreviewDisplay(null);
+		}
+	}
+
+	@Override
+	public boolean isLive() {
+		return true;
+	}
+
+	/**
+	 * Runs the calling thread's looper, on which the frames arrive, until {@link #stop()}.
+	 * @param callback receives every frame
+	 */
+	@Override
+	public void run(FrameSource.Callback callback) {
+		synchronized (this) {
+			if(mIsStopped)
+				return;
+			mCallback = callback;
+			mLooper = Looper.myLooper();
+		}
+
+		Looper.loop();
+
+		synchronized (this) {
+			mLooper = null;
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		mIsStopped = true;
+		if(mLooper != null)
+			mLooper.quit();
+	}
+
+	/**
+	 * Stops the preview and releases the camera. Frames lent out before this must not be used afterwards;
+	 * returning them is safe from any thread, and does nothing.
+	 */
+	@Override
+	public void close() {
+		Camera camera;
+		synchronized (this) {
+			camera = mCamera;
+			mCamera = null;
+		}
+		
+		// no buffer can be added once the camera is taken away, so it is released outside the lock
+		if(camera != null) {
+			camera.setPreviewCallbackWithBuffer(null);
+			camera.stopPreview();
+			camera.release();
+		}
+		releaseSurfaceTexture();
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private void releaseSurfaceTexture() {
+		if(mSurfaceTexture != null) {
+			mSurfaceTexture.release();
+			mSurfaceTexture = null;
+		}
+	}
+
+	/**
+	 * Gives a frame back to the camera to be filled again. Does nothing once the camera has been closed.
+	 * @param frame a frame passed to {@link FrameSource.Callback#onFrame}
+	 */
+	@Override
+	public synchronized void returnFrame(GreyFrame frame) {
+		if(mCamera != null)
+			mCamera.addCallbackBuffer(frame.getData());
+	}
+
+	/**
+	 * Gets the width of the frames.
+	 * @return the width in pixels
+	 */
+	@Override
+	public int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * Gets the height of the frames.
+	 * @return the height in pixels
+	 */
+	@Override
+	public int getHeight() {
+		return mHeight;
+	}
+
+	@Override
+	public void onPreviewFrame(byte[] data, Camera camera) {
+		long timestamp = System.nanoTime();
+
+		if(data == null || mCamera == null || mCallback == null)
+			return;
+
+		for(int i = 0; i < mBufferCount; i++) {
+			if(mBuffers[i] == data) {
+				mFrames[i].setTimestamp(timestamp);
+				mCallback.onFrame(this, mFrames[i]);
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>A bounded, lock-free queue of {@link GreyFrame}s between one producer thread, which captures
+ * frames, and one consumer thread, which processes them. Neither side ever blocks the other or
+ * allocates; the consumer can wait for a frame with {@link #take(long)}.</p>
+ *
+ * <p>When the queue is full, the producer drops either the oldest queued frame, so the consumer always
+ * gets the freshest frames, or the frame it is offering. Whichever frame is dropped is handed back to
+ * the producer to reuse. The queue counts the frames offered, taken and dropped.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class FrameQueue {
+	private final GreyFrame[] mSlots;
+	private final int mCapacity;
+
+	// the next slot to write, only ever moved by the producer
+	private final AtomicLong mHead;
+
+	// the next slot to read; moved by the consumer, and by the producer when it drops the oldest frame
+	private final AtomicLong mTail;
+
+	private volatile boolean mIsDropOldestEnabled;
+
+	// the consumer, while it is parked in take()
+	private volatile Thread mWaitingThread;
+
+	// each counter only has one writer
+	private volatile long mOfferedCount;
+	private volatile long mTakenCount;
+	private volatile long mDroppedCount;
+
+	/**
+	 * Creates an empty queue that drops the oldest frame when it is full.
+	 * @param capacity the most frames the queue holds; at least 1
+	 */
+	public FrameQueue(int capacity) {
+		mCapacity = Math.max(capacity, 1);
+		mSlots = new GreyFrame[mCapacity];
+		mHead = new AtomicLong(0);
+		mTail = new AtomicLong(0);
+		mIsDropOldestEnabled = true;
+	}
+
+	/**
+	 * Chooses which frame is dropped when a frame is offered to a full queue.
+	 * @param enabled true to drop the oldest queued frame, false to drop the frame being offered
+	 */
+	public void enableDropOldest(boolean enabled) {
+		mIsDropOldestEnabled = enabled;
+	}
+
+	/**
+	 * Test which frame is dropped when the queue is full.
+	 * @return true if the oldest queued frame is dropped, false if the frame being offered is
+	 */
+	public boolean isDropOldestEnabled() {
+		return mIsDropOldestEnabled;
+	}
+
+	/**
+	 * Adds a frame to the queue. Must only be called from the producer thread.
+	 * @param frame the frame
+	 * @return null if no frame was dropped, otherwise the dropped frame, which belongs to the producer again
+	 */
+	public GreyFrame offer(GreyFrame frame) {
+		mOfferedCount++;
+
+		long head = mHead.get();
+		GreyFrame dropped = null;
+
+		if(head - mTail.get() >= mCapacity) {
+			if(!mIsDropOldestEnabled) {
+				mDroppedCount++;
+				return frame;
+			}
+
+			// take the oldest frame the same way the consumer would; if the consumer got there first there is room
+			while(true) {
+				long tail = mTail.get();
+				if(head - tail < mCapacity)
+					break;
+				GreyFrame oldest = mSlots[(int)(tail % mCapacity)];
+				if(mTail.compareAndSet(tail, tail + 1)) {
+					dropped = oldest;
+					mDroppedCount++;
+					break;
+				}
+			}
+		}
+
+		mSlots[(int)(head % mCapacity)] = frame;
+		mHead.set(head + 1);
+
+		Thread waiting = mWaitingThread;
+		if(waiting != null)
+			LockSupport.unpark(waiting);
+
+		return dropped;
+	}
+
+	/**
+	 * Removes the oldest frame from the queue without waiting. Must only be called from the consumer thread.
+	 * @return the frame, or null if the queue is empty
+	 */
+	public GreyFrame poll() {
+		while(true) {
+			long tail = mTail.get();
+			if(tail >= mHead.get())
+				return null;
+
+			// the slot may be rewritten once the producer drops it, but then the compareAndSet fails
+			GreyFrame frame = mSlots[(int)(tail % mCapacity)];
+			if(mTail.compareAndSet(tail, tail + 1)) {
+				mTakenCount++;
+				return frame;
+			}
+		}
+	}
+
+	/**
+	 * Removes the oldest frame from the queue, waiting for one if it is empty. Must only be called from
+	 * the consumer thread.
+	 * @param timeoutMillis the longest time to wait, in milliseconds
+	 * @return the frame, or null if none arrived in time
+	 */
+	public GreyFrame take(long timeoutMillis) {
+		GreyFrame frame = poll();
+		if(frame != null)
+			return frame;
+
+		// polling again after announcing ourselves means a frame offered in between is never missed
+		mWaitingThread = Thread.currentThread();
+		long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+		while((frame = poll()) == null) {
+			long remaining = deadline - System.nanoTime();
+			if(remaining <= 0)
+				break;
+			LockSupport.parkNanos(this, remaining);
+		}
+		mWaitingThread = null;
+
+		return frame;
+	}
+
+	/**
+	 * Gets the number of frames in the queue. Only exact when called from the producer or consumer.
+	 * @return the number of frames waiting to be taken
+	 */
+	public int size() {
+		long tail = mTail.get();
+		return (int)Math.min(mHead.get() - tail, mCapacity);
+	}
+
+	/**
+	 * Gets the number of frames offered to the queue, including those dropped.
+	 * @return the number of frames offered
+	 */
+	public long getOfferedCount() {
+		return mOfferedCount;
+	}
+
+	/**
+	 * Gets the number of frames the consumer has taken from the queue.
+	 * @return the number of frames taken
+	 */
+	public long getTakenCount() {
+		return mTakenCount;
+	}
+
+	/**
+	 * Gets the number of frames dropped because the queue was full.
+	 * @return the number of frames dropped
+	 */
+	public long getDroppedCount() {
+		return mDroppedCount;
+	}
+}
@@ -0,0 +1,178 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>Decides how often frames are captured, based on how much has been moving. While less than a sliver
+ * of the frame moves for a couple of seconds, the governor drops into {@link Mode#Idle} and only lets a
+ * few frames a second through. As soon as the motion in one of those frames crosses the wake threshold,
+ * which is well below what it takes to start a gesture, it goes back to {@link Mode#Active} and lets
+ * every frame through again.</p>
+ *
+ * <p>The capture thread asks {@link #acceptFrame(long)} or {@link #getNanosUntilNextFrame(long)};
+ * the processing thread reports each frame's motion to {@link #update(double, boolean, long)}.
+ * All times are <code>System.nanoTime()</code> values.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class FrameRateGovernor {
+	/**
+	 * Whether every frame or only a few frames a second are being let through.
+	 */
+	public enum Mode {
+		Active, Idle
+	}
+
+	/** A frame with less than this fraction of its pixels moving counts as still. */
+	public static final double IDLE_THRESHOLD = 0.01;
+
+	/** An idle governor wakes as soon as a frame has more than this fraction of its pixels moving. */
+	public static final double WAKE_THRESHOLD = 0.03;
+
+	private static final double DEFAULT_IDLE_FRAME_RATE = 5.0;
+	private static final long DEFAULT_IDLE_DELAY_MILLISECONDS = 2000;
+
+	// how much each new frame interval counts towards the effective frame rate
+	private static final double FRAME_INTERVAL_SMOOTHING = 0.1;
+
+	private volatile Mode mMode;
+	private volatile long mIdleFrameInterval;
+	private long mIdleDelay;
+
+	// processing thread: when the frames became still, and when the last frame was processed
+	private boolean mIsStill;
+	private long mStillSince;
+	private boolean mHasProcessedFrame;
+	private long mLastProcessedTime;
+	private volatile double mAverageFrameInterval;
+
+	// capture thread: when the last frame was let through
+	private boolean mHasAcceptedFrame;
+	private long mLastAcceptedTime;
+
+	/**
+	 * Creates an active governor that idles at 5 frames per second after 2 seconds of stillness.
+	 */
+	public FrameRateGovernor() {
+		mIdleFrameInterval = (long)(1e9 / DEFAULT_IDLE_FRAME_RATE);
+		mIdleDelay = DEFAULT_IDLE_DELAY_MILLISECONDS * 1000000L;
+		reset();
+	}
+
+	/**
+	 * Goes back to {@link Mode#Active} and forgets all timing. Must not be called while frames are being captured.
+	 */
+	public void reset() {
+		mMode = Mode.Active;
+		mIsStill = false;
+		mHasProcessedFrame = false;
+		mHasAcceptedFrame = false;
+		mAverageFrameInterval = 0.0;
+	}
+
+	/**
+	 * Sets how many frames a second are let through while idle. Values that are not positive are ignored.
+	 * @param framesPerSecond the idle frame rate
+	 */
+	public void setIdleFrameRate(double framesPerSecond) {
+		if(framesPerSecond > 0.0)
+			mIdleFrameInterval = (long)(1e9 / framesPerSecond);
+	}
+
+	/**
+	 * Gets how many frames a second are let through while idle.
+	 * @return the idle frame rate
+	 */
+	public double getIdleFrameRate() {
+		return 1e9 / mIdleFrameInterval;
+	}
+
+	/**
+	 * Sets how long the frames must be still before the governor idles. Negative values are ignored.
+	 * @param milliseconds the delay in milliseconds
+	 */
+	public void setIdleDelay(long milliseconds) {
+		if(milliseconds >= 0)
+			mIdleDelay = milliseconds * 1000000L;
+	}
+
+	/**
+	 * Gets how long the frames must be still before the governor idles.
+	 * @return the delay in milliseconds
+	 */
+	public long getIdleDelay() {
+		return mIdleDelay / 1000000L;
+	}
+
+	/**
+	 * Gets the current mode.
+	 * @return {@link Mode#Active} or {@link Mode#Idle}
+	 */
+	public Mode getMode() {
+		return mMode;
+	}
+
+	/**
+	 * Gets how many frames a second have recently been processed, smoothed over the last few seconds' frames.
+	 * @return the effective frame rate, or 0 before two frames have been processed
+	 */
+	public double getEffectiveFrameRate() {
+		double interval = mAverageFrameInterval;
+		return (interval > 0.0) ? 1e9 / interval : 0.0;
+	}
+
+	/**
+	 * Called from the capture thread: how long to wait before capturing the next frame.
+	 * @param now the current time
+	 * @return 0 if a frame may be captured now, otherwise the time to wait in nanoseconds
+	 */
+	public long getNanosUntilNextFrame(long now) {
+		if(mMode == Mode.Active || !mHasAcceptedFrame)
+			return 0;
+		return Math.max(0, mLastAcceptedTime + mIdleFrameInterval - now);
+	}
+
+	/**
+	 * Called from the capture thread for every frame the camera delivers.
+	 * @param now the time the frame arrived
+	 * @return true if the frame should be processed, false if it should be skipped
+	 */
+	public boolean acceptFrame(long now) {
+		if(getNanosUntilNextFrame(now) > 0)
+			return false;
+		mLastAcceptedTime = now;
+		mHasAcceptedFrame = true;
+		return true;
+	}
+
+	/**
+	 * Called from the processing thread with the motion found in each processed frame.
+	 * @param fractionInMotion the fraction of the frame in motion
+	 * @param isGestureStarted whether a gesture is in progress; the governor never idles during one
+	 * @param now the time the frame was captured
+	 */
+	public void update(double fractionInMotion, boolean isGestureStarted, long now) {
+		if(mHasProcessedFrame && now - mLastProcessedTime > 0) {
+			double interval = (double)(now - mLastProcessedTime);
+			double average = mAverageFrameInterval;
+			mAverageFrameInterval = (average > 0.0) ? average + (interval - average) * FRAME_INTERVAL_SMOOTHING : interval;
+		}
+		mLastProcessedTime = now;
+		mHasProcessedFrame = true;
+
+		if(isGestureStarted || fractionInMotion > WAKE_THRESHOLD) {
+			mMode = Mode.Active;
+			mIsStill = false;
+		}
+		else if(fractionInMotion < IDLE_THRESHOLD) {
+			if(!mIsStill) {
+				mIsStill = true;
+				mStillSince = now;
+			}
+			else if(now - mStillSince >= mIdleDelay)
+				mMode = Mode.Idle;
+		}
+		else {
+			// in between: not still enough to start idling, not enough motion to wake
+			mIsStill = false;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * <p>Writes grey frames to a file that a {@link FrameReplay} can play back, so gesture detection can be
+ * benchmarked and regression-tested without a camera. Hand it to
+ * {@link CameraGestureSensor#setFrameRecorder(FrameRecorder)} to record every frame the sensor processes.</p>
+ *
+ * <p>The file is big-endian. A 16 byte header holds the magic number {@link #MAGIC}, the format
+ * {@link #VERSION}, and the width and height of the frames. Every frame after it takes the same space:
+ * its 8 byte capture timestamp in nanoseconds, then its <code>width * height</code> grey pixels, one row
+ * after another. A frame cut short by a crash is ignored on playback.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class FrameRecorder {
+	/** The first four bytes of every recording, "TFGF". */
+	public static final int MAGIC = 0x54464746;
+
+	/** The version of the format written. */
+	public static final int VERSION = 1;
+
+	/** The size of the header in bytes. */
+	public static final int HEADER_SIZE = 16;
+
+	/** The size of each frame's timestamp in bytes. */
+	public static final int TIMESTAMP_SIZE = 8;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private DataOutputStream mOutput;
+	private int mWidth;
+	private int mHeight;
+	private int mFrameCount;
+
+	/**
+	 * Creates a recorder writing to a file, replacing anything already there. The header is written with
+	 * the first frame, whose size every later frame must match.
+	 * @param file the file to write
+	 * @throws IOException if the file cannot be opened for writing
+	 */
+	public FrameRecorder(File file) throws IOException {
+		mOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+		mWidth = 0;
+		mHeight = 0;
+		mFrameCount = 0;
+	}
+
+	/**
+	 * Appends a frame, with its timestamp. Frames of a different size from the first are skipped.
+	 * @param frame the frame
+	 * @return true if the frame was written, false if it was skipped or the recorder is closed
+	 * @throws IOException if writing fails
+	 */
+	public synchronized boolean record(GreyFrame frame) throws IOException {
+		if(mOutput == null)
+			return false;
+
+		if(mWidth == 0) {
+			mWidth = frame.getWidth();
+			mHeight = frame.getHeight();
+			mOutput.writeInt(MAGIC);
+			mOutput.writeInt(VERSION);
+			mOutput.writeInt(mWidth);
+			mOutput.writeInt(mHeight);
+		}
+		else if(frame.getWidth() != mWidth || frame.getHeight() != mHeight) {
+			return false;
+		}
+
+		mOutput.writeLong(frame.getTimestamp());
+		mOutput.write(frame.getData(), 0, mWidth * mHeight);
+		mFrameCount++;
+		return true;
+	}
+
+	/**
+	 * Gets the number of frames written so far.
+	 * @return the number of frames
+	 */
+	public synchronized int getFrameCount() {
+		return mFrameCount;
+	}
+
+	/**
+	 * Writes out anything buffered and closes the file. Frames recorded afterwards are skipped.
+	 * @throws IOException if writing fails
+	 */
+	public synchronized void close() throws IOException {
+		if(mOutput != null) {
+			DataOutputStream output = mOutput;
+			mOutput = null;
+			output.close();
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>Plays back a recording made by a {@link FrameRecorder}. The file is memory-mapped, so frames are
+ * copied straight from the page cache into the caller's frames with no reads or allocations. Wrap it in a
+ * {@link ReplayFrameSource} to run a {@link CameraGestureSensor} on the recording instead of the camera,
+ * or use {@link #readAll()} to feed the benchmarks in the library's <code>host</code> directory.</p>
+ *
+ * <p>Frames are read in order with {@link #next(GreyFrame)}, either as fast as they are asked for or, with
+ * real-time pacing, no sooner than they were originally captured. Either way they are timestamped as if
+ * the recording had started on the first call, so gesture lengths and click delays come out as recorded.
+ * A replay must only be read from one thread at a time.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class FrameReplay {
+	private RandomAccessFile mFile;
+	private MappedByteBuffer mBuffer;
+
+	private int mWidth;
+	private int mHeight;
+	private int mFrameSize;
+	private int mFrameCount;
+
+	private boolean mIsRealTimePacingEnabled;
+
+	// the next frame next() reads, and the time the first frame was read, which the timestamps are based on
+	private int mPosition;
+	private long mStartTime;
+
+	/**
+	 * Opens a recording. Only the first 2 GB are mapped; any frames after them are not played back.
+	 * @param file the file written by a {@link FrameRecorder}
+	 * @throws IOException if the file cannot be read or is not a recording
+	 */
+	public FrameReplay(File file) throws IOException {
+		mFile = new RandomAccessFile(file, "r");
+		try {
+			long length = Math.min(mFile.length(), Integer.MAX_VALUE);
+			if(length < FrameRecorder.HEADER_SIZE)
+				throw new IOException(file + " is too short to be a recording");
+
+			mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+			if(mBuffer.getInt(0) != FrameRecorder.MAGIC)
+				throw new IOException(file + " is not a recording");
+			if(mBuffer.getInt(4) != FrameRecorder.VERSION)
+				throw new IOException(file + " is recording version " + mBuffer.getInt(4));
+
+			mWidth = mBuffer.getInt(8);
+			mHeight = mBuffer.getInt(12);
+			if(mWidth <= 0 || mHeight <= 0)
+				throw new IOException(file + " has frames of " + mWidth + "x" + mHeight);
+		}
+		catch(IOException e) {
+			mFile.close();
+			throw e;
+		}
+
+		mFrameSize = FrameRecorder.TIMESTAMP_SIZE + mWidth * mHeight;
+		mFrameCount = (mBuffer.capacity() - FrameRecorder.HEADER_SIZE) / mFrameSize;
+		mIsRealTimePacingEnabled = false;
+		rewind();
+	}
+
+	/**
+	 * When enabled, {@link #next(GreyFrame)} waits until each frame is due, so the recording plays at the
+	 * speed it was captured. When disabled, frames are read as fast as they are asked for. The default is disabled.
+	 * @param enabled Set whether real-time pacing is enabled
+	 */
+	public void enableRealTimePacing(boolean enabled) {
+		mIsRealTimePacingEnabled = enabled;
+	}
+
+	/**
+	 * Test if real-time pacing is enabled.
+	 * @return true if frames are played at the speed they were captured, false if as fast as possible.
+	 */
+	public boolean isRealTimePacingEnabled() {
+		return mIsRealTimePacingEnabled;
+	}
+
+	/**
+	 * Gets the width of the frames.
+	 * @return the width in pixels
+	 */
+	public int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * Gets the height of the frames.
+	 * @return the height in pixels
+	 */
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * Gets the number of complete frames in the recording.
+	 * @return the number of frames
+	 */
+	public int getFrameCount() {
+		return mFrameCount;
+	}
+
+	/**
+	 * Goes back to the first frame. The next call to {@link #next(GreyFrame)} restarts the clock.
+	 */
+	public void rewind() {
+		mPosition = 0;
+	}
+
+	/**
+	 * Test if every frame has been read.
+	 * @return true once {@link #next(GreyFrame)} has nothing more to read
+	 */
+	public boolean isFinished() {
+		return mPosition >= mFrameCount;
+	}
+
+	/**
+	 * Reads the next frame, waiting until it is due if real-time pacing is enabled.
+	 * @param frame a frame wrapping a byte array, of this recording's size, to copy the pixels into; its
+	 * timestamp is set to the first frame's read time plus the time since the first frame was recorded
+	 * @return true if a frame was read, false at the end of the recording
+	 */
+	public boolean next(GreyFrame frame) {
+		if(mPosition >= mFrameCount)
+			return false;
+
+		if(mPosition == 0)
+			mStartTime = System.nanoTime();
+
+		read(mPosition, frame);
+		long timestamp = mStartTime + frame.getTimestamp() - recordedTimestamp(0);
+		frame.setTimestamp(timestamp);
+		mPosition++;
+
+		if(mIsRealTimePacingEnabled) {
+			long wait = timestamp - System.nanoTime();
+			if(wait > 0) {
+				try {
+					Thread.sleep(wait / 1000000L, (int)(wait % 1000000L));
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads any frame, without pacing.
+	 * @param index the frame to read, from 0
+	 * @param frame a frame wrapping a byte array, of this recording's size, to copy the pixels into; its
+	 * timestamp is set to the one recorded
+	 */
+	public void read(int index, GreyFrame frame) {
+		if(frame.getMat() != null || frame.getWidth() != mWidth || frame.getHeight() != mHeight)
+			throw new IllegalArgumentException("frames must wrap a byte array of " + mWidth + "x" + mHeight);
+		if(index < 0 || index >= mFrameCount)
+			throw new IndexOutOfBoundsException("frame " + index + " of " + mFrameCount);
+
+		int offset = FrameRecorder.HEADER_SIZE + index * mFrameSize;
+		frame.setTimestamp(mBuffer.getLong(offset));
+		mBuffer.position(offset + FrameRecorder.TIMESTAMP_SIZE);
+		mBuffer.get(frame.getData(), 0, mWidth * mHeight);
+	}
+
+	/**
+	 * Reads every frame into newly allocated frames, with their recorded timestamps.
+	 * @return the frames, in order
+	 */
+	public GreyFrame[] readAll() {
+		GreyFrame[] frames = new GreyFrame[mFrameCount];
+		for(int i = 0; i < mFrameCount; i++) {
+			frames[i] = new GreyFrame(new byte[mWidth * mHeight], mWidth, mHeight);
+			read(i, frames[i]);
+		}
+		return frames;
+	}
+
+	/**
+	 * Closes the file. The mapping itself is released once the replay is garbage collected.
+	 * @throws IOException if closing fails
+	 */
+	public void close() throws IOException {
+		mFile.close();
+	}
+
+	private long recordedTimestamp(int index) {
+		return mBuffer.getLong(FrameRecorder.HEADER_SIZE + index * mFrameSize);
+	}
+}
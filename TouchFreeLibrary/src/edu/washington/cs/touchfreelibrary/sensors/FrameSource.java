@@ -0,0 +1,90 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>Somewhere grey frames come from: a camera, a recording, or a generator. {@link CameraGestureSensor}
+ * looks for gestures in whichever source it is given, so capture paths can be swapped per device and the
+ * detection pipeline can be run without a camera.</p>
+ *
+ * <p>A source is driven from one thread, its capture thread: {@link #open(int)}, then {@link #run(Callback)},
+ * which delivers frames to the callback on that thread until {@link #stop()} is called or the source runs
+ * out, then {@link #close()}. Sources that capture a frame whenever asked extend {@link PullFrameSource},
+ * which can also be read directly; others, like {@link CameraPreviewCapture}, push frames as they arrive.</p>
+ *
+ * <p>Frames belong to the source and are only lent to the callback; each must be given back with
+ * {@link #returnFrame(GreyFrame)}, from any thread, once it is no longer needed.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public interface FrameSource {
+	/**
+	 * Receives the frames delivered by a <code>FrameSource</code>.
+	 * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+	 */
+	public interface Callback {
+		/**
+		 * Called on the capture thread for every frame.
+		 * @param source the source that delivered the frame
+		 * @param frame the frame, timestamped with its capture time on the <code>System.nanoTime()</code> clock
+		 */
+		public void onFrame(FrameSource source, GreyFrame frame);
+
+		/**
+		 * Asked on the capture thread before each frame by sources that capture on demand. May block.
+		 * @param source the source about to capture
+		 * @return 0 to capture now, otherwise how long to wait first in nanoseconds
+		 */
+		public long getNanosUntilNextFrame(FrameSource source);
+	}
+
+	/**
+	 * Opens the source and allocates its frames. Must be called on the capture thread.
+	 * @param frameCount the number of frames to allocate; this must be more than the most frames ever
+	 * lent out at once, or the source stalls
+	 * @return true if the source opened, false if it is not available
+	 */
+	public boolean open(int frameCount);
+
+	/**
+	 * Gets the width of the frames. Only valid once the source is open.
+	 * @return the width in pixels
+	 */
+	public int getWidth();
+
+	/**
+	 * Gets the height of the frames. Only valid once the source is open.
+	 * @return the height in pixels
+	 */
+	public int getHeight();
+
+	/**
+	 * Test if frames arrive at their own pace, like a camera's, rather than as fast as they are taken.
+	 * @return true if frames that are not taken in time are missed, false if the source waits for its callback
+	 */
+	public boolean isLive();
+
+	/**
+	 * Delivers frames to the callback on the calling thread, which must be the one that opened the source.
+	 * Returns once {@link #stop()} is called or there are no more frames.
+	 * @param callback receives every frame
+	 */
+	public void run(Callback callback);
+
+	/**
+	 * Makes {@link #run(Callback)} return as soon as possible. May be called from any thread, before or
+	 * during <code>run</code>.
+	 */
+	public void stop();
+
+	/**
+	 * Gives a frame back to be captured into again. May be called from any thread, even while or after the
+	 * source is closed, when it does nothing.
+	 * @param frame a frame passed to {@link Callback#onFrame}
+	 */
+	public void returnFrame(GreyFrame frame);
+
+	/**
+	 * Releases whatever the source opened. Must be called on the capture thread after {@link #run(Callback)}
+	 * has returned; frames lent out before this must not be used afterwards.
+	 */
+	public void close();
+}
@@ -0,0 +1,281 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import org.opencv.core.Point;
+
+/**
+ * <p>Turns the per-frame motion summaries of a {@link MotionEngine} into swipe gestures. A gesture
+ * starts when enough of the frame is moving and ends when the motion dies down; its direction is
+ * where the average position ended up relative to where it started.</p>
+ *
+ * <p>With early firing enabled, a gesture is reported as soon as the average position has moved far
+ * enough in a straight enough line, rather than once the hand has left the frame or stopped. The rest of
+ * that motion is then ignored, so it cannot trigger a second gesture.</p>
+ *
+ * <p>Directions are in camera coordinates. {@link CameraGestureSensor} adjusts them for the
+ * screen's rotation; the host benchmarks compare them directly.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class GestureClassifier {
+	/**
+	 * A gesture direction. The numbers step a quarter turn at a time, so rotating a direction
+	 * is an addition modulo 4.
+	 */
+	public enum Direction {
+		Left(0), Down(1), Right(2), Up(3), None(4);
+
+		private int numVal;
+
+		Direction(int numVal) {
+			this.numVal = numVal;
+		}
+
+		public int toInt() {
+			return numVal;
+		}
+	} ;
+
+	/** By default a gesture is in progress while more than this fraction of the frame is moving. */
+	public static final double MIN_FRACTION_SCREEN_MOTION = 0.1;
+
+	private static final double DEFAULT_EARLY_FIRING_CONFIDENCE = 0.9;
+
+	// a gesture may fire early only once this many frames have moved, so a single jump cannot look straight
+	private static final int MIN_EARLY_FIRING_FRAMES = 3;
+
+	private double mMinDirectionalMotionX;
+	private double mMinDirectionalMotionY;
+	private double mWidthToHeight;
+	private double mMinFractionInMotion;
+
+	private Point mStartPos;
+	private Point mPreviousPos;
+	private boolean mIsGestureStarted;
+
+	private long mStartGestureTime;
+	private long mGestureLength;
+
+	// the length of the path the average position has taken since the gesture started, over how many frames
+	private boolean mIsEarlyFiringEnabled;
+	private double mEarlyFiringConfidence;
+	private boolean mHasFiredEarly;
+	private double mPathLength;
+	private int mGestureFrames;
+
+	/**
+	 * Creates a classifier for frames of the given size.
+	 * @param width the width of the frames in pixels
+	 * @param height the height of the frames in pixels
+	 */
+	public GestureClassifier(double width, double height) {
+		mStartPos = new Point(0, 0);
+		mPreviousPos = new Point(0, 0);
+
+		mIsEarlyFiringEnabled = false;
+		mEarlyFiringConfidence = DEFAULT_EARLY_FIRING_CONFIDENCE;
+		mMinFractionInMotion = MIN_FRACTION_SCREEN_MOTION;
+
+		setFrameSize(width, height);
+		reset();
+	}
+
+	/**
+	 * Changes the frame size the movement thresholds are based on.
+	 * @param width the width of the frames in pixels
+	 * @param height the height of the frames in pixels
+	 */
+	public void setFrameSize(double width, double height) {
+		mMinDirectionalMotionX = width / 5;
+		mMinDirectionalMotionY = height / 6;
+
+		mWidthToHeight = width / height * 6.0 / 5.0;
+	}
+
+	/**
+	 * When enabled, a gesture fires on the first frame its average position has moved as far as a gesture
+	 * must, with a path at least as straight as the early firing confidence. Gestures that never qualify
+	 * still fire when they end. The default is disabled.
+	 * @param enabled Set whether early firing is enabled
+	 */
+	public void enableEarlyFiring(boolean enabled) {
+		mIsEarlyFiringEnabled = enabled;
+	}
+
+	/**
+	 * Test if early firing is enabled.
+	 * @return true if gestures may fire before they end, false otherwise.
+	 */
+	public boolean isEarlyFiringEnabled() {
+		return mIsEarlyFiringEnabled;
+	}
+
+	/**
+	 * Sets how straight a gesture's path must be for it to fire early: the distance from its start to the
+	 * current position over the length of the path taken. The default is 0.9. Values outside (0, 1] are ignored.
+	 * @param confidence the lowest straightness that fires early
+	 */
+	public void setEarlyFiringConfidence(double confidence) {
+		if(confidence > 0.0 && confidence <= 1.0)
+			mEarlyFiringConfidence = confidence;
+	}
+
+	/**
+	 * Gets the straightness a gesture's path must have to fire early.
+	 * @return the early firing confidence
+	 */
+	public double getEarlyFiringConfidence() {
+		return mEarlyFiringConfidence;
+	}
+
+	/**
+	 * Sets how much of the frame must be moving for a gesture to start and continue. The default is
+	 * {@link #MIN_FRACTION_SCREEN_MOTION}. Values outside (0, 1] are ignored.
+	 * @param fraction the fraction of the frame's pixels in motion
+	 */
+	public void setMinFractionInMotion(double fraction) {
+		if(fraction > 0.0 && fraction <= 1.0)
+			mMinFractionInMotion = fraction;
+	}
+
+	/**
+	 * Gets how much of the frame must be moving for a gesture to start and continue.
+	 * @return the fraction of the frame's pixels in motion
+	 */
+	public double getMinFractionInMotion() {
+		return mMinFractionInMotion;
+	}
+
+	/**
+	 * Forgets any gesture in progress and the last position seen.
+	 */
+	public void reset() {
+		mIsGestureStarted = false;
+		mHasFiredEarly = false;
+		mPreviousPos.x = mPreviousPos.y = -1;
+		mGestureLength = 0;
+	}
+
+	/**
+	 * Feeds the next frame's motion to the classifier.
+	 * @param motion the motion found in this frame
+	 * @param time the time this frame was captured, on any monotonic clock; gesture lengths are
+	 * reported in the same units
+	 * @param isHorizontalEnabled whether left and right gestures may be reported
+	 * @param isVerticalEnabled whether up and down gestures may be reported
+	 * @return the direction of the gesture that ended, or with early firing fired, on this frame, or {@link Direction#None}
+	 */
+	public Direction update(MotionDetectionReturnValue motion, long time,
+			boolean isHorizontalEnabled, boolean isVerticalEnabled) {
+		Direction movementDirection = Direction.None;
+
+		if(!mIsGestureStarted && motion.fractionOfScreenInMotion > mMinFractionInMotion) {
+			mStartPos.x = motion.averagePosition.x;
+			mStartPos.y = motion.averagePosition.y;
+			mIsGestureStarted = true;
+			mStartGestureTime = time;
+			mHasFiredEarly = false;
+			mPathLength = 0.0;
+			mGestureFrames = 0;
+		}
+		else if(mIsGestureStarted && motion.fractionOfScreenInMotion < mMinFractionInMotion) {
+			// a gesture that already fired has nothing more to report
+			if(!mHasFiredEarly) {
+				movementDirection = classify(mPreviousPos.x, mPreviousPos.y, isHorizontalEnabled, isVerticalEnabled);
+				mGestureLength = time - mStartGestureTime;
+			}
+
+			mIsGestureStarted = false;
+		}
+		else if(mIsGestureStarted && mIsEarlyFiringEnabled && !mHasFiredEarly) {
+			double x = motion.averagePosition.x;
+			double y = motion.averagePosition.y;
+			mPathLength += Math.hypot(x - mPreviousPos.x, y - mPreviousPos.y);
+			mGestureFrames++;
+
+			if(mGestureFrames >= MIN_EARLY_FIRING_FRAMES && mPathLength > 0.0
+					&& Math.hypot(x - mStartPos.x, y - mStartPos.y) >= mEarlyFiringConfidence * mPathLength) {
+				movementDirection = classify(x, y, isHorizontalEnabled, isVerticalEnabled);
+				if(movementDirection != Direction.None) {
+					mHasFiredEarly = true;
+					mGestureLength = time - mStartGestureTime;
+				}
+			}
+		}
+
+		mPreviousPos.x = motion.averagePosition.x;
+		mPreviousPos.y = motion.averagePosition.y;
+
+		return movementDirection;
+	}
+
+	// the direction of a gesture from the start position to the given one, if it went far enough
+	private Direction classify(double x, double y, boolean isHorizontalEnabled, boolean isVerticalEnabled) {
+		Direction movementDirection = Direction.None;
+
+		// check if it's a vertical move or a horizontal move
+
+		// for horizontal, assume screen is flipped
+		if(isHorizontalEnabled) {
+			if(x - mStartPos.x > mMinDirectionalMotionX) {
+				movementDirection = Direction.Left;
+			}
+			else if(mStartPos.x - x > mMinDirectionalMotionX) {
+				movementDirection = Direction.Right;
+			}
+		}
+		if(isVerticalEnabled) {
+			double verticalMotion = Math.abs(y - mStartPos.y);
+			if(verticalMotion > mMinDirectionalMotionY) {
+				if(movementDirection == Direction.None || verticalMotion * mWidthToHeight > Math.abs(x - mStartPos.x) ) {
+					if(y < mStartPos.y)
+						movementDirection = Direction.Up;
+					else
+						movementDirection = Direction.Down;
+				}
+			}
+		}
+
+		return movementDirection;
+	}
+
+	/**
+	 * Test if a gesture is in progress.
+	 * @return true between the frame a gesture starts and the frame it ends
+	 */
+	public boolean isGestureStarted() {
+		return mIsGestureStarted;
+	}
+
+	/**
+	 * Test if the gesture in progress, or the last one to end, fired early.
+	 * @return true if it was reported before it ended
+	 */
+	public boolean hasFiredEarly() {
+		return mHasFiredEarly;
+	}
+
+	/**
+	 * Gets the average position of the motion in the last frame fed to {@link #update}.
+	 * @return the position in pixels, or (-1, -1) if there was no motion; do not modify it
+	 */
+	public Point getPreviousPosition() {
+		return mPreviousPos;
+	}
+
+	/**
+	 * Gets the time the current or last gesture started.
+	 * @return the time passed to {@link #update} with the gesture's first frame
+	 */
+	public long getGestureStartTime() {
+		return mStartGestureTime;
+	}
+
+	/**
+	 * Gets how long the last gesture to be reported took.
+	 * @return the time between its first and last frames, or the frame it fired early on, in the units
+	 * passed to {@link #update}
+	 */
+	public long getGestureLength() {
+		return mGestureLength;
+	}
+}
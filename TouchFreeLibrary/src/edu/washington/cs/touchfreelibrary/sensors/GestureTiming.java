@@ -0,0 +1,139 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>When a gesture happened and where the time went between capturing the frame that ended it and
+ * telling the listeners. All times are <code>System.nanoTime()</code> values taken on the sensor's
+ * threads; latencies are in nanoseconds.</p>
+ *
+ * <p>The stages are: capture (the frame arrives from the camera), queue (it waits for the processing
+ * thread), detect (the motion engine runs), classify (the motion is turned into a gesture) and dispatch
+ * (every listener is called).</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class GestureTiming {
+	private long mGestureStartTime;
+	private long mCaptureTime;
+	private long mDetectStartTime;
+	private long mDetectEndTime;
+	private long mClassifyEndTime;
+	private long mDispatchEndTime;
+	private boolean mIsDispatched;
+
+	/**
+	 * Copies another timing into this one.
+	 * @param other the timing to copy
+	 */
+	public void set(GestureTiming other) {
+		mGestureStartTime = other.mGestureStartTime;
+		mCaptureTime = other.mCaptureTime;
+		mDetectStartTime = other.mDetectStartTime;
+		mDetectEndTime = other.mDetectEndTime;
+		mClassifyEndTime = other.mClassifyEndTime;
+		mDispatchEndTime = other.mDispatchEndTime;
+		mIsDispatched = other.mIsDispatched;
+	}
+
+	// set by the sensor as each frame moves through its stages
+	void onFrameCaptured(long captureTime) {
+		mCaptureTime = captureTime;
+		mIsDispatched = false;
+	}
+
+	void onDetectStart(long time) {
+		mDetectStartTime = time;
+	}
+
+	void onDetectEnd(long time) {
+		mDetectEndTime = time;
+	}
+
+	void onClassifyEnd(long time, long gestureStartTime) {
+		mClassifyEndTime = time;
+		mGestureStartTime = gestureStartTime;
+	}
+
+	void onDispatchEnd(long time) {
+		mDispatchEndTime = time;
+		mIsDispatched = true;
+	}
+
+	/**
+	 * Gets the capture time of the first frame of the gesture.
+	 * @return the time the gesture started
+	 */
+	public long getGestureStartTime() {
+		return mGestureStartTime;
+	}
+
+	/**
+	 * Gets the capture time of the frame that ended the gesture.
+	 * @return the time the gesture ended
+	 */
+	public long getCaptureTime() {
+		return mCaptureTime;
+	}
+
+	/**
+	 * Gets how long the gesture took, from the capture of its first frame to the capture of its last.
+	 * @return the gesture's length in nanoseconds
+	 */
+	public long getGestureLength() {
+		return mCaptureTime - mGestureStartTime;
+	}
+
+	/**
+	 * Gets how long the frame that ended the gesture waited before the processing thread took it.
+	 * @return the queue latency in nanoseconds
+	 */
+	public long getQueueLatency() {
+		return mDetectStartTime - mCaptureTime;
+	}
+
+	/**
+	 * Gets how long motion detection took on the frame that ended the gesture, including click-by-color.
+	 * @return the detection latency in nanoseconds
+	 */
+	public long getDetectLatency() {
+		return mDetectEndTime - mDetectStartTime;
+	}
+
+	/**
+	 * Gets how long the motion took to be classified as a gesture.
+	 * @return the classification latency in nanoseconds
+	 */
+	public long getClassifyLatency() {
+		return mClassifyEndTime - mDetectEndTime;
+	}
+
+	/**
+	 * Gets how long it took to call every listener.
+	 * @return the dispatch latency in nanoseconds, or -1 while the listeners are still being called
+	 */
+	public long getDispatchLatency() {
+		return mIsDispatched ? mDispatchEndTime - mClassifyEndTime : -1;
+	}
+
+	/**
+	 * Gets the time from capturing the frame that ended the gesture until the listeners were told.
+	 * @return the latency in nanoseconds up to the start of dispatch
+	 */
+	public long getLatency() {
+		return mClassifyEndTime - mCaptureTime;
+	}
+
+	/**
+	 * Gets the time from capturing the frame that ended the gesture until every listener had returned.
+	 * @return the latency in nanoseconds, or -1 while the listeners are still being called
+	 */
+	public long getTotalLatency() {
+		return mIsDispatched ? mDispatchEndTime - mCaptureTime : -1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("queue %.2f ms, detect %.2f ms, classify %.2f ms, dispatch %.2f ms, total %.2f ms",
+				getQueueLatency() / 1e6, getDetectLatency() / 1e6, getClassifyLatency() / 1e6,
+				getDispatchLatency() / 1e6, getTotalLatency() / 1e6);
+	}
+}
@@ -0,0 +1,117 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import org.opencv.core.Mat;
+
+/**
+ * <p>A single grey (luma) frame as handed to a {@link MotionEngine}. A frame either wraps an 8 bit
+ * OpenCV <code>Mat</code>, as filled in by <code>VideoCapture</code>, or a plain <code>byte[]</code>
+ * holding <code>width * height</code> bytes one row after another.</p>
+ *
+ * <p>Engines that want bytes call {@link #getData()}. For a <code>Mat</code> frame the pixels are only
+ * copied out the first time they are asked for after {@link #onMatChanged()}, so engines that work
+ * on the <code>Mat</code> directly never pay for the copy.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class GreyFrame {
+	private final int mWidth;
+	private final int mHeight;
+
+	private final Mat mMat;
+	private byte[] mData;
+	private boolean mIsDataStale;
+
+	private long mTimestamp;
+
+	/**
+	 * Wraps an 8 bit single channel <code>Mat</code>. Call {@link #onMatChanged()} whenever new pixels
+	 * are written into it.
+	 * @param mat the Mat holding the frame
+	 */
+	public GreyFrame(Mat mat) {
+		mMat = mat;
+		mWidth = mat.cols();
+		mHeight = mat.rows();
+		mData = null;
+		mIsDataStale = true;
+	}
+
+	/**
+	 * Wraps a byte array. The array is used in place, not copied.
+	 * @param data the frame, <code>width * height</code> bytes, one row after another; anything after
+	 * them, such as the chroma of an NV21 preview frame, is ignored
+	 * @param width the width of the frame in pixels
+	 * @param height the height of the frame in pixels
+	 */
+	public GreyFrame(byte[] data, int width, int height) {
+		mMat = null;
+		mWidth = width;
+		mHeight = height;
+		mData = data;
+		mIsDataStale = false;
+	}
+
+	/**
+	 * Gets the width of the frame.
+	 * @return the width in pixels
+	 */
+	public int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * Gets the height of the frame.
+	 * @return the height in pixels
+	 */
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * Gets the <code>Mat</code> this frame wraps.
+	 * @return the Mat, or null if this frame wraps a byte array
+	 */
+	public Mat getMat() {
+		return mMat;
+	}
+
+	/**
+	 * Gets the frame's pixels as bytes, one row after another. For a <code>Mat</code> frame they are
+	 * copied out of the Mat if it has changed since the last call.
+	 * @return the frame's pixels; do not modify them
+	 */
+	public byte[] getData() {
+		if(mIsDataStale) {
+			if(mData == null)
+				mData = new byte[mWidth * mHeight];
+			mMat.get(0, 0, mData);
+			mIsDataStale = false;
+		}
+		return mData;
+	}
+
+	/**
+	 * Sets the time the frame was captured.
+	 * @param timestamp the capture time, from <code>System.nanoTime()</code>
+	 */
+	public void setTimestamp(long timestamp) {
+		mTimestamp = timestamp;
+	}
+
+	/**
+	 * Gets the time the frame was captured.
+	 * @return the capture time, from <code>System.nanoTime()</code>
+	 */
+	public long getTimestamp() {
+		return mTimestamp;
+	}
+
+	/**
+	 * Must be called after new pixels are written into the wrapped <code>Mat</code>, so that
+	 * {@link #getData()} copies them again.
+	 */
+	public void onMatChanged() {
+		if(mMat != null)
+			mIsDataStale = true;
+	}
+}
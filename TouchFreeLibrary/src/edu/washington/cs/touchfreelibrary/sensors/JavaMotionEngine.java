@@ -0,0 +1,339 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>Class <code>JavaMotionEngine</code> is a pure-Java version of {@link NativeMotionEngine}. It works
+ * on plain <code>byte[]</code> luma planes, so it runs on a desktop JVM and on ABIs the native library
+ * is not built for. <code>Mat</code> frames are copied out before they are scanned.</p>
+ *
+ * <p>It follows the native kernel step for step: the same 2 pixel border, the same threshold comparison,
+ * the same decimation grid and region clipping, the same illumination estimate and histograms, integer
+ * sums, and a single division at the end. Its results are therefore bit-for-bit identical to the native ones;
+ * <code>make parity</code> in the library's <code>host</code> directory checks that they are.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class JavaMotionEngine implements MotionEngine {
+	/**
+	 * By default a pixel counts as moving when its absolute difference from the previous frame is above this;
+	 * see {@link MotionDetectionReturnValue#pixelThreshold}.
+	 */
+	public static final int PIXEL_THRESHOLD = 20;
+
+	/** Pixels this close to the edge of the frame are never scanned. */
+	public static final int BORDER = 2;
+
+	/** The illumination estimate samples every 8th pixel of every 8th row of the whole frame. */
+	public static final int ILLUMINATION_STEP = 8;
+
+	// the previous frame's grey levels shifted by the illumination offset, and the histogram of the
+	// differences the offset is the median of; both reused every frame
+	private final int[] mShifted = new int[256];
+	private final int[] mDifferences = new int[511];
+
+	@Override
+	public void detect(GreyFrame current, GreyFrame previous, int decimation,
+			int left, int top, int right, int bottom, MotionDetectionReturnValue result) {
+		detect(current.getData(), previous.getData(), current.getWidth(), current.getHeight(), decimation,
+				left, top, right, bottom, result);
+	}
+
+	/**
+	 * Finds the average position and the fraction of moving pixels between two frames.
+	 * @param current the current frame, <code>width * height</code> bytes, one row after another
+	 * @param previous the previous frame, laid out the same way
+	 * @param width the width of the frames in pixels
+	 * @param height the height of the frames in pixels
+	 * @param decimation 1, 2 or 4: only every decimation'th pixel of every decimation'th row is compared
+	 * @param left the first column to scan
+	 * @param top the first row to scan
+	 * @param right one past the last column to scan
+	 * @param bottom one past the last row to scan
+	 * @param result receives the average position, in full-frame pixels, the fraction of the
+	 * whole frame in motion and the mean grey level of the scanned pixels, and the per-cell sums if it
+	 * has a grid, or the per-column and per-row counts if it has a projection, and the luminance and noise
+	 * histograms if it has them; the illumination estimate if it asks for one. Pixels count as moving above its threshold
+	 */
+	public void detect(byte[] current, byte[] previous, int width, int height, int decimation,
+			int left, int top, int right, int bottom, MotionDetectionReturnValue result) {
+		// clip to the border and align to the decimation grid exactly as the native kernel does
+		left = firstOnGrid(left, decimation);
+		top = firstOnGrid(top, decimation);
+		right = Math.min(right, width - BORDER);
+		bottom = Math.min(bottom, height - BORDER);
+
+		// clamped as the native kernel clamps it
+		int threshold = Math.max(0, Math.min(MotionDetectionReturnValue.MAX_PIXEL_THRESHOLD, result.pixelThreshold));
+		int offset = 0;
+		if(result.compensateIllumination)
+			offset = estimateIllumination(current, previous, width, height, threshold, result);
+		else
+			result.setIllumination(0, false);
+
+		// a lookup is cheaper than clamping every shifted pixel, and keeps the loops the same with no offset
+		int[] shifted = mShifted;
+		for(int i = 0; i < 256; i++)
+			shifted[i] = Math.max(0, Math.min(255, i + offset));
+
+		if(result.lumaHistogram != null)
+			histogram(current, width, left, top, right, bottom, result.lumaHistogram);
+		if(result.noiseHistogram != null)
+			noise(current, previous, shifted, width, decimation, left, top, right, bottom, result.noiseRow,
+					result.noiseHistogram);
+
+		if(result.grid != null) {
+			long sumLuma = detectGrid(current, previous, shifted, threshold, width, decimation, left, top, right,
+					bottom, result.grid);
+			report(result.grid, sumLuma, width, height, decimation, left, top, right, bottom, result);
+			return;
+		}
+		if(result.projection != null) {
+			long sumLuma = detectProjection(current, previous, shifted, threshold, width, decimation, left, top,
+					right, bottom, result.projection);
+			report(result.projection, sumLuma, width, height, decimation, left, top, right, bottom, result);
+			return;
+		}
+
+		long count = 0;
+		long sumX = 0;
+		long sumY = 0;
+		long sumLuma = 0;
+
+		for(int y = top; y < bottom; y += decimation) {
+			int rowStart = y * width;
+			long rowCount = 0;
+			long rowSumX = 0;
+			long rowLuma = 0;
+
+			// branch-free, since noisy frames make the moving/not moving test impossible to predict
+			for(int x = left; x < right; x += decimation) {
+				int luma = current[rowStart + x] & 0xff;
+				int diff = luma - shifted[previous[rowStart + x] & 0xff];
+				int sign = diff >> 31;
+				int moving = (threshold - ((diff ^ sign) - sign)) >>> 31;
+				rowCount += moving;
+				rowSumX += moving * x;
+				rowLuma += luma;
+			}
+
+			count += rowCount;
+			sumX += rowSumX;
+			sumY += rowCount * y;
+			sumLuma += rowLuma;
+		}
+
+		report(count, sumX, sumY, sumLuma, width, height, decimation, left, top, right, bottom, result);
+	}
+
+	/**
+	 * Does nothing: this engine keeps only two small arrays, which it needs on every frame.
+	 */
+	@Override
+	public void release() {
+	}
+
+	// the same pass, also summing each cell of the grid; kept apart so the plain pass stays as tight as it was.
+	// Returns the sum of the grey levels scanned
+	private static long detectGrid(byte[] current, byte[] previous, int[] shifted, int threshold, int width,
+			int decimation, int left, int top, int right, int bottom, MotionGrid grid) {
+		grid.clear();
+		int[] counts = grid.getCounts();
+		long[] cellSumX = grid.getSumX();
+		long[] cellSumY = grid.getSumY();
+		int columns = grid.getColumns();
+		long sumLuma = 0;
+
+		for(int y = top; y < bottom; y += decimation) {
+			int rowStart = y * width;
+			int cellRow = y / MotionGrid.CELL_SIZE * columns;
+
+			// x stays on the decimation grid as it steps from cell to cell
+			int x = left;
+			while(x < right) {
+				int cell = x / MotionGrid.CELL_SIZE;
+				int end = Math.min(right, (cell + 1) * MotionGrid.CELL_SIZE);
+				int cellCount = 0;
+				long rowSumX = 0;
+				long cellLuma = 0;
+
+				for(; x < end; x += decimation) {
+					int luma = current[rowStart + x] & 0xff;
+					int diff = luma - shifted[previous[rowStart + x] & 0xff];
+					int sign = diff >> 31;
+					int moving = (threshold - ((diff ^ sign) - sign)) >>> 31;
+					cellCount += moving;
+					rowSumX += moving * x;
+					cellLuma += luma;
+				}
+
+				counts[cellRow + cell] += cellCount;
+				cellSumX[cellRow + cell] += rowSumX;
+				cellSumY[cellRow + cell] += (long)cellCount * y;
+				sumLuma += cellLuma;
+			}
+		}
+		return sumLuma;
+	}
+
+	// the same pass, also counting each column and row; returns the sum of the grey levels scanned
+	private static long detectProjection(byte[] current, byte[] previous, int[] shifted, int threshold, int width,
+			int decimation, int left, int top, int right, int bottom, MotionProjection projection) {
+		projection.clear();
+		int[] columns = projection.getColumns();
+		int[] rows = projection.getRows();
+		long sumLuma = 0;
+
+		for(int y = top; y < bottom; y += decimation) {
+			int rowStart = y * width;
+			int rowCount = 0;
+			long rowLuma = 0;
+
+			for(int x = left; x < right; x += decimation) {
+				int luma = current[rowStart + x] & 0xff;
+				int diff = luma - shifted[previous[rowStart + x] & 0xff];
+				int sign = diff >> 31;
+				int moving = (threshold - ((diff ^ sign) - sign)) >>> 31;
+				columns[x] += moving;
+				rowCount += moving;
+				rowLuma += luma;
+			}
+
+			rows[y] = rowCount;
+			sumLuma += rowLuma;
+		}
+		return sumLuma;
+	}
+
+	// the median difference between the frames over a sparse sample of the whole of them, as the native
+	// pre-pass finds it, and whether it explains the change; returns the offset to take out
+	private int estimateIllumination(byte[] current, byte[] previous, int width, int height, int threshold,
+			MotionDetectionReturnValue result) {
+		int[] differences = mDifferences;
+		for(int i = 0; i < differences.length; i++)
+			differences[i] = 0;
+
+		int samples = 0;
+		for(int y = BORDER; y < height - BORDER; y += ILLUMINATION_STEP) {
+			int rowStart = y * width;
+			for(int x = BORDER; x < width - BORDER; x += ILLUMINATION_STEP) {
+				differences[(current[rowStart + x] & 0xff) - (previous[rowStart + x] & 0xff) + 255]++;
+				samples++;
+			}
+		}
+		if(samples == 0) {
+			result.setIllumination(0, false);
+			return 0;
+		}
+
+		int median = 0;
+		int seen = 0;
+		while(seen + differences[median] <= samples / 2)
+			seen += differences[median++];
+
+		int unexplained = 0;
+		for(int bin = 0; bin < differences.length; bin++) {
+			if(Math.abs(bin - median) > threshold)
+				unexplained += differences[bin];
+		}
+
+		// the same test as the native kernel's: the offset leaves more than half the frame moving
+		int offset = median - 255;
+		result.setIllumination(offset, unexplained * 2 > samples);
+		return offset;
+	}
+
+	// counts the grey levels on every 4th row and column of the scan, as the native kernel does; the rows
+	// are already on the decimation grid, so with a decimation of 4 this reads the pixels the pass read
+	private static void histogram(byte[] current, int width, int left, int top, int right, int bottom,
+			int[] histogram) {
+		int step = MotionDetectionReturnValue.LUMA_HISTOGRAM_STEP;
+		for(int i = 0; i < MotionDetectionReturnValue.LUMA_HISTOGRAM_BINS; i++)
+			histogram[i] = 0;
+
+		int firstX = firstOnGrid(left, step);
+		for(int y = firstOnGrid(top, step); y < bottom; y += step) {
+			int rowStart = y * width;
+			for(int x = firstX; x < right; x += step)
+				histogram[(current[rowStart + x] & 0xff) >> 4]++;
+		}
+	}
+
+	// counts the absolute differences along the noise row, every 4th column, if the pass scans that row
+	private static void noise(byte[] current, byte[] previous, int[] shifted, int width, int decimation,
+			int left, int top, int right, int bottom, int row, int[] histogram) {
+		int bins = MotionDetectionReturnValue.NOISE_HISTOGRAM_BINS;
+		int step = MotionDetectionReturnValue.NOISE_HISTOGRAM_STEP;
+		for(int i = 0; i < bins; i++)
+			histogram[i] = 0;
+		if(row < top || row >= bottom || (row - top) % decimation != 0)
+			return;
+
+		int rowStart = row * width;
+		for(int x = firstOnGrid(left, step); x < right; x += step) {
+			int difference = Math.abs((current[rowStart + x] & 0xff) - shifted[previous[rowStart + x] & 0xff]);
+			histogram[Math.min(difference, bins - 1)]++;
+		}
+	}
+
+	// the overall sums are the totals of the cells
+	private static void report(MotionGrid grid, long sumLuma, int width, int height, int decimation,
+			int left, int top, int right, int bottom, MotionDetectionReturnValue result) {
+		int[] counts = grid.getCounts();
+		long[] cellSumX = grid.getSumX();
+		long[] cellSumY = grid.getSumY();
+		long count = 0;
+		long sumX = 0;
+		long sumY = 0;
+		for(int i = 0; i < counts.length; i++) {
+			count += counts[i];
+			sumX += cellSumX[i];
+			sumY += cellSumY[i];
+		}
+		report(count, sumX, sumY, sumLuma, width, height, decimation, left, top, right, bottom, result);
+	}
+
+	// the overall sums follow from the columns and rows
+	private static void report(MotionProjection projection, long sumLuma, int width, int height, int decimation,
+			int left, int top, int right, int bottom, MotionDetectionReturnValue result) {
+		int[] columns = projection.getColumns();
+		int[] rows = projection.getRows();
+		long count = 0;
+		long sumX = 0;
+		long sumY = 0;
+		for(int x = 0; x < columns.length; x++)
+			sumX += (long)columns[x] * x;
+		for(int y = 0; y < rows.length; y++) {
+			count += rows[y];
+			sumY += (long)rows[y] * y;
+		}
+		report(count, sumX, sumY, sumLuma, width, height, decimation, left, top, right, bottom, result);
+	}
+
+	private static void report(long count, long sumX, long sumY, long sumLuma, int width, int height,
+			int decimation, int left, int top, int right, int bottom, MotionDetectionReturnValue result) {
+		double x = -1.0;
+		double y = -1.0;
+		double pointsCounted = (double)count;
+
+		if(count > 0) {
+			x = (double)sumX / pointsCounted;
+			y = (double)sumY / pointsCounted;
+		}
+
+		long samples = (long)(height / decimation) * (long)(width / decimation);
+		long scanned = (long)samplesBefore(bottom, top, decimation) * (long)samplesBefore(right, left, decimation);
+		double meanLuma = (scanned > 0) ? (double)sumLuma / scanned : -1.0;
+		result.set(x, y, pointsCounted / (double)samples, meanLuma);
+	}
+
+	// the number of grid coordinates from first up to end, where first is on the grid
+	private static int samplesBefore(int end, int first, int decimation) {
+		return (end > first) ? (end - first + decimation - 1) / decimation : 0;
+	}
+
+	// the first coordinate >= start on the decimation grid that begins at the border
+	private static int firstOnGrid(int start, int decimation) {
+		if(start <= BORDER)
+			return BORDER;
+		return BORDER + (start - BORDER + decimation - 1) / decimation * decimation;
+	}
+}
@@ -3,15 +3,136 @@ package edu.washington.cs.touchfreelibrary.sensors;
 import org.opencv.core.Point;
 
 /**
- * Only used within the package to get data from JNI.
+ * <p>What a {@link MotionEngine} is asked for in one pass and what it found. One instance is owned by each
+ * caller and reused every frame, so no objects are created on the capture thread.</p>
+ *
+ * <p>The caller sets the options, {@link #compensateIllumination}, {@link #pixelThreshold} and
+ * {@link #noiseRow}, and attaches the optional outputs it wants, {@link #lumaHistogram},
+ * {@link #noiseHistogram}, {@link #grid} and {@link #projection}. The engine writes the rest. The native
+ * engine reads these fields, and the arrays of the grid and projection, by name, so they must not be
+ * renamed or obfuscated.</p>
+ *
  * @author Leeran Raphaely <leeran.raphaely@gmail.com>
  */
 public class MotionDetectionReturnValue {
+	/** The number of bins of {@link #lumaHistogram}, each 256 / 16 = 16 grey levels wide. */
+	public static final int LUMA_HISTOGRAM_BINS = 16;
+	
+	/** The histogram counts every 4th pixel of every 4th row on the decimation grid, whatever the decimation. */
+	public static final int LUMA_HISTOGRAM_STEP = 4;
+	
+	/** The largest {@link #pixelThreshold} the engines accept. */
+	public static final int MAX_PIXEL_THRESHOLD = 254;
+	
+	/** The number of bins of {@link #noiseHistogram}: one per absolute difference, the last also taking every larger one. */
+	public static final int NOISE_HISTOGRAM_BINS = 64;
+	
+	/** The noise histogram counts every 4th pixel of its row, the same columns as the luminance histogram. */
+	public static final int NOISE_HISTOGRAM_STEP = 4;
+	
+	/** The average position of the moving pixels, in full-frame pixels, or (-1, -1) if none moved. */
 	public Point averagePosition;
+	
+	/** The fraction of the whole frame in motion, even when only a region was scanned. */
 	public double fractionOfScreenInMotion;
 	
+	/**
+	 * The mean grey level of the current frame, found in the same pass as the motion. It is taken over the
+	 * pixels that were scanned: the sampled pixels of the region, not the whole frame, when only a region was
+	 * scanned. -1 if nothing was scanned.
+	 */
+	public double meanLuma;
+	
+	/**
+	 * When not null, engines also count the grey levels of the scanned pixels of the current frame into
+	 * these {@link #LUMA_HISTOGRAM_BINS} bins, sampled every {@link #LUMA_HISTOGRAM_STEP} pixels.
+	 */
+	public int[] lumaHistogram;
+	
+	/**
+	 * When true, engines first estimate how much the brightness of the whole frame changed from a sparse
+	 * sample of it, and compare each pixel against the previous frame's shifted by that much, so an exposure
+	 * change or a light coming on is not taken for motion.
+	 */
+	public boolean compensateIllumination;
+	
+	/**
+	 * The change in brightness taken out, in grey levels: the median difference between the frames. 0 unless
+	 * {@link #compensateIllumination} is set.
+	 */
+	public int illuminationOffset;
+	
+	/**
+	 * Set when the brightness changed across so much of the frame that the offset could not explain it, so
+	 * the motion found is not to be trusted and the frame is best skipped. Always false unless
+	 * {@link #compensateIllumination} is set.
+	 */
+	public boolean isIlluminationChange;
+	
+	/**
+	 * When not null, engines that support it also sum the motion of each cell into this grid, for
+	 * {@link MotionGrid#segment(int)}. Engines that do not leave it untouched.
+	 */
+	public MotionGrid grid;
+	
+	/**
+	 * When not null, engines that support it also count the moving pixels of every column and row into this
+	 * projection, for {@link MotionProjection#correlate(int[], int[], int, int)}. The grid takes precedence: the
+	 * projection is left untouched while there is one. Engines that do not support it leave it untouched.
+	 */
+	public MotionProjection projection;
+	
+	/**
+	 * A pixel counts as moving when its absolute difference from the previous frame is above this, from 0 to
+	 * {@link #MAX_PIXEL_THRESHOLD}; the engines clamp values outside that. {@link JavaMotionEngine#PIXEL_THRESHOLD}
+	 * unless it is changed.
+	 */
+	public int pixelThreshold;
+	
+	/**
+	 * When not null, engines also count the absolute differences between the frames along row {@link #noiseRow}
+	 * into these {@link #NOISE_HISTOGRAM_BINS} bins, sampled every {@link #NOISE_HISTOGRAM_STEP} pixels, for a
+	 * {@link NoiseEstimator}. The row is read as it is scanned, so the histogram is left empty unless the row is
+	 * on the decimation grid and inside the region.
+	 */
+	public int[] noiseHistogram;
+	
+	/** The row {@link #noiseHistogram} is taken from. */
+	public int noiseRow;
+	
+	public MotionDetectionReturnValue() {
+		this(-1.0, -1.0, 0.0);
+		meanLuma = -1.0;
+	}
+	
 	public MotionDetectionReturnValue(double x, double y, double fraction) {
 		averagePosition = new Point(x, y);
 		fractionOfScreenInMotion = fraction;
+		pixelThreshold = JavaMotionEngine.PIXEL_THRESHOLD;
+		noiseRow = -1;
+	}
+	
+	/**
+	 * Overwrites the contents of this object. Called from JNI once per frame.
+	 * @param x the x coordinate of the average moving pixel
+	 * @param y the y coordinate of the average moving pixel
+	 * @param fraction the fraction of the screen that is in motion
+	 * @param meanLuma the mean grey level of the scanned pixels, or -1 if there were none
+	 */
+	public void set(double x, double y, double fraction, double meanLuma) {
+		averagePosition.x = x;
+		averagePosition.y = y;
+		fractionOfScreenInMotion = fraction;
+		this.meanLuma = meanLuma;
+	}
+	
+	/**
+	 * Overwrites the illumination estimate. Called from JNI once per frame.
+	 * @param offset the change in brightness taken out, in grey levels
+	 * @param isChange true if the change was too large or too uneven to take out
+	 */
+	public void setIllumination(int offset, boolean isChange) {
+		illuminationOffset = offset;
+		isIlluminationChange = isChange;
 	}
 }
@@ -0,0 +1,43 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>A <code>MotionEngine</code> compares two grey frames and summarises the motion between them as
+ * an average position and the fraction of the frame that moved. {@link CameraGestureSensor} turns that
+ * summary into gestures, so any engine can be plugged into it with
+ * {@link CameraGestureSensor#setMotionEngine(MotionEngine)}.</p>
+ *
+ * <p>{@link NativeMotionEngine} is the default; {@link JavaMotionEngine} gives identical results without
+ * the native library. {@link ProjectionMotionEngine} follows the motion by its displacement from frame to
+ * frame instead of its average position, and {@link OpticalFlowMotionEngine} by tracking corners rather than
+ * differencing the frames. The host tool in the library's <code>host</code> directory compares engines on the
+ * same frames.</p>
+ *
+ * <p>Engines are called from a single thread, once per frame, and should not allocate while doing so. What an
+ * engine keeps between frames is freed by {@link #release()}, which {@link CameraGestureSensor} calls when it
+ * stops.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public interface MotionEngine {
+	/**
+	 * Finds the motion between two frames of the same size.
+	 * @param current the current frame
+	 * @param previous the frame before it
+	 * @param decimation 1, 2 or 4: engines may compare only every decimation'th pixel of every
+	 * decimation'th row
+	 * @param left the first column to scan
+	 * @param top the first row to scan
+	 * @param right one past the last column to scan
+	 * @param bottom one past the last row to scan
+	 * @param result the options of the pass and where its results go; see {@link MotionDetectionReturnValue}'s
+	 * fields for what each one means and which engines support it
+	 */
+	public void detect(GreyFrame current, GreyFrame previous, int decimation,
+			int left, int top, int right, int bottom, MotionDetectionReturnValue result);
+
+	/**
+	 * Frees the native threads and buffers the engine keeps between frames, if it has any. It must not be
+	 * detecting at the time, and can still be used afterwards, setting them up again on its next frame.
+	 */
+	public void release();
+}
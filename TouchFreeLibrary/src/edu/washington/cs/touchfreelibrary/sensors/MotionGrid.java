@@ -0,0 +1,288 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>Splits the motion between two frames into separate moving regions, or blobs. A {@link MotionEngine}
+ * that supports it sums the moving pixels of every square cell of {@link #CELL_SIZE} pixels into the
+ * grid in the same pass that finds the overall motion, when one is attached to its
+ * {@link MotionDetectionReturnValue}. {@link #segment(int)} then joins touching cells with enough motion
+ * into blobs with a union-find over the cells, and keeps the largest {@link #MAX_BLOBS} of them, each with
+ * its centroid and the fraction of the frame it covers.</p>
+ *
+ * <p>Every array is allocated when the frame size is set, so filling and segmenting the grid allocates
+ * nothing. A 320x240 frame has 300 cells.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class MotionGrid {
+	/** The width and height of a cell in pixels. The native kernel's cells are the same size. */
+	public static final int CELL_SIZE = 16;
+
+	/** The largest number of blobs {@link #segment(int)} keeps. */
+	public static final int MAX_BLOBS = 4;
+
+	// a cell takes part in a blob when at least this fraction of its samples moved, so scattered noise does not
+	private static final int MIN_CELL_FRACTION_DIVISOR = 8;
+
+	private int mWidth;
+	private int mHeight;
+	private int mColumns;
+	private int mRows;
+
+	// filled in by the engine, one entry per cell, one row of cells after another; the native library reads
+	// these by name
+	private int[] mCounts;
+	private long[] mSumX;
+	private long[] mSumY;
+
+	// union-find parents, and the sums gathered at each root
+	private int[] mParent;
+	private long[] mRootCount;
+	private long[] mRootSumX;
+	private long[] mRootSumY;
+
+	// the blobs found by the last segment(), largest first
+	private int mBlobCount;
+	private double[] mBlobX;
+	private double[] mBlobY;
+	private double[] mBlobFraction;
+	private long[] mBlobPixels;
+
+	/**
+	 * Creates a grid for frames of the given size.
+	 * @param width the width of the frames in pixels
+	 * @param height the height of the frames in pixels
+	 */
+	public MotionGrid(int width, int height) {
+		mBlobX = new double[MAX_BLOBS];
+		mBlobY = new double[MAX_BLOBS];
+		mBlobFraction = new double[MAX_BLOBS];
+		mBlobPixels = new long[MAX_BLOBS];
+		setFrameSize(width, height);
+	}
+
+	/**
+	 * Resizes the grid for frames of a new size, clearing it. Arrays are only reallocated if the number of
+	 * cells changes.
+	 * @param width the width of the frames in pixels
+	 * @param height the height of the frames in pixels
+	 */
+	public void setFrameSize(int width, int height) {
+		mWidth = width;
+		mHeight = height;
+		int columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+		int rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+
+		if(mCounts == null || columns * rows != mCounts.length) {
+			int cells = columns * rows;
+			mCounts = new int[cells];
+			mSumX = new long[cells];
+			mSumY = new long[cells];
+			mParent = new int[cells];
+			mRootCount = new long[cells];
+			mRootSumX = new long[cells];
+			mRootSumY = new long[cells];
+		}
+		mColumns = columns;
+		mRows = rows;
+		clear();
+	}
+
+	/**
+	 * Gets the number of cells across the grid.
+	 * @return the number of columns of cells
+	 */
+	public int getColumns() {
+		return mColumns;
+	}
+
+	/**
+	 * Gets the number of cells down the grid.
+	 * @return the number of rows of cells
+	 */
+	public int getRows() {
+		return mRows;
+	}
+
+	// the per-cell sums, for engines to fill in
+	int[] getCounts() {
+		return mCounts;
+	}
+
+	long[] getSumX() {
+		return mSumX;
+	}
+
+	long[] getSumY() {
+		return mSumY;
+	}
+
+	/**
+	 * Empties every cell and forgets the blobs, as if no motion had been found.
+	 */
+	public void clear() {
+		for(int i = 0; i < mCounts.length; i++) {
+			mCounts[i] = 0;
+			mSumX[i] = 0;
+			mSumY[i] = 0;
+		}
+		mBlobCount = 0;
+	}
+
+	/**
+	 * Finds the blobs in the cells filled in by the last pass. Cells are joined to their eight neighbours.
+	 * @param decimation the decimation the cells were filled in with: 1, 2 or 4
+	 */
+	public void segment(int decimation) {
+		int cellSamples = (CELL_SIZE / decimation) * (CELL_SIZE / decimation);
+		int minCount = Math.max(1, cellSamples / MIN_CELL_FRACTION_DIVISOR);
+
+		// join each moving cell to the moving cells before it: left, up-left, up and up-right
+		for(int row = 0; row < mRows; row++) {
+			for(int column = 0; column < mColumns; column++) {
+				int i = row * mColumns + column;
+				if(mCounts[i] < minCount) {
+					mParent[i] = -1;
+					continue;
+				}
+				mParent[i] = i;
+				mRootCount[i] = 0;
+				mRootSumX[i] = 0;
+				mRootSumY[i] = 0;
+
+				if(column > 0 && mParent[i - 1] >= 0)
+					union(i, i - 1);
+				if(row > 0) {
+					int above = i - mColumns;
+					if(column > 0 && mParent[above - 1] >= 0)
+						union(i, above - 1);
+					if(mParent[above] >= 0)
+						union(i, above);
+					if(column < mColumns - 1 && mParent[above + 1] >= 0)
+						union(i, above + 1);
+				}
+			}
+		}
+
+		// gather each blob's sums at its root
+		int cells = mRows * mColumns;
+		for(int i = 0; i < cells; i++) {
+			if(mParent[i] < 0)
+				continue;
+			int root = find(i);
+			mRootCount[root] += mCounts[i];
+			mRootSumX[root] += mSumX[i];
+			mRootSumY[root] += mSumY[i];
+		}
+
+		// keep the largest, sorted by insertion since there are only a few
+		mBlobCount = 0;
+		double samples = (double)(mHeight / decimation) * (double)(mWidth / decimation);
+		for(int i = 0; i < cells; i++) {
+			if(mParent[i] != i)
+				continue;
+			long count = mRootCount[i];
+
+			int slot = mBlobCount;
+			while(slot > 0 && mBlobPixels[slot - 1] < count)
+				slot--;
+			if(slot >= MAX_BLOBS)
+				continue;
+
+			int last = Math.min(mBlobCount, MAX_BLOBS - 1);
+			for(int j = last; j > slot; j--) {
+				mBlobPixels[j] = mBlobPixels[j - 1];
+				mBlobX[j] = mBlobX[j - 1];
+				mBlobY[j] = mBlobY[j - 1];
+				mBlobFraction[j] = mBlobFraction[j - 1];
+			}
+			mBlobPixels[slot] = count;
+			mBlobX[slot] = (double)mRootSumX[i] / count;
+			mBlobY[slot] = (double)mRootSumY[i] / count;
+			mBlobFraction[slot] = count / samples;
+			if(mBlobCount < MAX_BLOBS)
+				mBlobCount++;
+		}
+	}
+
+	private int find(int i) {
+		while(mParent[i] != i) {
+			// halve the path on the way up
+			mParent[i] = mParent[mParent[i]];
+			i = mParent[i];
+		}
+		return i;
+	}
+
+	// the lower index becomes the root, so roots are always the first cell of their blob
+	private void union(int a, int b) {
+		int rootA = find(a);
+		int rootB = find(b);
+		if(rootA < rootB)
+			mParent[rootB] = rootA;
+		else if(rootB < rootA)
+			mParent[rootA] = rootB;
+	}
+
+	/**
+	 * Gets the number of blobs found by the last {@link #segment(int)}.
+	 * @return from 0 to {@link #MAX_BLOBS}
+	 */
+	public int getBlobCount() {
+		return mBlobCount;
+	}
+
+	/**
+	 * Gets the horizontal position of a blob's centroid.
+	 * @param i the blob, from 0 for the largest to {@link #getBlobCount()} - 1
+	 * @return the x coordinate of the blob's average moving pixel, in full-frame pixels
+	 */
+	public double getBlobX(int i) {
+		return mBlobX[i];
+	}
+
+	/**
+	 * Gets the vertical position of a blob's centroid.
+	 * @param i the blob, from 0 for the largest to {@link #getBlobCount()} - 1
+	 * @return the y coordinate of the blob's average moving pixel, in full-frame pixels
+	 */
+	public double getBlobY(int i) {
+		return mBlobY[i];
+	}
+
+	/**
+	 * Gets the size of a blob.
+	 * @param i the blob, from 0 for the largest to {@link #getBlobCount()} - 1
+	 * @return the fraction of the whole frame's samples that moved within the blob
+	 */
+	public double getBlobFraction(int i) {
+		return mBlobFraction[i];
+	}
+
+	/**
+	 * Picks the blob to follow given where the motion was last seen: the one nearest that position among the
+	 * blobs at least half the size of the largest, so a hand is not dropped for a smaller distraction, but is
+	 * not followed once it has all but stopped either.
+	 * @param x the x coordinate of the last position, in full-frame pixels; negative to pick the largest blob
+	 * @param y the y coordinate of the last position, in full-frame pixels
+	 * @return the index of the blob, or -1 if there are none
+	 */
+	public int findTrackedBlob(double x, double y) {
+		if(mBlobCount == 0)
+			return -1;
+		if(x < 0)
+			return 0;
+
+		int best = 0;
+		double bestDistance = Double.MAX_VALUE;
+		for(int i = 0; i < mBlobCount && mBlobFraction[i] * 2.0 >= mBlobFraction[0]; i++) {
+			double dx = mBlobX[i] - x;
+			double dy = mBlobY[i] - y;
+			double distance = dx * dx + dy * dy;
+			if(distance < bestDistance) {
+				bestDistance = distance;
+				best = i;
+			}
+		}
+		return best;
+	}
+}
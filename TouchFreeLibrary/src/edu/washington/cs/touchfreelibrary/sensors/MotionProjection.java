@@ -0,0 +1,223 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>The motion between two frames projected onto the axes: the number of moving pixels in every column and
+ * in every row of the frame. A {@link MotionEngine} that supports it counts them in the same pass that finds
+ * the overall motion, when one is attached to its {@link MotionDetectionReturnValue}. From one frame to the
+ * next, a moving hand shifts its columns and rows along with it, so {@link #correlate(int[], int[], int, int)}
+ * of two consecutive projections gives its displacement; see {@link ProjectionMotionEngine}.</p>
+ *
+ * <p>The projections are binned into {@link #BIN_SIZE} pixel bins before they are correlated, which also evens
+ * out the columns and rows a decimated pass skips. Every array is allocated when the frame size is set, so
+ * filling and binning the projection allocates nothing.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class MotionProjection {
+	/** The width of a bin in pixels, a multiple of every decimation. */
+	public static final int BIN_SIZE = 4;
+
+	private int mWidth;
+	private int mHeight;
+
+	// filled in by the engine, one entry per column and per row of the frame; the native library reads these
+	// by name
+	private int[] mColumns;
+	private int[] mRows;
+
+	/**
+	 * Creates a projection for frames of the given size.
+	 * @param width the width of the frames in pixels
+	 * @param height the height of the frames in pixels
+	 */
+	public MotionProjection(int width, int height) {
+		setFrameSize(width, height);
+	}
+
+	/**
+	 * Resizes the projection for frames of a new size, clearing it. Arrays are only reallocated if the size
+	 * changes.
+	 * @param width the width of the frames in pixels
+	 * @param height the height of the frames in pixels
+	 */
+	public void setFrameSize(int width, int height) {
+		if(mColumns == null || mColumns.length != width)
+			mColumns = new int[width];
+		if(mRows == null || mRows.length != height)
+			mRows = new int[height];
+		mWidth = width;
+		mHeight = height;
+		clear();
+	}
+
+	/**
+	 * Gets the width of the frames the projection is for.
+	 * @return the number of columns, in pixels
+	 */
+	public int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * Gets the height of the frames the projection is for.
+	 * @return the number of rows, in pixels
+	 */
+	public int getHeight() {
+		return mHeight;
+	}
+
+	// the per-column and per-row counts, for engines to fill in
+	int[] getColumns() {
+		return mColumns;
+	}
+
+	int[] getRows() {
+		return mRows;
+	}
+
+	/**
+	 * Empties every column and row, as if no motion had been found.
+	 */
+	public void clear() {
+		for(int i = 0; i < mColumns.length; i++)
+			mColumns[i] = 0;
+		for(int i = 0; i < mRows.length; i++)
+			mRows[i] = 0;
+	}
+
+	/**
+	 * Gets the number of bins across the frame.
+	 * @return the number of column bins
+	 */
+	public int getColumnBins() {
+		return (mWidth + BIN_SIZE - 1) / BIN_SIZE;
+	}
+
+	/**
+	 * Gets the number of bins down the frame.
+	 * @return the number of row bins
+	 */
+	public int getRowBins() {
+		return (mHeight + BIN_SIZE - 1) / BIN_SIZE;
+	}
+
+	/**
+	 * Sums the columns into bins.
+	 * @param bins receives {@link #getColumnBins()} counts
+	 */
+	public void binColumns(int[] bins) {
+		bin(mColumns, bins);
+	}
+
+	/**
+	 * Sums the rows into bins.
+	 * @param bins receives {@link #getRowBins()} counts
+	 */
+	public void binRows(int[] bins) {
+		bin(mRows, bins);
+	}
+
+	private static void bin(int[] counts, int[] bins) {
+		int binCount = (counts.length + BIN_SIZE - 1) / BIN_SIZE;
+		for(int i = 0; i < binCount; i++)
+			bins[i] = 0;
+		for(int i = 0; i < counts.length; i++)
+			bins[i / BIN_SIZE] += counts[i];
+	}
+
+	/**
+	 * Gets the median column of the moving pixels, which unlike their average is not dragged far by a few
+	 * scattered ones.
+	 * @return the x coordinate, in full-frame pixels, or -1 if nothing moved
+	 */
+	public double getMedianX() {
+		return median(mColumns);
+	}
+
+	/**
+	 * Gets the median row of the moving pixels.
+	 * @return the y coordinate, in full-frame pixels, or -1 if nothing moved
+	 */
+	public double getMedianY() {
+		return median(mRows);
+	}
+
+	private static double median(int[] counts) {
+		long total = 0;
+		for(int i = 0; i < counts.length; i++)
+			total += counts[i];
+		if(total == 0)
+			return -1.0;
+
+		long half = (total + 1) / 2;
+		long seen = 0;
+		int i = 0;
+		while(seen + counts[i] < half)
+			seen += counts[i++];
+		return i;
+	}
+
+	/**
+	 * <p>Finds how far a binned projection moved from one frame to the next: the shift of the current bins
+	 * that best matches the previous ones, by cross-correlation of the two with their means taken out, so an
+	 * even spread of noise adds nothing. The peak is refined to a fraction of a bin with a parabola through
+	 * it and its neighbours.</p>
+	 * <p>This is O(bins * maxShift) and allocates nothing.</p>
+	 * @param previous the bins of the previous frame's projection
+	 * @param current the bins of the current frame's projection
+	 * @param bins the number of bins in each
+	 * @param maxShift the largest shift tried either way, in bins
+	 * @return the shift in bins, positive when the motion moved towards the higher bins, or NaN if the
+	 * projections do not match at any shift, as when either is empty
+	 */
+	public static double correlate(int[] previous, int[] current, int bins, int maxShift) {
+		if(bins <= 0)
+			return Double.NaN;
+		maxShift = Math.min(maxShift, bins - 1);
+
+		double previousMean = 0.0;
+		double currentMean = 0.0;
+		for(int i = 0; i < bins; i++) {
+			previousMean += previous[i];
+			currentMean += current[i];
+		}
+		previousMean /= bins;
+		currentMean /= bins;
+
+		// the scores either side of the best one are kept for the parabola
+		int best = 0;
+		double bestScore = 0.0;
+		double beforeBest = 0.0;
+		double afterBest = 0.0;
+		double last = 0.0;
+		boolean isBestLast = false;
+
+		for(int shift = -maxShift; shift <= maxShift; shift++) {
+			int first = Math.max(0, -shift);
+			int end = Math.min(bins, bins - shift);
+			double score = 0.0;
+			for(int i = first; i < end; i++)
+				score += (previous[i] - previousMean) * (current[i + shift] - currentMean);
+
+			if(isBestLast)
+				afterBest = score;
+			isBestLast = false;
+			if(score > bestScore) {
+				best = shift;
+				bestScore = score;
+				beforeBest = (shift > -maxShift) ? last : score;
+				afterBest = score;
+				isBestLast = true;
+			}
+			last = score;
+		}
+
+		if(bestScore <= 0.0)
+			return Double.NaN;
+
+		double curvature = beforeBest - 2.0 * bestScore + afterBest;
+		if(curvature >= 0.0)
+			return best;
+		return best + 0.5 * (beforeBest - afterBest) / curvature;
+	}
+}
@@ -0,0 +1,147 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>The motion seen in one frame, as passed to a {@link CameraGestureSensor.MotionListener}. Positions
+ * and velocities are in screen coordinates, adjusted for the screen's rotation and the front camera's
+ * mirroring, so moving a hand to the user's right gives a positive x velocity whichever way the
+ * device is held. They are measured in fractions of the frame, so they do not depend on the camera's
+ * resolution: x and y run from 0 at the top left to 1 at the bottom right.</p>
+ *
+ * <p>The sensor fills in one instance every frame and passes the same instance each time, so a
+ * listener must copy anything it wants to keep after its callback returns.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class MotionSample {
+	private long mTimestamp;
+	private double mX;
+	private double mY;
+	private double mVelocityX;
+	private double mVelocityY;
+	private double mFractionInMotion;
+	private boolean mIsInMotion;
+
+	// the blobs, largest first, when blob tracking is enabled
+	private int mBlobCount;
+	private double[] mBlobX = new double[MotionGrid.MAX_BLOBS];
+	private double[] mBlobY = new double[MotionGrid.MAX_BLOBS];
+	private double[] mBlobFraction = new double[MotionGrid.MAX_BLOBS];
+
+	// set by the sensor once per frame
+	void set(long timestamp, double x, double y, double velocityX, double velocityY,
+			double fractionInMotion, boolean isInMotion) {
+		mTimestamp = timestamp;
+		mX = x;
+		mY = y;
+		mVelocityX = velocityX;
+		mVelocityY = velocityY;
+		mFractionInMotion = fractionInMotion;
+		mIsInMotion = isInMotion;
+	}
+
+	// and, when blob tracking is enabled, the blobs
+	void setBlobCount(int count) {
+		mBlobCount = count;
+	}
+
+	void setBlob(int i, double x, double y, double fraction) {
+		mBlobX[i] = x;
+		mBlobY[i] = y;
+		mBlobFraction[i] = fraction;
+	}
+
+	/**
+	 * Gets the capture time of the frame.
+	 * @return the frame's timestamp, in nanoseconds on the <code>System.nanoTime()</code> clock
+	 */
+	public long getTimestamp() {
+		return mTimestamp;
+	}
+
+	/**
+	 * Gets the horizontal position of the average moving pixel.
+	 * @return from 0 at the left of the screen to 1 at the right; meaningless unless {@link #isInMotion()}
+	 */
+	public double getX() {
+		return mX;
+	}
+
+	/**
+	 * Gets the vertical position of the average moving pixel.
+	 * @return from 0 at the top of the screen to 1 at the bottom; meaningless unless {@link #isInMotion()}
+	 */
+	public double getY() {
+		return mY;
+	}
+
+	/**
+	 * Gets how fast the average moving pixel went across since the previous frame.
+	 * @return the velocity in lengths of the frame along the screen's x axis per second, positive to the
+	 * right; 0 unless this frame and the previous one were both in motion
+	 */
+	public double getVelocityX() {
+		return mVelocityX;
+	}
+
+	/**
+	 * Gets how fast the average moving pixel went down since the previous frame.
+	 * @return the velocity in lengths of the frame along the screen's y axis per second, positive
+	 * downwards; 0 unless this frame and the previous one were both in motion
+	 */
+	public double getVelocityY() {
+		return mVelocityY;
+	}
+
+	/**
+	 * Gets how much of the frame changed since the previous frame.
+	 * @return the fraction of the scanned pixels in motion, from 0 to 1
+	 */
+	public double getFractionInMotion() {
+		return mFractionInMotion;
+	}
+
+	/**
+	 * Test if enough of the frame is moving for the position to mean anything: the same test that starts
+	 * and continues a gesture.
+	 * @return true if at least {@link CameraGestureSensor#getMinFractionInMotion()} of the frame is moving
+	 */
+	public boolean isInMotion() {
+		return mIsInMotion;
+	}
+
+	/**
+	 * Gets the number of separate moving regions found in the frame.
+	 * @return from 0 to {@link MotionGrid#MAX_BLOBS}; always 0 unless
+	 * {@link CameraGestureSensor#enableBlobTracking(boolean)} is on
+	 */
+	public int getBlobCount() {
+		return mBlobCount;
+	}
+
+	/**
+	 * Gets the horizontal position of a blob's centroid.
+	 * @param i the blob, from 0 for the largest to {@link #getBlobCount()} - 1
+	 * @return from 0 at the left of the screen to 1 at the right
+	 */
+	public double getBlobX(int i) {
+		return mBlobX[i];
+	}
+
+	/**
+	 * Gets the vertical position of a blob's centroid.
+	 * @param i the blob, from 0 for the largest to {@link #getBlobCount()} - 1
+	 * @return from 0 at the top of the screen to 1 at the bottom
+	 */
+	public double getBlobY(int i) {
+		return mBlobY[i];
+	}
+
+	/**
+	 * Gets the size of a blob.
+	 * @param i the blob, from 0 for the largest to {@link #getBlobCount()} - 1
+	 * @return the fraction of the frame's scanned pixels moving within the blob
+	 */
+	public double getBlobFraction(int i) {
+		return mBlobFraction[i];
+	}
+}
@@ -0,0 +1,113 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import org.opencv.core.Mat;
+
+/**
+ * <p>The default {@link MotionEngine}: the SIMD motion kernel in the native library, optionally split
+ * across worker threads. <code>Mat</code> frames are read in place; byte array frames are read
+ * without copying through <code>GetPrimitiveArrayCritical</code>. Results are written into the caller's
+ * {@link MotionDetectionReturnValue}, so nothing is allocated per frame; <code>make allocation</code> in the
+ * library's <code>host</code> directory checks this for byte array frames.</p>
+ *
+ * <p>Each engine has its own native worker threads and buffers, created on its first frame, so engines on
+ * different threads do not interfere. One engine must only be used by one thread at a time. Call
+ * {@link #release()} when done with it to stop the workers and free the buffers; nothing else frees them.
+ * {@link CameraGestureSensor} releases its engine when it stops.</p>
+ *
+ * <p>{@link CameraGestureSensor#loadLibrary()} must have been called before this is used.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class NativeMotionEngine implements MotionEngine {
+	/** The largest number of threads {@link #setThreadCount(int)} accepts. */
+	public static final int MAX_THREAD_COUNT = 8;
+
+	// the native worker pool and buffers, or 0 before the first frame and after release
+	private long mContext;
+
+	// what the worker pool was last resized to, since it may only be resized between frames
+	private int mAppliedThreadCount;
+
+	private int mThreadCount;
+
+	/**
+	 * Creates a native engine that runs on the calling thread only.
+	 */
+	public NativeMotionEngine() {
+		mThreadCount = 1;
+	}
+
+	/**
+	 * <p>Sets how many threads motion detection uses. Each frame is split into that many bands of rows
+	 * which are scanned in parallel by persistent worker threads. This only pays off on large preview sizes
+	 * with several idle cores; the default is 1.</p>
+	 * <p>Values outside 1 to 8 are ignored. The change takes effect on the next frame.</p>
+	 * @param threadCount the number of threads to use, including the calling thread
+	 */
+	public void setThreadCount(int threadCount) {
+		if(threadCount >= 1 && threadCount <= MAX_THREAD_COUNT)
+			mThreadCount = threadCount;
+	}
+
+	/**
+	 * Gets the number of threads set with {@link #setThreadCount(int)}.
+	 * @return the number of threads used for motion detection
+	 */
+	public int getThreadCount() {
+		return mThreadCount;
+	}
+
+	@Override
+	public void detect(GreyFrame current, GreyFrame previous, int decimation,
+			int left, int top, int right, int bottom, MotionDetectionReturnValue result) {
+		if(mContext == 0) {
+			mContext = CreateMotionContext();
+			mAppliedThreadCount = 1;
+		}
+		if(mAppliedThreadCount != mThreadCount) {
+			mAppliedThreadCount = mThreadCount;
+			SetMotionThreadCount(mContext, mAppliedThreadCount);
+		}
+
+		Mat currentMat = current.getMat();
+		Mat previousMat = previous.getMat();
+		if(currentMat != null && previousMat != null)
+			DetectMovementPosition(mContext, currentMat.getNativeObjAddr(), previousMat.getNativeObjAddr(),
+					decimation, left, top, right, bottom, result);
+		else
+			DetectMovementPositionInBytes(mContext, current.getData(), previous.getData(), current.getWidth(),
+					current.getHeight(), decimation, left, top, right, bottom, result);
+	}
+
+	/**
+	 * Stops this engine's worker threads and frees its native buffers. It must not be detecting at the time.
+	 * The engine can still be used afterwards, and creates them again on its next frame.
+	 */
+	@Override
+	public void release() {
+		if(mContext != 0) {
+			DestroyMotionContext(mContext);
+			mContext = 0;
+		}
+	}
+
+	// writes the average position and fraction of moving pixels inside [left, right) x [top, bottom)
+	// into result, allocating nothing; the fraction is always relative to the whole frame. The options and the
+	// optional outputs are read from result's fields, see MotionDetectionReturnValue; of the grid and the
+	// projection, only the grid is filled in when both are attached
+	private static native void DetectMovementPosition(long context, long currentFrame, long previousFrame,
+			int decimation, int left, int top, int right, int bottom, MotionDetectionReturnValue result);
+
+	// the same for frames held in byte arrays of width * height bytes
+	private static native void DetectMovementPositionInBytes(long context, byte[] currentFrame, byte[] previousFrame,
+			int width, int height, int decimation, int left, int top, int right, int bottom,
+			MotionDetectionReturnValue result);
+
+	// creates the worker pool and buffers of one engine; the pool starts with the calling thread only
+	private static native long CreateMotionContext();
+
+	private static native void DestroyMotionContext(long context);
+
+	// starts or stops the context's worker threads so that detection uses count threads
+	private static native void SetMotionThreadCount(long context, int count);
+}
@@ -0,0 +1,139 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>Estimates how noisy the camera is from the noise histograms a {@link MotionEngine} fills in, see
+ * {@link MotionDetectionReturnValue#noiseHistogram}, and picks the per-pixel threshold from it. Each frame
+ * gives the absolute differences along a single row, chosen with {@link #nextRow(int, int)} so that the rows
+ * sweep down the frame; they are added to a running histogram that forgets its oldest counts by halving them,
+ * so the estimate follows the camera as the light changes.</p>
+ *
+ * <p>The noise is the median of the running histogram. For noise with a normal distribution, the standard
+ * deviation of the difference between two frames is that median over 0.6745, and the threshold is 4 of
+ * these: fewer than one pixel in 10,000 of a still frame is then taken for motion. Being a median, the
+ * estimate ignores a hand moving across less than half of the pixels sampled, so every frame can be added
+ * except those flagged as illumination changes, including on a camera noisy enough to keep the frame in
+ * motion at the default threshold.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class NoiseEstimator {
+	/** The lowest threshold picked, so that a very clean camera does not start seeing shadows as motion. */
+	public static final int MIN_THRESHOLD = 12;
+
+	/** The highest threshold picked, so that a hand still shows up on the noisiest camera. */
+	public static final int MAX_THRESHOLD = 60;
+
+	// the threshold in standard deviations of the difference between two frames, and the median absolute
+	// difference of one standard deviation
+	private static final double DEVIATIONS = 4.0;
+	private static final double MEDIAN_PER_DEVIATION = 0.6745;
+
+	// the samples needed before there is an estimate, and the most kept before the counts are halved
+	private static final int MIN_SAMPLES = 1000;
+	private static final int MAX_SAMPLES = 16000;
+
+	private final int[] mCounts = new int[MotionDetectionReturnValue.NOISE_HISTOGRAM_BINS];
+	private int mSamples;
+	private int mRowIndex;
+
+	private double mNoise;
+	private int mThreshold;
+
+	/**
+	 * Creates an estimator with no estimate yet.
+	 */
+	public NoiseEstimator() {
+		reset();
+	}
+
+	/**
+	 * Forgets every sample.
+	 */
+	public void reset() {
+		for(int i = 0; i < mCounts.length; i++)
+			mCounts[i] = 0;
+		mSamples = 0;
+		mNoise = -1.0;
+		mThreshold = JavaMotionEngine.PIXEL_THRESHOLD;
+	}
+
+	/**
+	 * Picks the row the next frame's noise histogram should come from: the next one down on the decimation grid,
+	 * starting again at the top after the bottom.
+	 * @param height the height of the frames in pixels
+	 * @param decimation the decimation of the next pass
+	 * @return the row, for {@link MotionDetectionReturnValue#noiseRow}, or -1 if the frame has none to scan
+	 */
+	public int nextRow(int height, int decimation) {
+		int rows = (height - 2 * JavaMotionEngine.BORDER + decimation - 1) / decimation;
+		if(rows <= 0)
+			return -1;
+		mRowIndex = (mRowIndex + 1) % rows;
+		return JavaMotionEngine.BORDER + mRowIndex * decimation;
+	}
+
+	/**
+	 * Adds one frame's noise histogram to the running one and updates the estimate.
+	 * @param histogram {@link MotionDetectionReturnValue#NOISE_HISTOGRAM_BINS} counts, as an engine fills them in
+	 */
+	public void add(int[] histogram) {
+		for(int i = 0; i < mCounts.length; i++) {
+			mCounts[i] += histogram[i];
+			mSamples += histogram[i];
+		}
+
+		if(mSamples > MAX_SAMPLES) {
+			mSamples = 0;
+			for(int i = 0; i < mCounts.length; i++) {
+				mCounts[i] >>= 1;
+				mSamples += mCounts[i];
+			}
+		}
+
+		if(mSamples >= MIN_SAMPLES)
+			update();
+	}
+
+	// the median, with each difference spread over the half grey level either side of it, as the noise
+	// that was rounded to it would have been
+	private void update() {
+		double half = mSamples / 2.0;
+		int below = 0;
+		int bin = 0;
+		while(bin < mCounts.length - 1 && below + mCounts[bin] < half)
+			below += mCounts[bin++];
+
+		double within = (mCounts[bin] > 0) ? (half - below) / mCounts[bin] : 0.0;
+		double median = (bin == 0) ? 0.5 * within : bin - 0.5 + within;
+
+		mNoise = median / MEDIAN_PER_DEVIATION;
+		int threshold = (int)Math.ceil(DEVIATIONS * mNoise);
+		mThreshold = Math.max(MIN_THRESHOLD, Math.min(MAX_THRESHOLD, threshold));
+	}
+
+	/**
+	 * Test if enough samples have been added for an estimate.
+	 * @return true once {@link #getThreshold()} comes from the samples
+	 */
+	public boolean hasEstimate() {
+		return mNoise >= 0.0;
+	}
+
+	/**
+	 * Gets the estimated noise.
+	 * @return the standard deviation of the difference between two frames of a still scene, in grey levels,
+	 * or -1 if there is no estimate yet
+	 */
+	public double getNoise() {
+		return mNoise;
+	}
+
+	/**
+	 * Gets the threshold for the estimated noise.
+	 * @return from {@link #MIN_THRESHOLD} to {@link #MAX_THRESHOLD}, or {@link JavaMotionEngine#PIXEL_THRESHOLD}
+	 * if there is no estimate yet
+	 */
+	public int getThreshold() {
+		return mThreshold;
+	}
+}
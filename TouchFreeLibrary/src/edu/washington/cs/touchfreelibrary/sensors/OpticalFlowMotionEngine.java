@@ -0,0 +1,389 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.Arrays;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+/**
+ * <p>A {@link MotionEngine} that tracks corners from frame to frame instead of differencing the frames. Up to
+ * {@link #MAX_FEATURES} corners are found with <code>Imgproc.goodFeaturesToTrack</code> and followed into each
+ * new frame with pyramidal Lucas-Kanade, <code>Video.calcOpticalFlowPyrLK</code>. They are found again every
+ * few frames, see {@link #setRefreshInterval(int)}, and whenever too few are left, so a hand that comes into
+ * view soon has corners of its own.</p>
+ *
+ * <p>A corner is moving when it moved at least {@link #MIN_FLOW} pixels, and the fraction of the frame in motion
+ * is the fraction of the tracked corners that moved. The median flow of the moving corners is the direction
+ * and speed of the motion, see {@link #getFlowX()} and {@link #getFlowY()}; it is added up into the position
+ * reported the same way {@link ProjectionMotionEngine} adds up its displacements, starting from the median
+ * moving corner and pulled a quarter of the way back to it every frame. Only corners inside the region passed
+ * to {@link #detect(GreyFrame, GreyFrame, int, int, int, int, int, MotionDetectionReturnValue)} count, and a
+ * second call for the same frame, as after a region of interest scan, does not track the corners again.</p>
+ *
+ * <p>The decimation halves the frames once for 2 and twice for 4 before they are tracked. Each frame is
+ * halved once, and its halves kept as the previous frame's for the next one. The Java bindings only take
+ * single images, so the Lucas-Kanade pyramids themselves are rebuilt inside OpenCV every frame. Every
+ * <code>Mat</code> and buffer is allocated once and reused; OpenCV only reallocates the point <code>Mat</code>s
+ * when the number of corners changes. Byte array frames are copied into a <code>Mat</code> first.</p>
+ *
+ * <p>Only the average position and the fraction are filled in: there is no mean grey level, so clicks by color
+ * never fire, and the grid, projection and histograms are left untouched. OpenCV must have been initialised
+ * before this is used.</p>
+ *
+ * <p>This engine is experimental. Its speed and accuracy have not been measured: the host tool that measures
+ * the other engines cannot load OpenCV's native library, and it has not been compared with them on a
+ * device.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class OpticalFlowMotionEngine implements MotionEngine {
+	/** The most corners tracked at once. */
+	public static final int MAX_FEATURES = 100;
+
+	/** A corner counts as moving when it moved at least this far since the previous frame, in full-frame pixels. */
+	public static final double MIN_FLOW = 2.0;
+
+	// corners are found again when fewer than this many are still tracked
+	private static final int MIN_FEATURES = MAX_FEATURES / 2;
+
+	// corners weaker than this fraction of the strongest are not kept
+	private static final double QUALITY_LEVEL = 0.01;
+
+	// corners are kept at least this fraction of the tracked image's width apart
+	private static final int MIN_DISTANCE_DIVISOR = 32;
+
+	// the Lucas-Kanade window and the pyramid levels above the tracked image, enough for a hand crossing a
+	// quarter of a 320 pixel wide frame in one frame
+	private static final int WINDOW_SIZE = 21;
+	private static final int MAX_PYRAMID_LEVEL = 3;
+
+	// the fraction of the way back to the median moving corner taken every frame
+	private static final double MEDIAN_PULL = 0.25;
+
+	private static final int DEFAULT_REFRESH_INTERVAL = 3;
+
+	private int mRefreshInterval;
+	private double mMinFractionInMotion;
+
+	// for each of the previous and the current frame: a copy of a byte array frame, then each of its halves
+	private Mat[] mPreviousImages;
+	private Mat[] mCurrentImages;
+	private Mat mPreviousImage;
+	private Mat mCurrentImage;
+
+	private final MatOfPoint mCorners = new MatOfPoint();
+	private final MatOfPoint2f mPoints = new MatOfPoint2f();
+	private final MatOfPoint2f mNextPoints = new MatOfPoint2f();
+	private final MatOfByte mStatus = new MatOfByte();
+	private final MatOfFloat mError = new MatOfFloat();
+	private final Size mWindow = new Size(WINDOW_SIZE, WINDOW_SIZE);
+
+	// the corners in mPoints, x and y after each other, in tracked image pixels
+	private final int[] mCornerBuffer = new int[2 * MAX_FEATURES];
+	private final float[] mPointBuffer = new float[2 * MAX_FEATURES];
+	private final float[] mNextBuffer = new float[2 * MAX_FEATURES];
+	private final byte[] mStatusBuffer = new byte[MAX_FEATURES];
+	private int mPointCount;
+	private int mFramesSinceRefresh;
+
+	// the corners tracked into the current frame, where they were and where they are, in full-frame pixels
+	private final float[] mFromX = new float[MAX_FEATURES];
+	private final float[] mFromY = new float[MAX_FEATURES];
+	private final float[] mToX = new float[MAX_FEATURES];
+	private final float[] mToY = new float[MAX_FEATURES];
+	private int mTrackedCount;
+
+	// the flows and positions of the moving corners, sorted for their medians
+	private final float[] mMovingFlowX = new float[MAX_FEATURES];
+	private final float[] mMovingFlowY = new float[MAX_FEATURES];
+	private final float[] mMovingX = new float[MAX_FEATURES];
+	private final float[] mMovingY = new float[MAX_FEATURES];
+
+	// the frame the corners were last tracked into, and at which decimation
+	private GreyFrame mLastFrame;
+	private long mLastTimestamp;
+	private int mLevels;
+
+	// the position followed as of the previous frame, and since this one; -1 when there was no motion
+	private double mPreviousX;
+	private double mPreviousY;
+	private boolean mWasInMotion;
+	private double mX;
+	private double mY;
+	private boolean mIsInMotion;
+
+	private double mFlowX;
+	private double mFlowY;
+
+	/**
+	 * Creates an engine that finds its corners again every 3 frames.
+	 */
+	public OpticalFlowMotionEngine() {
+		mRefreshInterval = DEFAULT_REFRESH_INTERVAL;
+		mMinFractionInMotion = GestureClassifier.MIN_FRACTION_SCREEN_MOTION;
+		mPreviousImages = new Mat[] { new Mat(), new Mat(), new Mat() };
+		mCurrentImages = new Mat[] { new Mat(), new Mat(), new Mat() };
+		reset();
+	}
+
+	/**
+	 * Sets how often the corners are found again, whether or not enough are still tracked. Finding them costs
+	 * about as much as tracking them; the more often it is done, the sooner a hand coming into view is followed.
+	 * The default is every 3 frames. Values below 1 are ignored.
+	 * @param frames the number of frames between searches
+	 */
+	public void setRefreshInterval(int frames) {
+		if(frames >= 1)
+			mRefreshInterval = frames;
+	}
+
+	/**
+	 * Gets how often the corners are found again.
+	 * @return the number of frames between searches
+	 */
+	public int getRefreshInterval() {
+		return mRefreshInterval;
+	}
+
+	/**
+	 * Sets the fraction of the tracked corners that must be moving for the motion to be followed from one frame
+	 * to the next; below it the position starts again from the median moving corner when the motion returns. It
+	 * should be the {@link GestureClassifier}'s, see {@link CameraGestureSensor#setMinFractionInMotion(double)}.
+	 * The default is {@link GestureClassifier#MIN_FRACTION_SCREEN_MOTION}. Values outside (0, 1] are ignored.
+	 * @param fraction the fraction of the corners
+	 */
+	public void setMinFractionInMotion(double fraction) {
+		if(fraction > 0.0 && fraction <= 1.0)
+			mMinFractionInMotion = fraction;
+	}
+
+	/**
+	 * Gets the fraction of the tracked corners that must be moving for the motion to be followed.
+	 * @return the fraction set with {@link #setMinFractionInMotion(double)}
+	 */
+	public double getMinFractionInMotion() {
+		return mMinFractionInMotion;
+	}
+
+	/**
+	 * Forgets the corners and the motion followed so far; the next frame finds new corners.
+	 */
+	public void reset() {
+		mLastFrame = null;
+		mPointCount = 0;
+		mTrackedCount = 0;
+		mFramesSinceRefresh = 0;
+		mPreviousX = mPreviousY = -1.0;
+		mWasInMotion = false;
+		mX = mY = -1.0;
+		mIsInMotion = false;
+		mFlowX = mFlowY = 0.0;
+	}
+
+	/**
+	 * Gets the horizontal part of the median flow of the moving corners found by the last call to
+	 * {@link #detect(GreyFrame, GreyFrame, int, int, int, int, int, MotionDetectionReturnValue)}.
+	 * @return the flow in full-frame pixels per frame, positive to the right, or 0 if nothing moved
+	 */
+	public double getFlowX() {
+		return mFlowX;
+	}
+
+	/**
+	 * Gets the vertical part of the median flow of the moving corners found by the last call to
+	 * {@link #detect(GreyFrame, GreyFrame, int, int, int, int, int, MotionDetectionReturnValue)}.
+	 * @return the flow in full-frame pixels per frame, positive downwards, or 0 if nothing moved
+	 */
+	public double getFlowY() {
+		return mFlowY;
+	}
+
+	@Override
+	public void detect(GreyFrame current, GreyFrame previous, int decimation,
+			int left, int top, int right, int bottom, MotionDetectionReturnValue result) {
+		int levels = (decimation == 4) ? 2 : (decimation == 2) ? 1 : 0;
+
+		// a new frame moves the position back to be the previous one and tracks the corners into it
+		if(current != mLastFrame || current.getTimestamp() != mLastTimestamp || levels != mLevels) {
+			mPreviousX = mX;
+			mPreviousY = mY;
+			mWasInMotion = mIsInMotion;
+			track(current, previous, levels);
+		}
+
+		result.setIllumination(0, false);
+		measure(left, top, right, bottom, result);
+	}
+
+	/**
+	 * Frees the image pyramids of the last two frames and forgets the corners, as {@link #reset()} does; the
+	 * next frame finds new corners.
+	 */
+	@Override
+	public void release() {
+		for(int i = 0; i < mPreviousImages.length; i++) {
+			mPreviousImages[i].release();
+			mCurrentImages[i].release();
+		}
+		mPreviousImage = mCurrentImage = null;
+		reset();
+	}
+
+	// follows the corners from the previous frame into the current one, then picks the corners for the next
+	private void track(GreyFrame current, GreyFrame previous, int levels) {
+		// the last frame's images are this one's previous images when the frames follow on
+		boolean isContinued = previous == mLastFrame && previous.getTimestamp() == mLastTimestamp
+				&& levels == mLevels;
+		Mat[] swap = mPreviousImages;
+		mPreviousImages = mCurrentImages;
+		mCurrentImages = swap;
+		if(isContinued)
+			mPreviousImage = mCurrentImage;
+		else {
+			mPreviousImage = prepare(previous, levels, mPreviousImages);
+			mPointCount = 0;
+		}
+		mCurrentImage = prepare(current, levels, mCurrentImages);
+		mLastFrame = current;
+		mLastTimestamp = current.getTimestamp();
+		mLevels = levels;
+
+		if(mPointCount == 0)
+			findCorners(mPreviousImage);
+		mFramesSinceRefresh++;
+
+		mTrackedCount = 0;
+		if(mPointCount > 0) {
+			Video.calcOpticalFlowPyrLK(mPreviousImage, mCurrentImage, mPoints, mNextPoints, mStatus, mError,
+					mWindow, MAX_PYRAMID_LEVEL);
+			mNextPoints.get(0, 0, mNextBuffer);
+			mStatus.get(0, 0, mStatusBuffer);
+
+			// the corners still in view are kept, in place, as the next frame's
+			int width = mCurrentImage.cols();
+			int height = mCurrentImage.rows();
+			int scale = 1 << levels;
+			for(int i = 0; i < mPointCount; i++) {
+				float x = mNextBuffer[2 * i];
+				float y = mNextBuffer[2 * i + 1];
+				if(mStatusBuffer[i] == 0 || x < 0 || y < 0 || x >= width || y >= height)
+					continue;
+
+				int k = mTrackedCount++;
+				mFromX[k] = mPointBuffer[2 * i] * scale;
+				mFromY[k] = mPointBuffer[2 * i + 1] * scale;
+				mToX[k] = x * scale;
+				mToY[k] = y * scale;
+				mPointBuffer[2 * k] = x;
+				mPointBuffer[2 * k + 1] = y;
+			}
+		}
+
+		if(mFramesSinceRefresh >= mRefreshInterval || mTrackedCount < MIN_FEATURES)
+			findCorners(mCurrentImage);
+		else
+			setPoints(mTrackedCount);
+	}
+
+	// the image to track for a frame: the frame's own Mat or a copy of its bytes, halved levels times
+	private static Mat prepare(GreyFrame frame, int levels, Mat[] images) {
+		Mat image = frame.getMat();
+		if(image == null) {
+			image = images[0];
+			image.create(frame.getHeight(), frame.getWidth(), CvType.CV_8UC1);
+			image.put(0, 0, frame.getData());
+		}
+		for(int level = 1; level <= levels; level++) {
+			Imgproc.pyrDown(image, images[level]);
+			image = images[level];
+		}
+		return image;
+	}
+
+	private void findCorners(Mat image) {
+		int minDistance = Math.max(1, image.cols() / MIN_DISTANCE_DIVISOR);
+		Imgproc.goodFeaturesToTrack(image, mCorners, MAX_FEATURES, QUALITY_LEVEL, minDistance);
+
+		int count = Math.min(mCorners.rows(), MAX_FEATURES);
+		if(count > 0)
+			mCorners.get(0, 0, mCornerBuffer);
+		for(int i = 0; i < 2 * count; i++)
+			mPointBuffer[i] = mCornerBuffer[i];
+		setPoints(count);
+		mFramesSinceRefresh = 0;
+	}
+
+	private void setPoints(int count) {
+		mPointCount = count;
+		if(count > 0) {
+			mPoints.create(count, 1, CvType.CV_32FC2);
+			mPoints.put(0, 0, mPointBuffer);
+		}
+	}
+
+	// the fraction of the corners in the region that moved, and the position followed from their median flow
+	private void measure(int left, int top, int right, int bottom, MotionDetectionReturnValue result) {
+		int moving = 0;
+		for(int k = 0; k < mTrackedCount; k++) {
+			if(mFromX[k] < left || mFromX[k] >= right || mFromY[k] < top || mFromY[k] >= bottom)
+				continue;
+			float flowX = mToX[k] - mFromX[k];
+			float flowY = mToY[k] - mFromY[k];
+			if(flowX * flowX + flowY * flowY < MIN_FLOW * MIN_FLOW)
+				continue;
+			mMovingFlowX[moving] = flowX;
+			mMovingFlowY[moving] = flowY;
+			mMovingX[moving] = mToX[k];
+			mMovingY[moving] = mToY[k];
+			moving++;
+		}
+
+		double fraction = (mTrackedCount > 0) ? (double)moving / mTrackedCount : 0.0;
+		follow(moving, fraction >= mMinFractionInMotion);
+		result.set(mX, mY, fraction, -1.0);
+	}
+
+	// moves the position on by the median flow, or starts it at the median moving corner
+	private void follow(int moving, boolean isInMotion) {
+		mIsInMotion = isInMotion;
+		mFlowX = mFlowY = 0.0;
+		if(moving == 0) {
+			mX = mY = -1.0;
+			return;
+		}
+
+		double medianX = median(mMovingX, moving);
+		double medianY = median(mMovingY, moving);
+		mFlowX = median(mMovingFlowX, moving);
+		mFlowY = median(mMovingFlowY, moving);
+		if(!isInMotion || !mWasInMotion) {
+			mX = medianX;
+			mY = medianY;
+			return;
+		}
+
+		double x = mPreviousX + mFlowX;
+		double y = mPreviousY + mFlowY;
+		x += (medianX - x) * MEDIAN_PULL;
+		y += (medianY - y) * MEDIAN_PULL;
+
+		int scale = 1 << mLevels;
+		mX = Math.max(0.0, Math.min(mCurrentImage.cols() * scale - 1, x));
+		mY = Math.max(0.0, Math.min(mCurrentImage.rows() * scale - 1, y));
+	}
+
+	// sorts the first count values in place
+	private static double median(float[] values, int count) {
+		Arrays.sort(values, 0, count);
+		if((count & 1) != 0)
+			return values[count / 2];
+		return 0.5 * (values[count / 2 - 1] + values[count / 2]);
+	}
+}
@@ -0,0 +1,244 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>A {@link MotionEngine} that follows the motion by how far it moves from frame to frame, instead of by
+ * where its average pixel is. Another engine, {@link NativeMotionEngine} by default, counts the moving pixels
+ * of every column and row into a {@link MotionProjection} in the pass that finds the overall motion. The
+ * binned columns and rows are then cross-correlated with the previous frame's, see
+ * {@link MotionProjection#correlate(int[], int[], int, int)}, which gives the displacement of the motion along
+ * each axis in O(width + height), and the displacement is added up into the position reported.</p>
+ *
+ * <p>The average moving pixel jumps about whenever noise or a second moving thing adds pixels far from the
+ * hand. Scattered noise raises every column and row alike, which correlation with the means taken out ignores,
+ * and a small moving thing elsewhere barely changes where the peak is. When motion starts, and whenever the
+ * projections do not match, the position is taken from the median column and row, which a few far pixels do
+ * not drag either. A quarter of the way back to the median is taken every frame, so the position does not
+ * drift away from the hand. The fraction of the frame in motion is the other engine's.</p>
+ *
+ * <p>The grid of {@link MotionDetectionReturnValue#grid} is not filled in, so blob tracking finds no blobs
+ * while this engine is used. Every array is allocated when the frame size changes, so detection allocates
+ * nothing.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class ProjectionMotionEngine implements MotionEngine {
+	// the largest displacement tried, as a fraction of the frame's width or height
+	private static final int MAX_SHIFT_DIVISOR = 4;
+
+	// the fraction of the way back to the median taken every frame
+	private static final double MEDIAN_PULL = 0.25;
+
+	private MotionEngine mPassEngine;
+	private double mMinFractionInMotion;
+
+	private MotionProjection mProjection;
+
+	// the binned projections of the previous and the current frame
+	private int[] mPreviousColumnBins;
+	private int[] mPreviousRowBins;
+	private int[] mColumnBins;
+	private int[] mRowBins;
+
+	// the frame the current bins are from; a second pass over it, as after a region of interest scan, is
+	// measured against the same previous frame again
+	private GreyFrame mLastFrame;
+	private long mLastTimestamp;
+
+	// the position followed as of the previous frame, and since this one; -1 when there was no motion
+	private double mPreviousX;
+	private double mPreviousY;
+	private boolean mWasInMotion;
+	private double mX;
+	private double mY;
+	private boolean mIsInMotion;
+
+	// the last displacement found, in pixels
+	private double mShiftX;
+	private double mShiftY;
+
+	/**
+	 * Creates an engine whose pass is a {@link NativeMotionEngine}. {@link CameraGestureSensor#loadLibrary()}
+	 * must have been called before it is used.
+	 */
+	public ProjectionMotionEngine() {
+		this(new NativeMotionEngine());
+	}
+
+	/**
+	 * Creates an engine whose pass is made by another engine, which must fill in
+	 * {@link MotionDetectionReturnValue#projection}, as {@link NativeMotionEngine} and {@link JavaMotionEngine} do.
+	 * @param passEngine the engine that counts the moving pixels
+	 */
+	public ProjectionMotionEngine(MotionEngine passEngine) {
+		mPassEngine = passEngine;
+		mMinFractionInMotion = GestureClassifier.MIN_FRACTION_SCREEN_MOTION;
+		mProjection = new MotionProjection(1, 1);
+		allocateBins();
+		reset();
+	}
+
+	/**
+	 * Gets the engine that counts the moving pixels.
+	 * @return the engine passed to the constructor
+	 */
+	public MotionEngine getPassEngine() {
+		return mPassEngine;
+	}
+
+	/**
+	 * Sets the fraction of the frame that must be moving for the motion to be followed from one frame to the
+	 * next; below it the position starts again from the median when the motion returns. It should be the
+	 * {@link GestureClassifier}'s, see {@link CameraGestureSensor#setMinFractionInMotion(double)}. The default is
+	 * {@link GestureClassifier#MIN_FRACTION_SCREEN_MOTION}. Values outside (0, 1] are ignored.
+	 * @param fraction the fraction of the frame
+	 */
+	public void setMinFractionInMotion(double fraction) {
+		if(fraction > 0.0 && fraction <= 1.0)
+			mMinFractionInMotion = fraction;
+	}
+
+	/**
+	 * Gets the fraction of the frame that must be moving for the motion to be followed.
+	 * @return the fraction set with {@link #setMinFractionInMotion(double)}
+	 */
+	public double getMinFractionInMotion() {
+		return mMinFractionInMotion;
+	}
+
+	/**
+	 * Forgets the motion followed so far, so the next frame starts again from the median.
+	 */
+	public void reset() {
+		mLastFrame = null;
+		mPreviousX = mPreviousY = -1.0;
+		mWasInMotion = false;
+		mX = mY = -1.0;
+		mIsInMotion = false;
+		mShiftX = mShiftY = 0.0;
+		mProjection.clear();
+		for(int i = 0; i < mColumnBins.length; i++)
+			mColumnBins[i] = 0;
+		for(int i = 0; i < mRowBins.length; i++)
+			mRowBins[i] = 0;
+	}
+
+	/**
+	 * Gets the horizontal displacement of the motion found by the last call to
+	 * {@link #detect(GreyFrame, GreyFrame, int, int, int, int, int, MotionDetectionReturnValue)}.
+	 * @return the displacement in full-frame pixels, positive to the right, or 0 if it was not measured
+	 */
+	public double getShiftX() {
+		return mShiftX;
+	}
+
+	/**
+	 * Gets the vertical displacement of the motion found by the last call to
+	 * {@link #detect(GreyFrame, GreyFrame, int, int, int, int, int, MotionDetectionReturnValue)}.
+	 * @return the displacement in full-frame pixels, positive downwards, or 0 if it was not measured
+	 */
+	public double getShiftY() {
+		return mShiftY;
+	}
+
+	@Override
+	public void detect(GreyFrame current, GreyFrame previous, int decimation,
+			int left, int top, int right, int bottom, MotionDetectionReturnValue result) {
+		int width = current.getWidth();
+		int height = current.getHeight();
+		if(width != mProjection.getWidth() || height != mProjection.getHeight()) {
+			mProjection.setFrameSize(width, height);
+			allocateBins();
+			reset();
+		}
+
+		// a new frame moves the current bins and position back to be the previous ones
+		if(current != mLastFrame || current.getTimestamp() != mLastTimestamp) {
+			int[] swap = mPreviousColumnBins;
+			mPreviousColumnBins = mColumnBins;
+			mColumnBins = swap;
+			swap = mPreviousRowBins;
+			mPreviousRowBins = mRowBins;
+			mRowBins = swap;
+
+			mPreviousX = mX;
+			mPreviousY = mY;
+			mWasInMotion = mIsInMotion;
+			mLastFrame = current;
+			mLastTimestamp = current.getTimestamp();
+		}
+
+		// the pass fills in the projection rather than the grid
+		MotionGrid grid = result.grid;
+		MotionProjection projection = result.projection;
+		result.grid = null;
+		result.projection = mProjection;
+		mPassEngine.detect(current, previous, decimation, left, top, right, bottom, result);
+		result.grid = grid;
+		result.projection = projection;
+
+		mProjection.binColumns(mColumnBins);
+		mProjection.binRows(mRowBins);
+		follow(result.fractionOfScreenInMotion >= mMinFractionInMotion);
+
+		if(result.averagePosition.x >= 0) {
+			result.averagePosition.x = mX;
+			result.averagePosition.y = mY;
+		}
+	}
+
+	/**
+	 * Releases the pass engine.
+	 */
+	@Override
+	public void release() {
+		mPassEngine.release();
+	}
+
+	// moves the position on by the displacement since the previous frame, or starts it at the median
+	private void follow(boolean isInMotion) {
+		mIsInMotion = isInMotion;
+		mShiftX = mShiftY = 0.0;
+
+		double medianX = mProjection.getMedianX();
+		double medianY = mProjection.getMedianY();
+		if(medianX < 0) {
+			mX = mY = -1.0;
+			return;
+		}
+
+		double shiftX = Double.NaN;
+		double shiftY = Double.NaN;
+		if(isInMotion && mWasInMotion) {
+			int columnBins = mProjection.getColumnBins();
+			int rowBins = mProjection.getRowBins();
+			shiftX = MotionProjection.correlate(mPreviousColumnBins, mColumnBins, columnBins,
+					columnBins / MAX_SHIFT_DIVISOR);
+			shiftY = MotionProjection.correlate(mPreviousRowBins, mRowBins, rowBins, rowBins / MAX_SHIFT_DIVISOR);
+		}
+
+		if(Double.isNaN(shiftX) || Double.isNaN(shiftY)) {
+			mX = medianX;
+			mY = medianY;
+			return;
+		}
+
+		mShiftX = shiftX * MotionProjection.BIN_SIZE;
+		mShiftY = shiftY * MotionProjection.BIN_SIZE;
+		double x = mPreviousX + mShiftX;
+		double y = mPreviousY + mShiftY;
+		x += (medianX - x) * MEDIAN_PULL;
+		y += (medianY - y) * MEDIAN_PULL;
+
+		mX = Math.max(0.0, Math.min(mProjection.getWidth() - 1, x));
+		mY = Math.max(0.0, Math.min(mProjection.getHeight() - 1, y));
+	}
+
+	private void allocateBins() {
+		int columnBins = mProjection.getColumnBins();
+		int rowBins = mProjection.getRowBins();
+		mPreviousColumnBins = new int[columnBins];
+		mColumnBins = new int[columnBins];
+		mPreviousRowBins = new int[rowBins];
+		mRowBins = new int[rowBins];
+	}
+}
@@ -0,0 +1,117 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>A {@link FrameSource} that captures a frame whenever it is asked to. Subclasses create the frames
+ * and fill them in; this class keeps the pool of free frames and turns reads into the callbacks of
+ * {@link #run(Callback)}. A pull source that is open may also be read directly with
+ * {@link #read(GreyFrame)}, without running it.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public abstract class PullFrameSource implements FrameSource {
+	// frames not lent out; returned from the processing thread and taken on the capture thread
+	private GreyFrame[] mFreeFrames;
+	private int mFreeFrameCount;
+
+	private volatile boolean mIsStopped;
+
+	/**
+	 * Creates a frame of the source's size to capture into. Called by {@link #open(int)}.
+	 * @return the frame
+	 */
+	protected abstract GreyFrame createFrame();
+
+	/**
+	 * Opens whatever the frames come from, and works out their size. Called by {@link #open(int)}
+	 * before any frame is created.
+	 * @return true if the source opened, false if it is not available
+	 */
+	protected abstract boolean openSource();
+
+	/**
+	 * Captures the next frame into the given frame and timestamps it.
+	 * @param frame a frame created by {@link #createFrame()}
+	 * @return true if a frame was captured, false if none was available this time
+	 */
+	public abstract boolean read(GreyFrame frame);
+
+	/**
+	 * Test if there are frames left to read. The default is true for as long as the source is open.
+	 * @return false once the source has run out, which ends {@link #run(Callback)}
+	 */
+	public boolean hasMoreFrames() {
+		return true;
+	}
+
+	@Override
+	public boolean open(int frameCount) {
+		mIsStopped = false;
+		if(!openSource())
+			return false;
+
+		frameCount = Math.max(frameCount, 1);
+		synchronized (this) {
+			mFreeFrames = new GreyFrame[frameCount];
+			for(int i = 0; i < frameCount; i++)
+				mFreeFrames[i] = createFrame();
+			mFreeFrameCount = frameCount;
+		}
+		return true;
+	}
+
+	@Override
+	public void run(Callback callback) {
+		while(!mIsStopped && hasMoreFrames()) {
+			long wait = callback.getNanosUntilNextFrame(this);
+			if(wait > 0) {
+				try {
+					Thread.sleep(wait / 1000000L, (int)(wait % 1000000L));
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				continue;
+			}
+
+			GreyFrame frame = takeFreeFrame();
+			if(frame == null) {
+				// every frame is lent out, which the number of frames allocated should prevent
+				Thread.yield();
+				continue;
+			}
+
+			if(read(frame))
+				callback.onFrame(this, frame);
+			else
+				returnFrame(frame);
+		}
+	}
+
+	@Override
+	public void stop() {
+		mIsStopped = true;
+	}
+
+	@Override
+	public synchronized void returnFrame(GreyFrame frame) {
+		if(mFreeFrames != null && mFreeFrameCount < mFreeFrames.length)
+			mFreeFrames[mFreeFrameCount++] = frame;
+	}
+
+	private synchronized GreyFrame takeFreeFrame() {
+		if(mFreeFrameCount == 0)
+			return null;
+		GreyFrame frame = mFreeFrames[--mFreeFrameCount];
+		mFreeFrames[mFreeFrameCount] = null;
+		return frame;
+	}
+
+	@Override
+	public void close() {
+		synchronized (this) {
+			mFreeFrames = null;
+			mFreeFrameCount = 0;
+		}
+	}
+}
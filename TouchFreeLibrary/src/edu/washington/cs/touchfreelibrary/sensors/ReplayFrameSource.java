@@ -0,0 +1,64 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>Plays a {@link FrameReplay} as a frame source, from the start each time it is opened. With the
+ * replay's real-time pacing the source is live and frames arrive as they were captured; without it
+ * frames are read as fast as they are taken, and none is ever missed.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class ReplayFrameSource extends PullFrameSource {
+	private FrameReplay mReplay;
+
+	/**
+	 * Creates a source that plays a recording.
+	 * @param replay the recording; it is not closed by the source
+	 */
+	public ReplayFrameSource(FrameReplay replay) {
+		mReplay = replay;
+	}
+
+	/**
+	 * Gets the recording this source plays.
+	 * @return the replay passed to the constructor
+	 */
+	public FrameReplay getReplay() {
+		return mReplay;
+	}
+
+	@Override
+	protected boolean openSource() {
+		mReplay.rewind();
+		return true;
+	}
+
+	@Override
+	protected GreyFrame createFrame() {
+		return new GreyFrame(new byte[getWidth() * getHeight()], getWidth(), getHeight());
+	}
+
+	@Override
+	public int getWidth() {
+		return mReplay.getWidth();
+	}
+
+	@Override
+	public int getHeight() {
+		return mReplay.getHeight();
+	}
+
+	@Override
+	public boolean isLive() {
+		return mReplay.isRealTimePacingEnabled();
+	}
+
+	@Override
+	public boolean read(GreyFrame frame) {
+		return mReplay.next(frame);
+	}
+
+	@Override
+	public boolean hasMoreFrames() {
+		return !mReplay.isFinished();
+	}
+}
@@ -0,0 +1,452 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.washington.cs.touchfreelibrary.sensors.GestureClassifier.Direction;
+
+/**
+ * <p>Generates grey frames of a bright blob sweeping across a dark background, for running the detection
+ * pipeline without a camera and for measuring it at sizes, noise levels and speeds no recording covers.
+ * The blob plays a script of gestures over and over: it rests, then sweeps across the frame in the
+ * scripted direction. When the next sweep starts somewhere else, the blob jumps there halfway through
+ * the rest. Smaller distractor blobs, sensor noise and global changes in illumination can be added.</p>
+ *
+ * <p>Directions are in camera coordinates, as a {@link GestureClassifier} reports them: a
+ * {@link Direction#Left} gesture moves the blob towards the right of the frame. {@link #getLabels(int)} gives
+ * the gesture a classifier should report on each frame. Frames are generated as fast as they are taken and
+ * timestamped as if they had been captured at the frame rate; the same settings and seed always generate
+ * the same frames.</p>
+ *
+ * <p>Settings take effect the next time the source is opened.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class SyntheticFrameSource extends PullFrameSource {
+	private static final double DEFAULT_FRAME_RATE = 30.0;
+	private static final double DEFAULT_BLOB_SIZE = 0.5;
+	private static final double DEFAULT_SPEED = 0.2;
+	private static final int DEFAULT_REST_FRAMES = 20;
+
+	private static final int BACKGROUND = 40;
+	private static final int FOREGROUND = 200;
+
+	// distractors are a third of the blob's size and circle the middle of the frame every few seconds
+	private static final double DISTRACTOR_SIZE = 1.0 / 3.0;
+	private static final double DISTRACTOR_ORBIT = 0.35;
+	private static final int DISTRACTOR_PERIOD_FRAMES = 90;
+
+	// each frame's noise is read from a random offset into a table a little larger than a frame
+	private static final int NOISE_TABLE_SLACK = 1024;
+
+	private int mWidth;
+	private int mHeight;
+
+	private double mFrameRate;
+	private double mBlobSize;
+	private double mSpeed;
+	private int mRestFrames;
+	private Direction[] mGestures;
+	private int mDistractorCount;
+	private double mNoise;
+	private int mIlluminationAmplitude;
+	private int mIlluminationPeriod;
+	private long mSeed;
+	private long mFrameLimit;
+
+	// the script laid out in frames: where each step starts within a cycle, and where each sweep goes
+	private int[] mStepStarts;
+	private int[] mSweepFrames;
+	private double[] mSweepFromX, mSweepFromY, mSweepToX, mSweepToY;
+	private int mCycleFrames;
+
+	private long mFrameIndex;
+	private long mStartTime;
+	private Random mRandom;
+	private int[] mNoiseTable;
+
+	/**
+	 * Creates a generator of frames of the given size, with a blob half the frame's height playing
+	 * left, right, up and down gestures, and no distractors, noise or illumination changes.
+	 * @param width the width of the frames in pixels
+	 * @param height the height of the frames in pixels
+	 */
+	public SyntheticFrameSource(int width, int height) {
+		mWidth = Math.max(width, 1);
+		mHeight = Math.max(height, 1);
+
+		mFrameRate = DEFAULT_FRAME_RATE;
+		mBlobSize = DEFAULT_BLOB_SIZE;
+		mSpeed = DEFAULT_SPEED;
+		mRestFrames = DEFAULT_REST_FRAMES;
+		mGestures = new Direction[] { Direction.Left, Direction.Right, Direction.Up, Direction.Down };
+		mDistractorCount = 0;
+		mNoise = 0.0;
+		mIlluminationAmplitude = 0;
+		mIlluminationPeriod = 0;
+		mSeed = 0;
+		mFrameLimit = 0;
+	}
+
+	/**
+	 * Sets the gestures the blob plays, in order, over and over. Ignored if empty or if any is {@link Direction#None}.
+	 * @param gestures the gestures, in camera coordinates
+	 */
+	public void setGestures(Direction... gestures) {
+		if(gestures == null || gestures.length == 0)
+			return;
+		for(Direction d : gestures) {
+			if(d == null || d == Direction.None)
+				return;
+		}
+		mGestures = gestures.clone();
+	}
+
+	/**
+	 * Gets the gestures the blob plays.
+	 * @return a copy of the script
+	 */
+	public Direction[] getGestures() {
+		return mGestures.clone();
+	}
+
+	/**
+	 * Sets the blob's diameter as a fraction of the frame's height. The default is 0.5. Values outside (0, 1] are ignored.
+	 * @param size the diameter as a fraction of the height
+	 */
+	public void setBlobSize(double size) {
+		if(size > 0.0 && size <= 1.0)
+			mBlobSize = size;
+	}
+
+	/**
+	 * Gets the blob's diameter.
+	 * @return the diameter as a fraction of the frame's height
+	 */
+	public double getBlobSize() {
+		return mBlobSize;
+	}
+
+	/**
+	 * Sets how fast the blob sweeps, as the fraction of the frame's width (or height, for up and down) it
+	 * moves each frame. The default is 0.2. Values that are not positive are ignored.
+	 * @param speed the fraction of the frame crossed per frame
+	 */
+	public void setSpeed(double speed) {
+		if(speed > 0.0)
+			mSpeed = speed;
+	}
+
+	/**
+	 * Gets how fast the blob sweeps.
+	 * @return the fraction of the frame crossed per frame
+	 */
+	public double getSpeed() {
+		return mSpeed;
+	}
+
+	/**
+	 * Sets how many frames the blob rests before each sweep. The default is 20. Values below 4 are ignored.
+	 * @param frames the number of frames
+	 */
+	public void setRestFrames(int frames) {
+		if(frames >= 4)
+			mRestFrames = frames;
+	}
+
+	/**
+	 * Gets how many frames the blob rests before each sweep.
+	 * @return the number of frames
+	 */
+	public int getRestFrames() {
+		return mRestFrames;
+	}
+
+	/**
+	 * Sets the number of smaller blobs that circle the middle of the frame throughout, whose motion is not
+	 * part of any gesture. The default is 0. Negative values are ignored.
+	 * @param count the number of distractors
+	 */
+	public void setDistractorCount(int count) {
+		if(count >= 0)
+			mDistractorCount = count;
+	}
+
+	/**
+	 * Gets the number of distractor blobs.
+	 * @return the number of distractors
+	 */
+	public int getDistractorCount() {
+		return mDistractorCount;
+	}
+
+	/**
+	 * Sets the standard deviation of the Gaussian noise added to every pixel. The default is 0. Negative
+	 * values are ignored.
+	 * @param noise the standard deviation in grey levels
+	 */
+	public void setNoise(double noise) {
+		if(noise >= 0.0)
+			mNoise = noise;
+	}
+
+	/**
+	 * Gets the standard deviation of the noise added to every pixel.
+	 * @return the standard deviation in grey levels
+	 */
+	public double getNoise() {
+		return mNoise;
+	}
+
+	/**
+	 * Makes the whole frame brighten and darken together, as when a light flickers or the camera adjusts
+	 * its exposure: every pixel is offset by a sine wave of the given amplitude and period. Negative
+	 * amplitudes and periods below 2 are ignored; an amplitude of 0, the default, turns it off.
+	 * @param amplitude the largest offset in grey levels
+	 * @param periodFrames the length of one cycle in frames
+	 */
+	public void setIlluminationChange(int amplitude, int periodFrames) {
+		if(amplitude < 0 || periodFrames < 2)
+			return;
+		mIlluminationAmplitude = amplitude;
+		mIlluminationPeriod = periodFrames;
+	}
+
+	/**
+	 * Gets the amplitude of the illumination changes.
+	 * @return the largest offset in grey levels, or 0 if illumination is steady
+	 */
+	public int getIlluminationAmplitude() {
+		return mIlluminationAmplitude;
+	}
+
+	/**
+	 * Sets the seed of the noise, so runs can be repeated exactly or varied. The default is 0.
+	 * @param seed the seed
+	 */
+	public void setSeed(long seed) {
+		mSeed = seed;
+	}
+
+	/**
+	 * Sets the frame rate the timestamps are spaced for. The default is 30. Values that are not positive are ignored.
+	 * @param framesPerSecond the frame rate
+	 */
+	public void setFrameRate(double framesPerSecond) {
+		if(framesPerSecond > 0.0)
+			mFrameRate = framesPerSecond;
+	}
+
+	/**
+	 * Gets the frame rate the timestamps are spaced for.
+	 * @return the frame rate
+	 */
+	public double getFrameRate() {
+		return mFrameRate;
+	}
+
+	/**
+	 * Sets how many frames are generated before the source runs out. The default, 0, never runs out.
+	 * Negative values are ignored.
+	 * @param frames the number of frames, or 0 for no limit
+	 */
+	public void setFrameLimit(long frames) {
+		if(frames >= 0)
+			mFrameLimit = frames;
+	}
+
+	/**
+	 * Gets how many frames are generated before the source runs out.
+	 * @return the number of frames, or 0 for no limit
+	 */
+	public long getFrameLimit() {
+		return mFrameLimit;
+	}
+
+	/**
+	 * Gets the ground truth: the gesture a classifier should report on each of the first frames. A gesture
+	 * ends on the first frame after its sweep, when the blob has stopped moving.
+	 * @param frameCount the number of frames to label
+	 * @return the gesture each frame ends, or {@link Direction#None}
+	 */
+	public Direction[] getLabels(int frameCount) {
+		layOutScript();
+
+		Direction[] labels = new Direction[Math.max(frameCount, 0)];
+		Arrays.fill(labels, Direction.None);
+
+		for(long cycleStart = 0; cycleStart < labels.length; cycleStart += mCycleFrames) {
+			for(int step = 0; step < mGestures.length; step++) {
+				long end = cycleStart + mStepStarts[step] + mRestFrames + mSweepFrames[step];
+				if(end < labels.length)
+					labels[(int)end] = mGestures[step];
+			}
+		}
+		return labels;
+	}
+
+	@Override
+	protected boolean openSource() {
+		layOutScript();
+
+		mFrameIndex = 0;
+		mStartTime = System.nanoTime();
+		mRandom = new Random(mSeed);
+
+		mNoiseTable = null;
+		if(mNoise > 0.0) {
+			mNoiseTable = new int[mWidth * mHeight + NOISE_TABLE_SLACK];
+			for(int i = 0; i < mNoiseTable.length; i++)
+				mNoiseTable[i] = (int)Math.round(mRandom.nextGaussian() * mNoise);
+		}
+		return true;
+	}
+
+	// works out where each sweep starts and ends and how many frames each step of the script takes
+	private void layOutScript() {
+		int steps = mGestures.length;
+		mStepStarts = new int[steps];
+		mSweepFrames = new int[steps];
+		mSweepFromX = new double[steps];
+		mSweepFromY = new double[steps];
+		mSweepToX = new double[steps];
+		mSweepToY = new double[steps];
+
+		double radius = mBlobSize * mHeight / 2.0;
+		double middleX = mWidth / 2.0;
+		double middleY = mHeight / 2.0;
+
+		int frame = 0;
+		for(int step = 0; step < steps; step++) {
+			double distance;
+			switch(mGestures[step]) {
+			case Left:
+				// in camera coordinates a left gesture moves towards the right of the frame
+				setSweep(step, radius, middleY, mWidth - radius, middleY);
+				distance = (mWidth - 2 * radius) / mWidth;
+				break;
+			case Right:
+				setSweep(step, mWidth - radius, middleY, radius, middleY);
+				distance = (mWidth - 2 * radius) / mWidth;
+				break;
+			case Up:
+				setSweep(step, middleX, mHeight - radius, middleX, radius);
+				distance = (mHeight - 2 * radius) / mHeight;
+				break;
+			default:
+				setSweep(step, middleX, radius, middleX, mHeight - radius);
+				distance = (mHeight - 2 * radius) / mHeight;
+				break;
+			}
+
+			mStepStarts[step] = frame;
+			mSweepFrames[step] = Math.max(1, (int)Math.ceil(distance / mSpeed));
+			frame += mRestFrames + mSweepFrames[step];
+		}
+		mCycleFrames = frame;
+	}
+
+	private void setSweep(int step, double fromX, double fromY, double toX, double toY) {
+		mSweepFromX[step] = fromX;
+		mSweepFromY[step] = fromY;
+		mSweepToX[step] = toX;
+		mSweepToY[step] = toY;
+	}
+
+	@Override
+	protected GreyFrame createFrame() {
+		return new GreyFrame(new byte[mWidth * mHeight], mWidth, mHeight);
+	}
+
+	@Override
+	public int getWidth() {
+		return mWidth;
+	}
+
+	@Override
+	public int getHeight() {
+		return mHeight;
+	}
+
+	@Override
+	public boolean isLive() {
+		return false;
+	}
+
+	@Override
+	public boolean hasMoreFrames() {
+		return mFrameLimit == 0 || mFrameIndex < mFrameLimit;
+	}
+
+	@Override
+	public boolean read(GreyFrame frame) {
+		long index = mFrameIndex;
+
+		// where the blob is: resting before a sweep, or part of the way through it
+		int cycleFrame = (int)(index % mCycleFrames);
+		int step = mGestures.length - 1;
+		while(mStepStarts[step] > cycleFrame)
+			step--;
+		int stepFrame = cycleFrame - mStepStarts[step];
+
+		double x, y;
+		if(stepFrame < mRestFrames) {
+			// for the first half of the rest the blob stays where the last sweep left it
+			int previous = (step + mGestures.length - 1) % mGestures.length;
+			boolean hasMoved = stepFrame >= mRestFrames / 2;
+			x = hasMoved ? mSweepFromX[step] : mSweepToX[previous];
+			y = hasMoved ? mSweepFromY[step] : mSweepToY[previous];
+		}
+		else {
+			double t = (double)(stepFrame - mRestFrames + 1) / mSweepFrames[step];
+			x = mSweepFromX[step] + (mSweepToX[step] - mSweepFromX[step]) * t;
+			y = mSweepFromY[step] + (mSweepToY[step] - mSweepFromY[step]) * t;
+		}
+
+		int offset = 0;
+		if(mIlluminationAmplitude > 0)
+			offset = (int)Math.round(mIlluminationAmplitude * Math.sin(2.0 * Math.PI * index / mIlluminationPeriod));
+		int background = clamp(BACKGROUND + offset);
+		int foreground = clamp(FOREGROUND + offset);
+
+		byte[] data = frame.getData();
+		int pixels = mWidth * mHeight;
+		Arrays.fill(data, 0, pixels, (byte)background);
+
+		double radius = mBlobSize * mHeight / 2.0;
+		drawDisc(data, x, y, radius, foreground);
+
+		for(int i = 0; i < mDistractorCount; i++) {
+			double angle = 2.0 * Math.PI * ((double)index / DISTRACTOR_PERIOD_FRAMES + (double)i / mDistractorCount);
+			drawDisc(data, mWidth / 2.0 + DISTRACTOR_ORBIT * mWidth * Math.cos(angle),
+					mHeight / 2.0 + DISTRACTOR_ORBIT * mHeight * Math.sin(angle), radius * DISTRACTOR_SIZE, foreground);
+		}
+
+		if(mNoiseTable != null) {
+			int start = mRandom.nextInt(NOISE_TABLE_SLACK);
+			for(int i = 0; i < pixels; i++)
+				data[i] = (byte)clamp((data[i] & 0xff) + mNoiseTable[start + i]);
+		}
+
+		frame.setTimestamp(mStartTime + (long)(index * 1e9 / mFrameRate));
+		mFrameIndex++;
+		return true;
+	}
+
+	private void drawDisc(byte[] data, double centerX, double centerY, double radius, int value) {
+		int top = Math.max(0, (int)Math.ceil(centerY - radius));
+		int bottom = Math.min(mHeight - 1, (int)Math.floor(centerY + radius));
+		for(int y = top; y <= bottom; y++) {
+			double dy = y - centerY;
+			double halfWidth = Math.sqrt(radius * radius - dy * dy);
+			int left = Math.max(0, (int)Math.ceil(centerX - halfWidth));
+			int right = Math.min(mWidth - 1, (int)Math.floor(centerX + halfWidth));
+			if(left <= right)
+				Arrays.fill(data, y * mWidth + left, y * mWidth + right + 1, (byte)value);
+		}
+	}
+
+	private static int clamp(int value) {
+		return (value < 0) ? 0 : (value > 255) ? 255 : value;
+	}
+}
@@ -0,0 +1,417 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import edu.washington.cs.touchfreelibrary.sensors.GestureClassifier.Direction;
+
+/**
+ * <p>Recognizes the shape of the path the motion took during a gesture: straight swipes in eight
+ * directions, circles either way round, and back-and-forth shakes. Positions are added one frame at a
+ * time into a fixed ring buffer of primitives; {@link #recognize()} then matches the path against a
+ * library of templates in the manner of the $1 recognizer: the path is resampled to a fixed number of
+ * evenly spaced points, moved to be centred on the origin and scaled evenly to a unit box, and scored
+ * by its mean distance to each template. Paths are not rotated, so direction matters, except when they
+ * are compared with circles: then, as in $1, they are turned so they start at the same angle as the
+ * template, since a circle may start anywhere.</p>
+ *
+ * <p>Nothing is allocated after construction, and recognition takes time proportional to the buffer
+ * size plus the number of templates times the number of resampled points, however long the gesture.</p>
+ *
+ * <p>Positions are in camera coordinates and gestures use the same convention as
+ * {@link GestureClassifier}: motion towards increasing x is {@link Gesture#Left}, and circles are
+ * clockwise or counterclockwise as the user, mirrored by the front camera, sees them.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class TrajectoryRecognizer {
+	/**
+	 * A trajectory shape. Straight swipes are numbered in eighth turns in the same order as
+	 * {@link Direction}, so rotating one is an addition modulo 8.
+	 */
+	public enum Gesture {
+		Left(0), DownLeft(1), Down(2), DownRight(3), Right(4), UpRight(5), Up(6), UpLeft(7),
+		CircleClockwise(-1), CircleCounterclockwise(-1), ShakeHorizontal(-1), ShakeVertical(-1), None(-1);
+
+		private static final Gesture[] LINES = { Left, DownLeft, Down, DownRight, Right, UpRight, Up, UpLeft };
+
+		private int eighthTurns;
+
+		Gesture(int eighthTurns) {
+			this.eighthTurns = eighthTurns;
+		}
+
+		/**
+		 * Test if this is a straight swipe.
+		 * @return true for the eight line directions
+		 */
+		public boolean isLine() {
+			return eighthTurns >= 0;
+		}
+
+		/**
+		 * Gets the swipe direction this gesture corresponds to.
+		 * @return the direction for the four straight left, down, right and up swipes, otherwise {@link Direction#None}
+		 */
+		public Direction toDirection() {
+			switch(this) {
+			case Left: return Direction.Left;
+			case Down: return Direction.Down;
+			case Right: return Direction.Right;
+			case Up: return Direction.Up;
+			default: return Direction.None;
+			}
+		}
+
+		/**
+		 * Rotates this gesture by quarter turns, the same way {@link Direction}s are rotated.
+		 * @param quarterTurns the number of quarter turns
+		 * @return the rotated gesture; circles are unchanged
+		 */
+		public Gesture rotate(int quarterTurns) {
+			if(isLine())
+				return LINES[(eighthTurns + 2 * quarterTurns) & 7];
+			if((quarterTurns & 1) == 1) {
+				if(this == ShakeHorizontal)
+					return ShakeVertical;
+				if(this == ShakeVertical)
+					return ShakeHorizontal;
+			}
+			return this;
+		}
+	}
+
+	/** The number of positions the ring buffer holds; older ones are overwritten. */
+	public static final int CAPACITY = 64;
+
+	/** The number of evenly spaced points paths and templates are resampled to. */
+	public static final int RESAMPLED_POINTS = 32;
+
+	private static final double DEFAULT_MIN_SCORE = 0.8;
+
+	// a unit box's half diagonal: the mean distance at which the score would reach 0
+	private static final double HALF_DIAGONAL = 0.5 * Math.sqrt(2.0);
+
+	// circle templates are stored going this far round, since users seldom close a circle exactly
+	private static final double[] CIRCLE_TURNS = { 1.0, 0.85, 0.7 };
+
+	// the ring buffer
+	private final double[] mXs;
+	private final double[] mYs;
+	private final long[] mTimes;
+	private int mHead;
+	private int mCount;
+
+	// working space for recognize()
+	private final double[] mPathX;
+	private final double[] mPathY;
+	private final double[] mPointsX;
+	private final double[] mPointsY;
+	private final double[] mTurnedX;
+	private final double[] mTurnedY;
+
+	// the library: every template resampled and normalized, and the gesture each one stands for
+	private final double[][] mTemplatesX;
+	private final double[][] mTemplatesY;
+	private final Gesture[] mTemplateGestures;
+
+	private double mMinExtentX;
+	private double mMinExtentY;
+	private double mMinScore;
+	private double mScore;
+
+	/**
+	 * Creates a recognizer for frames of the given size.
+	 * @param width the width of the frames in pixels
+	 * @param height the height of the frames in pixels
+	 */
+	public TrajectoryRecognizer(double width, double height) {
+		mXs = new double[CAPACITY];
+		mYs = new double[CAPACITY];
+		mTimes = new long[CAPACITY];
+
+		mPathX = new double[CAPACITY];
+		mPathY = new double[CAPACITY];
+		mPointsX = new double[RESAMPLED_POINTS];
+		mPointsY = new double[RESAMPLED_POINTS];
+		mTurnedX = new double[RESAMPLED_POINTS];
+		mTurnedY = new double[RESAMPLED_POINTS];
+
+		int templateCount = 8 + 2 * CIRCLE_TURNS.length + 4;
+		mTemplatesX = new double[templateCount][RESAMPLED_POINTS];
+		mTemplatesY = new double[templateCount][RESAMPLED_POINTS];
+		mTemplateGestures = new Gesture[templateCount];
+
+		int t = 0;
+		for(int i = 0; i < 8; i++)
+			addTemplate(t++, Gesture.LINES[i], 0.0, 1.0);
+		for(double turns : CIRCLE_TURNS) {
+			addTemplate(t++, Gesture.CircleClockwise, 0.0, turns);
+			addTemplate(t++, Gesture.CircleCounterclockwise, 0.0, turns);
+		}
+		addTemplate(t++, Gesture.ShakeHorizontal, 0.0, 1.0);
+		addTemplate(t++, Gesture.ShakeHorizontal, Math.PI, 1.0);
+		addTemplate(t++, Gesture.ShakeVertical, 0.0, 1.0);
+		addTemplate(t++, Gesture.ShakeVertical, Math.PI, 1.0);
+
+		mMinScore = DEFAULT_MIN_SCORE;
+		setFrameSize(width, height);
+		reset();
+	}
+
+	private void addTemplate(int index, Gesture gesture, double phase, double end) {
+		double[] point = new double[2];
+		int n = CAPACITY;
+		for(int i = 0; i < n; i++) {
+			shape(gesture, phase, end * i / (n - 1), point);
+			mPathX[i] = point[0];
+			mPathY[i] = point[1];
+		}
+		resample(mPathX, mPathY, n, mTemplatesX[index], mTemplatesY[index]);
+		normalize(mTemplatesX[index], mTemplatesY[index]);
+		mTemplateGestures[index] = gesture;
+	}
+
+	/**
+	 * Gets a point on the ideal path of a gesture, in camera coordinates.
+	 * @param gesture the gesture
+	 * @param phase where circles start, as an angle, and which way shakes go first: 0 or pi
+	 * @param t how far along the path, from 0 to 1
+	 * @param point receives x and y
+	 */
+	static void shape(Gesture gesture, double phase, double t, double[] point) {
+		if(gesture.isLine()) {
+			double angle = Math.PI / 4.0 * gesture.eighthTurns;
+			point[0] = t * Math.cos(angle);
+			point[1] = t * Math.sin(angle);
+		}
+		else if(gesture == Gesture.CircleClockwise || gesture == Gesture.CircleCounterclockwise) {
+			// the front camera mirrors the image, so a circle the user draws clockwise turns the other way in it
+			double turn = (gesture == Gesture.CircleClockwise) ? -2.0 * Math.PI : 2.0 * Math.PI;
+			point[0] = Math.cos(phase + turn * t);
+			point[1] = Math.sin(phase + turn * t);
+		}
+		else {
+			// there and back twice
+			double offset = Math.sin(phase + 4.0 * Math.PI * t);
+			point[0] = (gesture == Gesture.ShakeHorizontal) ? offset : 0.0;
+			point[1] = (gesture == Gesture.ShakeVertical) ? offset : 0.0;
+		}
+	}
+
+	/**
+	 * Changes the frame size the minimum gesture size is based on: the path must span a fifth of the width
+	 * or a sixth of the height, as a {@link GestureClassifier} swipe must.
+	 * @param width the width of the frames in pixels
+	 * @param height the height of the frames in pixels
+	 */
+	public void setFrameSize(double width, double height) {
+		mMinExtentX = width / 5;
+		mMinExtentY = height / 6;
+	}
+
+	/**
+	 * Sets the lowest score a match may have to be recognized. The default is 0.8. Values outside [0, 1] are ignored.
+	 * @param score the minimum score
+	 */
+	public void setMinScore(double score) {
+		if(score >= 0.0 && score <= 1.0)
+			mMinScore = score;
+	}
+
+	/**
+	 * Gets the lowest score a match may have to be recognized.
+	 * @return the minimum score
+	 */
+	public double getMinScore() {
+		return mMinScore;
+	}
+
+	/**
+	 * Forgets every position added.
+	 */
+	public void reset() {
+		mHead = 0;
+		mCount = 0;
+		mScore = 0.0;
+	}
+
+	/**
+	 * Adds the next position of the motion. Once the buffer is full the oldest position is overwritten.
+	 * @param x the x position in pixels
+	 * @param y the y position in pixels
+	 * @param time the time of the frame, on any monotonic clock
+	 */
+	public void add(double x, double y, long time) {
+		mXs[mHead] = x;
+		mYs[mHead] = y;
+		mTimes[mHead] = time;
+		mHead = (mHead + 1) % CAPACITY;
+		if(mCount < CAPACITY)
+			mCount++;
+	}
+
+	/**
+	 * Gets the number of positions held.
+	 * @return the number of positions, at most {@link #CAPACITY}
+	 */
+	public int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Gets the time between the oldest and newest positions held.
+	 * @return the duration, in the units passed to {@link #add}
+	 */
+	public long getDuration() {
+		if(mCount == 0)
+			return 0;
+		int oldest = (mHead - mCount + CAPACITY) % CAPACITY;
+		int newest = (mHead - 1 + CAPACITY) % CAPACITY;
+		return mTimes[newest] - mTimes[oldest];
+	}
+
+	/**
+	 * Gets the score of the last call to {@link #recognize()}.
+	 * @return from 0 to 1, where 1 is a perfect match; 0 if nothing was recognized
+	 */
+	public double getScore() {
+		return mScore;
+	}
+
+	/**
+	 * Matches the positions added since the last reset against the templates.
+	 * @return the best match, or {@link Gesture#None} if the path is too short or too small, or no template
+	 * scores at least the minimum
+	 */
+	public Gesture recognize() {
+		mScore = 0.0;
+		if(mCount < 2)
+			return Gesture.None;
+
+		// unroll the ring buffer, oldest first, and check the path is big enough to be a gesture
+		int start = (mHead - mCount + CAPACITY) % CAPACITY;
+		double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for(int i = 0; i < mCount; i++) {
+			int j = (start + i) % CAPACITY;
+			mPathX[i] = mXs[j];
+			mPathY[i] = mYs[j];
+			minX = Math.min(minX, mXs[j]);
+			maxX = Math.max(maxX, mXs[j]);
+			minY = Math.min(minY, mYs[j]);
+			maxY = Math.max(maxY, mYs[j]);
+		}
+		if(maxX - minX < mMinExtentX && maxY - minY < mMinExtentY)
+			return Gesture.None;
+
+		if(!resample(mPathX, mPathY, mCount, mPointsX, mPointsY))
+			return Gesture.None;
+		normalize(mPointsX, mPointsY);
+
+		// a copy turned so it starts at angle 0 about its centroid, where the circle templates start
+		double angle = Math.atan2(mPointsY[0], mPointsX[0]);
+		double cos = Math.cos(-angle), sin = Math.sin(-angle);
+		for(int i = 0; i < RESAMPLED_POINTS; i++) {
+			mTurnedX[i] = mPointsX[i] * cos - mPointsY[i] * sin;
+			mTurnedY[i] = mPointsX[i] * sin + mPointsY[i] * cos;
+		}
+
+		double best = Double.MAX_VALUE;
+		Gesture bestGesture = Gesture.None;
+		for(int t = 0; t < mTemplateGestures.length; t++) {
+			Gesture gesture = mTemplateGestures[t];
+			boolean isCircle = (gesture == Gesture.CircleClockwise || gesture == Gesture.CircleCounterclockwise);
+			double[] px = isCircle ? mTurnedX : mPointsX;
+			double[] py = isCircle ? mTurnedY : mPointsY;
+			double[] tx = mTemplatesX[t];
+			double[] ty = mTemplatesY[t];
+			double sum = 0.0;
+			for(int i = 0; i < RESAMPLED_POINTS && sum < best * RESAMPLED_POINTS; i++) {
+				double dx = px[i] - tx[i];
+				double dy = py[i] - ty[i];
+				sum += Math.sqrt(dx * dx + dy * dy);
+			}
+			double distance = sum / RESAMPLED_POINTS;
+			if(distance < best) {
+				best = distance;
+				bestGesture = gesture;
+			}
+		}
+
+		double score = 1.0 - best / HALF_DIAGONAL;
+		if(score < mMinScore)
+			return Gesture.None;
+
+		mScore = score;
+		return bestGesture;
+	}
+
+	// resamples a path of n points to evenly spaced points along its length; false if it has no length
+	private static boolean resample(double[] xs, double[] ys, int n, double[] outX, double[] outY) {
+		int points = outX.length;
+
+		double length = 0.0;
+		for(int i = 1; i < n; i++)
+			length += Math.hypot(xs[i] - xs[i - 1], ys[i] - ys[i - 1]);
+		if(length <= 0.0)
+			return false;
+
+		double interval = length / (points - 1);
+		double travelled = 0.0;
+		double px = xs[0], py = ys[0];
+		outX[0] = px;
+		outY[0] = py;
+		int count = 1;
+
+		for(int i = 1; i < n && count < points; i++) {
+			double qx = xs[i], qy = ys[i];
+			double d = Math.hypot(qx - px, qy - py);
+
+			// emit every point that falls on this segment, walking p along it
+			while(d > 0.0 && travelled + d >= interval && count < points) {
+				double t = (interval - travelled) / d;
+				px += t * (qx - px);
+				py += t * (qy - py);
+				outX[count] = px;
+				outY[count] = py;
+				count++;
+				d = Math.hypot(qx - px, qy - py);
+				travelled = 0.0;
+			}
+			travelled += d;
+			px = qx;
+			py = qy;
+		}
+
+		// rounding can leave the last point or two short
+		for(; count < points; count++) {
+			outX[count] = xs[n - 1];
+			outY[count] = ys[n - 1];
+		}
+		return true;
+	}
+
+	// moves the points' centroid to the origin and scales them evenly so they fit a unit box
+	private static void normalize(double[] xs, double[] ys) {
+		int n = xs.length;
+		double cx = 0.0, cy = 0.0;
+		double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for(int i = 0; i < n; i++) {
+			cx += xs[i];
+			cy += ys[i];
+			minX = Math.min(minX, xs[i]);
+			maxX = Math.max(maxX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		cx /= n;
+		cy /= n;
+
+		// scaling both axes alike keeps straight swipes straight
+		double size = Math.max(maxX - minX, maxY - minY);
+		double scale = (size > 0.0) ? 1.0 / size : 1.0;
+		for(int i = 0; i < n; i++) {
+			xs[i] = (xs[i] - cx) * scale;
+			ys[i] = (ys[i] - cy) * scale;
+		}
+	}
+}
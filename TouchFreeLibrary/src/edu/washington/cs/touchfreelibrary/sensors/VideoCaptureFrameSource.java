@@ -0,0 +1,121 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.highgui.Highgui;
+import org.opencv.highgui.VideoCapture;
+
+/**
+ * <p>Captures grey frames from a camera with OpenCV's <code>VideoCapture</code>, into <code>Mat</code>
+ * frames. This is the capture path {@link CameraGestureSensor} uses unless told otherwise.</p>
+ *
+ * @author Leeran Raphaely <leeran.raphaely@gmail.com>
+ */
+public class VideoCaptureFrameSource extends PullFrameSource {
+	// a failing grab() is retried after a delay that doubles up to the maximum
+	private static final long MIN_GRAB_RETRY_MILLISECONDS = 5;
+	private static final long MAX_GRAB_RETRY_MILLISECONDS = 200;
+
+	private int mCameraId;
+	private VideoCapture mCamera;
+	private Size mPreviewSize;
+	private long mGrabRetryDelay;
+
+	/**
+	 * Creates a source for a camera, which is opened by {@link #open(int)}.
+	 * @param cameraId the id of the camera
+	 */
+	public VideoCaptureFrameSource(int cameraId) {
+		mCameraId = cameraId;
+		mPreviewSize = new Size(0, 0);
+	}
+
+	@Override
+	protected boolean openSource() {
+		mCamera = new VideoCapture(mCameraId);
+
+		if(!mCamera.isOpened()) {
+			// the camera was not available
+			VideoCapture camera = mCamera;
+			mCamera = null; // Make it null before releasing...
+			camera.release();
+
+			return false;
+		}
+
+		List<Size> previewSizes = mCamera.getSupportedPreviewSizes();
+
+		double smallestPreviewSize = 640 * 480; // We should be smaller than this...
+
+		double smallestWidth = 320; // Let's not get smaller than this...
+
+		// if nothing fits, the first size is better than none
+		if(!previewSizes.isEmpty())
+			mPreviewSize = previewSizes.get(0);
+		for (Size previewSize : previewSizes) {
+			if (previewSize.area() < smallestPreviewSize && previewSize.width >= smallestWidth) {
+				mPreviewSize = previewSize;
+			}
+		}
+		mCamera.set(Highgui.CV_CAP_PROP_FRAME_WIDTH, mPreviewSize.width);
+		mCamera.set(Highgui.CV_CAP_PROP_FRAME_HEIGHT, mPreviewSize.height);
+
+		mGrabRetryDelay = 0;
+		return true;
+	}
+
+	@Override
+	protected GreyFrame createFrame() {
+		return new GreyFrame(new Mat(getHeight(), getWidth(), CvType.CV_8U));
+	}
+
+	@Override
+	public int getWidth() {
+		return (int)mPreviewSize.width;
+	}
+
+	@Override
+	public int getHeight() {
+		return (int)mPreviewSize.height;
+	}
+
+	@Override
+	public boolean isLive() {
+		return true;
+	}
+
+	@Override
+	public boolean read(GreyFrame frame) {
+		if(mCamera == null || !mCamera.grab()) {
+			// the camera is not delivering frames; retry less and less often rather than spin
+			mGrabRetryDelay = (mGrabRetryDelay == 0) ? MIN_GRAB_RETRY_MILLISECONDS
+					: Math.min(mGrabRetryDelay * 2, MAX_GRAB_RETRY_MILLISECONDS);
+			try {
+				Thread.sleep(mGrabRetryDelay);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return false;
+		}
+		mGrabRetryDelay = 0;
+
+		frame.setTimestamp(System.nanoTime());
+		mCamera.retrieve(frame.getMat(), Highgui.CV_CAP_ANDROID_GREY_FRAME);
+		frame.onMatChanged();
+		return true;
+	}
+
+	@Override
+	public void close() {
+		if (mCamera != null) {
+			VideoCapture camera = mCamera;
+			mCamera = null; // Make it null before releasing...
+			camera.release();
+		}
+		super.close();
+	}
+}
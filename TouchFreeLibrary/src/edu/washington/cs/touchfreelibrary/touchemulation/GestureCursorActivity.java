@@ -76,6 +76,7 @@ public abstract class GestureCursorActivity extends Activity {
 		}
 		
 		mGestureSensor.addGestureListener(mCursor);
+		mGestureSensor.addMotionListener(mCursor);
 		mClickSensor.addClickListener(mCursor);
 		
 		OpenCVLoader.initAsync(OpenCVLoader.OPENCV_VERSION_2_4_3, this, mLoaderCallback);
@@ -91,13 +92,15 @@ public abstract class GestureCursorActivity extends Activity {
 		if(!mOpenCVInitiated)
 			return;
 		
+		// losing focus to a dialog or notification shade is usually brief, so the camera is kept warm;
+		// the activity pausing still stops the sensor for good
 		if(hasFocus) {
-			mGestureSensor.start();
+			mGestureSensor.resume();
 			if(mGestureSensor != mClickSensor)
 				mClickSensor.start();
 		}
 		else {
-			mGestureSensor.stop();
+			mGestureSensor.pause();
 			if(mGestureSensor != mClickSensor)
 				mClickSensor.stop();
 		}
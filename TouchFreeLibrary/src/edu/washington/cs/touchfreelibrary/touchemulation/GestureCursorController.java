@@ -15,6 +15,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import edu.washington.cs.touchfreelibrary.sensors.ClickSensor;
 import edu.washington.cs.touchfreelibrary.sensors.CameraGestureSensor;
+import edu.washington.cs.touchfreelibrary.sensors.MotionSample;
 
 /**
  * <p>Class <code>GestureCursorController</code> can be used to create the visual and functionality of a
@@ -25,10 +26,17 @@ import edu.washington.cs.touchfreelibrary.sensors.CameraGestureSensor;
  * a parent object and drawn on the screen somewhere. You can use {@link #attachToActivity(Activity)} to
  * easily attach this to an <code>Activity</code>. Clicks will be registered to whatever is below the view.</p>
  * 
+ * <p>By default each gesture nudges the cursor's speed up or down by one step. In analog mode the cursor
+ * instead follows the hand from frame to frame, and stops on the first frame without enough motion or when
+ * no frame has arrived for 150 milliseconds; for that it must also be added as a
+ * {@link CameraGestureSensor.MotionListener}. Whether targets are reached sooner in either mode has not
+ * been measured; the cursor test of the user testing app records which mode it ran in.</p>
+ * 
  * @author Leeran Raphaely <leeran.raphaely@gmail.com>
  *
  */
-public class GestureCursorController implements CameraGestureSensor.Listener, ClickSensor.Listener {
+public class GestureCursorController implements CameraGestureSensor.Listener, CameraGestureSensor.MotionListener,
+		ClickSensor.Listener {
 	protected static final String TAG = "GestureCursorController";
 	
 	private static final int DEFAULT_CURSOR_RADIUS = 20;
@@ -36,12 +44,30 @@ public class GestureCursorController implements CameraGestureSensor.Listener, Cl
 	private static final int MILLISECONDS_PER_FRAME = 7;
 	private static final int NUM_CLICK_FRAMES = 50;
 	
+	// in analog mode, moving the hand across the whole camera frame moves the cursor this many screens
+	private static final double DEFAULT_ANALOG_GAIN = 2.0;
+	
+	// each new analog velocity is averaged with the last, to steady the cursor against jitter in the hand's position
+	private static final double ANALOG_SMOOTHING = 0.5;
+	
+	// the analog cursor stops if no motion arrives for this long, as when the sensor is paused
+	private static final int ANALOG_TIMEOUT_FRAMES = 150 / MILLISECONDS_PER_FRAME;
+	
 	private GestureCursorView mView;
 	
 	private Point mSize;
 	private Point mPosition;
 	private Point mVelocity;
 	
+	// the analog velocity in pixels per animation frame, and the fraction of a pixel not yet moved
+	private boolean mIsAnalogModeEnabled;
+	private double mAnalogGain;
+	private double mAnalogVelocityX;
+	private double mAnalogVelocityY;
+	private double mAnalogRemainderX;
+	private double mAnalogRemainderY;
+	private int mFramesSinceMotion;
+	
 	private int mCursorRadius;
 	
 	private boolean mIsRunning;
@@ -62,9 +88,13 @@ public class GestureCursorController implements CameraGestureSensor.Listener, Cl
 		@Override
 		public void run() {
 			synchronized(GestureCursorController.this) {
-				if(mVelocity.x != 0 || mVelocity.y != 0 || mClickCounter != 0)
+				if(mVelocity.x != 0 || mVelocity.y != 0 || mClickCounter != 0
+						|| mAnalogVelocityX != 0.0 || mAnalogVelocityY != 0.0)
 					mView.postInvalidate();
 				
+				if(++mFramesSinceMotion > ANALOG_TIMEOUT_FRAMES)
+					stopAnalog();
+				
 				if(mSize.x == 0 || mSize.y == 0) {
 					mPosition.x = mPosition.y = 0;
 					mVelocity.x = mVelocity.y = 0;
@@ -89,6 +119,15 @@ public class GestureCursorController implements CameraGestureSensor.Listener, Cl
 					
 					mPosition.x += mVelocity.x;
 					mPosition.y += mVelocity.y;
+					
+					mAnalogRemainderX += mAnalogVelocityX;
+					mAnalogRemainderY += mAnalogVelocityY;
+					int dx = (int)mAnalogRemainderX;
+					int dy = (int)mAnalogRemainderY;
+					mAnalogRemainderX -= dx;
+					mAnalogRemainderY -= dy;
+					mPosition.x += dx;
+					mPosition.y += dy;
 				}
 				
 				if(mClickCounter > 0) {
@@ -125,6 +164,10 @@ public class GestureCursorController implements CameraGestureSensor.Listener, Cl
         mDisableInjection = false;
         
         mMinimumGestureLength = 0;
+        
+        mIsAnalogModeEnabled = false;
+        mAnalogGain = DEFAULT_ANALOG_GAIN;
+        stopAnalog();
     }
     
     /**
@@ -140,6 +183,7 @@ public class GestureCursorController implements CameraGestureSensor.Listener, Cl
 	        mPosition = new Point(mSize.x / 2, mSize.y / 2);
 	        mVelocity = new Point(0, 0);
 	        mClickCounter = 0;
+	        stopAnalog();
     	}
     }
 
@@ -208,6 +252,51 @@ public class GestureCursorController implements CameraGestureSensor.Listener, Cl
 		mMinimumGestureLength = gestureLength;
 	}
 	
+	/**
+	 * When enabled, the cursor moves with the hand frame by frame, at the hand's velocity times the analog
+	 * gain, and the four gesture callbacks are ignored. The controller must also be added to the sensor as a
+	 * {@link CameraGestureSensor.MotionListener}. The default is disabled.
+	 * @param enabled Set whether analog mode is enabled
+	 */
+	public synchronized void enableAnalogMode(boolean enabled) {
+		mIsAnalogModeEnabled = enabled;
+		mVelocity.x = mVelocity.y = 0;
+		stopAnalog();
+	}
+	
+	/**
+	 * Test if analog mode is enabled.
+	 * @return true if the cursor follows the hand, false if gestures change its speed.
+	 */
+	public boolean isAnalogModeEnabled() {
+		return mIsAnalogModeEnabled;
+	}
+	
+	/**
+	 * Sets how far the cursor moves in analog mode: the number of screen widths or heights it moves while
+	 * the hand crosses the camera's whole view. The default is 2. Values of 0 or less are ignored.
+	 * @param gain the analog gain
+	 */
+	public void setAnalogGain(double gain) {
+		if(gain > 0.0)
+			mAnalogGain = gain;
+	}
+	
+	/**
+	 * Gets the analog gain set with {@link #setAnalogGain(double)}.
+	 * @return the analog gain
+	 */
+	public double getAnalogGain() {
+		return mAnalogGain;
+	}
+	
+	// brings the analog cursor to a halt
+	private void stopAnalog() {
+		mAnalogVelocityX = mAnalogVelocityY = 0.0;
+		mAnalogRemainderX = mAnalogRemainderY = 0.0;
+		mFramesSinceMotion = 0;
+	}
+	
 	/**
 	 * Set the view stored in GestureCursorController to draw on top of a given <code>Activity</code>
 	 * @param activity the <code>Activity</code> that will get this <code>GestureCursorController</code> attached
@@ -308,7 +397,7 @@ public class GestureCursorController implements CameraGestureSensor.Listener, Cl
 
 	@Override
 	public synchronized void onGestureUp(CameraGestureSensor caller, long gestureLength) {
-		if(mClickCounter == 0 && gestureLength > mMinimumGestureLength) {
+		if(!mIsAnalogModeEnabled && mClickCounter == 0 && gestureLength > mMinimumGestureLength) {
 			mVelocity.x = 0;
 			if(mVelocity.y > 0)
 				mVelocity.y = 0;
@@ -319,7 +408,7 @@ public class GestureCursorController implements CameraGestureSensor.Listener, Cl
 
 	@Override
 	public synchronized void onGestureDown(CameraGestureSensor caller, long gestureLength) {
-		if(mClickCounter == 0 && gestureLength > mMinimumGestureLength) {
+		if(!mIsAnalogModeEnabled && mClickCounter == 0 && gestureLength > mMinimumGestureLength) {
 			mVelocity.x = 0;
 			if(mVelocity.y < 0)
 				mVelocity.y = 0;
@@ -330,7 +419,7 @@ public class GestureCursorController implements CameraGestureSensor.Listener, Cl
 
 	@Override
 	public synchronized void onGestureLeft(CameraGestureSensor caller, long gestureLength) {
-		if(mClickCounter == 0 && gestureLength > mMinimumGestureLength) {
+		if(!mIsAnalogModeEnabled && mClickCounter == 0 && gestureLength > mMinimumGestureLength) {
 			mVelocity.y = 0;
 			if(mVelocity.x > 0)
 				mVelocity.x = 0;
@@ -341,7 +430,7 @@ public class GestureCursorController implements CameraGestureSensor.Listener, Cl
 
 	@Override
 	public synchronized void onGestureRight(CameraGestureSensor caller, long gestureLength) {
-		if(mClickCounter == 0 && gestureLength > mMinimumGestureLength) {
+		if(!mIsAnalogModeEnabled && mClickCounter == 0 && gestureLength > mMinimumGestureLength) {
 			mVelocity.y = 0;
 			if(mVelocity.x < 0)
 				mVelocity.x = 0;
@@ -350,9 +439,31 @@ public class GestureCursorController implements CameraGestureSensor.Listener, Cl
 		}
 	}
 
+	@Override
+	public synchronized void onMotion(CameraGestureSensor caller, MotionSample motion) {
+		if(!mIsAnalogModeEnabled)
+			return;
+		mFramesSinceMotion = 0;
+		
+		// hold still while a click is shown, and stop the moment the hand does
+		if(mClickCounter != 0 || !motion.isInMotion()) {
+			stopAnalog();
+			return;
+		}
+		
+		double perFrame = mAnalogGain * MILLISECONDS_PER_FRAME / 1000.0;
+		mAnalogVelocityX = ANALOG_SMOOTHING * mAnalogVelocityX
+				+ (1.0 - ANALOG_SMOOTHING) * motion.getVelocityX() * mSize.x * perFrame;
+		mAnalogVelocityY = ANALOG_SMOOTHING * mAnalogVelocityY
+				+ (1.0 - ANALOG_SMOOTHING) * motion.getVelocityY() * mSize.y * perFrame;
+	}
+
 	@Override
 	public void onSensorClick(ClickSensor caller) {
 		mVelocity.x = mVelocity.y = 0;
+		synchronized(this) {
+			stopAnalog();
+		}
 		
 		if(caller != mStopClickSensor) {
 			if(mDisableInjection)